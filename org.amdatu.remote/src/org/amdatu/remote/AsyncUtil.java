@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generic utilities for asynchronous remote invocations, that is, invocations of methods that
+ * return a {@link CompletableFuture} or {@link CompletionStage}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class AsyncUtil {
+
+    private static final long THREAD_KEEP_ALIVE = 60L;
+
+    /**
+     * Runs tasks on the thread that submits them, for clients that have no executor of their own.
+     */
+    public static final Executor CALLER_RUNS = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    /**
+     * Determines whether the given method is to be invoked asynchronously.
+     *
+     * @param method the method to check, cannot be <code>null</code>.
+     * @return <code>true</code> if the method returns a {@link CompletableFuture} or {@link CompletionStage},
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isAsync(Method method) {
+        return isAsyncType(method.getReturnType());
+    }
+
+    /**
+     * Determines whether the given type is an asynchronous result type.
+     *
+     * @param type the type to check, cannot be <code>null</code>.
+     * @return <code>true</code> if the type is a {@link CompletableFuture} or {@link CompletionStage},
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isAsyncType(Type type) {
+        if (type instanceof ParameterizedType) {
+            type = ((ParameterizedType) type).getRawType();
+        }
+        return type == CompletableFuture.class || type == CompletionStage.class;
+    }
+
+    /**
+     * Returns the type of the value that is actually transferred as result of the given method. For
+     * asynchronous methods this is the type parameter of the future, for all other methods it is the
+     * generic return type itself.
+     *
+     * @param method the method to get the result type for, cannot be <code>null</code>.
+     * @return the result type, never <code>null</code>.
+     */
+    public static Type getResultType(Method method) {
+        Type type = method.getGenericReturnType();
+        if (!isAsync(method)) {
+            return type;
+        }
+        if (type instanceof ParameterizedType) {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
+
+    /**
+     * Waits for the given invocation result to complete in case it is a {@link CompletionStage}.
+     *
+     * @param result the result of a local service invocation, can be <code>null</code>.
+     * @return the (completed) result, can be <code>null</code>.
+     * @throws InvocationTargetException in case the result completed exceptionally, or waiting for it was
+     *         interrupted.
+     */
+    public static Object awaitResult(Object result) throws InvocationTargetException {
+        if (!(result instanceof CompletionStage)) {
+            return result;
+        }
+        try {
+            return ((CompletionStage<?>) result).toCompletableFuture().get();
+        }
+        catch (ExecutionException e) {
+            throw new InvocationTargetException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Creates an executor for asynchronous remote invocations. The executor runs at most the given number
+     * of invocations concurrently, queueing the remainder, and lets its threads die when idle.
+     *
+     * @param name the name prefix of the executor threads, cannot be <code>null</code>;
+     * @param threads the maximum number of threads.
+     * @return a new executor, never <code>null</code>.
+     */
+    public static ExecutorService createExecutor(final String name, int threads) {
+        return createExecutor(name, threads, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Creates an executor like {@link #createExecutor(String, int)}, which queues at most the given number of
+     * tasks. Tasks submitted while the queue is full are rejected with a {@link RejectedExecutionException}.
+     *
+     * @param name the name prefix of the executor threads, cannot be <code>null</code>;
+     * @param threads the maximum number of threads;
+     * @param queueSize the maximum number of queued tasks.
+     * @return a new executor, never <code>null</code>.
+     */
+    public static ExecutorService createExecutor(String name, int threads, int queueSize) {
+        return createExecutor(name, threads, new ArrayBlockingQueue<Runnable>(queueSize));
+    }
+
+    private static ExecutorService createExecutor(final String name, int threads, BlockingQueue<Runnable> queue) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+            queue, new ThreadFactory() {
+                private final AtomicInteger m_count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name + "-" + m_count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Wraps the given task so that it runs with the access control context of the caller, rather than that of the
+     * executor thread that eventually runs it. Without a security manager, the task is returned as is.
+     *
+     * @param task the task to wrap, cannot be <code>null</code>.
+     * @return the task to hand to an executor, never <code>null</code>.
+     */
+    public static Runnable withCallerContext(final Runnable task) {
+        if (System.getSecurityManager() == null) {
+            return task;
+        }
+        final AccessControlContext context = AccessController.getContext();
+        return new Runnable() {
+            @Override
+            public void run() {
+                AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                    @Override
+                    public Void run() {
+                        task.run();
+                        return null;
+                    }
+                }, context);
+            }
+        };
+    }
+}
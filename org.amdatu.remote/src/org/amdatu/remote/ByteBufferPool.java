@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized direct byte buffers for socket I/O.
+ * <p>
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector, while the JDK copies heap
+ * buffers into a (temporary) direct buffer on every channel read or write. Pooling them avoids both costs. Requests
+ * for buffers larger than the pooled size are served with unpooled heap buffers.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class ByteBufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> m_buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger m_pooled = new AtomicInteger();
+    private final int m_bufferSize;
+    private final int m_maxPooled;
+
+    /**
+     * @param bufferSize the capacity of the pooled buffers in bytes;
+     * @param maxPooled the maximum number of idle buffers kept in this pool.
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        m_bufferSize = bufferSize;
+        m_maxPooled = maxPooled;
+    }
+
+    /**
+     * @return the capacity of the pooled buffers in bytes.
+     */
+    public int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    /**
+     * Acquires a cleared buffer of at least the given capacity. The buffer should be returned through
+     * {@link #release(ByteBuffer)} once no longer used.
+     *
+     * @param capacity the minimum capacity of the buffer in bytes.
+     * @return a pooled direct buffer, or a new heap buffer if the capacity exceeds the size of the pooled buffers,
+     *         never <code>null</code>.
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > m_bufferSize) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer buffer = m_buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(m_bufferSize);
+        }
+        m_pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to this pool. Buffers that were not acquired from this pool are ignored.
+     *
+     * @param buffer the buffer to return, can be <code>null</code>. Must no longer be used by the caller.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != m_bufferSize) {
+            return;
+        }
+        if (m_pooled.incrementAndGet() > m_maxPooled) {
+            m_pooled.decrementAndGet();
+            return;
+        }
+        m_buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker guarding the invocations of a single remote endpoint.
+ * <p>
+ * While <em>closed</em>, all invocations are allowed and their outcomes are recorded in a rolling window. Once the
+ * rate of failed invocations in the window reaches the threshold, the circuit <em>opens</em> and invocations fail
+ * fast, rather than each of them waiting for a connect or read timeout. After the open time has passed, the circuit
+ * turns <em>half-open</em> and lets a single probe invocation through: if it succeeds the circuit closes again,
+ * otherwise it reopens.
+ * <p>
+ * All state is kept in atomic variables, so the breaker can be used by concurrent invocations without locking.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * The EventAdmin event property holding the name of the new state when a state change is reported.
+     */
+    public static final String EVENT_STATE_PROPERTY = "circuit.state";
+
+    private static final int BUCKETS = 10;
+
+    private final int m_failureThreshold;
+    private final int m_minimumCalls;
+    private final long m_bucketNanos;
+    private final long m_openNanos;
+
+    private final AtomicReference<State> m_state = new AtomicReference<State>(State.CLOSED);
+    private final AtomicLong m_stateChanged = new AtomicLong(System.nanoTime());
+    private final AtomicLongArray m_bucketEpochs = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray m_bucketCounts = new AtomicLongArray(BUCKETS * 2);
+
+    /**
+     * Creates a new, closed, circuit breaker.
+     *
+     * @param failureThreshold the percentage of failed invocations in the window that opens the circuit, 0 to never
+     *        open the circuit;
+     * @param minimumCalls the minimum number of invocations in the window before the circuit can open;
+     * @param window the length of the rolling window in milliseconds;
+     * @param openTime the time in milliseconds the circuit stays open before a probe invocation is let through.
+     */
+    public CircuitBreaker(int failureThreshold, int minimumCalls, long window, long openTime) {
+        m_failureThreshold = failureThreshold;
+        m_minimumCalls = Math.max(1, minimumCalls);
+        m_bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(window) / BUCKETS);
+        m_openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openTime));
+        for (int i = 0; i < BUCKETS; i++) {
+            m_bucketEpochs.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * @return the current state of this circuit breaker, never <code>null</code>.
+     */
+    public State getState() {
+        return m_state.get();
+    }
+
+    /**
+     * Determines whether an invocation may proceed. Every invocation that is allowed to proceed must be followed by a
+     * call to either {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @return <code>true</code> if the invocation may proceed, <code>false</code> if it must fail fast.
+     */
+    public boolean allowInvocation() {
+        State state = m_state.get();
+        if (state == State.CLOSED) {
+            return true;
+        }
+        long changed = m_stateChanged.get();
+        if (System.nanoTime() - changed < m_openNanos) {
+            return false;
+        }
+        // Open long enough, or the probe of the half-open circuit never reported back, so let this one probe...
+        if (m_stateChanged.compareAndSet(changed, System.nanoTime())) {
+            m_state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a successful invocation, which closes a half-open circuit.
+     *
+     * @return the new state if it changed, or <code>null</code> if it did not change.
+     */
+    public State onSuccess() {
+        record(false);
+        if (m_state.get() != State.CLOSED && transition(State.HALF_OPEN, State.CLOSED)) {
+            resetWindow();
+            return State.CLOSED;
+        }
+        return null;
+    }
+
+    /**
+     * Records a failed invocation, which reopens a half-open circuit, or opens a closed circuit in case the failure
+     * threshold is reached.
+     *
+     * @return the new state if it changed, or <code>null</code> if it did not change.
+     */
+    public State onFailure() {
+        record(true);
+        State state = m_state.get();
+        if (state == State.HALF_OPEN && transition(State.HALF_OPEN, State.OPEN)) {
+            return State.OPEN;
+        }
+        if (state == State.CLOSED && isFailureThresholdReached() && transition(State.CLOSED, State.OPEN)) {
+            return State.OPEN;
+        }
+        return null;
+    }
+
+    /**
+     * Records that an invocation ended without revealing whether the remote endpoint is healthy, for example as it was
+     * rejected by an overloaded endpoint or could not be sent at all. It counts as neither success nor failure, but if
+     * it was the probe of a half-open circuit, the next invocation is let through as probe instead.
+     */
+    public void onIgnored() {
+        if (m_state.get() == State.HALF_OPEN) {
+            long changed = m_stateChanged.get();
+            m_stateChanged.compareAndSet(changed, changed - m_openNanos);
+        }
+    }
+
+    /**
+     * @return the percentage of failed invocations in the current window, or <code>0</code> if there were none.
+     */
+    public int getFailureRate() {
+        long[] counts = getWindowCounts();
+        return (counts[0] == 0) ? 0 : (int) (counts[1] * 100 / counts[0]);
+    }
+
+    private boolean isFailureThresholdReached() {
+        if (m_failureThreshold <= 0) {
+            return false;
+        }
+        long[] counts = getWindowCounts();
+        return counts[0] >= m_minimumCalls && counts[1] * 100 >= counts[0] * m_failureThreshold;
+    }
+
+    private boolean transition(State from, State to) {
+        if (m_state.compareAndSet(from, to)) {
+            m_stateChanged.set(System.nanoTime());
+            return true;
+        }
+        return false;
+    }
+
+    private void record(boolean failure) {
+        long epoch = System.nanoTime() / m_bucketNanos;
+        int bucket = (int) Math.floorMod(epoch, (long) BUCKETS);
+        long bucketEpoch = m_bucketEpochs.get(bucket);
+        if (bucketEpoch != epoch && m_bucketEpochs.compareAndSet(bucket, bucketEpoch, epoch)) {
+            // First outcome in this bucket since the window rolled over it...
+            m_bucketCounts.set(2 * bucket, 0);
+            m_bucketCounts.set(2 * bucket + 1, 0);
+        }
+        m_bucketCounts.incrementAndGet(2 * bucket);
+        if (failure) {
+            m_bucketCounts.incrementAndGet(2 * bucket + 1);
+        }
+    }
+
+    /**
+     * @return the total number of invocations and the number of failed invocations in the current window.
+     */
+    private long[] getWindowCounts() {
+        long epoch = System.nanoTime() / m_bucketNanos;
+        long calls = 0;
+        long failures = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (m_bucketEpochs.get(i) > epoch - BUCKETS) {
+                calls += m_bucketCounts.get(2 * i);
+                failures += m_bucketCounts.get(2 * i + 1);
+            }
+        }
+        return new long[] { calls, failures };
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            m_bucketEpochs.set(i, Long.MIN_VALUE);
+        }
+    }
+}
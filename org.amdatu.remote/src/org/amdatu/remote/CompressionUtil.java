@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Utilities for the negotiation of compressed HTTP payloads through the <tt>Accept-Encoding</tt> and
+ * <tt>Content-Encoding</tt> headers.
+ * <p>
+ * Clients announce that they accept gzip-compressed responses, servers compress a response only if the client
+ * accepts it and the response turns out to be larger than a threshold. Small responses are sent as is, as for
+ * those the compression overhead outweighs the saved bandwidth.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class CompressionUtil {
+
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String GZIP = "gzip";
+
+    private static final String VARY = "Vary";
+    private static final int BUFFER_SIZE = 8192;
+
+    private CompressionUtil() {
+    }
+
+    /**
+     * Announces on the given connection that compressed responses are accepted. Must be called before the
+     * connection is connected.
+     *
+     * @param connection the connection to announce on, cannot be <code>null</code>.
+     */
+    public static void acceptCompression(URLConnection connection) {
+        connection.setRequestProperty(ACCEPT_ENCODING, GZIP);
+    }
+
+    /**
+     * Returns a stream that reads the decompressed response of the given connection.
+     *
+     * @param connection the connection the response was received on, cannot be <code>null</code>;
+     * @param in the raw response stream of the connection, cannot be <code>null</code>.
+     * @return the stream to read the response from, never <code>null</code>.
+     * @throws IOException in case the response could not be decompressed.
+     */
+    public static InputStream getDecompressingInputStream(URLConnection connection, InputStream in)
+        throws IOException {
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Determines whether the given request accepts gzip-compressed responses.
+     *
+     * @param req the request, cannot be <code>null</code>.
+     * @return <code>true</code> if the response may be compressed, <code>false</code> otherwise.
+     */
+    public static boolean acceptsCompression(HttpServletRequest req) {
+        String acceptEncoding = req.getHeader(ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            int index = coding.indexOf(';');
+            String params = (index < 0) ? "" : coding.substring(index + 1).replace(" ", "");
+            String name = (index < 0) ? coding.trim() : coding.substring(0, index).trim();
+            if ((GZIP.equalsIgnoreCase(name) || "*".equals(name)) && !params.matches("q=0(\\.0*)?")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a stream to write the body of the given response to. If the request accepts compressed responses,
+     * the body is compressed as soon as it exceeds the given threshold. The returned stream must always be closed
+     * to complete the response.
+     *
+     * @param req the request that is responded to, cannot be <code>null</code>;
+     * @param resp the response to write, cannot be <code>null</code>;
+     * @param threshold the size in bytes from which the body is compressed, 0 to never compress.
+     * @return the stream to write the response body to, never <code>null</code>.
+     * @throws IOException in case the response stream could not be obtained.
+     */
+    public static OutputStream getCompressingOutputStream(HttpServletRequest req, HttpServletResponse resp,
+        int threshold) throws IOException {
+        if (threshold <= 0 || !acceptsCompression(req)) {
+            return resp.getOutputStream();
+        }
+        resp.addHeader(VARY, ACCEPT_ENCODING);
+        return new ThresholdCompressingOutputStream(resp, threshold);
+    }
+
+    /**
+     * Output stream that buffers the response body until it either exceeds the threshold, in which case the
+     * response is committed as compressed, or the stream is closed, in which case the body is sent as is.
+     */
+    private static final class ThresholdCompressingOutputStream extends OutputStream {
+
+        private final HttpServletResponse m_response;
+        private final int m_threshold;
+
+        private ByteArrayOutputStream m_buffer;
+        private OutputStream m_out;
+        private boolean m_closed;
+
+        public ThresholdCompressingOutputStream(HttpServletResponse response, int threshold) {
+            m_response = response;
+            m_threshold = threshold;
+            m_buffer = new ByteArrayOutputStream(Math.min(threshold, BUFFER_SIZE));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (m_closed) {
+                throw new IOException("Stream closed");
+            }
+            if (m_out == null) {
+                if (m_buffer.size() + len <= m_threshold) {
+                    m_buffer.write(b, off, len);
+                    return;
+                }
+                m_response.setHeader(CONTENT_ENCODING, GZIP);
+                m_out = new GZIPOutputStream(m_response.getOutputStream(), BUFFER_SIZE);
+                m_buffer.writeTo(m_out);
+                m_buffer = null;
+            }
+            m_out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Flushing a buffered body would commit the response before we know whether to compress it...
+            if (m_out != null) {
+                m_out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            if (m_out == null) {
+                m_response.setContentLength(m_buffer.size());
+                m_out = m_response.getOutputStream();
+                m_buffer.writeTo(m_out);
+                m_buffer = null;
+            }
+            m_out.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that counts the bytes written to the underlying stream.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class CountingOutputStream extends FilterOutputStream {
+
+    private long m_count;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        m_count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // Bypass the byte-by-byte implementation of FilterOutputStream...
+        out.write(b, off, len);
+        m_count += len;
+    }
+}
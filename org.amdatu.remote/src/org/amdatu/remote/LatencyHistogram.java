@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ * <p>
+ * Like an HDR histogram, values are counted in buckets whose width grows with the magnitude of the values: each
+ * power of two is divided into 16 equally wide buckets, so every recorded value is known with a relative precision
+ * of about 6%, regardless of its magnitude. Recording a value takes a few atomic updates and never locks, so the
+ * histogram can be shared by concurrent invocations.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_total = new AtomicLong();
+    private final AtomicLong m_max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value to record, negative values are recorded as <code>0</code>.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        m_counts.incrementAndGet(getIndex(value));
+        m_count.incrementAndGet();
+        m_total.addAndGet(value);
+        long max;
+        while (value > (max = m_max.get()) && !m_max.compareAndSet(max, value)) {
+            // retry...
+        }
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return m_count.get();
+    }
+
+    /**
+     * @return the largest recorded value, or <code>0</code> if no values were recorded.
+     */
+    public long getMax() {
+        return m_max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or <code>0</code> if no values were recorded.
+     */
+    public long getMean() {
+        long count = m_count.get();
+        return (count == 0) ? 0 : m_total.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values falls, as the highest value that is
+     * equivalent to it within the precision of this histogram.
+     *
+     * @param percentile the percentile, between <code>0</code> and <code>100</code>.
+     * @return the value at the given percentile, or <code>0</code> if no values were recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = m_count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += m_counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestEquivalentValue(i), m_max.get());
+            }
+        }
+        // Values recorded while we were scanning...
+        return m_max.get();
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getHighestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes a single method on arbitrary service objects through a method handle, which the JVM can inline and
+ * optimize far better than a reflective {@link Method#invoke(Object, Object...)} that has to check access and
+ * unpack its arguments on every call.
+ * <p>
+ * The handle is adapted once, upon construction, to take the target and an argument array and to return a boxed
+ * result. Arguments are expected to be of the declared parameter types already, as they are when decoded for the
+ * method. Exceptions thrown by the method are wrapped in an {@link InvocationTargetException}, and arguments that
+ * cannot be passed to the method are rejected with an {@link IllegalArgumentException}, just like they would be by
+ * reflection, so callers can treat both the same. If no handle can be created for the method, it is invoked
+ * reflectively instead.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class MethodInvoker {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final Method m_method;
+    private final MethodHandle m_handle;
+    private final Class<?>[] m_parameterTypes;
+    private final int m_parameterCount;
+
+    /**
+     * Creates a new invoker for the given method.
+     *
+     * @param method the method to invoke, cannot be <code>null</code>. Should be accessible to this class, or made
+     *        accessible, for it to be invoked through a method handle.
+     */
+    public MethodInvoker(Method method) {
+        m_method = method;
+        m_parameterTypes = method.getParameterTypes();
+        m_parameterCount = m_parameterTypes.length;
+        m_handle = createHandle(method);
+    }
+
+    /**
+     * @return the method this invoker invokes, never <code>null</code>.
+     */
+    public Method getMethod() {
+        return m_method;
+    }
+
+    /**
+     * Invokes the method on the given target.
+     *
+     * @param target the object to invoke the method on, cannot be <code>null</code>;
+     * @param arguments the arguments to pass, can be <code>null</code> if the method has no parameters.
+     * @return the result of the method, or <code>null</code> if it has no result.
+     * @throws InvocationTargetException in case the method itself threw an exception;
+     * @throws IllegalArgumentException in case the target or arguments are not of the declared types;
+     * @throws IllegalAccessException in case the method is not accessible.
+     */
+    public Object invoke(Object target, Object[] arguments) throws InvocationTargetException,
+        IllegalAccessException {
+        if (m_handle == null) {
+            return m_method.invoke(target, arguments);
+        }
+        if (target == null) {
+            throw new NullPointerException("Target cannot be null");
+        }
+        Object[] args = (arguments == null) ? NO_ARGUMENTS : arguments;
+        if (args.length != m_parameterCount) {
+            throw new IllegalArgumentException("Wrong number of arguments");
+        }
+        try {
+            return (Object) m_handle.invokeExact(target, args);
+        }
+        catch (ClassCastException | NullPointerException e) {
+            // Only checked on failure, to keep the common case fast...
+            if (!isApplicable(target, args)) {
+                // The handle failed to adapt the target or arguments, so the method was not invoked at all...
+                throw new IllegalArgumentException("Argument type mismatch", e);
+            }
+            throw new InvocationTargetException(e);
+        }
+        catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the given target and arguments can be passed to the method, converting them like
+     *         {@link Method#invoke(Object, Object...)} does, <code>false</code> otherwise.
+     */
+    private boolean isApplicable(Object target, Object[] args) {
+        if (!m_method.getDeclaringClass().isInstance(target)) {
+            return false;
+        }
+        for (int i = 0; i < m_parameterCount; i++) {
+            Class<?> type = m_parameterTypes[i];
+            Object arg = args[i];
+            if (type.isPrimitive() ? !isWidenable(arg, type) : (arg != null && !type.isInstance(arg))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the given value is a wrapper of a primitive that can be widened to the given
+     *         primitive type, <code>false</code> otherwise.
+     */
+    private static boolean isWidenable(Object value, Class<?> type) {
+        if (value instanceof Boolean) {
+            return type == boolean.class;
+        }
+        if (value instanceof Character) {
+            return type == char.class || type == int.class || type == long.class || type == float.class
+                || type == double.class;
+        }
+        if (value instanceof Byte) {
+            return type == byte.class || type == short.class || type == int.class || type == long.class
+                || type == float.class || type == double.class;
+        }
+        if (value instanceof Short) {
+            return type == short.class || type == int.class || type == long.class || type == float.class
+                || type == double.class;
+        }
+        if (value instanceof Integer) {
+            return type == int.class || type == long.class || type == float.class || type == double.class;
+        }
+        if (value instanceof Long) {
+            return type == long.class || type == float.class || type == double.class;
+        }
+        if (value instanceof Float) {
+            return type == float.class || type == double.class;
+        }
+        if (value instanceof Double) {
+            return type == double.class;
+        }
+        return false;
+    }
+
+    /**
+     * Creates a handle of type <tt>(Object, Object[])Object</tt> for the given method, or <code>null</code> if the
+     * method cannot be accessed through a handle.
+     */
+    private static MethodHandle createHandle(Method method) {
+        int parameterCount = method.getParameterTypes().length;
+        try {
+            return MethodHandles.lookup().unreflect(method)
+                .asType(MethodType.genericMethodType(parameterCount + 1))
+                .asSpreader(Object[].class, parameterCount)
+                .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        }
+        catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Holds on to the service object of an exported service, so that invocations do not need to get and unget the
+ * service from the framework's service registry each time.
+ * <p>
+ * The service object is obtained upon first use and released when the holder is closed or the service is
+ * unregistered, whichever comes first. As the service is obtained through the context of the exporting bundle,
+ * bundle- and prototype-scoped services yield the same instance they would otherwise yield for that bundle.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class ServiceObjectHolder implements ServiceListener {
+
+    private final BundleContext m_context;
+    private final ServiceReference<?> m_reference;
+
+    private volatile Object m_service;
+    private boolean m_released;
+
+    /**
+     * Creates a new holder and starts tracking the unregistration of the given service.
+     *
+     * @param context the context to get the service through, cannot be <code>null</code>;
+     * @param reference the reference of the service to hold on to, cannot be <code>null</code>.
+     */
+    public ServiceObjectHolder(BundleContext context, ServiceReference<?> reference) {
+        m_context = context;
+        m_reference = reference;
+        try {
+            m_context.addServiceListener(this,
+                "(" + Constants.SERVICE_ID + "=" + reference.getProperty(Constants.SERVICE_ID) + ")");
+        }
+        catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Invalid service reference", e);
+        }
+    }
+
+    /**
+     * Returns the service object, obtaining it from the framework if this is the first call.
+     *
+     * @return the service object, or <code>null</code> if the service is no longer available.
+     */
+    public Object getService() {
+        Object service = m_service;
+        if (service != null) {
+            return service;
+        }
+        synchronized (this) {
+            if (m_service == null && !m_released) {
+                m_service = m_context.getService(m_reference);
+            }
+            return m_service;
+        }
+    }
+
+    /**
+     * Stops tracking the service and releases the service object, if obtained.
+     */
+    public void close() {
+        try {
+            m_context.removeServiceListener(this);
+        }
+        catch (Exception e) {
+            // ignore... the context might no longer be valid
+        }
+        release();
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        if (event.getType() == ServiceEvent.UNREGISTERING) {
+            release();
+        }
+    }
+
+    private synchronized void release() {
+        m_released = true;
+        if (m_service != null) {
+            m_service = null;
+            try {
+                m_context.ungetService(m_reference);
+            }
+            catch (Exception e) {
+                // ignore... we at least tried
+            }
+        }
+    }
+}
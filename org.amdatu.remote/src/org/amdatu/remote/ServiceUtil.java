@@ -13,10 +13,13 @@
  */
 package org.amdatu.remote;
 
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.UUID;
 
 import org.osgi.framework.BundleContext;
@@ -29,6 +32,18 @@ import org.osgi.service.cm.ConfigurationException;
  */
 public final class ServiceUtil {
 
+    private static final Map<Class<?>, String> TYPESCODES = new HashMap<Class<?>, String>();
+    static {
+        TYPESCODES.put(Void.TYPE, "V");
+        TYPESCODES.put(Boolean.TYPE, "Z");
+        TYPESCODES.put(Character.TYPE, "C");
+        TYPESCODES.put(Short.TYPE, "S");
+        TYPESCODES.put(Integer.TYPE, "I");
+        TYPESCODES.put(Long.TYPE, "J");
+        TYPESCODES.put(Float.TYPE, "F");
+        TYPESCODES.put(Double.TYPE, "D");
+    }
+
     /**
      * Return the framework UUID associated with the provided Bundle Context. If
      * no framework UUID is set it will be assigned.
@@ -126,4 +141,34 @@ public final class ServiceUtil {
             throw new ConfigurationException(key, "not an integer", e);
         }
     }
+
+    /**
+     * Generate the signature of a service method, consisting of its name and the descriptors of its parameter and
+     * return types, e.g. <code>doubleIt(I)I</code>.
+     * 
+     * @param method the method
+     * @return the signature
+     */
+    public static String getMethodSignature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append("(");
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            appendTypeSignature(sb, parameterType);
+        }
+        sb.append(")");
+        appendTypeSignature(sb, method.getReturnType());
+        return sb.toString();
+    }
+
+    private static void appendTypeSignature(StringBuilder buffer, Class<?> clazz) {
+        if (clazz.isArray()) {
+            buffer.append("[");
+            appendTypeSignature(buffer, clazz.getComponentType());
+        }
+        else if (clazz.isPrimitive()) {
+            buffer.append(TYPESCODES.get(clazz));
+        }
+        else {
+            buffer.append("L").append(clazz.getName().replaceAll("\\.", "/")).append(";");
+        }
+    }
 }
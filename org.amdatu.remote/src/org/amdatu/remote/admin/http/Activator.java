@@ -15,12 +15,26 @@ package org.amdatu.remote.admin.http;
 
 import static org.amdatu.remote.ServiceUtil.getConfigIntValue;
 import static org.amdatu.remote.ServiceUtil.getConfigStringValue;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.BATCH_WINDOW_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.CIRCUIT_OPEN_TIME_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.CIRCUIT_WINDOW_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.COALESCING_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.CODEC_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.COMPRESSION_THRESHOLD_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.CONNECTION_IDLE_TIMEOUT_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.CONNECT_TIMEOUT_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.INVOCATION_QUEUE_DEPTH_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.MAX_CONCURRENT_INVOCATIONS_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.MAX_CONNECTIONS_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.PATH_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.READ_TIMEOUT_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.RESULT_CACHE_SIZE_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.RETRY_AFTER_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.SERVICE_PID;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.SUPPORTED_CONFIGURATION_TYPES;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.SUPPORTED_INTENTS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.TCP_PORT_CONFIG_KEY;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.REMOTE_CONFIGS_SUPPORTED;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.REMOTE_INTENTS_SUPPORTED;
 
@@ -55,6 +69,20 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
 public final class Activator extends DependencyActivatorBase implements ManagedService, HttpAdminConfiguration {
     private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
     private static final int DEFAULT_READ_TIMEOUT = 60000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 5;
+    private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_BATCH_WINDOW = 0;
+    private static final int DEFAULT_MAX_CONCURRENT_INVOCATIONS = 0;
+    private static final int DEFAULT_INVOCATION_QUEUE_DEPTH = 16;
+    private static final int DEFAULT_RETRY_AFTER = 1;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+    private static final int DEFAULT_COALESCING = 0;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 50;
+    private static final int DEFAULT_CIRCUIT_WINDOW = 10000;
+    private static final int DEFAULT_CIRCUIT_OPEN_TIME = 5000;
+    private static final int DEFAULT_TCP_PORT = -1;
+    private static final String DEFAULT_CODEC = JsonCodec.CONTENT_TYPE;
 
     private volatile DependencyManager m_dependencyManager;
     private volatile Component m_configurationComponent;
@@ -62,6 +90,20 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     private volatile URL m_baseUrl;
     private volatile int m_connectTimeout;
     private volatile int m_readTimeout;
+    private volatile int m_maxConnections;
+    private volatile int m_connectionIdleTimeout;
+    private volatile int m_batchWindow;
+    private volatile int m_maxConcurrentInvocations;
+    private volatile int m_invocationQueueDepth;
+    private volatile int m_retryAfter;
+    private volatile int m_compressionThreshold;
+    private volatile int m_resultCacheSize;
+    private volatile int m_coalescing;
+    private volatile int m_circuitFailureThreshold;
+    private volatile int m_circuitWindow;
+    private volatile int m_circuitOpenTime;
+    private volatile int m_tcpPort;
+    private volatile String m_codec;
     private volatile Dictionary<String, ?> m_properties;
 
     @Override
@@ -70,11 +112,44 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
 
         int connectTimeout = getConfigIntValue(context, CONNECT_TIMEOUT_CONFIG_KEY, null, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(context, READ_TIMEOUT_CONFIG_KEY, null, DEFAULT_READ_TIMEOUT);
+        int maxConnections = getConfigIntValue(context, MAX_CONNECTIONS_CONFIG_KEY, null, DEFAULT_MAX_CONNECTIONS);
+        int connectionIdleTimeout =
+            getConfigIntValue(context, CONNECTION_IDLE_TIMEOUT_CONFIG_KEY, null, DEFAULT_CONNECTION_IDLE_TIMEOUT);
+        int batchWindow = getConfigIntValue(context, BATCH_WINDOW_CONFIG_KEY, null, DEFAULT_BATCH_WINDOW);
+        int maxConcurrentInvocations =
+            getConfigIntValue(context, MAX_CONCURRENT_INVOCATIONS_CONFIG_KEY, null, DEFAULT_MAX_CONCURRENT_INVOCATIONS);
+        int invocationQueueDepth =
+            getConfigIntValue(context, INVOCATION_QUEUE_DEPTH_CONFIG_KEY, null, DEFAULT_INVOCATION_QUEUE_DEPTH);
+        int retryAfter = getConfigIntValue(context, RETRY_AFTER_CONFIG_KEY, null, DEFAULT_RETRY_AFTER);
+        int compressionThreshold =
+            getConfigIntValue(context, COMPRESSION_THRESHOLD_CONFIG_KEY, null, DEFAULT_COMPRESSION_THRESHOLD);
+        int resultCacheSize = getConfigIntValue(context, RESULT_CACHE_SIZE_CONFIG_KEY, null, DEFAULT_RESULT_CACHE_SIZE);
+        int coalescing = getConfigIntValue(context, COALESCING_CONFIG_KEY, null, DEFAULT_COALESCING);
+        int circuitFailureThreshold =
+            getConfigIntValue(context, CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY, null, DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+        int circuitWindow = getConfigIntValue(context, CIRCUIT_WINDOW_CONFIG_KEY, null, DEFAULT_CIRCUIT_WINDOW);
+        int circuitOpenTime = getConfigIntValue(context, CIRCUIT_OPEN_TIME_CONFIG_KEY, null, DEFAULT_CIRCUIT_OPEN_TIME);
+        int tcpPort = getConfigIntValue(context, TCP_PORT_CONFIG_KEY, null, DEFAULT_TCP_PORT);
+        String codec = getConfigStringValue(context, CODEC_CONFIG_KEY, null, DEFAULT_CODEC);
 
         try {
             m_baseUrl = parseConfiguredBaseUrl(context);
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_maxConnections = maxConnections;
+            m_connectionIdleTimeout = connectionIdleTimeout;
+            m_batchWindow = batchWindow;
+            m_maxConcurrentInvocations = maxConcurrentInvocations;
+            m_invocationQueueDepth = invocationQueueDepth;
+            m_retryAfter = retryAfter;
+            m_codec = codec;
+            m_compressionThreshold = compressionThreshold;
+            m_resultCacheSize = resultCacheSize;
+            m_coalescing = coalescing;
+            m_circuitFailureThreshold = circuitFailureThreshold;
+            m_circuitWindow = circuitWindow;
+            m_circuitOpenTime = circuitOpenTime;
+            m_tcpPort = tcpPort;
             registerFactoryService();
             registerConfigurationService();
         }
@@ -99,15 +174,52 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
         // assign values to fields after baseUrl was successfully
         int connectTimeout = getConfigIntValue(context, CONNECT_TIMEOUT_CONFIG_KEY, m_properties, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(context, READ_TIMEOUT_CONFIG_KEY, m_properties, DEFAULT_READ_TIMEOUT);
+        int maxConnections = getConfigIntValue(context, MAX_CONNECTIONS_CONFIG_KEY, m_properties, DEFAULT_MAX_CONNECTIONS);
+        int connectionIdleTimeout =
+            getConfigIntValue(context, CONNECTION_IDLE_TIMEOUT_CONFIG_KEY, m_properties, DEFAULT_CONNECTION_IDLE_TIMEOUT);
+        int batchWindow = getConfigIntValue(context, BATCH_WINDOW_CONFIG_KEY, m_properties, DEFAULT_BATCH_WINDOW);
+        int compressionThreshold =
+            getConfigIntValue(context, COMPRESSION_THRESHOLD_CONFIG_KEY, m_properties, DEFAULT_COMPRESSION_THRESHOLD);
+        int resultCacheSize =
+            getConfigIntValue(context, RESULT_CACHE_SIZE_CONFIG_KEY, m_properties, DEFAULT_RESULT_CACHE_SIZE);
+        int coalescing = getConfigIntValue(context, COALESCING_CONFIG_KEY, m_properties, DEFAULT_COALESCING);
+        int circuitFailureThreshold =
+            getConfigIntValue(context, CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY, m_properties,
+                DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+        int circuitWindow = getConfigIntValue(context, CIRCUIT_WINDOW_CONFIG_KEY, m_properties, DEFAULT_CIRCUIT_WINDOW);
+        int circuitOpenTime =
+            getConfigIntValue(context, CIRCUIT_OPEN_TIME_CONFIG_KEY, m_properties, DEFAULT_CIRCUIT_OPEN_TIME);
+        int tcpPort = getConfigIntValue(context, TCP_PORT_CONFIG_KEY, m_properties, DEFAULT_TCP_PORT);
+        int maxConcurrentInvocations =
+            getConfigIntValue(context, MAX_CONCURRENT_INVOCATIONS_CONFIG_KEY, m_properties,
+                DEFAULT_MAX_CONCURRENT_INVOCATIONS);
+        int invocationQueueDepth =
+            getConfigIntValue(context, INVOCATION_QUEUE_DEPTH_CONFIG_KEY, m_properties, DEFAULT_INVOCATION_QUEUE_DEPTH);
+        int retryAfter = getConfigIntValue(context, RETRY_AFTER_CONFIG_KEY, m_properties, DEFAULT_RETRY_AFTER);
+        String codec = getConfigStringValue(context, CODEC_CONFIG_KEY, m_properties, DEFAULT_CODEC);
         URL baseUrl = parseConfiguredBaseUrl(context);
 
         try {
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_maxConnections = maxConnections;
+            m_connectionIdleTimeout = connectionIdleTimeout;
+            m_batchWindow = batchWindow;
+            m_maxConcurrentInvocations = maxConcurrentInvocations;
+            m_invocationQueueDepth = invocationQueueDepth;
+            m_retryAfter = retryAfter;
+            m_codec = codec;
+            m_compressionThreshold = compressionThreshold;
+            m_resultCacheSize = resultCacheSize;
+            m_coalescing = coalescing;
+            m_circuitFailureThreshold = circuitFailureThreshold;
+            m_circuitWindow = circuitWindow;
+            m_circuitOpenTime = circuitOpenTime;
 
-            if (!baseUrl.equals(m_baseUrl)) {
+            if (!baseUrl.equals(m_baseUrl) || tcpPort != m_tcpPort) {
                 unregisterFactoryService();
                 m_baseUrl = baseUrl;
+                m_tcpPort = tcpPort;
                 registerFactoryService();
             }
         }
@@ -216,4 +328,74 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     public int getReadTimeout() {
         return m_readTimeout;
     }
+
+    @Override
+    public int getMaxConnectionsPerEndpoint() {
+        return m_maxConnections;
+    }
+
+    @Override
+    public int getConnectionIdleTimeout() {
+        return m_connectionIdleTimeout;
+    }
+
+    @Override
+    public int getBatchWindow() {
+        return m_batchWindow;
+    }
+
+    @Override
+    public int getMaxConcurrentInvocations() {
+        return m_maxConcurrentInvocations;
+    }
+
+    @Override
+    public int getInvocationQueueDepth() {
+        return m_invocationQueueDepth;
+    }
+
+    @Override
+    public int getRetryAfter() {
+        return m_retryAfter;
+    }
+
+    @Override
+    public String getCodec() {
+        return m_codec;
+    }
+
+    @Override
+    public int getCompressionThreshold() {
+        return m_compressionThreshold;
+    }
+
+    @Override
+    public int getResultCacheSize() {
+        return m_resultCacheSize;
+    }
+
+    @Override
+    public int getCoalescing() {
+        return m_coalescing;
+    }
+
+    @Override
+    public int getCircuitFailureThreshold() {
+        return m_circuitFailureThreshold;
+    }
+
+    @Override
+    public int getCircuitWindow() {
+        return m_circuitWindow;
+    }
+
+    @Override
+    public int getCircuitOpenTime() {
+        return m_circuitOpenTime;
+    }
+
+    @Override
+    public int getTcpPort() {
+        return m_tcpPort;
+    }
 }
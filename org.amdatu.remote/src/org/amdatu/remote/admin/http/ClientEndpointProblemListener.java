@@ -13,6 +13,8 @@
  */
 package org.amdatu.remote.admin.http;
 
+import org.amdatu.remote.CircuitBreaker.State;
+
 /**
  * Provides an abstraction for client endpoints to report problems.
  * 
@@ -23,4 +25,12 @@ public interface ClientEndpointProblemListener {
     void handleEndpointError(Throwable exception);
 
     void handleEndpointWarning(Throwable exception);
+
+    /**
+     * Reports that the circuit breaker of the endpoint changed its state.
+     * 
+     * @param state the new state of the circuit breaker;
+     * @param exception the failure that caused the change, can be <code>null</code>.
+     */
+    void handleEndpointStateChanged(State state, Throwable exception);
 }
@@ -102,7 +102,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             logDebug("No RSA listeners");
         }
         if (!m_admins.isEmpty()) {
-            emitEventAdminEvent(createEventAdminEvent(event, desc, exception));
+            emitEventAdminEvent(createEventAdminEvent(event, desc, exception, null));
         }
         else {
             logDebug("No EventAdmins");
@@ -110,6 +110,21 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
     }
 
     public void emitEvent(int type, Bundle source, ImportReference importRef, Throwable exception) {
+        emitEvent(type, source, importRef, exception, null);
+    }
+
+    /**
+     * Emits an import event, adding the given properties to the EventAdmin event on top of the ones defined by
+     * OSGi Enterprise R5 122.7.1.
+     *
+     * @param type the type of the event;
+     * @param source the bundle the event originates from;
+     * @param importRef the import the event concerns;
+     * @param exception the cause of the event, can be <code>null</code>;
+     * @param extraProperties the additional EventAdmin properties, can be <code>null</code>.
+     */
+    public void emitEvent(int type, Bundle source, ImportReference importRef, Throwable exception,
+        Map<String, ?> extraProperties) {
         RemoteServiceAdminEvent event = new RemoteServiceAdminEvent(type, source, importRef, exception);
 
         // FIXME why are we casting here?
@@ -125,7 +140,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             emitRemoteServiceAdminEvent(event, desc);
         }
         if (!m_admins.isEmpty()) {
-            emitEventAdminEvent(createEventAdminEvent(event, desc, exception));
+            emitEventAdminEvent(createEventAdminEvent(event, desc, exception, extraProperties));
         }
     }
 
@@ -167,7 +182,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
      * @return the Event Admin event
      */
     private Event createEventAdminEvent(RemoteServiceAdminEvent event, EndpointDescription description,
-        Throwable exception) {
+        Throwable exception, Map<String, ?> extraProperties) {
 
         Map<String, Object> properties = new HashMap<String, Object>();
         properties.put("bundle", getBundleContext().getBundle());
@@ -185,6 +200,9 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             putIfValueNotNull(properties, "endpoint.id", description.getId());
             putIfValueNotNull(properties, "endpoint.imported.configs", description.getConfigurationTypes());
         }
+        if (extraProperties != null) {
+            properties.putAll(extraProperties);
+        }
         return new Event(getEventTopic(event.getType()), properties);
     }
 
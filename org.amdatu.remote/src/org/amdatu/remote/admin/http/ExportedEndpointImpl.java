@@ -104,6 +104,10 @@ public final class ExportedEndpointImpl implements ExportRegistration, ExportRef
             // TODO set exception?
             return null;
         }
+        HttpServerEndpoint serverEndpoint = m_serverEndpoint;
+        if (serverEndpoint != null) {
+            updateDescription = m_admin.addMethodTable(updateDescription, serverEndpoint.getMethodSignatures());
+        }
 
         String updateHash = computeHash(updateDescription);
         if (!updateDescription.equals(m_endpointHash)) {
@@ -144,6 +148,7 @@ public final class ExportedEndpointImpl implements ExportRegistration, ExportRef
         if (serverEndpoint != null) {
             m_serverEndpoint = null;
             m_admin.getServerEndpointHandler().removeEndpoint(m_endpoint);
+            serverEndpoint.close();
         }
         m_admin.exportedEndpointClosed(this);
     }
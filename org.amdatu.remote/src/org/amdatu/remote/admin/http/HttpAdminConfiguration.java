@@ -43,4 +43,109 @@ public interface HttpAdminConfiguration {
      */
     public int getReadTimeout();
 
+    /**
+     * returns the maximum number of concurrent connections per endpoint host for the client endpoints
+     * 
+     * @return maximum number of connections
+     */
+    public int getMaxConnectionsPerEndpoint();
+
+    /**
+     * returns the time after which unused connection bookkeeping of an endpoint host is discarded
+     * 
+     * @return idle timeout in ms
+     */
+    public int getConnectionIdleTimeout();
+
+    /**
+     * returns the time the client endpoints wait for concurrent invocations to the same host, 0 to disable batching
+     * 
+     * @return batch window in ms
+     */
+    public int getBatchWindow();
+
+    /**
+     * returns the maximum number of concurrent invocations per server endpoint, 0 for no limit
+     * 
+     * @return maximum number of invocations
+     */
+    public int getMaxConcurrentInvocations();
+
+    /**
+     * returns the maximum number of invocations per server endpoint waiting for the concurrency limit
+     * 
+     * @return maximum number of waiting invocations
+     */
+    public int getInvocationQueueDepth();
+
+    /**
+     * returns the time clients are asked to back off when a server endpoint rejects an invocation
+     * 
+     * @return retry after in seconds
+     */
+    public int getRetryAfter();
+
+    /**
+     * returns the content type of the codec the client endpoints prefer, if supported by the remote endpoint, e.g.
+     * <code>application/x-jackson-smile</code> for the binary Smile codec
+     * 
+     * @return codec content type
+     */
+    public String getCodec();
+
+    /**
+     * returns the size in bytes from which responses are compressed
+     * 
+     * @return threshold in bytes
+     */
+    public int getCompressionThreshold();
+
+    /**
+     * returns the maximum number of results cached per imported endpoint, 0 to disable result caching.
+     * 
+     * @return the maximum number of cached results.
+     */
+    public int getResultCacheSize();
+
+    /**
+     * returns whether concurrent identical invocations of cacheable methods share a single remote invocation, 1 to
+     * enable, 0 to disable.
+     * 
+     * @return 1 if invocations are coalesced, 0 otherwise.
+     */
+    public int getCoalescing();
+
+    /**
+     * returns the percentage of failed invocations of an imported endpoint that opens its circuit, 0 to disable.
+     * 
+     * @return the failure threshold in percent.
+     */
+    public int getCircuitFailureThreshold();
+
+    /**
+     * returns the length of the rolling window over which the failure rate of an imported endpoint is determined.
+     * 
+     * @return the window in ms.
+     */
+    public int getCircuitWindow();
+
+    /**
+     * returns the time an open circuit fails invocations fast before it lets a probe invocation through.
+     * 
+     * @return the open time in ms.
+     */
+    public int getCircuitOpenTime();
+
+    /**
+     * returns the port on which the endpoints are also served over TCP, 0 for any free port, -1 if disabled. When
+     * enabled, imported endpoints that are served over TCP are invoked over TCP as well.
+     * <p>
+     * The port is bound on the host of the {@link #getBaseUrl() base URL} only. Invocations over TCP bypass the
+     * servlet stack, including any authentication or filtering applied by the HTTP service, so the port should not
+     * be reachable from untrusted networks.
+     * 
+     * @return the TCP port.
+     */
+    public int getTcpPort();
+
 }
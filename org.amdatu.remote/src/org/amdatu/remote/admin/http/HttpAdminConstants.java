@@ -50,6 +50,82 @@ public interface HttpAdminConstants {
      */
     String READ_TIMEOUT_CONFIG_KEY = "org.amdatu.remote.admin.http.readtimeout";
 
+    /**
+     * Configuration property: maximum number of connections per endpoint host
+     */
+    String MAX_CONNECTIONS_CONFIG_KEY = "org.amdatu.remote.admin.http.maxconnections";
+
+    /**
+     * Configuration property: connection idle timeout
+     */
+    String CONNECTION_IDLE_TIMEOUT_CONFIG_KEY = "org.amdatu.remote.admin.http.connectionidletimeout";
+
+    /**
+     * Configuration property: client batching window
+     */
+    String BATCH_WINDOW_CONFIG_KEY = "org.amdatu.remote.admin.http.batchwindow";
+
+    /**
+     * Configuration property: maximum number of concurrent invocations per server endpoint
+     */
+    String MAX_CONCURRENT_INVOCATIONS_CONFIG_KEY = "org.amdatu.remote.admin.http.maxconcurrentinvocations";
+
+    /**
+     * Configuration property: invocation queue depth per server endpoint
+     */
+    String INVOCATION_QUEUE_DEPTH_CONFIG_KEY = "org.amdatu.remote.admin.http.invocationqueuedepth";
+
+    /**
+     * Configuration property: retry after hint of rejected invocations
+     */
+    String RETRY_AFTER_CONFIG_KEY = "org.amdatu.remote.admin.http.retryafter";
+
+    /**
+     * Configuration property: preferred codec of the client endpoints
+     */
+    String CODEC_CONFIG_KEY = "org.amdatu.remote.admin.http.codec";
+
+    /**
+     * Configuration property: size in bytes from which responses are gzip-compressed for clients accepting it,
+     * 0 to disable compression
+     */
+    String COMPRESSION_THRESHOLD_CONFIG_KEY = "org.amdatu.remote.admin.http.compressionthreshold";
+
+    /**
+     * Configuration property: maximum number of results cached per imported endpoint, 0 to disable result caching
+     */
+    String RESULT_CACHE_SIZE_CONFIG_KEY = "org.amdatu.remote.admin.http.resultcachesize";
+
+    /**
+     * Configuration property: coalescing of concurrent identical invocations of cacheable methods, 1 to enable, 0 to
+     * disable
+     */
+    String COALESCING_CONFIG_KEY = "org.amdatu.remote.admin.http.coalescing";
+
+    /**
+     * Configuration property: percentage of failed invocations of an imported endpoint that opens its circuit, 0 to
+     * disable
+     */
+    String CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitfailurethreshold";
+
+    /**
+     * Configuration property: length of the rolling window over which the failure rate of an imported endpoint is
+     * determined
+     */
+    String CIRCUIT_WINDOW_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitwindow";
+
+    /**
+     * Configuration property: time an open circuit fails invocations fast before it lets a probe invocation through
+     */
+    String CIRCUIT_OPEN_TIME_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitopentime";
+
+    /**
+     * Configuration property: port on which the endpoints are also served over TCP, 0 for any free port, -1 to
+     * disable; when enabled imported endpoints served over TCP are invoked over TCP as well. The port is bound on
+     * the host of the base URL only, and its invocations are not authenticated nor pass through the servlet stack
+     */
+    String TCP_PORT_CONFIG_KEY = "org.amdatu.remote.admin.http.tcpport";
+
     /**
      * Configuration Type identifier
      */
@@ -60,6 +136,44 @@ public interface HttpAdminConstants {
      */
     String ENDPOINT_URL = CONFIGURATION_TYPE + ".url";
 
+    /**
+     * Configuration Type method table, the signatures of the endpoint's methods indexed by method id
+     */
+    String ENDPOINT_METHODS = CONFIGURATION_TYPE + ".methods";
+
+    /**
+     * Configuration Type codecs, the content types of the codecs supported by the endpoint
+     */
+    String ENDPOINT_CODECS = CONFIGURATION_TYPE + ".codecs";
+
+    /**
+     * Configuration Type cacheable methods, the names or signatures of the endpoint's methods whose results only
+     * depend on their arguments and may therefore be cached by importers
+     */
+    String ENDPOINT_CACHEABLE_METHODS = CONFIGURATION_TYPE + ".cacheable";
+
+    /**
+     * Configuration Type cache time-to-live, the time in milliseconds importers may cache results of the
+     * endpoint's cacheable methods
+     */
+    String ENDPOINT_CACHE_TTL = CONFIGURATION_TYPE + ".cachettl";
+
+    /**
+     * Configuration Type deadlines, entries of the form <code>&lt;method name or signature&gt;=&lt;ms&gt;</code>
+     * giving the time in milliseconds within which invocations of the endpoint's methods must complete
+     */
+    String ENDPOINT_DEADLINES = CONFIGURATION_TYPE + ".deadlines";
+
+    /**
+     * Configuration Type TCP address, the <code>host:port</code> on which the endpoint is also served over TCP
+     */
+    String ENDPOINT_TCP_ADDRESS = CONFIGURATION_TYPE + ".tcp";
+
+    /**
+     * HTTP request header holding the time in milliseconds the client still awaits the outcome of an invocation
+     */
+    String DEADLINE_HEADER = "X-Amdatu-Deadline";
+
     /**
      * Configuration types supported by this implementation
      */
@@ -70,8 +184,14 @@ public interface HttpAdminConstants {
      */
     String PASSBYVALYE_INTENT = "passByValue";
 
+    /**
+     * Pass-by-reference intent, by which an exporter allows importers in its own framework to share arguments and
+     * results with the service instead of copies. Importers in other frameworks still get copies.
+     */
+    String PASSBYREFERENCE_INTENT = "passByReference";
+
     /**
      * Intents supported by this implementation
      */
-    String[] SUPPORTED_INTENTS = new String[] { PASSBYVALYE_INTENT };
+    String[] SUPPORTED_INTENTS = new String[] { PASSBYVALYE_INTENT, PASSBYREFERENCE_INTENT };
 }
@@ -14,8 +14,10 @@
 package org.amdatu.remote.admin.http;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.amdatu.remote.ServiceUtil;
 
 /**
  * Collection of util methods for the Http Admin Remote Sercvice Admin implementation.
@@ -32,38 +34,26 @@ public final class HttpAdminUtil {
      * @return the signature
      */
     public static String getMethodSignature(Method method) {
-        StringBuilder sb = new StringBuilder(method.getName()).append("(");
-        for (Class<?> parameterType : method.getParameterTypes()) {
-            appendTypeSignature(sb, parameterType);
-        }
-        sb.append(")");
-        appendTypeSignature(sb, method.getReturnType());
-        return sb.toString();
+        return ServiceUtil.getMethodSignature(method);
     }
 
-    private static final Map<Class<?>, String> TYPESCODES = new HashMap<Class<?>, String>();
-    static {
-        TYPESCODES.put(Void.TYPE, "V");
-        TYPESCODES.put(Boolean.TYPE, "Z");
-        TYPESCODES.put(Character.TYPE, "C");
-        TYPESCODES.put(Short.TYPE, "S");
-        TYPESCODES.put(Integer.TYPE, "I");
-        TYPESCODES.put(Long.TYPE, "J");
-        TYPESCODES.put(Float.TYPE, "F");
-        TYPESCODES.put(Double.TYPE, "D");
-    }
-
-    private static void appendTypeSignature(StringBuilder buffer, Class<?> clazz) {
-        if (clazz.isArray()) {
-            buffer.append("[");
-            appendTypeSignature(buffer, clazz.getComponentType());
-        }
-        else if (clazz.isPrimitive()) {
-            buffer.append(TYPESCODES.get(clazz));
-        }
-        else {
-            buffer.append("L").append(clazz.getName().replaceAll("\\.", "/")).append(";");
+    /**
+     * Generate the method table of an endpoint exposing the given interfaces. The table
+     * holds the distinct signatures of all interface methods in lexicographical order, so
+     * the index of a signature in this table is stable for a given set of interfaces and
+     * can be used as compact method id during remote invocation.
+     * 
+     * @param interfaces the exposed interfaces
+     * @return the method table, never <code>null</code>
+     */
+    public static String[] getMethodSignatures(Class<?>... interfaces) {
+        SortedSet<String> signatures = new TreeSet<String>();
+        for (Class<?> iface : interfaces) {
+            for (Method method : iface.getMethods()) {
+                signatures.add(getMethodSignature(method));
+            }
         }
+        return signatures.toArray(new String[signatures.size()]);
     }
 
     private HttpAdminUtil() {
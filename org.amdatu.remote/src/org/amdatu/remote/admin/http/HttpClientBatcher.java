@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.amdatu.remote.CompressionUtil.getDecompressingInputStream;
+import static org.amdatu.remote.IOUtil.closeSilently;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osgi.framework.ServiceException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Merges concurrent invocations of client endpoints to the same HTTP admin into a single batch request.
+ * <p>
+ * The first invocation for a remote admin opens a batch and waits for the configured batching window
+ * (or until the batch is full), after which it sends all invocations that were queued in the meantime as
+ * one request to the root of the remote admin. All other invocations simply wait for their outcome.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpClientBatcher {
+
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final ConcurrentHashMap<String, BatchQueue> m_queues = new ConcurrentHashMap<String, BatchQueue>();
+
+    private final HttpClientConnectionManager m_connectionManager;
+    private final HttpAdminConfiguration m_configuration;
+
+    public HttpClientBatcher(HttpClientConnectionManager connectionManager, HttpAdminConfiguration configuration) {
+        m_connectionManager = connectionManager;
+        m_configuration = configuration;
+    }
+
+    /**
+     * @return <code>true</code> if a batching window is configured, <code>false</code> otherwise.
+     */
+    public boolean isEnabled() {
+        return m_configuration.getBatchWindow() > 0;
+    }
+
+    /**
+     * Queues a method invocation in the current batch for the given remote admin, sending the batch if the
+     * calling thread opened it.
+     *
+     * @param batchURL the root URL of the remote admin, cannot be <code>null</code>;
+     * @param endpointId the id of the remote endpoint, cannot be <code>null</code>;
+     * @param codec the codec to encode the invocation with, cannot be <code>null</code>;
+     * @param plan the invocation plan of the method to invoke, cannot be <code>null</code>;
+     * @param arguments the arguments of the method to invoke, can be <code>null</code>;
+     * @param timeout the time in ms left until the deadline of the invocation, which is sent along with it and
+     *        bounds the wait for the outcome, or <code>0</code> to wait as long as sending the batch may take given
+     *        the configured timeouts.
+     * @return the outcome of the invocation as sent by the server, that is, an object with either an e-, r- or
+     *         s-field, or no fields at all.
+     * @throws IOException in case the batch could not be sent or its response could not be read in time.
+     */
+    public JsonNode invoke(URL batchURL, String endpointId, HttpCodec codec, MethodInvocationPlan plan,
+        Object[] arguments, long timeout) throws IOException {
+        BatchedInvocation invocation = new BatchedInvocation(endpointId, plan, arguments, timeout);
+
+        // Do not use the URL itself as key, as its equals and hashCode methods resolve the host name...
+        String key = codec.getContentType() + " " + batchURL.toExternalForm();
+        BatchQueue queue = m_queues.get(key);
+        if (queue == null) {
+            queue = new BatchQueue();
+            BatchQueue previous = m_queues.putIfAbsent(key, queue);
+            if (previous != null) {
+                queue = previous;
+            }
+        }
+
+        List<BatchedInvocation> batch = queue.add(invocation, m_configuration.getBatchWindow());
+        if (batch != null) {
+            sendBatch(batchURL, codec, batch);
+        }
+
+        if (timeout <= 0) {
+            // The batch may wait for the window, a free connection, connecting and the response...
+            timeout = m_configuration.getBatchWindow() + 2L * m_configuration.getConnectTimeout()
+                + m_configuration.getReadTimeout();
+        }
+        try {
+            return invocation.m_future.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new SocketTimeoutException("No batched response within " + timeout + " ms");
+        }
+        catch (InterruptedException e) {
+            // Cancelled by the caller, rather than a problem of the remote admin...
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Remote service invocation interrupted while waiting for batched invocation",
+                ServiceException.REMOTE, e);
+        }
+        catch (Exception e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                // Not an I/O problem, e.g. no connection available...
+                throw (ServiceException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Batched invocation failed", cause);
+        }
+    }
+
+    /**
+     * Sends the given invocations as one request and completes each of them with its outcome.
+     */
+    private void sendBatch(URL batchURL, HttpCodec codec, List<BatchedInvocation> batch) {
+        HttpURLConnection connection = null;
+        OutputStream outputStream = null;
+        InputStream inputStream = null;
+        boolean reusable = false;
+        try {
+            connection = m_connectionManager.openConnection(batchURL);
+            connection.setRequestMethod("POST");
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", codec.getContentType());
+            connection.connect();
+            outputStream = connection.getOutputStream();
+            writeBatch(codec.createGenerator(outputStream), batch);
+
+            int rc = connection.getResponseCode();
+            if (rc != HTTP_OK) {
+                throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
+            }
+
+            inputStream = getDecompressingInputStream(connection, connection.getInputStream());
+            JsonParser parser = codec.createParser(inputStream);
+            JsonNode results = parser.readValueAsTree();
+            parser.close();
+            if (results == null || !results.isArray() || results.size() != batch.size()) {
+                throw new IOException("Invalid batch response: " + batch.size() + " results expected");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).m_future.complete(results.get(i));
+            }
+            reusable = true;
+        }
+        catch (Exception e) {
+            for (BatchedInvocation invocation : batch) {
+                invocation.m_future.completeExceptionally(e);
+            }
+        }
+        finally {
+            closeSilently(outputStream);
+            m_connectionManager.release(connection, reusable);
+            closeSilently(inputStream);
+        }
+    }
+
+    /**
+     * Writes out the batch as an array of objects with an i-field holding the endpoint id, the m-field holding
+     * the method's id or signature, the a-field holding the arguments array and, for invocations with a deadline,
+     * the d-field holding the time in milliseconds left until it passes.
+     */
+    private void writeBatch(JsonGenerator gen, List<BatchedInvocation> batch) throws IOException {
+        gen.writeStartArray();
+        for (BatchedInvocation invocation : batch) {
+            gen.writeStartObject();
+            gen.writeStringField("i", invocation.m_endpointId);
+            invocation.m_plan.writeMethod(gen);
+            gen.writeArrayFieldStart("a");
+            invocation.m_plan.writeArguments(invocation.m_arguments, gen);
+            gen.writeEndArray();
+            if (invocation.m_deadline != 0) {
+                // The time left, after waiting for the batching window...
+                long remaining = TimeUnit.NANOSECONDS.toMillis(invocation.m_deadline - System.nanoTime());
+                gen.writeNumberField("d", Math.max(remaining, 1));
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.flush();
+        gen.close();
+    }
+
+    /**
+     * A single invocation awaiting its outcome.
+     */
+    private static final class BatchedInvocation {
+        final String m_endpointId;
+        final MethodInvocationPlan m_plan;
+        final Object[] m_arguments;
+        final long m_deadline;
+        final CompletableFuture<JsonNode> m_future = new CompletableFuture<JsonNode>();
+
+        BatchedInvocation(String endpointId, MethodInvocationPlan plan, Object[] arguments, long timeout) {
+            m_endpointId = endpointId;
+            m_plan = plan;
+            m_arguments = arguments;
+            m_deadline = (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        }
+    }
+
+    /**
+     * The invocations queued for a single remote admin.
+     */
+    private static final class BatchQueue {
+        private List<BatchedInvocation> m_pending = new ArrayList<BatchedInvocation>();
+        private boolean m_open;
+
+        /**
+         * Adds an invocation to the current batch. If this opens a new batch, the calling thread waits for the
+         * batching window to pass or the batch to fill up and then becomes responsible for sending it.
+         *
+         * @return the batch to send, or <code>null</code> if another thread sends the batch.
+         */
+        synchronized List<BatchedInvocation> add(BatchedInvocation invocation, int window) {
+            m_pending.add(invocation);
+            if (m_open) {
+                if (m_pending.size() >= MAX_BATCH_SIZE) {
+                    notifyAll();
+                }
+                return null;
+            }
+
+            m_open = true;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+            try {
+                long remaining;
+                while (m_pending.size() < MAX_BATCH_SIZE && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<BatchedInvocation> batch = m_pending;
+            m_pending = new ArrayList<BatchedInvocation>();
+            m_open = false;
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static org.amdatu.remote.CompressionUtil.acceptCompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.amdatu.remote.AsyncUtil;
+import org.osgi.framework.ServiceException;
+
+/**
+ * Manages the HTTP connections of all client endpoints of the HTTP admin.
+ * <p>
+ * Connections are kept alive between invocations so subsequent calls to the same host reuse the
+ * underlying socket instead of paying a new TCP (and TLS) handshake. This relies on the keep-alive
+ * cache of {@link HttpURLConnection}, which only returns a socket to its cache when the response
+ * has been fully consumed and the connection is <em>not</em> disconnected. The cache validates
+ * cached sockets before reuse and closes sockets that have been idle for too long.
+ * <p>
+ * On top of that this manager bounds the number of concurrent connections per target host, so
+ * that all of them fit in the keep-alive cache, and evicts the bookkeeping of hosts that have not
+ * been used for the configured idle timeout. Hosts are scanned for eviction at most once per idle
+ * timeout, so opening a connection does not visit every host.
+ * <p>
+ * Finally, it provides the executor on which asynchronous invocations of all client endpoints
+ * perform their (blocking) exchanges, and the connections to remote admins serving their endpoints
+ * over TCP.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpClientConnectionManager {
+
+    private static final int DRAIN_BUFFER_SIZE = 512;
+    private static final int ASYNC_THREADS = 32;
+
+    private final ConcurrentHashMap<String, HostConnections> m_hosts =
+        new ConcurrentHashMap<String, HostConnections>();
+
+    private final ConcurrentHashMap<HttpURLConnection, HostConnections> m_inUse =
+        new ConcurrentHashMap<HttpURLConnection, HostConnections>();
+
+    private final AtomicLong m_nextEviction = new AtomicLong();
+
+    private final HttpAdminConfiguration m_configuration;
+    private final HttpClientBatcher m_batcher;
+    private final TcpClientConnections m_tcpConnections;
+
+    private ExecutorService m_executor;
+
+    public HttpClientConnectionManager(HttpAdminConfiguration configuration) {
+        m_configuration = configuration;
+        m_batcher = new HttpClientBatcher(this, configuration);
+        m_tcpConnections = new TcpClientConnections(configuration);
+    }
+
+    /**
+     * Opens a connection to the given URL, waiting at most the connect timeout for a free
+     * connection slot of the target host.
+     *
+     * @param url the URL to connect to, cannot be <code>null</code>;
+     * @return a new, unconnected, connection. Must be returned through {@link #release(HttpURLConnection, boolean)}.
+     * @throws IOException in case opening the connection failed;
+     * @throws ServiceException in case no connection slot became available in time. As the remote host is not
+     *         involved, this is not an I/O problem.
+     */
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        HostConnections host = getHostConnections(url);
+        try {
+            host.acquire(m_configuration.getConnectTimeout());
+        }
+        catch (ServiceException e) {
+            host.dereference();
+            throw e;
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(m_configuration.getConnectTimeout());
+            connection.setReadTimeout(m_configuration.getReadTimeout());
+            connection.setRequestProperty("Connection", "keep-alive");
+            acceptCompression(connection);
+            m_inUse.put(connection, host);
+            return connection;
+        }
+        catch (IOException | RuntimeException e) {
+            host.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a connection obtained through {@link #openConnection(URL)}. Reusable connections have
+     * their response drained so that the socket can be reused by the next invocation, others are
+     * disconnected.
+     *
+     * @param connection the connection to release, can be <code>null</code>;
+     * @param reusable <code>true</code> if the connection completed its exchange without I/O problems,
+     *        <code>false</code> otherwise.
+     */
+    public void release(HttpURLConnection connection, boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (!reusable || !drainResponse(connection)) {
+                connection.disconnect();
+            }
+        }
+        finally {
+            HostConnections host = m_inUse.remove(connection);
+            if (host != null) {
+                host.release();
+            }
+        }
+    }
+
+    /**
+     * @return the batcher that merges concurrent invocations using these connections, never <code>null</code>.
+     */
+    public HttpClientBatcher getBatcher() {
+        return m_batcher;
+    }
+
+    /**
+     * @return the connections to remote admins serving their endpoints over TCP, never <code>null</code>.
+     */
+    public TcpClientConnections getTcpConnections() {
+        return m_tcpConnections;
+    }
+
+    /**
+     * Returns the executor for asynchronous invocations, creating it if needed.
+     *
+     * @return the executor, never <code>null</code>.
+     */
+    public synchronized Executor getExecutor() {
+        if (m_executor == null) {
+            m_executor = AsyncUtil.createExecutor("Amdatu HTTP client", ASYNC_THREADS);
+        }
+        return m_executor;
+    }
+
+    /**
+     * Forgets about all hosts, closes the TCP connections and stops the executor for asynchronous
+     * invocations. HTTP connections that are still in use are unaffected and will simply be
+     * disconnected upon release.
+     */
+    public void close() {
+        m_hosts.clear();
+        m_tcpConnections.close();
+        synchronized (this) {
+            if (m_executor != null) {
+                m_executor.shutdown();
+                m_executor = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the bookkeeping of the target host of the given URL, referenced on behalf of the caller so that it is
+     * not evicted until released through {@link HostConnections#release()} or {@link HostConnections#dereference()}.
+     */
+    private HostConnections getHostConnections(URL url) {
+        evictIdleHosts();
+
+        // Reference the host atomically with its lookup, so it cannot be evicted in between...
+        return m_hosts.compute(getHostKey(url), new BiFunction<String, HostConnections, HostConnections>() {
+            @Override
+            public HostConnections apply(String key, HostConnections host) {
+                if (host == null) {
+                    host = new HostConnections(m_configuration.getMaxConnectionsPerEndpoint());
+                }
+                host.reference();
+                return host;
+            }
+        });
+    }
+
+    private void evictIdleHosts() {
+        final long idleTimeout = m_configuration.getConnectionIdleTimeout();
+        final long now = System.currentTimeMillis();
+        long nextEviction = m_nextEviction.get();
+        if (now < nextEviction || !m_nextEviction.compareAndSet(nextEviction, now + idleTimeout)) {
+            // Not yet due, or another caller is evicting...
+            return;
+        }
+        BiFunction<String, HostConnections, HostConnections> evictIfIdle =
+            new BiFunction<String, HostConnections, HostConnections>() {
+                @Override
+                public HostConnections apply(String key, HostConnections host) {
+                    return host.isIdle(now, idleTimeout) ? null : host;
+                }
+            };
+        for (String key : m_hosts.keySet()) {
+            m_hosts.computeIfPresent(key, evictIfIdle);
+        }
+    }
+
+    /**
+     * Reads the remainder of the response (or error response) so the underlying socket can be
+     * returned to the keep-alive cache.
+     *
+     * @return <code>true</code> if the response was drained, <code>false</code> otherwise.
+     */
+    private static boolean drainResponse(HttpURLConnection connection) {
+        InputStream in = null;
+        try {
+            if (connection.getResponseCode() >= 400) {
+                in = connection.getErrorStream();
+            }
+            else {
+                in = connection.getInputStream();
+            }
+            if (in != null) {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (in.read(buffer) >= 0) {
+                    // Nop; just drain...
+                }
+                in.close();
+            }
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String getHostKey(URL url) {
+        int port = url.getPort();
+        if (port == -1) {
+            port = url.getDefaultPort();
+        }
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * Bookkeeping of the connections of a single target host. It is referenced by every caller between looking it up
+     * and releasing its connection, and only evicted when unreferenced, so all callers share the same permits.
+     */
+    private static final class HostConnections {
+
+        private final Semaphore m_permits;
+        private final int m_maxConnections;
+        private final AtomicInteger m_references = new AtomicInteger();
+        private volatile long m_lastUsed;
+
+        HostConnections(int maxConnections) {
+            m_maxConnections = maxConnections;
+            m_permits = new Semaphore(maxConnections, true);
+            m_lastUsed = System.currentTimeMillis();
+        }
+
+        void reference() {
+            m_references.incrementAndGet();
+        }
+
+        void dereference() {
+            m_lastUsed = System.currentTimeMillis();
+            m_references.decrementAndGet();
+        }
+
+        /**
+         * Acquires a connection slot. Failing to do so is a local condition, rather than a problem of the remote
+         * host, so it is not reported as an I/O problem.
+         */
+        void acquire(int timeout) {
+            m_lastUsed = System.currentTimeMillis();
+            try {
+                if (!m_permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new ServiceException("Remote service invocation rejected: no connection available within "
+                        + timeout + " ms (max. " + m_maxConnections + " connections per endpoint)",
+                        ServiceException.REMOTE);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Remote service invocation interrupted while waiting for a connection",
+                    ServiceException.REMOTE, e);
+            }
+        }
+
+        void release() {
+            m_permits.release();
+            dereference();
+        }
+
+        boolean isIdle(long now, long idleTimeout) {
+            return m_references.get() == 0 && m_permits.availablePermits() == m_maxConnections
+                && (now - m_lastUsed) > idleTimeout;
+        }
+    }
+}
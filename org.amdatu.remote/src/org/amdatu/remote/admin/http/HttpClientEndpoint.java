@@ -13,10 +13,17 @@
  */
 package org.amdatu.remote.admin.http;
 
+import static java.net.HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static org.amdatu.remote.AsyncUtil.withCallerContext;
+import static org.amdatu.remote.CompressionUtil.getDecompressingInputStream;
 import static org.amdatu.remote.IOUtil.closeSilently;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.DEADLINE_HEADER;
 import static org.amdatu.remote.admin.http.HttpAdminUtil.getMethodSignature;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,53 +31,120 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import org.amdatu.remote.CircuitBreaker;
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.CountingInputStream;
+import org.amdatu.remote.CountingOutputStream;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.amdatu.remote.metrics.MethodMetrics;
 import org.osgi.framework.ServiceException;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 /**
  * Implementation of an {@link InvocationHandler} that represents a remoted service for one or more service interfaces.
+ * <p>
+ * Methods returning a {@link CompletableFuture} or {@link java.util.concurrent.CompletionStage CompletionStage} are
+ * invoked asynchronously: the proxy returns immediately and the future is completed once the remote invocation is done.
+ * <p>
+ * Methods can be given a deadline, which bounds the time the invocation may take, queueing included, and is sent
+ * along with the invocation so the remote endpoint does not start work whose outcome is no longer awaited.
  *
  * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
  */
 public final class HttpClientEndpoint implements InvocationHandler {
 
-    private static final int FATAL_ERROR_COUNT = 5;
+    private static final int CIRCUIT_MINIMUM_CALLS = 5;
 
     private final ObjectMapper m_objectMapper = new ObjectMapper();
-    private final JsonFactory m_JsonFactory = new JsonFactory(m_objectMapper);
 
-    private final Map<Method, String> m_interfaceMethods;
+    private final ObjectReader m_exceptionReader = m_objectMapper.reader(ExceptionWrapper.class);
+
+    private final Map<Method, MethodInvocationPlan> m_plans;
     private final URL m_serviceURL;
+    private final URL m_batchURL;
+    private final String m_endpointId;
     private final Object m_proxy;
-    private final HttpAdminConfiguration m_configuration;
+    private final HttpClientConnectionManager m_connectionManager;
+    private final HttpCodec m_codec;
 
     private ClientEndpointProblemListener m_problemListener;
-    private int m_remoteErrors;
+    private volatile CircuitBreaker m_circuitBreaker;
+    private volatile long m_backOffUntil;
+    private volatile HttpServerEndpointHandler m_inProcessEndpoints;
+    private volatile boolean m_passByReference;
+    private volatile HttpClientResultCache m_resultCache;
+    private volatile HttpClientInvocationCoalescer m_coalescer;
+    private volatile Map<String, Long> m_deadlines = Collections.emptyMap();
+    private volatile EndpointMetrics m_metrics;
+    private volatile String m_tcpAddress;
 
     public HttpClientEndpoint(URL serviceURL, HttpAdminConfiguration configuration, Class<?>... interfaceClasses) {
+        this(serviceURL, configuration, new HttpClientConnectionManager(configuration), interfaceClasses);
+    }
+
+    public HttpClientEndpoint(URL serviceURL, HttpAdminConfiguration configuration,
+        HttpClientConnectionManager connectionManager, Class<?>... interfaceClasses) {
+        this(serviceURL, configuration, connectionManager, HttpCodecs.JSON, null, interfaceClasses);
+    }
+
+    /**
+     * @param codec the codec to encode invocations with, cannot be <code>null</code>;
+     * @param methodSignatures the method table published by the remote endpoint, or <code>null</code> if the
+     *        remote endpoint does not support method ids, in which case methods are identified by their signature.
+     */
+    public HttpClientEndpoint(URL serviceURL, HttpAdminConfiguration configuration,
+        HttpClientConnectionManager connectionManager, HttpCodec codec, String[] methodSignatures,
+        Class<?>... interfaceClasses) {
         if (interfaceClasses.length == 0) {
             throw new IllegalArgumentException("Need at least one interface to expose!");
         }
-        m_interfaceMethods = new HashMap<Method, String>();
+        m_plans = new HashMap<Method, MethodInvocationPlan>();
         m_serviceURL = serviceURL;
+        // The service URL is composed of the base URL of the remote admin and the endpoint id...
+        String path = serviceURL.getPath();
+        int idx = path.lastIndexOf('/');
+        m_endpointId = path.substring(idx + 1);
+        try {
+            m_batchURL = new URL(serviceURL, path.substring(0, idx + 1));
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid service URL", e);
+        }
         m_proxy = Proxy.newProxyInstance(getClass().getClassLoader(), interfaceClasses, this);
-        m_configuration = configuration;
-        m_remoteErrors = 0;
+        m_connectionManager = connectionManager;
+        m_codec = codec;
+        m_circuitBreaker = createCircuitBreaker(configuration);
+
+        Map<String, Integer> methodIds = new HashMap<String, Integer>();
+        if (methodSignatures != null) {
+            for (int i = 0; i < methodSignatures.length; i++) {
+                methodIds.put(methodSignatures[i], i);
+            }
+        }
 
         for (Class<?> interfaceClass : interfaceClasses) {
             for (Method method : interfaceClass.getMethods()) {
-                m_interfaceMethods.put(method, getMethodSignature(method));
+                Integer id = methodIds.get(getMethodSignature(method));
+                m_plans.put(method, new MethodInvocationPlan(m_objectMapper, method, id == null ? -1 : id));
             }
         }
     }
@@ -87,8 +161,18 @@ public final class HttpClientEndpoint implements InvocationHandler {
             // AMDATURS-119: Compare by identity, should be sufficient for the general contract without the massive overhead of doing remote calls...
             return serviceProxy == args[0];
         }
-        else if (m_interfaceMethods.containsKey(method)) {
-            return invokeRemoteMethod(method, args);
+        MethodInvocationPlan plan = m_plans.get(method);
+        if (plan != null) {
+            long deadline = getDeadline(plan);
+            HttpClientResultCache resultCache = getResultCache(plan);
+            HttpClientInvocationCoalescer coalescer = getCoalescer(plan);
+            if (resultCache != null || coalescer != null) {
+                return invokeRemoteMethodShared(resultCache, coalescer, plan, args, deadline);
+            }
+            if (plan.isAsync()) {
+                return invokeRemoteMethodAsync(plan, args, deadline);
+            }
+            return invokeRemoteMethod(plan, args, deadline);
         }
         // Last resort: use the service URL for locks/monitors and string representation... 
         return method.invoke(m_serviceURL, args);
@@ -102,53 +186,401 @@ public final class HttpClientEndpoint implements InvocationHandler {
     }
 
     /**
-     * Handles I/O exceptions by counting the number of times they occurred, and if a certain
-     * threshold is exceeded closes the import registration for this endpoint.
+     * Allows this endpoint to invoke the remote service in-process, bypassing HTTP altogether, as long as it is
+     * exported through the given handler, which must be the handler of the framework this endpoint lives in.
+     * 
+     * @param endpoints the handler of the server endpoints of the local framework, can be <code>null</code>;
+     * @param passByReference <code>true</code> if the endpoint allows arguments and results to be passed by
+     *        reference, <code>false</code> if they must be copied.
+     */
+    public void setInProcessEndpoints(HttpServerEndpointHandler endpoints, boolean passByReference) {
+        m_inProcessEndpoints = endpoints;
+        m_passByReference = passByReference;
+    }
+
+    /**
+     * @param tcpAddress the <code>host:port</code> on which the remote endpoint is also served over TCP, can be
+     *        <code>null</code> to invoke it over HTTP only.
+     */
+    public void setTcpAddress(String tcpAddress) {
+        m_tcpAddress = tcpAddress;
+    }
+
+    /**
+     * @param resultCache the cache to serve invocations of cacheable methods from, can be <code>null</code> to
+     *        always invoke the remote service.
+     */
+    public void setResultCache(HttpClientResultCache resultCache) {
+        m_resultCache = resultCache;
+    }
+
+    /**
+     * @param coalescer the coalescer to share concurrent identical invocations through, can be <code>null</code> to
+     *        never share invocations.
+     */
+    public void setCoalescer(HttpClientInvocationCoalescer coalescer) {
+        m_coalescer = coalescer;
+    }
+
+    /**
+     * @param deadlines the time in milliseconds within which invocations must complete, by method name or
+     *        signature, cannot be <code>null</code>. Methods without a deadline are bound by the read timeout only.
+     */
+    public void setDeadlines(Map<String, Long> deadlines) {
+        m_deadlines = deadlines;
+    }
+
+    /**
+     * @return the deadline of an invocation of the given method that starts now, as {@link System#nanoTime()}, or
+     *         <code>0</code> if the method has no deadline.
+     */
+    private long getDeadline(MethodInvocationPlan plan) {
+        Map<String, Long> deadlines = m_deadlines;
+        if (deadlines.isEmpty()) {
+            return 0;
+        }
+        Long timeout = deadlines.get(plan.getSignature());
+        if (timeout == null) {
+            timeout = deadlines.get(plan.getMethod().getName());
+        }
+        if (timeout == null) {
+            return 0;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        return (deadline == 0) ? 1 : deadline;
+    }
+
+    /**
+     * @param deadline the deadline as returned by {@link #getDeadline(MethodInvocationPlan)};
+     * @return the time in milliseconds left until the given deadline, or <code>-1</code> if there is no deadline.
+     * @throws ServiceException in case the deadline has passed.
+     */
+    private static long getRemainingTime(long deadline) {
+        if (deadline == 0) {
+            return -1;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw deadlineExceeded();
+        }
+        return remaining;
+    }
+
+    private static ServiceException deadlineExceeded() {
+        return new ServiceException("Remote service invocation rejected: deadline exceeded", ServiceException.REMOTE);
+    }
+
+    /**
+     * @return the result cache if results of the given method are cached, <code>null</code> otherwise.
+     */
+    private HttpClientResultCache getResultCache(MethodInvocationPlan plan) {
+        HttpClientResultCache resultCache = m_resultCache;
+        return (resultCache != null && resultCache.isCacheable(plan)) ? resultCache : null;
+    }
+
+    /**
+     * @return the coalescer if invocations of the given method are coalesced, <code>null</code> otherwise.
+     */
+    private HttpClientInvocationCoalescer getCoalescer(MethodInvocationPlan plan) {
+        HttpClientInvocationCoalescer coalescer = m_coalescer;
+        return (coalescer != null && coalescer.isCoalesced(plan)) ? coalescer : null;
+    }
+
+    /**
+     * @param circuitBreaker the circuit breaker to guard the remote invocations with, cannot be <code>null</code>.
+     *        Allows the client endpoints of an import to share a single circuit breaker.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        m_circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param metrics the metrics to record the remote invocations in, can be <code>null</code> to record none.
+     *        Allows the client endpoints of an import to share their metrics.
+     */
+    public void setMetrics(EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @return the metrics of the given method, or <code>null</code> if invocations are not recorded.
+     */
+    private MethodMetrics getMethodMetrics(MethodInvocationPlan plan) {
+        EndpointMetrics metrics = m_metrics;
+        return (metrics != null) ? metrics.getMethodMetrics(plan.getSignature()) : null;
+    }
+
+    /**
+     * Creates a circuit breaker for the remote invocations of an endpoint.
+     * 
+     * @param configuration the configuration to take the settings of the circuit breaker from, cannot be
+     *        <code>null</code>.
+     * @return a new, closed, circuit breaker, never <code>null</code>.
+     */
+    public static CircuitBreaker createCircuitBreaker(HttpAdminConfiguration configuration) {
+        return new CircuitBreaker(configuration.getCircuitFailureThreshold(), CIRCUIT_MINIMUM_CALLS,
+            configuration.getCircuitWindow(), configuration.getCircuitOpenTime());
+    }
+
+    /**
+     * Handles failures of the remote endpoint, such as I/O exceptions, by recording them as failures in the circuit
+     * breaker, which opens the circuit if the failure rate gets too high, and reporting them as warnings.
      * 
      * @param e the exception to handle.
      */
-    private void handleRemoteException(IOException e) {
+    private void handleRemoteException(Exception e) {
+        State state = m_circuitBreaker.onFailure();
         if (m_problemListener != null) {
-            if (++m_remoteErrors > FATAL_ERROR_COUNT) {
-                m_problemListener.handleEndpointError(e);
+            m_problemListener.handleEndpointWarning(e);
+            if (state != null) {
+                m_problemListener.handleEndpointStateChanged(state, e);
             }
-            else {
-                m_problemListener.handleEndpointWarning(e);
+        }
+    }
+
+    /**
+     * Handles responses of the remote endpoint by recording them as successes in the circuit breaker, which closes a
+     * half-open circuit.
+     */
+    private void handleRemoteSuccess() {
+        State state = m_circuitBreaker.onSuccess();
+        if (state != null && m_problemListener != null) {
+            m_problemListener.handleEndpointStateChanged(state, null);
+        }
+    }
+
+    /**
+     * Does the invocation of the remote method on the executor of the connection manager, with the access control
+     * context of the caller.
+     * 
+     * @param plan the invocation plan of the actual method to invoke;
+     * @param arguments the arguments of the method to invoke;
+     * @param deadline the deadline of the invocation, or <code>0</code> if it has none;
+     * @return the future result of the method invocation, never <code>null</code>.
+     */
+    private CompletableFuture<Object> invokeRemoteMethodAsync(final MethodInvocationPlan plan, final Object[] arguments,
+        final long deadline) {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            m_connectionManager.getExecutor().execute(withCallerContext(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(invokeRemoteMethod(plan, arguments, deadline));
+                    }
+                    catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ServiceException("Remote service invocation rejected: " + e.getMessage(),
+                ServiceException.REMOTE, e));
+        }
+        return future;
+    }
+
+    /**
+     * Does the invocation of a remote method whose result only depends on its arguments. The invocation is served from
+     * the result cache if it holds a result for the very same invocation, or joins an identical invocation that is in
+     * flight if invocations are coalesced. Otherwise the remote method is invoked, after which its result is cached
+     * and handed to the invocations that joined it.
+     * 
+     * @param resultCache the cache to use, can be <code>null</code> if results are not cached;
+     * @param coalescer the coalescer to use, can be <code>null</code> if invocations are not coalesced;
+     * @param plan the invocation plan of the actual method to invoke;
+     * @param arguments the arguments of the method to invoke;
+     * @param deadline the deadline of the invocation, or <code>0</code> if it has none;
+     * @return the result of the method invocation, or its future result for asynchronous methods.
+     * @throws Exception in case the invocation failed in some way.
+     */
+    private Object invokeRemoteMethodShared(final HttpClientResultCache resultCache,
+        final HttpClientInvocationCoalescer coalescer, final MethodInvocationPlan plan, Object[] arguments,
+        long deadline) throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeMethodInvocation(out, plan, arguments);
+        final byte[] invocation = out.toByteArray();
+
+        if (resultCache != null) {
+            byte[] cached = resultCache.get(plan.getMethod(), invocation);
+            if (cached != null) {
+                Object result = readSharedResult(plan, cached);
+                return plan.isAsync() ? CompletableFuture.completedFuture(result) : result;
+            }
+        }
+
+        final CompletableFuture<byte[]> outcome = new CompletableFuture<byte[]>();
+        if (coalescer != null) {
+            CompletableFuture<byte[]> inFlight = coalescer.join(plan.getMethod(), invocation, outcome);
+            if (inFlight != null) {
+                return plan.isAsync() ? awaitSharedResultAsync(plan, inFlight) : awaitSharedResult(plan, inFlight);
+            }
+        }
+
+        if (!plan.isAsync()) {
+            Object result;
+            try {
+                result = invokeRemoteMethod(plan, arguments, deadline);
+            }
+            catch (Throwable e) {
+                completeSharedInvocation(resultCache, coalescer, plan, invocation, outcome, null, e);
+                throw e;
+            }
+            completeSharedInvocation(resultCache, coalescer, plan, invocation, outcome, result, null);
+            return result;
+        }
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        invokeRemoteMethodAsync(plan, arguments, deadline).whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable e) {
+                completeSharedInvocation(resultCache, coalescer, plan, invocation, outcome, result, e);
+                if (e != null) {
+                    future.completeExceptionally(e);
+                }
+                else {
+                    future.complete(result);
+                }
             }
+        });
+        return future;
+    }
+
+    /**
+     * Completes an invocation that is shared through the result cache and/or coalescer by caching its result and
+     * handing its outcome to the invocations that joined it.
+     */
+    private void completeSharedInvocation(HttpClientResultCache resultCache, HttpClientInvocationCoalescer coalescer,
+        MethodInvocationPlan plan, byte[] invocation, CompletableFuture<byte[]> outcome, Object result,
+        Throwable exception) {
+        if (coalescer != null) {
+            coalescer.leave(plan.getMethod(), invocation, outcome);
+        }
+        if (exception != null) {
+            outcome.completeExceptionally(exception);
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator gen = m_codec.createGenerator(out);
+            plan.writeResult(result, gen);
+            gen.close();
+            byte[] serialized = out.toByteArray();
+            if (resultCache != null) {
+                resultCache.put(plan.getMethod(), invocation, serialized);
+            }
+            outcome.complete(serialized);
+        }
+        catch (IOException e) {
+            outcome.completeExceptionally(new ServiceException("Remote service invocation failed: " + e.getMessage(),
+                ServiceException.REMOTE, e));
+        }
+    }
+
+    /**
+     * Waits for the outcome of a shared invocation that is in flight.
+     * 
+     * @return the result of the shared invocation, can be <code>null</code>.
+     * @throws Exception the exception of the shared invocation, if any.
+     */
+    private Object awaitSharedResult(MethodInvocationPlan plan, CompletableFuture<byte[]> inFlight) throws Throwable {
+        byte[] serialized;
+        try {
+            serialized = inFlight.get();
+        }
+        catch (ExecutionException e) {
+            throw e.getCause();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Remote service invocation interrupted", ServiceException.REMOTE, e);
+        }
+        return readSharedResult(plan, serialized);
+    }
+
+    /**
+     * @return the future result of the given shared invocation that is in flight, never <code>null</code>.
+     */
+    private CompletableFuture<Object> awaitSharedResultAsync(final MethodInvocationPlan plan,
+        CompletableFuture<byte[]> inFlight) {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        inFlight.whenComplete(new BiConsumer<byte[], Throwable>() {
+            @Override
+            public void accept(byte[] serialized, Throwable e) {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    future.complete(readSharedResult(plan, serialized));
+                }
+                catch (IOException ioe) {
+                    future.completeExceptionally(new ServiceException("Remote service invocation failed: "
+                        + ioe.getMessage(), ServiceException.REMOTE, ioe));
+                }
+            }
+        });
+        return future;
+    }
+
+    private Object readSharedResult(MethodInvocationPlan plan, byte[] serialized) throws IOException {
+        JsonParser parser = m_codec.createParser(new ByteArrayInputStream(serialized));
+        try {
+            parser.nextToken();
+            return plan.readResult(parser);
+        }
+        finally {
+            parser.close();
         }
     }
 
     /**
      * Does the invocation of the remote method adhering to any security managers that might be installed.
      * 
-     * @param method the actual method to invoke;
+     * @param plan the invocation plan of the actual method to invoke;
      * @param arguments the arguments of the method to invoke;
+     * @param deadline the deadline of the invocation, or <code>0</code> if it has none;
      * @return the result of the method invocation, can be <code>null</code>.
      * @throws Exception in case the invocation failed in some way.
      */
-    private Object invokeRemoteMethod(final Method method, final Object[] arguments) throws Throwable {
-        SecurityManager securityManager = System.getSecurityManager();
-        if (securityManager != null) {
-            try {
-                return AccessController.doPrivileged(new PrivilegedAction<Object>() {
-                    @Override
-                    public Object run() {
-                        try {
-                            return invokeRemoteMethodSecure(method, arguments);
-                        }
-                        catch (Throwable e) {
-                            throw new ServiceException("TRANSPORT WRAPPER", e);
+    private Object invokeRemoteMethod(final MethodInvocationPlan plan, final Object[] arguments, final long deadline)
+        throws Throwable {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result;
+            SecurityManager securityManager = System.getSecurityManager();
+            if (securityManager != null) {
+                try {
+                    result = AccessController.doPrivileged(new PrivilegedAction<Object>() {
+                        @Override
+                        public Object run() {
+                            try {
+                                return invokeRemoteMethodSecure(plan, arguments, deadline);
+                            }
+                            catch (Throwable e) {
+                                throw new ServiceException("TRANSPORT WRAPPER", e);
+                            }
                         }
-                    }
-                });
+                    });
+                }
+                catch (ServiceException e) {
+                    // All exceptions are wrapped in this exception, so we need to rethrow its cause to get the
+                    // actual exception back...
+                    throw e.getCause();
+                }
             }
-            catch (ServiceException e) {
-                // All exceptions are wrapped in this exception, so we need to rethrow its cause to get the actual exception back...
-                throw e.getCause();
+            else {
+                result = invokeRemoteMethodSecure(plan, arguments, deadline);
             }
+            failed = false;
+            return result;
         }
-        else {
-            return invokeRemoteMethodSecure(method, arguments);
+        finally {
+            MethodMetrics metrics = getMethodMetrics(plan);
+            if (metrics != null) {
+                metrics.recordInvocation(System.nanoTime() - start, failed);
+            }
         }
     }
 
@@ -158,65 +590,186 @@ public final class HttpClientEndpoint implements InvocationHandler {
      * This method assumes that all security checks (if needed) are processed!
      * </p>
      * 
-     * @param method the actual method to invoke;
+     * @param plan the invocation plan of the actual method to invoke;
      * @param arguments the arguments of the method to invoke;
+     * @param deadline the deadline of the invocation, or <code>0</code> if it has none;
      * @return the result of the method invocation, can be <code>null</code>.
      * @throws Exception in case the invocation failed in some way.
      */
-    private Object invokeRemoteMethodSecure(Method method, Object[] arguments) throws Throwable {
+    private Object invokeRemoteMethodSecure(MethodInvocationPlan plan, Object[] arguments, long deadline)
+        throws Throwable {
+        long remaining = getRemainingTime(deadline);
+        long backOff = m_backOffUntil - System.currentTimeMillis();
+        if (backOff > 0) {
+            throw new ServiceException("Remote service invocation rejected: endpoint overloaded, retry after "
+                + backOff + " ms", ServiceException.REMOTE);
+        }
+        HttpServerEndpoint localEndpoint = getInProcessEndpoint();
+        if (localEndpoint != null && m_passByReference && localEndpoint.isInvocableByReference(plan)) {
+            return localEndpoint.invokeByReference(plan, arguments);
+        }
+        if (!m_circuitBreaker.allowInvocation()) {
+            throw new ServiceException("Remote service invocation rejected: circuit open, endpoint failing",
+                ServiceException.REMOTE);
+        }
+        String tcpAddress = m_tcpAddress;
+        if (localEndpoint != null || tcpAddress != null || m_connectionManager.getBatcher().isEnabled()) {
+            return invokeRemoteMethodBatched(localEndpoint, tcpAddress, plan, arguments, remaining);
+        }
 
         HttpURLConnection connection = null;
         OutputStream outputStream = null;
         InputStream inputStream = null;
         Object result = null;
         ExceptionWrapper exception = null;
+        boolean reusable = false;
+        boolean recorded = false;
+        MethodMetrics metrics = getMethodMetrics(plan);
         try {
-            connection = (HttpURLConnection) m_serviceURL.openConnection();
+            connection = m_connectionManager.openConnection(m_serviceURL);
+            if (remaining > 0) {
+                // Do not wait for the response longer than the deadline allows, and let the server know...
+                int readTimeout = connection.getReadTimeout();
+                if (readTimeout <= 0 || readTimeout > remaining) {
+                    connection.setReadTimeout((int) remaining);
+                }
+                connection.setRequestProperty(DEADLINE_HEADER, String.valueOf(remaining));
+            }
             connection.setRequestMethod("POST");
             connection.setUseCaches(false);
             connection.setDoOutput(true);
-            connection.setConnectTimeout(m_configuration.getConnectTimeout());
-            connection.setReadTimeout(m_configuration.getReadTimeout());
-            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Type", m_codec.getContentType());
             connection.connect();
-            outputStream = connection.getOutputStream();
-            writeMethodInvocationJSON(outputStream, method, arguments);
+            CountingOutputStream countingOutputStream = new CountingOutputStream(connection.getOutputStream());
+            outputStream = countingOutputStream;
+            long encodeStart = System.nanoTime();
+            writeMethodInvocation(outputStream, plan, arguments);
+            long encodeTime = System.nanoTime() - encodeStart;
 
             int rc = connection.getResponseCode();
             switch (rc) {
                 case HTTP_OK:
-                    inputStream = connection.getInputStream();
-                    JsonNode tree = m_objectMapper.readTree(inputStream);
-                    if (tree != null) {
-                        JsonNode exceptionNode = tree.get("e");
-                        if (exceptionNode != null) {
-                            exception = m_objectMapper.readValue(exceptionNode.traverse(), ExceptionWrapper.class);
-                        }
-                        else {
-                            JsonNode responseNode = tree.get("r");
-                            if (responseNode != null) {
-                                JavaType returnType =
-                                    m_objectMapper.getTypeFactory().constructType(method.getGenericReturnType());
-                                result = m_objectMapper.readValue(responseNode.traverse(), returnType);
-                            }
-                        }
+                    CountingInputStream countingInputStream =
+                        new CountingInputStream(getDecompressingInputStream(connection, connection.getInputStream()));
+                    inputStream = countingInputStream;
+                    long decodeStart = System.nanoTime();
+                    RemoteResult remoteResult = readResponse(m_codec.createParser(inputStream), plan);
+                    result = remoteResult.m_result;
+                    exception = remoteResult.m_exception;
+                    if (metrics != null) {
+                        metrics.recordSerialization(encodeTime + System.nanoTime() - decodeStart);
+                        metrics.recordBytes(countingInputStream.getCount(), countingOutputStream.getCount());
                     }
                     break;
+                case HTTP_UNAVAILABLE:
+                    int retryAfter = parseRetryAfter(connection.getHeaderField("Retry-After"));
+                    if (retryAfter >= 0) {
+                        reusable = true;
+                        throw rejectInvocation(retryAfter);
+                    }
+                    throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
+                case HTTP_GATEWAY_TIMEOUT:
+                    if (remaining > 0) {
+                        // The server did not start the invocation as its deadline passed, which counts as a failure
+                        // just like a read timeout does...
+                        reusable = true;
+                        ServiceException e = deadlineExceeded();
+                        handleRemoteException(e);
+                        recorded = true;
+                        throw e;
+                    }
+                    throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
                 default:
                     throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
             }
-            // Reset this error counter upon each successful request...
-            m_remoteErrors = 0;
+            handleRemoteSuccess();
+            recorded = true;
+            reusable = true;
+        }
+        catch (IOException e) {
+            handleRemoteException(e);
+            recorded = true;
+            throw new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE,
+                e);
+        }
+        finally {
+            if (!recorded) {
+                // Rejected by the remote endpoint, or not sent at all...
+                m_circuitBreaker.onIgnored();
+            }
+            closeSilently(outputStream);
+            m_connectionManager.release(connection, reusable);
+            closeSilently(inputStream);
+        }
+
+        if (exception != null) {
+            throw exception.getException();
+        }
+        return result;
+    }
+
+    /**
+     * Does the actual invocation of the remote method in-process, if the remote endpoint is exported by the local
+     * framework, over TCP, if the remote endpoint is served over TCP, or otherwise as part of a batch of concurrent
+     * invocations. All yield the outcome in the same format, and all send the deadline along with the invocation.
+     * 
+     * @param localEndpoint the server endpoint to invoke in-process, or <code>null</code> to invoke it remotely;
+     * @param tcpAddress the TCP address of the remote endpoint, or <code>null</code> to use the batcher;
+     * @param plan the invocation plan of the actual method to invoke;
+     * @param arguments the arguments of the method to invoke;
+     * @param remaining the time in milliseconds left until the deadline of the invocation, or <code>-1</code>;
+     * @return the result of the method invocation, can be <code>null</code>.
+     * @throws Exception in case the invocation failed in some way.
+     */
+    private Object invokeRemoteMethodBatched(HttpServerEndpoint localEndpoint, String tcpAddress,
+        MethodInvocationPlan plan, Object[] arguments, long remaining) throws Throwable {
+        Object result = null;
+        ExceptionWrapper exception = null;
+        boolean recorded = false;
+        try {
+            JsonNode tree;
+            if (localEndpoint != null) {
+                tree = invokeInProcess(localEndpoint, plan, arguments, remaining);
+            }
+            else if (tcpAddress != null) {
+                tree = m_connectionManager.getTcpConnections().invoke(tcpAddress, m_endpointId, m_codec, plan,
+                    arguments, Math.max(remaining, 0));
+            }
+            else {
+                tree = m_connectionManager.getBatcher().invoke(m_batchURL, m_endpointId, m_codec, plan, arguments,
+                    Math.max(remaining, 0));
+            }
+            JsonNode statusNode = tree.get("s");
+            JsonNode retryAfterNode = tree.get("w");
+            if (statusNode != null && statusNode.asInt() == HTTP_UNAVAILABLE && retryAfterNode != null) {
+                throw rejectInvocation(retryAfterNode.asInt());
+            }
+            if (statusNode != null && statusNode.asInt() == HTTP_GATEWAY_TIMEOUT && remaining > 0) {
+                // The endpoint did not start the invocation as its deadline passed...
+                ServiceException e = deadlineExceeded();
+                handleRemoteException(e);
+                recorded = true;
+                throw e;
+            }
+            if (statusNode != null) {
+                throw new IOException("Unexpected HTTP response: " + statusNode.asInt());
+            }
+            RemoteResult remoteResult = readResponse(tree.traverse(m_objectMapper), plan);
+            result = remoteResult.m_result;
+            exception = remoteResult.m_exception;
+            handleRemoteSuccess();
+            recorded = true;
         }
         catch (IOException e) {
             handleRemoteException(e);
+            recorded = true;
             throw new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE,
                 e);
         }
         finally {
-            closeSilently(inputStream, outputStream);
-            if (connection != null) {
-                connection.disconnect();
+            if (!recorded) {
+                // Rejected by the remote endpoint, or not sent at all...
+                m_circuitBreaker.onIgnored();
             }
         }
 
@@ -227,26 +780,139 @@ public final class HttpClientEndpoint implements InvocationHandler {
     }
 
     /**
-     * Writes out the the invocation payload as a JSON object with with two fields. The m-field holds the method's signature
-     * and the a-field hold the arguments array.
+     * @return the server endpoint of the local framework that exports the remote service, or <code>null</code> if
+     *         the remote service is not exported in-process.
+     */
+    private HttpServerEndpoint getInProcessEndpoint() {
+        HttpServerEndpointHandler endpoints = m_inProcessEndpoints;
+        return (endpoints != null) ? endpoints.getHandler(m_endpointId) : null;
+    }
+
+    /**
+     * Invokes the remote method on a server endpoint of the local framework. The invocation and its outcome are
+     * serialized once into in-memory buffers, which preserves the pass-by-value semantics without any network I/O.
+     * 
+     * @return the outcome of the invocation, as it would have been returned for a batched invocation.
+     */
+    private JsonNode invokeInProcess(HttpServerEndpoint localEndpoint, MethodInvocationPlan plan, Object[] arguments,
+        long remaining) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        writeMethodInvocation(request, plan, arguments, remaining);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        JsonGenerator gen = m_codec.createGenerator(response);
+        localEndpoint.invokeInProcess(m_codec.createParser(new ByteArrayInputStream(request.toByteArray())), gen);
+        gen.close();
+        JsonParser parser = m_codec.createParser(new ByteArrayInputStream(response.toByteArray()));
+        try {
+            return parser.readValueAsTree();
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Handles the rejection of an invocation by an overloaded remote endpoint. Subsequent invocations fail fast until
+     * the back-off time requested by the endpoint has passed. Rejections count as neither success nor failure in the
+     * circuit breaker, as they tell nothing about whether the endpoint is able to serve invocations.
+     * 
+     * @param retryAfter the time in seconds to back off;
+     * @return the exception to throw for the rejected invocation, never <code>null</code>.
+     */
+    private ServiceException rejectInvocation(int retryAfter) {
+        m_backOffUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(retryAfter);
+        return new ServiceException("Remote service invocation rejected: endpoint overloaded, retry after "
+            + retryAfter + " s", ServiceException.REMOTE);
+    }
+
+    /**
+     * @return the number of seconds in the given Retry-After header value, or <code>-1</code> if absent or not in
+     *         seconds.
+     */
+    private static int parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads an invocation response in a single pass, binding the result directly from the parser to the result type
+     * of the invoked method.
+     * 
+     * @param parser the parser to read the response from, cannot be <code>null</code>;
+     * @param plan the invocation plan of the invoked method.
+     * @return the result of the invocation, never <code>null</code>.
+     * @throws IOException if the response could not be read
+     */
+    private RemoteResult readResponse(JsonParser parser, MethodInvocationPlan plan) throws IOException {
+        RemoteResult remoteResult = new RemoteResult();
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return remoteResult;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if ("e".equals(fieldName)) {
+                    remoteResult.m_exception = m_exceptionReader.readValue(parser);
+                }
+                else if ("r".equals(fieldName)) {
+                    remoteResult.m_result = plan.readResult(parser);
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            return remoteResult;
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Writes out the the invocation payload as an object with with two fields. The m-field holds the method's id, or
+     * its signature if the remote endpoint did not publish a method table, and the a-field hold the arguments array.
      * 
      * @param out the output stream to write to
-     * @param method the method in question
+     * @param plan the invocation plan of the method in question
      * @param arguments the arguments
      * @throws IOException if a write operation fails
      */
-    private void writeMethodInvocationJSON(OutputStream out, Method method, Object[] arguments) throws IOException {
-        JsonGenerator gen = m_JsonFactory.createGenerator(out);
+    private void writeMethodInvocation(OutputStream out, MethodInvocationPlan plan, Object[] arguments) throws IOException {
+        writeMethodInvocation(out, plan, arguments, -1);
+    }
+
+    /**
+     * Writes out the invocation payload as {@link #writeMethodInvocation(OutputStream, MethodInvocationPlan, Object[])}
+     * does, followed by a d-field holding the time left until the deadline of the invocation, if it has one.
+     */
+    private void writeMethodInvocation(OutputStream out, MethodInvocationPlan plan, Object[] arguments,
+        long remaining) throws IOException {
+        JsonGenerator gen = m_codec.createGenerator(out);
         gen.writeStartObject();
-        gen.writeStringField("m", m_interfaceMethods.get(method));
+        plan.writeMethod(gen);
         gen.writeArrayFieldStart("a");
-        if (arguments != null) {
-            for (int i = 0; i < arguments.length; i++) {
-                gen.writeObject(arguments[i]);
-            }
-        }
+        plan.writeArguments(arguments, gen);
         gen.writeEndArray();
+        if (remaining > 0) {
+            gen.writeNumberField("d", remaining);
+        }
         gen.flush();
         gen.close();
     }
+
+    /**
+     * The outcome of a remote invocation.
+     */
+    private static final class RemoteResult {
+        Object m_result;
+        ExceptionWrapper m_exception;
+    }
 }
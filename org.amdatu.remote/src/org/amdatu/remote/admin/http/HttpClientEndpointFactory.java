@@ -14,8 +14,13 @@
 package org.amdatu.remote.admin.http;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import org.amdatu.remote.CircuitBreaker;
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.metrics.EndpointMetrics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
@@ -29,16 +34,33 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
 
     private final URL m_serviceURL;
     private final List<String> m_interfaceNames;
+    private final HttpCodec m_codec;
+    private final String[] m_methodSignatures;
+    private final CircuitBreaker m_circuitBreaker;
     private ClientEndpointProblemListener m_problemListener;
     private HttpAdminConfiguration m_configuration;
+    private final HttpClientConnectionManager m_connectionManager;
+    private volatile HttpServerEndpointHandler m_inProcessEndpoints;
+    private volatile boolean m_passByReference;
+    private volatile HttpClientResultCache m_resultCache;
+    private volatile HttpClientInvocationCoalescer m_coalescer;
+    private volatile Map<String, Long> m_deadlines = Collections.emptyMap();
+    private volatile EndpointMetrics m_metrics;
+    private volatile String m_tcpAddress;
 
     /**
      * Creates a new {@link HttpClientEndpointFactory} instance.
      */
-    public HttpClientEndpointFactory(URL serviceURL, List<String> interfaceNames, HttpAdminConfiguration configuration) {
+    public HttpClientEndpointFactory(URL serviceURL, List<String> interfaceNames, HttpCodec codec,
+        String[] methodSignatures, HttpAdminConfiguration configuration,
+        HttpClientConnectionManager connectionManager) {
         m_serviceURL = serviceURL;
         m_interfaceNames = interfaceNames;
+        m_codec = codec;
+        m_methodSignatures = methodSignatures;
         m_configuration = configuration;
+        m_circuitBreaker = HttpClientEndpoint.createCircuitBreaker(configuration);
+        m_connectionManager = connectionManager;
     }
 
     @Override
@@ -53,8 +75,16 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
                 return null;
             }
         }
-        HttpClientEndpoint restEndpoint = new HttpClientEndpoint(m_serviceURL, m_configuration, interfaceClasses);
+        HttpClientEndpoint restEndpoint = new HttpClientEndpoint(m_serviceURL, m_configuration, m_connectionManager,
+            m_codec, m_methodSignatures, interfaceClasses);
         restEndpoint.setProblemListener(this);
+        restEndpoint.setCircuitBreaker(m_circuitBreaker);
+        restEndpoint.setInProcessEndpoints(m_inProcessEndpoints, m_passByReference);
+        restEndpoint.setResultCache(m_resultCache);
+        restEndpoint.setCoalescer(m_coalescer);
+        restEndpoint.setDeadlines(m_deadlines);
+        restEndpoint.setMetrics(m_metrics);
+        restEndpoint.setTcpAddress(m_tcpAddress);
         return restEndpoint.getServiceProxy();
     }
 
@@ -72,6 +102,13 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
         }
     }
 
+    @Override
+    public synchronized void handleEndpointStateChanged(State state, Throwable exception) {
+        if (m_problemListener != null) {
+            m_problemListener.handleEndpointStateChanged(state, exception);
+        }
+    }
+
     /**
      * @param problemListener the problem listener to set, can be <code>null</code>.
      */
@@ -79,6 +116,95 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
         m_problemListener = problemListener;
     }
 
+    /**
+     * @param endpoints the handler of the server endpoints of the local framework, in case the remote service may be
+     *        invoked in-process, can be <code>null</code>;
+     * @param passByReference <code>true</code> if in-process invocations may pass arguments and results by reference.
+     * @see HttpClientEndpoint#setInProcessEndpoints(HttpServerEndpointHandler, boolean)
+     */
+    public void setInProcessEndpoints(HttpServerEndpointHandler endpoints, boolean passByReference) {
+        m_inProcessEndpoints = endpoints;
+        m_passByReference = passByReference;
+    }
+
+    /**
+     * @return the cache shared by all client endpoints created by this factory, or <code>null</code> if results are
+     *         not cached.
+     */
+    public HttpClientResultCache getResultCache() {
+        return m_resultCache;
+    }
+
+    /**
+     * @param resultCache the cache to share between all client endpoints created by this factory, can be
+     *        <code>null</code> if results are not to be cached.
+     * @see HttpClientEndpoint#setResultCache(HttpClientResultCache)
+     */
+    public void setResultCache(HttpClientResultCache resultCache) {
+        m_resultCache = resultCache;
+    }
+
+    /**
+     * @return the coalescer shared by all client endpoints created by this factory, or <code>null</code> if
+     *         invocations are not coalesced.
+     */
+    public HttpClientInvocationCoalescer getCoalescer() {
+        return m_coalescer;
+    }
+
+    /**
+     * @param coalescer the coalescer to share between all client endpoints created by this factory, can be
+     *        <code>null</code> if invocations are not to be coalesced.
+     * @see HttpClientEndpoint#setCoalescer(HttpClientInvocationCoalescer)
+     */
+    public void setCoalescer(HttpClientInvocationCoalescer coalescer) {
+        m_coalescer = coalescer;
+    }
+
+    /**
+     * @param deadlines the deadlines of the methods, in milliseconds by method name or signature, cannot be
+     *        <code>null</code>.
+     * @see HttpClientEndpoint#setDeadlines(Map)
+     */
+    public void setDeadlines(Map<String, Long> deadlines) {
+        m_deadlines = deadlines;
+    }
+
+    /**
+     * @return the metrics shared by all client endpoints created by this factory, or <code>null</code> if
+     *         invocations are not recorded.
+     */
+    public EndpointMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * @param metrics the metrics to share between all client endpoints created by this factory, can be
+     *        <code>null</code> if invocations are not to be recorded.
+     * @see HttpClientEndpoint#setMetrics(EndpointMetrics)
+     */
+    public void setMetrics(EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @param tcpAddress the TCP address of the remote endpoint, can be <code>null</code> if it is not served over TCP.
+     * @see HttpClientEndpoint#setTcpAddress(String)
+     */
+    public void setTcpAddress(String tcpAddress) {
+        m_tcpAddress = tcpAddress;
+    }
+
+    /**
+     * Removes all cached results, if any.
+     */
+    public void invalidateResultCache() {
+        HttpClientResultCache resultCache = m_resultCache;
+        if (resultCache != null) {
+            resultCache.invalidate();
+        }
+    }
+
     @Override
     public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service) {
         // Nop
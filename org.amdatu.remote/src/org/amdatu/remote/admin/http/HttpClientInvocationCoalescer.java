@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the invocations of a client endpoint that are in flight, so that concurrent identical invocations
+ * of methods whose results only depend on their arguments can share a single remote invocation.
+ * <p>
+ * The first invocation registers itself as in flight and does the actual remote invocation. Identical invocations
+ * that arrive before it has completed join it and receive its outcome, which is handed over in serialized form so
+ * every caller gets its own copy of the result.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpClientInvocationCoalescer {
+
+    private final Set<String> m_coalescedMethods;
+    private final ConcurrentHashMap<InvocationKey, CompletableFuture<byte[]>> m_inFlight =
+        new ConcurrentHashMap<InvocationKey, CompletableFuture<byte[]>>();
+    private final AtomicLong m_coalesced = new AtomicLong();
+
+    /**
+     * Creates a new coalescer.
+     *
+     * @param coalescedMethods the names or signatures of the methods whose invocations may be coalesced, cannot be
+     *        <code>null</code>.
+     */
+    public HttpClientInvocationCoalescer(String[] coalescedMethods) {
+        m_coalescedMethods = new HashSet<String>(Arrays.asList(coalescedMethods));
+    }
+
+    /**
+     * @param plan the invocation plan of the method, cannot be <code>null</code>.
+     * @return <code>true</code> if invocations of the method may be coalesced, <code>false</code> otherwise.
+     */
+    public boolean isCoalesced(MethodInvocationPlan plan) {
+        return !plan.isVoid() && plan.isDeclaredIn(m_coalescedMethods);
+    }
+
+    /**
+     * Joins an identical invocation that is in flight, or registers the given invocation as in flight otherwise. In
+     * the latter case the caller must invoke the remote method, complete the given outcome and
+     * {@link #leave(Method, byte[], CompletableFuture) leave}.
+     *
+     * @param method the invoked method, cannot be <code>null</code>;
+     * @param invocation the serialized invocation, cannot be <code>null</code>;
+     * @param outcome the future serialized result of the invocation, cannot be <code>null</code>.
+     * @return the future serialized result of the identical invocation that was joined, or <code>null</code> if the
+     *         given invocation is now in flight.
+     */
+    public CompletableFuture<byte[]> join(Method method, byte[] invocation, CompletableFuture<byte[]> outcome) {
+        CompletableFuture<byte[]> inFlight = m_inFlight.putIfAbsent(new InvocationKey(method, invocation), outcome);
+        if (inFlight != null) {
+            m_coalesced.incrementAndGet();
+        }
+        return inFlight;
+    }
+
+    /**
+     * Marks an invocation as no longer in flight, so identical invocations that arrive from now on are not joined
+     * with it anymore.
+     *
+     * @param method the invoked method, cannot be <code>null</code>;
+     * @param invocation the serialized invocation, cannot be <code>null</code>;
+     * @param outcome the future passed upon {@link #join(Method, byte[], CompletableFuture) joining}.
+     */
+    public void leave(Method method, byte[] invocation, CompletableFuture<byte[]> outcome) {
+        m_inFlight.remove(new InvocationKey(method, invocation), outcome);
+    }
+
+    /**
+     * @return the number of invocations that joined an identical invocation in flight.
+     */
+    public long getCoalescedCount() {
+        return m_coalesced.get();
+    }
+
+    /**
+     * @return the number of distinct invocations currently in flight.
+     */
+    public int getInFlightCount() {
+        return m_inFlight.size();
+    }
+}
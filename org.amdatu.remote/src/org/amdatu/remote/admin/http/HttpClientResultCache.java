@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.amdatu.remote.metrics.EndpointMetrics;
+
+/**
+ * Bounded cache of the results of remote methods that the exporter of an endpoint declared cacheable, shared by all
+ * client endpoints of a single import.
+ * <p>
+ * Results are keyed by method and serialized invocation, and are held in serialized form as well, so callers never
+ * share mutable result instances. Entries expire after a fixed time-to-live and the least recently used entry is
+ * evicted once the cache is full. Exceptions are never cached. Hits, misses and evictions are recorded in the
+ * metrics of the endpoint.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpClientResultCache {
+
+    private final Set<String> m_cacheableMethods;
+    private final long m_ttlNanos;
+    private final int m_maxSize;
+    private final LinkedHashMap<InvocationKey, CachedResult> m_entries;
+    private final EndpointMetrics m_metrics;
+
+    /**
+     * Creates a new result cache.
+     *
+     * @param cacheableMethods the names or signatures of the methods whose results may be cached, cannot be
+     *        <code>null</code>;
+     * @param ttl the time in milliseconds results may be cached, &gt; 0;
+     * @param maxSize the maximum number of cached results, &gt; 0;
+     * @param metrics the metrics to record hits, misses and evictions in, can be <code>null</code> to record none.
+     */
+    public HttpClientResultCache(String[] cacheableMethods, long ttl, int maxSize, EndpointMetrics metrics) {
+        if (ttl <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("Time-to-live and size must be positive!");
+        }
+        m_cacheableMethods = new HashSet<String>(Arrays.asList(cacheableMethods));
+        m_ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        m_maxSize = maxSize;
+        m_metrics = metrics;
+        m_entries = new LinkedHashMap<InvocationKey, CachedResult>(16, 0.75f, true /* accessOrder */) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InvocationKey, CachedResult> eldest) {
+                if (size() > m_maxSize) {
+                    if (m_metrics != null) {
+                        m_metrics.recordCacheEviction();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param plan the invocation plan of the method, cannot be <code>null</code>.
+     * @return <code>true</code> if results of the method may be cached, <code>false</code> otherwise.
+     */
+    public boolean isCacheable(MethodInvocationPlan plan) {
+        return !plan.isVoid() && plan.isDeclaredIn(m_cacheableMethods);
+    }
+
+    /**
+     * Returns the cached result of an invocation, if present and not yet expired.
+     *
+     * @param method the invoked method, cannot be <code>null</code>;
+     * @param invocation the serialized invocation, cannot be <code>null</code>.
+     * @return the serialized result, or <code>null</code> if the cache holds no result for the invocation.
+     */
+    public byte[] get(Method method, byte[] invocation) {
+        InvocationKey key = new InvocationKey(method, invocation);
+        synchronized (m_entries) {
+            CachedResult entry = m_entries.get(key);
+            if (entry != null) {
+                if (entry.m_expires - System.nanoTime() > 0) {
+                    if (m_metrics != null) {
+                        m_metrics.recordCacheHit();
+                    }
+                    return entry.m_result;
+                }
+                m_entries.remove(key);
+            }
+        }
+        if (m_metrics != null) {
+            m_metrics.recordCacheMiss();
+        }
+        return null;
+    }
+
+    /**
+     * Caches the result of an invocation.
+     *
+     * @param method the invoked method, cannot be <code>null</code>;
+     * @param invocation the serialized invocation, cannot be <code>null</code>;
+     * @param result the serialized result, cannot be <code>null</code>.
+     */
+    public void put(Method method, byte[] invocation, byte[] result) {
+        CachedResult entry = new CachedResult(result, System.nanoTime() + m_ttlNanos);
+        synchronized (m_entries) {
+            m_entries.put(new InvocationKey(method, invocation), entry);
+        }
+    }
+
+    /**
+     * Removes all cached results, for example because the endpoint was modified.
+     */
+    public void invalidate() {
+        synchronized (m_entries) {
+            m_entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of currently cached results, including those that expired but were not yet removed.
+     */
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    private static final class CachedResult {
+        final byte[] m_result;
+        final long m_expires;
+
+        CachedResult(byte[] result, long expires) {
+            m_result = result;
+            m_expires = expires;
+        }
+    }
+}
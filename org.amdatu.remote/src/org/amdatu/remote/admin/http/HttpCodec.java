@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Wire codec of the HTTP admin, determining how invocations and their outcome are encoded on the wire.
+ * <p>
+ * Endpoints read and write invocations as a stream of tokens, binding values through the pre-resolved readers
+ * and writers of their {@link MethodInvocationPlan}s. A codec therefore only needs to provide parsers and
+ * generators for its data format, which makes any Jackson data format usable as codec. The supported codecs are
+ * registered in {@link HttpCodecs}. Codecs are selected by the content type of the request; responses are encoded
+ * with the codec of the request.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public interface HttpCodec {
+
+    /**
+     * @return the content type of the data format of this codec, never <code>null</code>.
+     */
+    String getContentType();
+
+    /**
+     * Creates a parser for the given input. The parser does not close the input when closed, and is able to read
+     * trees and values.
+     *
+     * @param in the input to parse, cannot be <code>null</code>.
+     * @return a new parser, never <code>null</code>.
+     * @throws IOException in case the parser could not be created.
+     */
+    JsonParser createParser(InputStream in) throws IOException;
+
+    /**
+     * Creates a generator for the given output. Closing the generator closes the output.
+     *
+     * @param out the output to write to, cannot be <code>null</code>.
+     * @return a new generator, never <code>null</code>.
+     * @throws IOException in case the generator could not be created.
+     */
+    JsonGenerator createGenerator(OutputStream out) throws IOException;
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Registry of the {@link HttpCodec}s supported by the HTTP admin: JSON, the default, and the binary Smile format.
+ * <p>
+ * The registry is not open to other bundles, as the HTTP admin embeds its own copy of Jackson, so codecs of other
+ * bundles could not share its parser and generator types.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpCodecs {
+
+    /**
+     * The default codec, used when no (supported) codec is requested.
+     */
+    public static final HttpCodec JSON = new JsonCodec();
+
+    /**
+     * The binary Smile codec, for endpoints whose invocations are to be encoded more compactly.
+     */
+    public static final HttpCodec SMILE = new SmileCodec();
+
+    private static final Map<String, HttpCodec> CODECS = new LinkedHashMap<String, HttpCodec>();
+    static {
+        register(JSON);
+        register(SMILE);
+    }
+
+    private HttpCodecs() {
+        // Nop
+    }
+
+    /**
+     * Returns the codec for the given content type.
+     *
+     * @param contentType the content type, possibly with parameters, can be <code>null</code>.
+     * @return the codec, the default codec if no content type is given, or <code>null</code> if the content type
+     *         is not supported.
+     */
+    public static HttpCodec getCodec(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        int idx = contentType.indexOf(';');
+        if (idx >= 0) {
+            contentType = contentType.substring(0, idx);
+        }
+        return CODECS.get(contentType.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Selects the codec to use for a remote endpoint.
+     *
+     * @param preferred the content type of the preferred codec, can be <code>null</code>;
+     * @param supported the content types supported by the remote endpoint, cannot be <code>null</code>.
+     * @return the preferred codec if supported by both sides, the default codec otherwise.
+     */
+    public static HttpCodec selectCodec(String preferred, String[] supported) {
+        HttpCodec codec = (preferred == null) ? null : getCodec(preferred);
+        if (codec != null) {
+            for (String contentType : supported) {
+                if (codec == getCodec(contentType)) {
+                    return codec;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * @return the content types of all supported codecs, never <code>null</code>.
+     */
+    public static String[] getContentTypes() {
+        return CODECS.keySet().toArray(new String[CODECS.size()]);
+    }
+
+    private static void register(HttpCodec codec) {
+        CODECS.put(codec.getContentType(), codec);
+    }
+}
@@ -14,33 +14,46 @@
 package org.amdatu.remote.admin.http;
 
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_GATEWAY_TIMEOUT;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static javax.servlet.http.HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+import static org.amdatu.remote.AsyncUtil.awaitResult;
+import static org.amdatu.remote.CompressionUtil.getCompressingOutputStream;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.DEADLINE_HEADER;
 import static org.amdatu.remote.admin.http.HttpAdminUtil.getMethodSignature;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.amdatu.remote.CountingInputStream;
+import org.amdatu.remote.CountingOutputStream;
 import org.amdatu.remote.IOUtil;
+import org.amdatu.remote.MethodInvoker;
+import org.amdatu.remote.ServiceObjectHolder;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.amdatu.remote.metrics.MethodMetrics;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceReference;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 /**
  * Servlet that represents a remoted local service.
@@ -52,33 +65,72 @@ public final class HttpServerEndpoint {
     private static final int FATAL_ERROR_COUNT = 5;
 
     private static final String APPLICATION_JSON = "application/json";
+    private static final String RETRY_AFTER = "Retry-After";
 
     private final ObjectMapper m_objectMapper = new ObjectMapper();
     private final JsonFactory m_jsonFactory = new JsonFactory(m_objectMapper);
+    private final ObjectWriter m_exceptionWriter = MethodInvocationPlan.createWriter(m_objectMapper,
+        m_objectMapper.constructType(ExceptionWrapper.class));
 
-    private final BundleContext m_bundleContext;
-    private final ServiceReference<?> m_serviceReference;
-    private final Map<String, Method> m_interfaceMethods;
+    private final ServiceObjectHolder m_service;
+    private final HttpServerInvocationLimiter m_limiter;
+    private final Map<String, MethodInvocationPlan> m_plans;
+    private final MethodInvocationPlan[] m_methodTable;
+    private final MethodInvoker[] m_invokers;
 
     private ServerEndpointProblemListener m_problemListener;
+    private volatile int m_compressionThreshold;
+    private volatile EndpointMetrics m_metrics;
     private int m_localErrors;
 
     public HttpServerEndpoint(BundleContext context, ServiceReference<?> reference, Class<?>... interfaceClasses) {
+        this(context, reference, new HttpServerInvocationLimiter(), interfaceClasses);
+    }
+
+    public HttpServerEndpoint(BundleContext context, ServiceReference<?> reference,
+        HttpServerInvocationLimiter limiter, Class<?>... interfaceClasses) {
 
-        m_bundleContext = context;
-        m_serviceReference = reference;
-        m_interfaceMethods = new HashMap<String, Method>();
+        m_service = new ServiceObjectHolder(context, reference);
+        m_limiter = limiter;
+        m_plans = new HashMap<String, MethodInvocationPlan>();
+
+        String[] signatures = HttpAdminUtil.getMethodSignatures(interfaceClasses);
+        Map<String, Integer> methodIds = new HashMap<String, Integer>();
+        for (int i = 0; i < signatures.length; i++) {
+            methodIds.put(signatures[i], i);
+        }
 
+        m_methodTable = new MethodInvocationPlan[signatures.length];
+        m_invokers = new MethodInvoker[signatures.length];
         for (Class<?> interfaceClass : interfaceClasses) {
             for (Method method : interfaceClass.getMethods()) {
                 // Although we're accessing a public (interface) method, the *service* implementation
                 // itself can be non-public. This check appears to be fixed in recent Java versions...
                 method.setAccessible(true);
-                m_interfaceMethods.put(getMethodSignature(method), method);
+                String signature = getMethodSignature(method);
+                int id = methodIds.get(signature);
+                MethodInvocationPlan plan = new MethodInvocationPlan(m_objectMapper, method, id);
+                m_plans.put(signature, plan);
+                m_methodTable[id] = plan;
+                m_invokers[id] = new MethodInvoker(method);
             }
         }
     }
 
+    /**
+     * Returns the method table of this endpoint, which is published so that clients can identify methods by their
+     * index in this table instead of by their signature.
+     * 
+     * @return the signatures of all methods, indexed by method id, never <code>null</code>.
+     */
+    public String[] getMethodSignatures() {
+        String[] signatures = new String[m_methodTable.length];
+        for (int i = 0; i < signatures.length; i++) {
+            signatures[i] = m_methodTable[i].getSignature();
+        }
+        return signatures;
+    }
+
     /**
      * @param problemListener the problem listener to set, can be <code>null</code>.
      */
@@ -86,107 +138,475 @@ public final class HttpServerEndpoint {
         m_problemListener = problemListener;
     }
 
+    /**
+     * @param metrics the metrics to record the invocations in, can be <code>null</code> to not record them.
+     */
+    public void setMetrics(EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @return the metrics the invocations are recorded in, or <code>null</code> if invocations are not recorded.
+     */
+    public EndpointMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * @return the metrics of the given method, or <code>null</code> if invocations are not recorded.
+     */
+    private MethodMetrics getMethodMetrics(MethodInvocationPlan plan) {
+        EndpointMetrics metrics = m_metrics;
+        return (metrics != null && plan != null) ? metrics.getMethodMetrics(plan.getSignature()) : null;
+    }
+
+    /**
+     * Releases the exported service. Invocations after closing fail with <tt>503 Service Unavailable</tt>.
+     */
+    public void close() {
+        m_service.close();
+    }
+
+    /**
+     * @param compressionThreshold the size in bytes from which responses are compressed for clients that accept
+     *        it, 0 to never compress responses.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        m_compressionThreshold = compressionThreshold;
+    }
+
     public void invokeService(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
-        InputStream in = req.getInputStream();
-        Object service = null;
-        try {
+        HttpCodec codec = HttpCodecs.getCodec(req.getContentType());
+        if (codec == null) {
+            resp.sendError(SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
 
-            JsonNode tree = m_objectMapper.readTree(in);
-            if (tree == null) {
-                resp.sendError(SC_BAD_REQUEST);
-                return;
+        long start = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(req.getInputStream());
+        try {
+            Invocation invocation = decodeInvocation(codec.createParser(in));
+            long decoded = System.nanoTime();
+            if (invocation.getStatus() == SC_OK) {
+                invocation.setDeadline(parseDeadline(req.getHeader(DEADLINE_HEADER)));
+                invoke(invocation);
             }
-
-            JsonNode signatureNode = tree.get("m");
-            if (signatureNode == null) {
-                resp.sendError(SC_BAD_REQUEST);
+            if (invocation.getStatus() != SC_OK) {
+                if (invocation.isRejected()) {
+                    resp.setHeader(RETRY_AFTER, String.valueOf(m_limiter.getRetryAfter()));
+                }
+                resp.sendError(invocation.getStatus());
                 return;
             }
 
-            JsonNode argumentsNode = tree.get("a");
-            if (argumentsNode == null) {
-                resp.sendError(SC_BAD_REQUEST);
-                return;
-            }
+            resp.setStatus(SC_OK);
+            resp.setContentType(codec.getContentType());
 
-            ArrayNode arguments = m_objectMapper.readValue(argumentsNode.traverse(), ArrayNode.class);
-            if (arguments == null) {
-                resp.sendError(SC_BAD_REQUEST);
-                return;
-            }
+            long encoding = System.nanoTime();
+            CountingOutputStream out =
+                new CountingOutputStream(getCompressingOutputStream(req, resp, m_compressionThreshold));
+            JsonGenerator gen = codec.createGenerator(out);
+            writeResult(invocation, gen);
+            gen.close();
 
-            Method method = m_interfaceMethods.get(signatureNode.asText());
-            if (method == null) {
-                resp.sendError(SC_NOT_FOUND);
-                return;
+            MethodMetrics metrics = getMethodMetrics(invocation.getPlan());
+            if (metrics != null) {
+                metrics.recordSerialization(decoded - start + System.nanoTime() - encoding);
+                metrics.recordBytes(in.getCount(), out.getCount());
             }
 
-            Type[] types = method.getGenericParameterTypes();
-            if (arguments.size() != types.length) {
-                resp.sendError(SC_BAD_REQUEST);
-                return;
+            // All is fine.. reset the local error count
+            m_localErrors = 0;
+        }
+        finally {
+            IOUtil.closeSilently(in);
+        }
+    }
+
+    /**
+     * Invokes a single method invocation that is part of a batch. The outcome is written as object to the
+     * given generator. Invocations that could not be executed are written as object with a s-field holding the
+     * HTTP status code that would have been returned for an individual invocation.
+     * 
+     * @param tree the JSON object representing the invocation, can be <code>null</code>;
+     * @param gen the generator to write the outcome to, cannot be <code>null</code>.
+     * @throws IOException in case writing the outcome failed.
+     */
+    public void invokeBatched(JsonNode tree, JsonGenerator gen) throws IOException {
+        Invocation invocation;
+        try {
+            if (tree != null) {
+                invocation = decodeInvocation(tree.traverse(m_objectMapper));
             }
+            else {
+                invocation = new Invocation(SC_BAD_REQUEST);
+            }
+        }
+        catch (IOException e) {
+            invocation = new Invocation(SC_BAD_REQUEST);
+        }
+        invokeAndWriteOutcome(invocation, gen);
+    }
+
+    /**
+     * Invokes a single method invocation on behalf of a client in the same framework. The invocation and its
+     * outcome are exchanged through in-memory buffers in the format used for batched invocations, so arguments and
+     * result are copied, but never sent over the network.
+     * 
+     * @param parser the parser to read the invocation from, cannot be <code>null</code>;
+     * @param gen the generator to write the outcome to, cannot be <code>null</code>.
+     * @throws IOException in case writing the outcome failed.
+     */
+    void invokeInProcess(JsonParser parser, JsonGenerator gen) throws IOException {
+        Invocation invocation;
+        try {
+            invocation = decodeInvocation(parser);
+        }
+        catch (IOException e) {
+            invocation = new Invocation(SC_BAD_REQUEST);
+        }
+        invokeAndWriteOutcome(invocation, gen);
+    }
+
+    /**
+     * Determines whether a method can be invoked by reference on behalf of a client in the same framework, which
+     * requires the client to see the very same service interface classes as this endpoint.
+     * 
+     * @param plan the client's invocation plan of the method, cannot be <code>null</code>.
+     * @return <code>true</code> if the method can be invoked by reference, <code>false</code> otherwise.
+     */
+    boolean isInvocableByReference(MethodInvocationPlan plan) {
+        MethodInvocationPlan localPlan = m_plans.get(plan.getSignature());
+        return localPlan != null && localPlan.getMethod().equals(plan.getMethod());
+    }
+
+    /**
+     * Invokes a method on behalf of a client in the same framework, passing the arguments and result by reference.
+     * 
+     * @param plan the client's invocation plan of the method, which must be invocable by reference;
+     * @param arguments the arguments of the method, can be <code>null</code> if the method has no parameters.
+     * @return the result of the invocation, can be <code>null</code>.
+     * @throws Throwable the exception thrown by the service, or a {@link ServiceException} in case the service
+     *         could not be invoked.
+     * @see #isInvocableByReference(MethodInvocationPlan)
+     */
+    Object invokeByReference(MethodInvocationPlan plan, Object[] arguments) throws Throwable {
+        Invocation invocation = new Invocation(m_plans.get(plan.getSignature()), arguments);
+        invoke(invocation);
+        if (invocation.isRejected()) {
+            throw new ServiceException("Local service invocation rejected: endpoint overloaded",
+                ServiceException.REMOTE);
+        }
+        if (invocation.getStatus() != SC_OK) {
+            throw new ServiceException("Local service invocation failed: " + invocation.getStatus(),
+                ServiceException.REMOTE);
+        }
+        if (invocation.getException() != null) {
+            throw unwrapException(invocation.getException());
+        }
+        return invocation.getResult();
+    }
+
+    /**
+     * Invokes the given invocation, if valid, and writes its outcome as object to the given generator. Invocations
+     * that could not be executed are written as object with a s-field holding the HTTP status code.
+     */
+    private void invokeAndWriteOutcome(Invocation invocation, JsonGenerator gen) throws IOException {
+        if (invocation.getStatus() == SC_OK) {
+            invoke(invocation);
+        }
+        if (invocation.isRejected()) {
+            writeRejected(m_limiter.getRetryAfter(), gen);
+            return;
+        }
+        if (invocation.getStatus() != SC_OK) {
+            writeStatus(invocation.getStatus(), gen);
+            return;
+        }
+
+        writeResult(invocation, gen);
+
+        // All is fine.. reset the local error count
+        m_localErrors = 0;
+    }
+
+    /**
+     * Writes an object with a s-field holding the given HTTP status code.
+     * 
+     * @param status the status code to write;
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    static void writeStatus(int status, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("s", status);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Writes an object with a s-field holding the service unavailable status code and a w-field holding the time
+     * in seconds the client should back off, as equivalent of a <tt>Retry-After</tt> header.
+     * 
+     * @param retryAfter the time in seconds to back off;
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    static void writeRejected(int retryAfter, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("s", SC_SERVICE_UNAVAILABLE);
+        gen.writeNumberField("w", retryAfter);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Invokes a single method invocation received over TCP, see {@link TcpServer}. The invocation is decoded
+     * straight from the given parser, which has already consumed the start of the invocation object and its
+     * i-field. The outcome is written as for a batched invocation.
+     * 
+     * @param parser the parser to read the remainder of the invocation from, cannot be <code>null</code>;
+     * @param gen the generator to write the outcome to, cannot be <code>null</code>.
+     * @throws IOException in case writing the outcome failed.
+     */
+    void invokeFramed(JsonParser parser, JsonGenerator gen) throws IOException {
+        Invocation invocation;
+        try {
+            invocation = decodeInvocationFields(parser);
+        }
+        catch (IOException e) {
+            invocation = new Invocation(SC_BAD_REQUEST);
+        }
+        invokeAndWriteOutcome(invocation, gen);
+    }
+
+    /**
+     * Decodes a method invocation from its JSON representation, which is an object with a m-field holding the
+     * method's id or signature, an a-field holding the arguments array and, for invocations that are not sent on
+     * their own, an optional d-field holding the time in milliseconds the client still awaits the outcome.
+     * <p>
+     * The invocation is decoded in a single pass: as the m-field normally precedes the a-field, each argument is
+     * bound directly from the parser to its parameter type. Only if the a-field comes first, the arguments are
+     * buffered until the method is known.
+     * </p>
+     * 
+     * @param parser the parser to read the invocation from, cannot be <code>null</code>.
+     * @return the decoded invocation, never <code>null</code>. Its status is {@link HttpServletResponse#SC_OK} if
+     *         the invocation can be executed.
+     * @throws IOException in case the invocation could not be read.
+     */
+    private Invocation decodeInvocation(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return new Invocation(SC_BAD_REQUEST);
+        }
+        return decodeInvocationFields(parser);
+    }
 
-            Object[] parameters = new Object[types.length];
-            for (int i = 0; i < types.length; i++) {
-                try {
-                    JavaType argType =
-                        m_objectMapper.getTypeFactory().constructType(types[i]);
-                    parameters[i] = m_objectMapper.readValue(arguments.get(i).traverse(), argType);
+    /**
+     * Decodes the remaining fields of a method invocation, see {@link #decodeInvocation(JsonParser)}.
+     * 
+     * @param parser the parser, positioned within the invocation object, cannot be <code>null</code>.
+     * @return the decoded invocation, never <code>null</code>.
+     * @throws IOException in case the invocation could not be read.
+     */
+    private Invocation decodeInvocationFields(JsonParser parser) throws IOException {
+        MethodInvocationPlan plan = null;
+        Object[] parameters = null;
+        JsonParser bufferedArguments = null;
+        long deadline = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("m".equals(fieldName)) {
+                plan = (token == JsonToken.VALUE_NUMBER_INT) ? getPlan(parser.getLongValue())
+                    : m_plans.get(parser.getValueAsString());
+                if (plan == null) {
+                    return new Invocation(SC_NOT_FOUND);
                 }
-                catch (Exception e) {
-                    resp.sendError(SC_BAD_REQUEST);
-                    return;
+            }
+            else if ("a".equals(fieldName)) {
+                if (token != JsonToken.START_ARRAY) {
+                    return new Invocation(SC_BAD_REQUEST);
+                }
+                if (plan != null) {
+                    parameters = decodeArguments(parser, plan);
+                    if (parameters == null) {
+                        return new Invocation(SC_BAD_REQUEST);
+                    }
+                }
+                else {
+                    TreeNode arguments = parser.readValueAsTree();
+                    bufferedArguments = arguments.traverse(m_objectMapper);
+                    bufferedArguments.nextToken();
                 }
             }
-
-            service = m_bundleContext.getService(m_serviceReference);
-            if (service == null) {
-                handleLocalException(null);
-                resp.sendError(SC_SERVICE_UNAVAILABLE);
-                return;
+            else if ("d".equals(fieldName)) {
+                deadline = toDeadline(parser.getValueAsLong());
+            }
+            else {
+                parser.skipChildren();
             }
+        }
+
+        if (plan == null) {
+            return new Invocation(SC_BAD_REQUEST);
+        }
+        if (parameters == null && bufferedArguments != null) {
+            parameters = decodeArguments(bufferedArguments, plan);
+        }
+        if (parameters == null) {
+            return new Invocation(SC_BAD_REQUEST);
+        }
+        Invocation invocation = new Invocation(plan, parameters);
+        invocation.setDeadline(deadline);
+        return invocation;
+    }
+
+    /**
+     * @return the invocation plan of the method with the given id, or <code>null</code> if there is no such method.
+     */
+    private MethodInvocationPlan getPlan(long id) {
+        if (id < 0 || id >= m_methodTable.length) {
+            return null;
+        }
+        return m_methodTable[(int) id];
+    }
 
-            Object result = null;
-            Exception exception = null;
+    /**
+     * Binds the elements of a JSON array directly to the parameter types of the given method.
+     * 
+     * @param parser the parser, positioned at the start of the array, cannot be <code>null</code>;
+     * @param plan the invocation plan of the method to bind the arguments for, cannot be <code>null</code>.
+     * @return the arguments, or <code>null</code> if they do not match the parameters of the method.
+     * @throws IOException in case the arguments could not be read.
+     */
+    private Object[] decodeArguments(JsonParser parser, MethodInvocationPlan plan) throws IOException {
+        Object[] parameters = new Object[plan.getParameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            if (parser.nextToken() == JsonToken.END_ARRAY) {
+                return null;
+            }
             try {
-                result = method.invoke(service, parameters);
+                parameters[i] = plan.readParameter(i, parser);
             }
             catch (Exception e) {
-                exception = e;
+                return null;
             }
+        }
+        if (parser.nextToken() != JsonToken.END_ARRAY) {
+            return null;
+        }
+        return parameters;
+    }
 
-            resp.setStatus(SC_OK);
-            resp.setContentType(APPLICATION_JSON);
+    /**
+     * Parses the deadline header of an invocation.
+     * 
+     * @param value the time in milliseconds the client still awaits the outcome, can be <code>null</code>;
+     * @return the deadline as {@link System#nanoTime()}, or <code>0</code> if the invocation has no (valid) deadline.
+     */
+    private static long parseDeadline(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return toDeadline(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-            JsonGenerator gen = m_jsonFactory.createGenerator(resp.getOutputStream());
-            gen.writeStartObject();
-            if (exception != null) {
-                gen.writeObjectField("e", new ExceptionWrapper(unwrapException(exception)));
-            }
-            else if (!Void.TYPE.equals(method.getReturnType())) {
-                gen.writeObjectField("r", result);
-            }
-            gen.close();
+    /**
+     * @param remaining the time in milliseconds the client still awaits the outcome of an invocation;
+     * @return the deadline as {@link System#nanoTime()}, never <code>0</code>.
+     */
+    private static long toDeadline(long remaining) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, remaining));
+        return (deadline == 0) ? 1 : deadline;
+    }
 
-            // All is fine.. reset the local error count
-            m_localErrors = 0;
+    /**
+     * Invokes the given (valid) invocation on the local service, storing its result in the invocation, unless
+     * the endpoint is saturated, in which case the invocation is rejected, or the client no longer awaits its
+     * outcome, in which case the invocation is not started at all.
+     * 
+     * @param invocation the invocation to execute, cannot be <code>null</code>.
+     */
+    private void invoke(Invocation invocation) {
+        long start = System.nanoTime();
+        try {
+            invokeIfAllowed(invocation);
         }
         finally {
-            IOUtil.closeSilently(in);
-            if (service != null) {
-                service = null;
-                try {
-                    m_bundleContext.ungetService(m_serviceReference);
-                }
-                catch (Exception e) {
-                    // ignore... we at least tried
-                }
+            MethodMetrics metrics = getMethodMetrics(invocation.getPlan());
+            if (metrics != null) {
+                metrics.recordInvocation(System.nanoTime() - start,
+                    invocation.getStatus() != SC_OK || invocation.getException() != null);
             }
         }
     }
 
+    private void invokeIfAllowed(Invocation invocation) {
+        if (invocation.isExpired()) {
+            invocation.setStatus(SC_GATEWAY_TIMEOUT);
+            return;
+        }
+        if (!m_limiter.acquire()) {
+            invocation.setStatus(SC_SERVICE_UNAVAILABLE);
+            invocation.setRejected(true);
+            return;
+        }
+        try {
+            // The deadline might have passed while waiting for a permit...
+            if (invocation.isExpired()) {
+                invocation.setStatus(SC_GATEWAY_TIMEOUT);
+                return;
+            }
+            invokeLocalService(invocation);
+        }
+        finally {
+            m_limiter.release();
+        }
+    }
+
+    private void invokeLocalService(Invocation invocation) {
+        Object service = m_service.getService();
+        if (service == null) {
+            handleLocalException(null);
+            invocation.setStatus(SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            MethodInvoker invoker = m_invokers[invocation.getPlan().getId()];
+            invocation.setResult(awaitResult(invoker.invoke(service, invocation.getArguments())));
+        }
+        catch (Exception e) {
+            invocation.setException(e);
+        }
+    }
+
+    /**
+     * Writes the outcome of an executed invocation as a JSON object with either an e-field holding the exception,
+     * an r-field holding the result, or no fields at all for void methods.
+     * 
+     * @param invocation the executed invocation, cannot be <code>null</code>;
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    private void writeResult(Invocation invocation, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        if (invocation.getException() != null) {
+            gen.writeFieldName("e");
+            m_exceptionWriter.writeValue(gen, new ExceptionWrapper(unwrapException(invocation.getException())));
+        }
+        else if (!invocation.getPlan().isVoid()) {
+            gen.writeFieldName("r");
+            invocation.getPlan().writeResult(invocation.getResult(), gen);
+        }
+        gen.writeEndObject();
+    }
+
     /**
      * Handles I/O exceptions by counting the number of times they occurred, and if a certain
      * threshold is exceeded closes the import registration for this endpoint.
@@ -218,7 +638,7 @@ public final class HttpServerEndpoint {
     }
 
     /**
-     * Writes all method signatures as a flat JSON array to the given HttpServletResponse
+     * Writes all method signatures as a flat JSON array, indexed by method id, to the given HttpServletResponse
      * 
      * @param req the HttpServletRequest
      * @param resp the HttpServletResponse
@@ -232,12 +652,84 @@ public final class HttpServerEndpoint {
         JsonGenerator gen = m_jsonFactory.createGenerator(resp.getOutputStream());
         gen.writeStartArray();
 
-        for (String signature : m_interfaceMethods.keySet()) {
-            gen.writeString(signature);
+        for (MethodInvocationPlan plan : m_methodTable) {
+            gen.writeString(plan.getSignature());
         }
 
         gen.writeEndArray();
         gen.close();
 
     }
+
+    /**
+     * Represents a single decoded method invocation and, once executed, its outcome.
+     */
+    private static final class Invocation {
+        private final MethodInvocationPlan m_plan;
+        private final Object[] m_arguments;
+        private int m_status;
+        private boolean m_rejected;
+        private long m_deadline;
+        private Object m_result;
+        private Exception m_exception;
+
+        Invocation(int status) {
+            this(null, null);
+            m_status = status;
+        }
+
+        Invocation(MethodInvocationPlan plan, Object[] arguments) {
+            m_plan = plan;
+            m_arguments = arguments;
+            m_status = SC_OK;
+        }
+
+        Object[] getArguments() {
+            return m_arguments;
+        }
+
+        Exception getException() {
+            return m_exception;
+        }
+
+        MethodInvocationPlan getPlan() {
+            return m_plan;
+        }
+
+        Object getResult() {
+            return m_result;
+        }
+
+        int getStatus() {
+            return m_status;
+        }
+
+        boolean isExpired() {
+            return m_deadline != 0 && System.nanoTime() - m_deadline >= 0;
+        }
+
+        boolean isRejected() {
+            return m_rejected;
+        }
+
+        void setDeadline(long deadline) {
+            m_deadline = deadline;
+        }
+
+        void setException(Exception exception) {
+            m_exception = exception;
+        }
+
+        void setRejected(boolean rejected) {
+            m_rejected = rejected;
+        }
+
+        void setResult(Object result) {
+            m_result = result;
+        }
+
+        void setStatus(int status) {
+            m_status = status;
+        }
+    }
 }
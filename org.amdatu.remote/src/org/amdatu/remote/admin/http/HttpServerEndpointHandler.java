@@ -13,16 +13,30 @@
  */
 package org.amdatu.remote.admin.http;
 
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+import static org.amdatu.remote.CompressionUtil.getCompressingOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -30,12 +44,17 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.amdatu.remote.AbstractComponentDelegate;
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.IOUtil;
+import org.amdatu.remote.metrics.EndpointMetrics;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * RSA component that handles all server endpoints.
@@ -44,14 +63,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
 
-    private final Map<String, HttpServerEndpoint> m_handlers = new HashMap<String, HttpServerEndpoint>();
-    private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+    private final Object m_routesLock = new Object();
+    private volatile RoutingTable m_routes = new RoutingTable();
 
     private final RemoteServiceAdminFactory m_factory;
 
     private final ObjectMapper m_objectMapper = new ObjectMapper();
     private final JsonFactory m_jsonFactory = new JsonFactory(m_objectMapper);
     private static final String APPLICATION_JSON = "application/json";
+    /** The path, relative to the servlet alias, serving the metrics of the endpoints. */
+    static final String METRICS_PATH = "/metrics";
+    /** The maximum number of threads invoking the elements of batches concurrently. */
+    private static final int BATCH_THREADS = 64;
+
+    private ExecutorService m_batchExecutor;
 
     public HttpServerEndpointHandler(RemoteServiceAdminFactory factory) {
         super(factory);
@@ -72,6 +97,12 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
     @Override
     protected void stopComponentDelegate() {
         m_factory.getHttpService().unregister(getServletAlias());
+        synchronized (this) {
+            if (m_batchExecutor != null) {
+                m_batchExecutor.shutdown();
+                m_batchExecutor = null;
+            }
+        }
     }
 
     /**
@@ -99,13 +130,22 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
     public HttpServerEndpoint addEndpoint(ServiceReference<?> reference, EndpointDescription endpoint,
         Class<?>[] interfaces) {
 
-        HttpServerEndpoint serverEndpoint = new HttpServerEndpoint(getBundleContext(), reference, interfaces);
-        m_lock.writeLock().lock();
-        try {
-            m_handlers.put(endpoint.getId(), serverEndpoint);
-        }
-        finally {
-            m_lock.writeLock().unlock();
+        HttpServerInvocationLimiter limiter = new HttpServerInvocationLimiter(m_factory.getConfiguration());
+        HttpServerEndpoint serverEndpoint = new HttpServerEndpoint(getBundleContext(), reference, limiter, interfaces);
+        serverEndpoint.setCompressionThreshold(m_factory.getConfiguration().getCompressionThreshold());
+        serverEndpoint.setMetrics(m_factory.getMetrics().acquire(endpoint.getId(), EndpointMetrics.SERVER));
+        return addEndpoint(endpoint.getId(), serverEndpoint);
+    }
+
+    /**
+     * Routes invocations for the given Endpoint ID to the given Server Endpoint.
+     * 
+     * @param id The Endpoint ID
+     * @param serverEndpoint The Server Endpoint
+     */
+    HttpServerEndpoint addEndpoint(String id, HttpServerEndpoint serverEndpoint) {
+        synchronized (m_routesLock) {
+            m_routes = m_routes.with(id, serverEndpoint);
         }
         return serverEndpoint;
     }
@@ -118,24 +158,27 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
     public HttpServerEndpoint removeEndpoint(EndpointDescription endpoint) {
         HttpServerEndpoint serv;
 
-        m_lock.writeLock().lock();
-        try {
-            serv = m_handlers.remove(endpoint.getId());
+        synchronized (m_routesLock) {
+            RoutingTable routes = m_routes;
+            serv = routes.getById(endpoint.getId());
+            if (serv != null) {
+                m_routes = routes.without(endpoint.getId());
+            }
         }
-        finally {
-            m_lock.writeLock().unlock();
+        if (serv != null) {
+            m_factory.getMetrics().release(serv.getMetrics());
         }
         return serv;
     }
 
-    private HttpServerEndpoint getHandler(String id) {
-        m_lock.readLock().lock();
-        try {
-            return m_handlers.get(id);
-        }
-        finally {
-            m_lock.readLock().unlock();
-        }
+    /**
+     * Returns the Server Endpoint for a specified Endpoint ID.
+     * 
+     * @param id The Endpoint ID
+     * @return The Server Endpoint, or <code>null</code> if no such endpoint is exported
+     */
+    HttpServerEndpoint getHandler(String id) {
+        return m_routes.getById(id);
     }
 
     private String getServletAlias() {
@@ -164,19 +207,138 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
         JsonGenerator gen = m_jsonFactory.createGenerator(resp.getOutputStream());
         gen.writeStartArray();
 
-        m_lock.readLock().lock();
+        for (String endpointId : m_routes.getIds()) {
+            gen.writeString(endpointId);
+        }
+
+        gen.writeEndArray();
+        gen.close();
+
+    }
+
+    /**
+     * Writes a snapshot of the metrics of all endpoints of this admin as JSON object to the given
+     * HttpServletResponse.
+     * 
+     * @param req the HttpServletRequest
+     * @param resp the HttpServletResponse
+     * @throws IOException
+     */
+    public void writeMetrics(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        resp.setStatus(SC_OK);
+        resp.setContentType(APPLICATION_JSON);
+
+        JsonGenerator gen = m_jsonFactory.createGenerator(resp.getOutputStream());
+        gen.writeObject(m_factory.getMetrics().getSnapshot());
+        gen.close();
+    }
+
+    /**
+     * Invokes a batch of method invocations, possibly for different endpoints. The batch is an array of objects
+     * with an i-field holding the endpoint id, and the m- and a-fields of a regular invocation. The outcome of each
+     * invocation is written, in order, as element of an array to the given HttpServletResponse, using the codec
+     * of the request.
+     * <p>
+     * The invocations are executed concurrently, each bounded by the invocation limiter of its endpoint. The first
+     * one runs on the calling thread and is written directly, the others are buffered until it is their turn.
+     * </p>
+     * 
+     * @param req the HttpServletRequest
+     * @param resp the HttpServletResponse
+     * @throws IOException
+     */
+    public void invokeBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        HttpCodec codec = HttpCodecs.getCodec(req.getContentType());
+        if (codec == null) {
+            resp.sendError(SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        InputStream in = req.getInputStream();
         try {
-            for (String endpointId : m_handlers.keySet()) {
-                gen.writeString(endpointId);
+            JsonNode batch = codec.createParser(in).readValueAsTree();
+            if (batch == null || !batch.isArray()) {
+                resp.sendError(SC_BAD_REQUEST);
+                return;
             }
+
+            resp.setStatus(SC_OK);
+            resp.setContentType(codec.getContentType());
+
+            int threshold = m_factory.getConfiguration().getCompressionThreshold();
+            JsonGenerator gen = codec.createGenerator(getCompressingOutputStream(req, resp, threshold));
+            gen.writeStartArray();
+
+            List<Future<TokenBuffer>> outcomes = new ArrayList<Future<TokenBuffer>>(batch.size());
+            for (int i = 1; i < batch.size(); i++) {
+                outcomes.add(submitBatchElement(batch.get(i)));
+            }
+            if (batch.size() > 0) {
+                invokeBatchElement(batch.get(0), gen);
+            }
+            for (Future<TokenBuffer> outcome : outcomes) {
+                try {
+                    outcome.get().serialize(gen);
+                }
+                catch (ExecutionException e) {
+                    logWarning("Failed to invoke batch element!", e.getCause());
+                    HttpServerEndpoint.writeStatus(SC_INTERNAL_SERVER_ERROR, gen);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while awaiting batch element");
+                }
+            }
+
+            gen.writeEndArray();
+            gen.close();
         }
         finally {
-            m_lock.readLock().unlock();
+            IOUtil.closeSilently(in);
         }
+    }
 
-        gen.writeEndArray();
-        gen.close();
+    /**
+     * Invokes a single element of a batch on a batch thread, buffering its outcome.
+     */
+    private Future<TokenBuffer> submitBatchElement(final JsonNode invocation) {
+        Callable<TokenBuffer> task = new Callable<TokenBuffer>() {
+            @Override
+            public TokenBuffer call() throws Exception {
+                TokenBuffer buffer = new TokenBuffer(m_objectMapper, false);
+                invokeBatchElement(invocation, buffer);
+                return buffer;
+            }
+        };
+        try {
+            return getBatchExecutor().submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            // Stopping, invoke it right away...
+            FutureTask<TokenBuffer> future = new FutureTask<TokenBuffer>(task);
+            future.run();
+            return future;
+        }
+    }
+
+    private void invokeBatchElement(JsonNode invocation, JsonGenerator gen) throws IOException {
+        JsonNode endpointIdNode = invocation.get("i");
+        HttpServerEndpoint handler = endpointIdNode != null ? getHandler(endpointIdNode.asText()) : null;
+        if (handler != null) {
+            handler.invokeBatched(invocation, gen);
+        }
+        else {
+            HttpServerEndpoint.writeStatus(SC_NOT_FOUND, gen);
+        }
+    }
 
+    private synchronized ExecutorService getBatchExecutor() {
+        if (m_batchExecutor == null) {
+            m_batchExecutor = AsyncUtil.createExecutor("Amdatu HTTP batch", BATCH_THREADS);
+        }
+        return m_batchExecutor;
     }
 
     /**
@@ -186,8 +348,6 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
 
         private static final long serialVersionUID = 1L;
 
-        private final Pattern PATH_PATTERN = Pattern.compile("^\\/{0,1}([A-Za-z0-9-_]+)\\/{0,1}$");
-
         @Override
         protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
@@ -196,20 +356,31 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
                 pathInfo = "";
             }
 
-            Matcher matcher = PATH_PATTERN.matcher(pathInfo);
-            if (!matcher.matches()) {
+            // request on root is a batch of invocations
+            if (pathInfo.equals("") || pathInfo.equals("/")) {
+                try {
+                    invokeBatch(req, resp);
+                }
+                catch (Exception e) {
+                    logError("Server Endpoint Handler failed for batch", e);
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                return;
+            }
+
+            String endpointPath = parseEndpointPath(pathInfo);
+            if (endpointPath == null) {
                 resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path: " + pathInfo);
                 return;
             }
-            String endpointId = matcher.group(1);
 
-            HttpServerEndpoint handler = getHandler(endpointId);
+            HttpServerEndpoint handler = m_routes.getByPath(endpointPath);
             if (handler != null) {
                 try {
                     handler.invokeService(req, resp);
                 }
                 catch (Exception e) {
-                    logError("Server Endpoint Handler failed: %s", e, endpointId);
+                    logError("Server Endpoint Handler failed: %s", e, endpointPath);
                     resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 }
             }
@@ -234,22 +405,26 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
                 return;
             }
 
+            // request on the metrics path will return a snapshot of the metrics of all endpoints
+            if (pathInfo.equals(METRICS_PATH) || pathInfo.equals(METRICS_PATH + "/")) {
+                writeMetrics(req, resp);
+                return;
+            }
+
             // handle requested endpoint
-            Matcher matcher = PATH_PATTERN.matcher(pathInfo);
-            if (!matcher.matches()) {
+            String endpointPath = parseEndpointPath(pathInfo);
+            if (endpointPath == null) {
                 resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path: " + pathInfo);
                 return;
             }
 
-            String endpointId = matcher.group(1);
-
-            HttpServerEndpoint handler = getHandler(endpointId);
+            HttpServerEndpoint handler = m_routes.getByPath(endpointPath);
             if (handler != null) {
                 try {
                     handler.listMethodSignatures(req, resp);
                 }
                 catch (Exception e) {
-                    logError("Server Endpoint Handler failed: %s", e, endpointId);
+                    logError("Server Endpoint Handler failed: %s", e, endpointPath);
                     resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 }
             }
@@ -258,4 +433,79 @@ public final class HttpServerEndpointHandler extends AbstractComponentDelegate {
             }
         }
     }
+
+    /**
+     * Parses the path info of a request for a single endpoint, which consists of the endpoint id with an optional
+     * leading and trailing slash. The endpoint id is validated by hand, and the path info itself is returned if it
+     * already is in canonical form, which is the case for any request issued by a client endpoint.
+     * 
+     * @param pathInfo the path info of the request, cannot be <code>null</code>.
+     * @return the canonical endpoint path, being the endpoint id preceded by a slash, or <code>null</code> if the
+     *         path info does not hold a valid endpoint id.
+     */
+    static String parseEndpointPath(String pathInfo) {
+        int length = pathInfo.length();
+        int start = (length > 0 && pathInfo.charAt(0) == '/') ? 1 : 0;
+        int end = (length > start && pathInfo.charAt(length - 1) == '/') ? length - 1 : length;
+        if (start == end) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            char c = pathInfo.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) {
+                return null;
+            }
+        }
+        if (start == 1 && end == length) {
+            return pathInfo;
+        }
+        return "/" + pathInfo.substring(start, end);
+    }
+
+    /**
+     * Immutable snapshot of the exported endpoints, indexed by endpoint id as well as by canonical endpoint path.
+     * Lookups need no locking, modifications create a new snapshot.
+     */
+    private static final class RoutingTable {
+        private final Map<String, HttpServerEndpoint> m_byId;
+        private final Map<String, HttpServerEndpoint> m_byPath;
+
+        RoutingTable() {
+            this(Collections.<String, HttpServerEndpoint> emptyMap(),
+                Collections.<String, HttpServerEndpoint> emptyMap());
+        }
+
+        private RoutingTable(Map<String, HttpServerEndpoint> byId, Map<String, HttpServerEndpoint> byPath) {
+            m_byId = byId;
+            m_byPath = byPath;
+        }
+
+        HttpServerEndpoint getById(String id) {
+            return m_byId.get(id);
+        }
+
+        HttpServerEndpoint getByPath(String path) {
+            return m_byPath.get(path);
+        }
+
+        Collection<String> getIds() {
+            return m_byId.keySet();
+        }
+
+        RoutingTable with(String id, HttpServerEndpoint endpoint) {
+            Map<String, HttpServerEndpoint> byId = new HashMap<String, HttpServerEndpoint>(m_byId);
+            Map<String, HttpServerEndpoint> byPath = new HashMap<String, HttpServerEndpoint>(m_byPath);
+            byId.put(id, endpoint);
+            byPath.put("/" + id, endpoint);
+            return new RoutingTable(byId, byPath);
+        }
+
+        RoutingTable without(String id) {
+            Map<String, HttpServerEndpoint> byId = new HashMap<String, HttpServerEndpoint>(m_byId);
+            Map<String, HttpServerEndpoint> byPath = new HashMap<String, HttpServerEndpoint>(m_byPath);
+            byId.remove(id);
+            byPath.remove("/" + id);
+            return new RoutingTable(byId, byPath);
+        }
+    }
 }
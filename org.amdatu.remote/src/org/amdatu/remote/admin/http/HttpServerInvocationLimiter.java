@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of concurrent invocations of a single server endpoint, so that a slow exported service
+ * cannot tie up all request threads of the HTTP container.
+ * <p>
+ * Invocations beyond the concurrency limit wait for a free slot, up to the configured queue depth and at most
+ * the configured read timeout (after which the client has given up anyway). Any other invocation is rejected
+ * right away, which the server endpoint reports as <tt>503 Service Unavailable</tt> with a <tt>Retry-After</tt>
+ * hint.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class HttpServerInvocationLimiter {
+
+    private final Semaphore m_permits;
+    private final AtomicInteger m_waiting = new AtomicInteger();
+    private final int m_queueDepth;
+    private final int m_queueTimeout;
+    private final int m_retryAfter;
+
+    /**
+     * Creates a limiter that does not limit invocations at all.
+     */
+    public HttpServerInvocationLimiter() {
+        this(0, 0, 0, 0);
+    }
+
+    /**
+     * Creates a limiter according to the given configuration.
+     *
+     * @param configuration the configuration to use, cannot be <code>null</code>.
+     */
+    public HttpServerInvocationLimiter(HttpAdminConfiguration configuration) {
+        this(configuration.getMaxConcurrentInvocations(), configuration.getInvocationQueueDepth(),
+            configuration.getReadTimeout(), configuration.getRetryAfter());
+    }
+
+    /**
+     * @param maxConcurrent the maximum number of concurrent invocations, 0 for no limit;
+     * @param queueDepth the maximum number of invocations waiting for a free slot;
+     * @param queueTimeout the maximum time in ms an invocation waits for a free slot;
+     * @param retryAfter the time in seconds clients are asked to back off after a rejection.
+     */
+    public HttpServerInvocationLimiter(int maxConcurrent, int queueDepth, int queueTimeout, int retryAfter) {
+        m_permits = (maxConcurrent > 0) ? new Semaphore(maxConcurrent, true) : null;
+        m_queueDepth = Math.max(0, queueDepth);
+        m_queueTimeout = Math.max(0, queueTimeout);
+        m_retryAfter = Math.max(0, retryAfter);
+    }
+
+    /**
+     * Acquires a slot for an invocation. Each successful call must be followed by a call to {@link #release()}.
+     *
+     * @return <code>true</code> if the invocation may proceed, <code>false</code> if it is rejected.
+     */
+    public boolean acquire() {
+        if (m_permits == null || m_permits.tryAcquire()) {
+            return true;
+        }
+        if (m_waiting.incrementAndGet() > m_queueDepth) {
+            m_waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return m_permits.tryAcquire(m_queueTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            m_waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases a slot acquired by {@link #acquire()}.
+     */
+    public void release() {
+        if (m_permits != null) {
+            m_permits.release();
+        }
+    }
+
+    /**
+     * @return the time in seconds clients are asked to back off after a rejection.
+     */
+    public int getRetryAfter() {
+        return m_retryAfter;
+    }
+}
@@ -13,19 +13,34 @@
  */
 package org.amdatu.remote.admin.http;
 
+import static org.amdatu.remote.CircuitBreaker.EVENT_STATE_PROPERTY;
 import static org.amdatu.remote.EndpointUtil.computeHash;
+import static org.amdatu.remote.ServiceUtil.getStringPlusValue;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.CONFIGURATION_TYPE;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_CACHEABLE_METHODS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_CACHE_TTL;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_CODECS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_DEADLINES;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_METHODS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_TCP_ADDRESS;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_URL;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.PASSBYREFERENCE_INTENT;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_ERROR;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_WARNING;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
@@ -41,6 +56,8 @@ import org.osgi.service.remoteserviceadmin.ImportRegistration;
  */
 public final class ImportedEndpointImpl implements ImportRegistration, ImportReference, ClientEndpointProblemListener {
 
+    private static final long DEFAULT_CACHE_TTL = 10000;
+
     private final AtomicBoolean m_closed = new AtomicBoolean(false);
     private final RemoteServiceAdminImpl m_admin;
     private final HttpAdminConfiguration m_configuration;
@@ -71,9 +88,37 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
 
         try {
             URL serviceLocation = new URL((String) description.getProperties().get(ENDPOINT_URL));
+            String[] methodSignatures = getStringPlusValue(description.getProperties().get(ENDPOINT_METHODS));
+            String[] codecs = getStringPlusValue(description.getProperties().get(ENDPOINT_CODECS));
+            HttpCodec codec = HttpCodecs.selectCodec(m_configuration.getCodec(), codecs);
             m_clientEndpoint =
-                new HttpClientEndpointFactory(serviceLocation, description.getInterfaces(), m_configuration);
+                new HttpClientEndpointFactory(serviceLocation, description.getInterfaces(), codec, methodSignatures,
+                    m_configuration, m_admin.getConnectionManager());
             m_clientEndpoint.setProblemListener(this);
+            EndpointMetrics metrics = m_admin.getMetrics().acquire(description.getId(), EndpointMetrics.CLIENT);
+            m_clientEndpoint.setMetrics(metrics);
+            String[] cacheableMethods = getStringPlusValue(description.getProperties().get(ENDPOINT_CACHEABLE_METHODS));
+            if (cacheableMethods.length > 0) {
+                m_clientEndpoint.setResultCache(
+                    createResultCache(description, cacheableMethods, m_configuration.getResultCacheSize(), metrics));
+                if (m_configuration.getCoalescing() > 0) {
+                    m_clientEndpoint.setCoalescer(new HttpClientInvocationCoalescer(cacheableMethods));
+                }
+            }
+            String[] deadlines = getStringPlusValue(description.getProperties().get(ENDPOINT_DEADLINES));
+            if (deadlines.length > 0) {
+                m_clientEndpoint.setDeadlines(parseDeadlines(deadlines));
+            }
+            Object tcpAddress = description.getProperties().get(ENDPOINT_TCP_ADDRESS);
+            if (tcpAddress instanceof String && m_configuration.getTcpPort() >= 0) {
+                m_clientEndpoint.setTcpAddress((String) tcpAddress);
+            }
+            if (m_admin.isLocalEndpoint(description)) {
+                // Co-located services are invoked in-process, without going through the network stack, and
+                // without copying arguments and results if the exporter asked for pass-by-reference...
+                m_clientEndpoint.setInProcessEndpoints(m_admin.getServerEndpointHandler(),
+                    description.getIntents().contains(PASSBYREFERENCE_INTENT));
+            }
 
             String[] objectClass = createImportedServiceObjectClass(m_endpoint);
             Dictionary<String, Object> serviceProperties = createImportedServiceProperties(m_endpoint);
@@ -98,6 +143,15 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         m_admin.getEventsHandler().emitEvent(IMPORT_WARNING, m_admin.getBundleContext().getBundle(), this, exception);
     }
 
+    @Override
+    public void handleEndpointStateChanged(State state, Throwable exception) {
+        ServiceException cause =
+            new ServiceException("Remote service endpoint circuit changed to " + state, ServiceException.REMOTE,
+                exception);
+        m_admin.getEventsHandler().emitEvent(IMPORT_WARNING, m_admin.getBundleContext().getBundle(), this, cause,
+            Collections.singletonMap(EVENT_STATE_PROPERTY, state.name()));
+    }
+
     @Override
     public ImportReference getImportReference() {
         if (m_closed.get()) {
@@ -138,6 +192,8 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
 
             m_endpoint = endpoint;
             m_endpointHash = updateHash;
+            // Results cached so far might no longer be valid for the modified endpoint...
+            m_clientEndpoint.invalidateResultCache();
 
             Dictionary<String, Object> serviceProperties = createImportedServiceProperties(m_endpoint);
             m_clientRegistration.setProperties(serviceProperties);
@@ -166,6 +222,13 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         if (!m_closed.compareAndSet(false, true) && !ignoreClosed) {
             return;
         }
+        HttpClientEndpointFactory clientEndpoint = m_clientEndpoint;
+        if (clientEndpoint != null) {
+            clientEndpoint.invalidateResultCache();
+            EndpointMetrics metrics = clientEndpoint.getMetrics();
+            clientEndpoint.setMetrics(null);
+            m_admin.getMetrics().release(metrics);
+        }
         ServiceRegistration<?> clientRegistration = m_clientRegistration;
         if (clientRegistration != null) {
             m_clientRegistration = null;
@@ -178,6 +241,15 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         m_admin.importedEndpointClosed(this);
     }
 
+    /**
+     * @return the coalescer of concurrent identical invocations of the endpoint's cacheable methods, or
+     *         <code>null</code> if invocations are not coalesced.
+     */
+    public HttpClientInvocationCoalescer getCoalescer() {
+        HttpClientEndpointFactory clientEndpoint = m_clientEndpoint;
+        return (clientEndpoint != null) ? clientEndpoint.getCoalescer() : null;
+    }
+
     EndpointDescription getImportedEndpoint(boolean ignoreClosed) {
         if (!ignoreClosed && m_closed.get()) {
             return null;
@@ -199,6 +271,64 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         return m_exception;
     }
 
+    /**
+     * Create a result cache for the cacheable methods declared by an Endpoint Description.
+     * 
+     * @param description
+     * @param cacheableMethods the names or signatures of the cacheable methods
+     * @param maxSize the maximum number of cached results, 0 to disable caching
+     * @param metrics the metrics to record the cache hits, misses and evictions in
+     * @return the result cache, or <code>null</code> if no results are to be cached
+     */
+    private static HttpClientResultCache createResultCache(EndpointDescription description,
+        String[] cacheableMethods, int maxSize, EndpointMetrics metrics) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        Map<String, Object> properties = description.getProperties();
+        long ttl = DEFAULT_CACHE_TTL;
+        Object value = properties.get(ENDPOINT_CACHE_TTL);
+        if (value instanceof Number) {
+            ttl = ((Number) value).longValue();
+        }
+        else if (value != null) {
+            try {
+                ttl = Long.parseLong(value.toString().trim());
+            }
+            catch (NumberFormatException e) {
+                // keep the default...
+            }
+        }
+        return (ttl > 0) ? new HttpClientResultCache(cacheableMethods, ttl, maxSize, metrics) : null;
+    }
+
+    /**
+     * Parse the deadlines declared by an Endpoint Description. Malformed entries are ignored.
+     * 
+     * @param deadlines entries of the form <code>&lt;method name or signature&gt;=&lt;ms&gt;</code>
+     * @return the deadlines in milliseconds by method name or signature
+     */
+    static Map<String, Long> parseDeadlines(String[] deadlines) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String deadline : deadlines) {
+            // Signatures contain no '=', so the last one separates the method from its deadline...
+            int idx = deadline.lastIndexOf('=');
+            if (idx <= 0) {
+                continue;
+            }
+            try {
+                long timeout = Long.parseLong(deadline.substring(idx + 1).trim());
+                if (timeout > 0) {
+                    result.put(deadline.substring(0, idx).trim(), timeout);
+                }
+            }
+            catch (NumberFormatException e) {
+                // ignore...
+            }
+        }
+        return result;
+    }
+
     /**
      * Create an objectClass value from an Endpoint Description.
      * 
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Identifies an invocation by its method, which also distinguishes between the different versions of an interface
+ * that bundles of the importing framework might see, and its serialized form. Two invocations with equal keys yield
+ * the same result for methods whose results only depend on their arguments.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class InvocationKey {
+
+    private final Method m_method;
+    private final byte[] m_invocation;
+    private final int m_hash;
+
+    InvocationKey(Method method, byte[] invocation) {
+        m_method = method;
+        m_invocation = invocation;
+        m_hash = 31 * method.hashCode() + Arrays.hashCode(invocation);
+    }
+
+    @Override
+    public int hashCode() {
+        return m_hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof InvocationKey)) {
+            return false;
+        }
+        InvocationKey other = (InvocationKey) obj;
+        return m_hash == other.m_hash && m_method.equals(other.m_method)
+            && Arrays.equals(m_invocation, other.m_invocation);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@link HttpCodec} for plain JSON, the default codec of the HTTP admin.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class JsonCodec implements HttpCodec {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    private final ObjectMapper m_objectMapper = new ObjectMapper();
+    private final JsonFactory m_jsonFactory = new JsonFactory(m_objectMapper);
+
+    public JsonCodec() {
+        // Leave the input open, client responses are drained by the connection manager for reuse...
+        m_jsonFactory.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public JsonParser createParser(InputStream in) throws IOException {
+        return m_jsonFactory.createParser(in);
+    }
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return m_jsonFactory.createGenerator(out);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static org.amdatu.remote.AsyncUtil.getResultType;
+import static org.amdatu.remote.admin.http.HttpAdminUtil.getMethodSignature;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Set;
+
+import org.amdatu.remote.AsyncUtil;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Immutable plan for the (de)serialization of invocations of a single remote method.
+ * <p>
+ * All type resolution is done once, upon construction, so invocations only use the pre-resolved readers and
+ * writers of the method's parameters and result. Values of a declared type that is final are written with a
+ * writer bound to that type, values of any other type are written according to their runtime type so that no
+ * properties of subclasses get lost.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class MethodInvocationPlan {
+
+    private final Method m_method;
+    private final int m_id;
+    private final String m_signature;
+    private final boolean m_void;
+    private final boolean m_async;
+    private final ObjectReader[] m_parameterReaders;
+    private final ObjectWriter[] m_parameterWriters;
+    private final ObjectReader m_resultReader;
+    private final ObjectWriter m_resultWriter;
+
+    /**
+     * Creates a new invocation plan.
+     *
+     * @param objectMapper the object mapper to resolve the readers and writers with, cannot be <code>null</code>;
+     * @param method the method to create the plan for, cannot be <code>null</code>;
+     * @param id the id of the method in the method table of the endpoint, or <code>-1</code> if the method can only
+     *        be identified by its signature.
+     */
+    public MethodInvocationPlan(ObjectMapper objectMapper, Method method, int id) {
+        m_method = method;
+        m_id = id;
+        m_signature = getMethodSignature(method);
+        m_void = Void.TYPE.equals(method.getReturnType());
+        m_async = AsyncUtil.isAsync(method);
+
+        ObjectWriter dynamicWriter = createWriter(objectMapper, null);
+
+        Type[] types = method.getGenericParameterTypes();
+        m_parameterReaders = new ObjectReader[types.length];
+        m_parameterWriters = new ObjectWriter[types.length];
+        for (int i = 0; i < types.length; i++) {
+            JavaType type = objectMapper.getTypeFactory().constructType(types[i]);
+            m_parameterReaders[i] = objectMapper.reader(type);
+            m_parameterWriters[i] = isStaticType(type) ? createWriter(objectMapper, type) : dynamicWriter;
+        }
+
+        if (m_void) {
+            m_resultReader = null;
+            m_resultWriter = null;
+        }
+        else {
+            JavaType type = objectMapper.getTypeFactory().constructType(getResultType(method));
+            m_resultReader = objectMapper.reader(type);
+            m_resultWriter = isStaticType(type) ? createWriter(objectMapper, type) : dynamicWriter;
+        }
+    }
+
+    /**
+     * @return the id of the method in the method table of the endpoint, or <code>-1</code> if unknown.
+     */
+    public int getId() {
+        return m_id;
+    }
+
+    /**
+     * @return the method this plan is for, never <code>null</code>.
+     */
+    public Method getMethod() {
+        return m_method;
+    }
+
+    /**
+     * @return the number of parameters of the method.
+     */
+    public int getParameterCount() {
+        return m_parameterReaders.length;
+    }
+
+    /**
+     * @return the signature of the method, as used on the wire, never <code>null</code>.
+     */
+    public String getSignature() {
+        return m_signature;
+    }
+
+    /**
+     * @return <code>true</code> if the method returns a future and is to be invoked asynchronously, <code>false</code>
+     *         otherwise.
+     */
+    public boolean isAsync() {
+        return m_async;
+    }
+
+    /**
+     * @param methods a set of method names and/or signatures, cannot be <code>null</code>.
+     * @return <code>true</code> if the set contains either the name or the signature of the method,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isDeclaredIn(Set<String> methods) {
+        return methods.contains(m_method.getName()) || methods.contains(m_signature);
+    }
+
+    /**
+     * @return <code>true</code> if the method does not return a result, <code>false</code> otherwise.
+     */
+    public boolean isVoid() {
+        return m_void;
+    }
+
+    /**
+     * Writes the m-field identifying the method to the given generator, using the compact method id if known, or
+     * the signature otherwise.
+     *
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    public void writeMethod(JsonGenerator gen) throws IOException {
+        if (m_id >= 0) {
+            gen.writeNumberField("m", m_id);
+        }
+        else {
+            gen.writeStringField("m", m_signature);
+        }
+    }
+
+    /**
+     * Reads the value of a parameter from the given parser.
+     *
+     * @param index the index of the parameter;
+     * @param parser the parser, positioned at the first token of the value, cannot be <code>null</code>.
+     * @return the parameter value, can be <code>null</code>.
+     * @throws IOException in case the value could not be read or bound.
+     */
+    public Object readParameter(int index, JsonParser parser) throws IOException {
+        return m_parameterReaders[index].readValue(parser);
+    }
+
+    /**
+     * Writes the given arguments as consecutive values to the given generator.
+     *
+     * @param arguments the arguments to write, can be <code>null</code> if the method has no parameters;
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    public void writeArguments(Object[] arguments, JsonGenerator gen) throws IOException {
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                m_parameterWriters[i].writeValue(gen, arguments[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the result of the method from the given parser. Results of void methods are skipped.
+     *
+     * @param parser the parser, positioned at the first token of the value, cannot be <code>null</code>.
+     * @return the result, can be <code>null</code>.
+     * @throws IOException in case the value could not be read or bound.
+     */
+    public Object readResult(JsonParser parser) throws IOException {
+        if (m_void) {
+            parser.skipChildren();
+            return null;
+        }
+        return m_resultReader.readValue(parser);
+    }
+
+    /**
+     * Writes the given result of a non-void method to the given generator.
+     *
+     * @param result the result to write, can be <code>null</code>;
+     * @param gen the generator to write to, cannot be <code>null</code>.
+     * @throws IOException in case writing failed.
+     */
+    public void writeResult(Object result, JsonGenerator gen) throws IOException {
+        m_resultWriter.writeValue(gen, result);
+    }
+
+    /**
+     * Creates a writer for values of the given type, or for values of any type if no type is given. The writer does
+     * not flush the generator after each value, as values are always written as part of a larger document.
+     */
+    static ObjectWriter createWriter(ObjectMapper objectMapper, JavaType type) {
+        ObjectWriter writer = (type == null) ? objectMapper.writer() : objectMapper.writerWithType(type);
+        return writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * @return <code>true</code> if all values of the given type are serialized the same as the type itself.
+     */
+    private static boolean isStaticType(JavaType type) {
+        Class<?> rawClass = type.getRawClass();
+        return rawClass.isPrimitive() || Modifier.isFinal(rawClass.getModifiers());
+    }
+}
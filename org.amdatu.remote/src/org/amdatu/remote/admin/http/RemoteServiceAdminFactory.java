@@ -13,13 +13,21 @@
  */
 package org.amdatu.remote.admin.http;
 
+import static org.amdatu.remote.admin.http.HttpAdminConstants.SUPPORTED_CONFIGURATION_TYPES;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.REMOTE_CONFIGS_SUPPORTED;
+
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.amdatu.remote.AbstractComponent;
+import org.amdatu.remote.metrics.EndpointMetricsRegistry;
+import org.amdatu.remote.metrics.EndpointMetricsService;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
@@ -41,26 +49,55 @@ public final class RemoteServiceAdminFactory extends AbstractComponent implement
     private final HttpAdminConfiguration m_configuration;
     private final EventsHandlerImpl m_eventsHandler;
     private final HttpServerEndpointHandler m_endpointHandler;
+    private final HttpClientConnectionManager m_connectionManager;
+    private final EndpointMetricsRegistry m_metrics;
+    private final TcpServer m_tcpServer;
 
     private volatile HttpService m_httpService;
+    private volatile ServiceRegistration<EndpointMetricsService> m_metricsRegistration;
 
     public RemoteServiceAdminFactory(HttpAdminConfiguration configuration) {
         super("admin", "http");
         m_configuration = configuration;
         m_eventsHandler = new EventsHandlerImpl(this);
         m_endpointHandler = new HttpServerEndpointHandler(this);
+        m_connectionManager = new HttpClientConnectionManager(configuration);
+        m_metrics = new EndpointMetricsRegistry("http", ManagementFactory.getPlatformMBeanServer());
+        m_tcpServer = (configuration.getTcpPort() >= 0) ? new TcpServer(this) : null;
     }
 
     @Override
     protected void startComponent() throws Exception {
         m_eventsHandler.start();
         m_endpointHandler.start();
+        if (m_tcpServer != null) {
+            m_tcpServer.start();
+        }
+
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(REMOTE_CONFIGS_SUPPORTED, SUPPORTED_CONFIGURATION_TYPES);
+        m_metricsRegistration =
+            getBundleContext().registerService(EndpointMetricsService.class, m_metrics, properties);
     }
 
     @Override
     protected void stopComponent() throws Exception {
+        ServiceRegistration<EndpointMetricsService> metricsRegistration = m_metricsRegistration;
+        m_metricsRegistration = null;
+        if (metricsRegistration != null) {
+            try {
+                metricsRegistration.unregister();
+            }
+            catch (Exception e) {}
+        }
+
+        if (m_tcpServer != null) {
+            m_tcpServer.stop();
+        }
         m_eventsHandler.stop();
         m_endpointHandler.stop();
+        m_connectionManager.close();
+        m_metrics.close();
     }
 
     @Override
@@ -122,6 +159,25 @@ public final class RemoteServiceAdminFactory extends AbstractComponent implement
         return m_endpointHandler;
     }
 
+    HttpClientConnectionManager getConnectionManager() {
+        return m_connectionManager;
+    }
+
+    /**
+     * @return the server serving the endpoints over TCP, or <code>null</code> if TCP is disabled.
+     */
+    TcpServer getTcpServer() {
+        return m_tcpServer;
+    }
+
+    EndpointMetricsRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    HttpAdminConfiguration getConfiguration() {
+        return m_configuration;
+    }
+
     URL getBaseURL() {
         return m_configuration.getBaseUrl();
     }
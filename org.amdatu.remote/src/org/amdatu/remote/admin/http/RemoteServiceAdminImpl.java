@@ -15,7 +15,11 @@ package org.amdatu.remote.admin.http;
 
 import static org.amdatu.remote.ServiceUtil.getStringPlusValue;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.CONFIGURATION_TYPE;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_CODECS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_METHODS;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_TCP_ADDRESS;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.ENDPOINT_URL;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.PASSBYREFERENCE_INTENT;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.PASSBYVALYE_INTENT;
 import static org.amdatu.remote.admin.http.HttpAdminConstants.SUPPORTED_INTENTS;
 import static org.osgi.framework.Constants.OBJECTCLASS;
@@ -55,6 +59,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.amdatu.remote.AbstractComponentDelegate;
+import org.amdatu.remote.metrics.EndpointMetricsRegistry;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
@@ -119,16 +124,19 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
     public Collection<ExportRegistration> exportService(final ServiceReference<?> reference,
         final Map<String, ?> properties) {
 
-        final EndpointDescription endpoint = createEndpointDescription(reference, properties);
-        if (endpoint == null) {
+        EndpointDescription description = createEndpointDescription(reference, properties);
+        if (description == null) {
             return Collections.emptyList();
         }
 
-        final Class<?>[] interfaces = loadEndpointInterfaces(reference, endpoint);
+        final Class<?>[] interfaces = loadEndpointInterfaces(reference, description);
         if (interfaces == null) {
             return Collections.emptyList();
         }
 
+        final EndpointDescription endpoint =
+            addMethodTable(description, HttpAdminUtil.getMethodSignatures(interfaces));
+
         SecurityManager securityManager = System.getSecurityManager();
         if (securityManager != null) {
             securityManager.checkPermission(new EndpointPermission(endpoint, getFrameworkUUID(), EXPORT));
@@ -367,10 +375,26 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
         return m_manager.getEventsHandler();
     }
 
+    /**
+     * @return <code>true</code> if the given endpoint is exported by the framework of this admin,
+     *         <code>false</code> otherwise.
+     */
+    boolean isLocalEndpoint(EndpointDescription endpoint) {
+        return getFrameworkUUID().equals(endpoint.getFrameworkUUID());
+    }
+
     HttpServerEndpointHandler getServerEndpointHandler() {
         return m_manager.getServerEndpointHandler();
     }
 
+    HttpClientConnectionManager getConnectionManager() {
+        return m_manager.getConnectionManager();
+    }
+
+    EndpointMetricsRegistry getMetrics() {
+        return m_manager.getMetrics();
+    }
+
     EndpointDescription createEndpointDescription(ServiceReference<?> reference, Map<String, ?> extraProperties) {
         return createEndpointDescription(UUID.randomUUID().toString(), reference, extraProperties);
     }
@@ -380,6 +404,20 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
         return createEndpointDescription(endpointId, getMergedProperties(reference, extraProperties));
     }
 
+    /**
+     * Adds the method table of an exported endpoint to its description, allowing importers to identify
+     * methods by their compact id.
+     * 
+     * @param endpoint the endpoint description
+     * @param methodSignatures the signatures of the endpoint's methods, indexed by method id
+     * @return the new endpoint description
+     */
+    EndpointDescription addMethodTable(EndpointDescription endpoint, String[] methodSignatures) {
+        Map<String, Object> properties = new HashMap<String, Object>(endpoint.getProperties());
+        properties.put(ENDPOINT_METHODS, methodSignatures);
+        return new EndpointDescription(properties);
+    }
+
     private Class<?>[] loadEndpointInterfaces(ServiceReference<?> reference, EndpointDescription endpoint) {
 
         BundleContext context = getBundleContext();
@@ -440,6 +478,16 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
 
         URL endpointURL = m_manager.getServerEndpointHandler().getEndpointURL(endpointId);
         properties.put(ENDPOINT_URL, endpointURL.toString());
+        properties.put(ENDPOINT_CODECS, HttpCodecs.getContentTypes());
+
+        TcpServer tcpServer = m_manager.getTcpServer();
+        int tcpPort = (tcpServer != null) ? tcpServer.getPort() : -1;
+        if (tcpPort > 0) {
+            properties.put(ENDPOINT_TCP_ADDRESS, endpointURL.getHost() + ":" + tcpPort);
+        }
+        else {
+            properties.remove(ENDPOINT_TCP_ADDRESS);
+        }
 
         return new EndpointDescription(properties);
     }
@@ -485,12 +533,13 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
 
     /**
      * Returns an array exported intents based on the {@link SERVICE_EXPORTED_INTENTS} and {@link SERVICE_EXPORTED_INTENTS_EXTRA}<br>
-     * property values as well as the default {@link HTTP_PASSBYVALYE_INTENT}.
+     * property values as well as the default {@link HTTP_PASSBYVALYE_INTENT}, unless the exporter asked for the
+     * {@link PASSBYREFERENCE_INTENT} instead.
      * 
      * @param properties the properties
      * @return an array of intents
      */
-    private static String[] getExportedIntents(Map<String, Object> properties) {
+    static String[] getExportedIntents(Map<String, Object> properties) {
         Object exportedIntents = properties.get(SERVICE_EXPORTED_INTENTS);
         Object exportedIntentsExtra = properties.get(SERVICE_EXPORTED_INTENTS_EXTRA);
         if (exportedIntents == null && exportedIntentsExtra == null) {
@@ -507,7 +556,9 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
                 set.add(exportedIntent);
             }
         }
-        set.add(PASSBYVALYE_INTENT);
+        if (!set.contains(PASSBYREFERENCE_INTENT)) {
+            set.add(PASSBYVALYE_INTENT);
+        }
         return set.toArray(new String[set.size()]);
     }
 
@@ -559,15 +610,20 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
     }
 
     /**
-     * Determines whether an array of intents is supported by this implementation.
+     * Determines whether an array of intents is supported by this implementation, which cannot pass by value and
+     * by reference at the same time.
      * 
      * @param exportedIntents the intents
      * @return {@code true} if supported, {@code false} otherwise.
      */
-    private static boolean isExportedIntentsSupported(String[] exportedIntents) {
+    static boolean isExportedIntentsSupported(String[] exportedIntents) {
         if (exportedIntents == null) {
             return false;
         }
+        List<String> intents = Arrays.asList(exportedIntents);
+        if (intents.contains(PASSBYVALYE_INTENT) && intents.contains(PASSBYREFERENCE_INTENT)) {
+            return false;
+        }
         for (String exportedIntent : exportedIntents) {
             if (!MY_SUPPORTED_INTENTS_SET.contains(exportedIntent)) {
                 return false;
@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.amdatu.remote.ByteBufferPool;
+import org.amdatu.remote.admin.http.TcpFrames.Frame;
+import org.amdatu.remote.admin.http.TcpFrames.FrameOutputStream;
+import org.amdatu.remote.admin.http.TcpFrames.FrameReader;
+import org.osgi.framework.ServiceException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Manages the TCP connections of all client endpoints of the HTTP admin to remote admins that serve their endpoints
+ * over TCP, see {@link TcpServer}.
+ * <p>
+ * There is a single persistent connection per remote admin and codec, shared by all invocations. Each invocation is
+ * sent as frame with a unique correlation id, after which the invoking thread waits for the frame with the same
+ * correlation id, which a reader thread per connection hands over. So invocations do not wait for each other, and
+ * no connection slots or sockets are needed per concurrent invocation. A connection that fails is dropped, failing
+ * the invocations in flight, and the next invocation opens a new one.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class TcpClientConnections {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final ConcurrentHashMap<String, Connection> m_connections = new ConcurrentHashMap<String, Connection>();
+    private final ByteBufferPool m_pool = new ByteBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final HttpAdminConfiguration m_configuration;
+
+    public TcpClientConnections(HttpAdminConfiguration configuration) {
+        m_configuration = configuration;
+    }
+
+    /**
+     * Sends a method invocation over the connection to the given remote admin, and waits for its outcome.
+     *
+     * @param address the TCP address of the remote admin, as <code>host:port</code>, cannot be <code>null</code>;
+     * @param endpointId the id of the remote endpoint, cannot be <code>null</code>;
+     * @param codec the codec to encode the invocation with, cannot be <code>null</code>;
+     * @param plan the invocation plan of the method to invoke, cannot be <code>null</code>;
+     * @param arguments the arguments of the method to invoke, can be <code>null</code>;
+     * @param timeout the time in milliseconds left until the deadline of the invocation, which is sent along with it
+     *        and bounds the wait for the outcome, or <code>0</code> to wait the configured read timeout.
+     * @return the outcome of the invocation as sent by the server, in the same format as for batched invocations.
+     * @throws IOException in case the invocation could not be sent or its outcome could not be read in time.
+     */
+    public JsonNode invoke(String address, String endpointId, HttpCodec codec, MethodInvocationPlan plan,
+        Object[] arguments, long timeout) throws IOException {
+        Connection connection = getConnection(address, codec);
+
+        FrameOutputStream out = new FrameOutputStream();
+        JsonGenerator gen = codec.createGenerator(out);
+        gen.writeStartObject();
+        gen.writeStringField("i", endpointId);
+        plan.writeMethod(gen);
+        gen.writeArrayFieldStart("a");
+        plan.writeArguments(arguments, gen);
+        gen.writeEndArray();
+        if (timeout > 0) {
+            gen.writeNumberField("d", timeout);
+        }
+        gen.writeEndObject();
+        gen.close();
+
+        byte[] outcome = connection.invoke(out, (timeout > 0) ? timeout : m_configuration.getReadTimeout());
+        JsonParser parser = codec.createParser(new ByteArrayInputStream(outcome));
+        try {
+            return parser.readValueAsTree();
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Closes all connections, failing the invocations in flight.
+     */
+    public void close() {
+        for (Connection connection : m_connections.values()) {
+            connection.close(new IOException("Connection closed"));
+        }
+        m_connections.clear();
+    }
+
+    private Connection getConnection(String address, HttpCodec codec) throws IOException {
+        String key = codec.getContentType() + " " + address;
+        Connection connection = m_connections.get(key);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        synchronized (m_connections) {
+            connection = m_connections.get(key);
+            if (connection == null || !connection.isOpen()) {
+                connection = new Connection(key, parseAddress(address));
+                connection.open(codec, m_configuration.getConnectTimeout());
+                m_connections.put(key, connection);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * @param address the address as <code>host:port</code>, cannot be <code>null</code>.
+     * @return the unresolved socket address, never <code>null</code>.
+     * @throws IOException in case the address is invalid.
+     */
+    static InetSocketAddress parseAddress(String address) throws IOException {
+        int idx = address.lastIndexOf(':');
+        if (idx <= 0) {
+            throw new IOException("Invalid TCP address: " + address);
+        }
+        try {
+            return InetSocketAddress.createUnresolved(address.substring(0, idx),
+                Integer.parseInt(address.substring(idx + 1)));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Invalid TCP address: " + address, e);
+        }
+    }
+
+    /**
+     * A connection to a single remote admin.
+     */
+    private final class Connection implements Runnable {
+
+        private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> m_inFlight =
+            new ConcurrentHashMap<Integer, CompletableFuture<byte[]>>();
+        private final AtomicInteger m_correlationIds = new AtomicInteger();
+        private final Object m_writeLock = new Object();
+        private final String m_key;
+        private final InetSocketAddress m_address;
+
+        private volatile SocketChannel m_channel;
+        private volatile IOException m_failure;
+
+        Connection(String key, InetSocketAddress address) {
+            m_key = key;
+            m_address = address;
+        }
+
+        boolean isOpen() {
+            return m_failure == null;
+        }
+
+        /**
+         * Connects to the remote admin, announces the codec and starts the reader thread.
+         */
+        void open(HttpCodec codec, int connectTimeout) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().connect(new InetSocketAddress(m_address.getHostString(), m_address.getPort()),
+                    connectTimeout);
+                channel.socket().setTcpNoDelay(true);
+                m_channel = channel;
+
+                FrameOutputStream preamble = new FrameOutputStream();
+                preamble.write(codec.getContentType().getBytes(StandardCharsets.UTF_8));
+                write(preamble.toBuffer(m_pool, TcpFrames.PREAMBLE_ID));
+            }
+            catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            Thread reader = new Thread(this, "Amdatu TCP client " + m_address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Sends the given invocation and waits for its outcome.
+         */
+        byte[] invoke(FrameOutputStream invocation, long timeout) throws IOException {
+            int correlationId;
+            do {
+                correlationId = m_correlationIds.incrementAndGet();
+            }
+            while (correlationId == TcpFrames.PREAMBLE_ID);
+
+            CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+            m_inFlight.put(correlationId, future);
+            try {
+                IOException failure = m_failure;
+                if (failure != null) {
+                    throw failure;
+                }
+                write(invocation.toBuffer(m_pool, correlationId));
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (IOException e) {
+                close(e);
+                throw e;
+            }
+            catch (TimeoutException e) {
+                throw new SocketTimeoutException("No response within " + timeout + " ms");
+            }
+            catch (InterruptedException e) {
+                // Cancelled by the caller, rather than a problem of the remote admin...
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Remote service invocation interrupted while waiting for response",
+                    ServiceException.REMOTE, e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Invocation failed", cause);
+            }
+            finally {
+                m_inFlight.remove(correlationId);
+            }
+        }
+
+        /**
+         * Reads the incoming frames and hands them to the invocations waiting for them.
+         */
+        @Override
+        public void run() {
+            FrameReader reader = new FrameReader(m_pool);
+            try {
+                while (isOpen()) {
+                    if (reader.read(m_channel) < 0) {
+                        throw new IOException("Connection closed by remote admin");
+                    }
+                    Frame frame;
+                    while ((frame = reader.next()) != null) {
+                        CompletableFuture<byte[]> future = m_inFlight.get(frame.getCorrelationId());
+                        if (future != null) {
+                            future.complete(frame.getPayload());
+                        }
+                    }
+                }
+            }
+            catch (IOException e) {
+                close(e);
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * Closes this connection, failing all invocations in flight with the given exception.
+         */
+        void close(IOException failure) {
+            synchronized (this) {
+                if (m_failure != null) {
+                    return;
+                }
+                m_failure = failure;
+            }
+            m_connections.remove(m_key, this);
+            try {
+                m_channel.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+            for (CompletableFuture<byte[]> future : m_inFlight.values()) {
+                future.completeExceptionally(failure);
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            try {
+                synchronized (m_writeLock) {
+                    while (buffer.hasRemaining()) {
+                        m_channel.write(buffer);
+                    }
+                }
+            }
+            finally {
+                m_pool.release(buffer);
+            }
+        }
+    }
+}
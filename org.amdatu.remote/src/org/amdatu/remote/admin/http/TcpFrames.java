@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.amdatu.remote.ByteBufferPool;
+
+/**
+ * Framing of the TCP transport of the HTTP admin.
+ * <p>
+ * A connection carries length-prefixed frames in both directions. Each frame consists of a four byte length,
+ * counting the bytes that follow it, a four byte correlation id and the payload. The client opens a connection
+ * with a frame with correlation id <code>0</code> holding the content type of the codec it uses. All other frames
+ * from the client hold an invocation, encoded as for a batch with its i-field first, and are answered by the server
+ * with a frame with the same correlation id holding the outcome. As many invocations can be in flight on a
+ * connection, the server may answer them in any order.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class TcpFrames {
+
+    /** The size of the frame header: the length and the correlation id. */
+    static final int HEADER_SIZE = 8;
+    /** The correlation id of the frame opening a connection. */
+    static final int PREAMBLE_ID = 0;
+    /** The maximum length of a frame, protecting against corrupt or malicious length prefixes. */
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private TcpFrames() {
+        // Nop
+    }
+
+    /**
+     * A received frame.
+     */
+    static final class Frame {
+        private final int m_correlationId;
+        private final byte[] m_payload;
+
+        Frame(int correlationId, byte[] payload) {
+            m_correlationId = correlationId;
+            m_payload = payload;
+        }
+
+        int getCorrelationId() {
+            return m_correlationId;
+        }
+
+        byte[] getPayload() {
+            return m_payload;
+        }
+    }
+
+    /**
+     * Output stream collecting the payload of a frame, leaving room for its header.
+     */
+    static final class FrameOutputStream extends ByteArrayOutputStream {
+
+        FrameOutputStream() {
+            super(256);
+            count = HEADER_SIZE;
+        }
+
+        /**
+         * Completes the frame with the given correlation id.
+         *
+         * @param pool the pool to take the buffer from, cannot be <code>null</code>;
+         * @param correlationId the correlation id of the frame.
+         * @return the flipped buffer holding the frame, to be returned to the pool once written.
+         */
+        synchronized ByteBuffer toBuffer(ByteBufferPool pool, int correlationId) {
+            ByteBuffer buffer = pool.acquire(count);
+            buffer.putInt(count - 4);
+            buffer.putInt(correlationId);
+            buffer.put(buf, HEADER_SIZE, count - HEADER_SIZE);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Reassembles the frames read from a channel.
+     */
+    static final class FrameReader {
+
+        private final ByteBufferPool m_pool;
+        private ByteBuffer m_buffer;
+
+        FrameReader(ByteBufferPool pool) {
+            m_pool = pool;
+            m_buffer = pool.acquire(pool.getBufferSize());
+        }
+
+        /**
+         * Reads the bytes available from the given channel.
+         *
+         * @return the number of bytes read, or <code>-1</code> if the channel reached its end.
+         */
+        int read(ReadableByteChannel channel) throws IOException {
+            return channel.read(m_buffer);
+        }
+
+        /**
+         * @return the next completely read frame, or <code>null</code> if more bytes need to be read.
+         * @throws IOException in case of an invalid frame length.
+         */
+        Frame next() throws IOException {
+            m_buffer.flip();
+            try {
+                if (m_buffer.remaining() < 4) {
+                    return null;
+                }
+                int length = m_buffer.getInt(m_buffer.position());
+                if (length < 4 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (m_buffer.remaining() < 4 + length) {
+                    ensureCapacity(4 + length);
+                    return null;
+                }
+                m_buffer.getInt();
+                int correlationId = m_buffer.getInt();
+                byte[] payload = new byte[length - 4];
+                m_buffer.get(payload);
+                return new Frame(correlationId, payload);
+            }
+            finally {
+                m_buffer.compact();
+            }
+        }
+
+        /**
+         * Returns the buffer of this reader to the pool.
+         */
+        void close() {
+            m_pool.release(m_buffer);
+            m_buffer = null;
+        }
+
+        /**
+         * Replaces the (flipped) buffer with one large enough to hold a frame of the given size, as the frame
+         * does not fit in the pooled buffer.
+         */
+        private void ensureCapacity(int size) {
+            if (m_buffer.capacity() >= size) {
+                return;
+            }
+            ByteBuffer buffer = m_pool.acquire(size);
+            buffer.put(m_buffer);
+            buffer.flip();
+            m_pool.release(m_buffer);
+            m_buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.amdatu.remote.AbstractComponentDelegate;
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.ByteBufferPool;
+import org.amdatu.remote.admin.http.TcpFrames.Frame;
+import org.amdatu.remote.admin.http.TcpFrames.FrameOutputStream;
+import org.amdatu.remote.admin.http.TcpFrames.FrameReader;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * RSA component that serves the server endpoints over persistent TCP connections, as alternative to the servlet of
+ * the {@link HttpServerEndpointHandler}.
+ * <p>
+ * A single selector thread accepts connections and reads their frames, see {@link TcpFrames}. The invocations are
+ * executed on a pool of worker threads, each of which queues the outcome on the connection it came from, so many
+ * invocations can be in flight on a connection and be answered in any order. Invocations arriving while the workers
+ * are saturated and their queue is full are rejected with a service unavailable status right away.
+ * <p>
+ * The server listens on the host of the base URL only, the host it is advertised on. Its invocations are neither
+ * authenticated nor passed through the servlet stack, so it relies on the network to keep untrusted clients out.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class TcpServer extends AbstractComponentDelegate {
+
+    private static final int WORKER_THREADS = 64;
+    private static final int MAX_QUEUED_INVOCATIONS = 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private final RemoteServiceAdminFactory m_factory;
+    private final ByteBufferPool m_pool = new ByteBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private volatile ServerSocketChannel m_serverChannel;
+    private volatile Selector m_selector;
+    private volatile ExecutorService m_executor;
+    private volatile Thread m_thread;
+    private volatile boolean m_running;
+
+    public TcpServer(RemoteServiceAdminFactory factory) {
+        super(factory);
+        m_factory = factory;
+    }
+
+    @Override
+    protected void startComponentDelegate() throws Exception {
+        String host = m_factory.getBaseURL().getHost();
+        int port = m_factory.getConfiguration().getTcpPort();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(host, port));
+            serverChannel.configureBlocking(false);
+            m_selector = Selector.open();
+            serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e) {
+            serverChannel.close();
+            logError("Failed to listen on TCP address %s:%d!", e, host, port);
+            throw e;
+        }
+        m_serverChannel = serverChannel;
+        m_executor = AsyncUtil.createExecutor("Amdatu TCP server", WORKER_THREADS, MAX_QUEUED_INVOCATIONS);
+        m_running = true;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                select();
+            }
+        }, "Amdatu TCP server selector");
+        thread.setDaemon(true);
+        thread.start();
+        m_thread = thread;
+    }
+
+    @Override
+    protected void stopComponentDelegate() throws Exception {
+        m_running = false;
+        Selector selector = m_selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        Thread thread = m_thread;
+        if (thread != null) {
+            thread.join(1000);
+        }
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection) {
+                    ((Connection) attachment).close();
+                }
+            }
+            selector.close();
+        }
+        ServerSocketChannel serverChannel = m_serverChannel;
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        ExecutorService executor = m_executor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the port this server listens on, or <code>-1</code> if it is not listening.
+     */
+    public int getPort() {
+        ServerSocketChannel serverChannel = m_serverChannel;
+        return (serverChannel != null) ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    private void select() {
+        while (m_running) {
+            try {
+                m_selector.select();
+                Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    }
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isWritable()) {
+                                connection.flushPending();
+                            }
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                        }
+                        catch (IOException e) {
+                            logDebug("TCP connection closed: %s", e.getMessage());
+                            connection.close();
+                        }
+                    }
+                }
+            }
+            catch (Exception e) {
+                if (m_running) {
+                    logWarning("TCP server selector failed!", e);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = m_serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.m_key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Invokes the invocation held by the given frame and sends its outcome back. The invocation is decoded straight
+     * from the payload, which holds the endpoint id as first field so the endpoint can decode the rest.
+     */
+    private void invoke(Connection connection, HttpCodec codec, Frame frame) {
+        try {
+            FrameOutputStream out = new FrameOutputStream();
+            JsonGenerator gen = codec.createGenerator(out);
+            JsonParser parser = codec.createParser(new ByteArrayInputStream(frame.getPayload()));
+            try {
+                String endpointId = readEndpointId(parser);
+                if (endpointId == null) {
+                    HttpServerEndpoint.writeStatus(SC_BAD_REQUEST, gen);
+                }
+                else {
+                    HttpServerEndpoint handler = m_factory.getServerEndpointHandler().getHandler(endpointId);
+                    if (handler != null) {
+                        handler.invokeFramed(parser, gen);
+                    }
+                    else {
+                        HttpServerEndpoint.writeStatus(SC_NOT_FOUND, gen);
+                    }
+                }
+            }
+            finally {
+                parser.close();
+            }
+            gen.close();
+            connection.send(out.toBuffer(m_pool, frame.getCorrelationId()));
+        }
+        catch (IOException e) {
+            logWarning("TCP server failed to answer invocation!", e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Reads the start of an invocation up to and including its leading i-field.
+     * 
+     * @return the endpoint id held by the i-field, or <code>null</code> if the invocation does not start with one.
+     */
+    private static String readEndpointId(JsonParser parser) {
+        try {
+            if (parser.nextToken() == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME
+                && "i".equals(parser.getCurrentName()) && parser.nextToken() == JsonToken.VALUE_STRING) {
+                return parser.getText();
+            }
+        }
+        catch (IOException e) {
+            // Not a valid invocation...
+        }
+        return null;
+    }
+
+    /**
+     * Answers the invocation held by the given frame with a service unavailable status, without invoking it.
+     */
+    private void reject(Connection connection, HttpCodec codec, Frame frame) throws IOException {
+        FrameOutputStream out = new FrameOutputStream();
+        JsonGenerator gen = codec.createGenerator(out);
+        HttpServerEndpoint.writeRejected(m_factory.getConfiguration().getRetryAfter(), gen);
+        gen.close();
+        connection.send(out.toBuffer(m_pool, frame.getCorrelationId()));
+    }
+
+    /**
+     * A connection accepted by the server.
+     */
+    private final class Connection {
+
+        private final SocketChannel m_channel;
+        private final FrameReader m_reader = new FrameReader(m_pool);
+        private final Queue<ByteBuffer> m_pending = new ArrayDeque<ByteBuffer>();
+        private volatile SelectionKey m_key;
+        private HttpCodec m_codec;
+        private boolean m_closed;
+
+        Connection(SocketChannel channel) {
+            m_channel = channel;
+        }
+
+        /**
+         * Reads the available frames and dispatches their invocations to the workers.
+         */
+        synchronized void read() throws IOException {
+            if (m_closed) {
+                return;
+            }
+            if (m_reader.read(m_channel) < 0) {
+                throw new IOException("End of stream");
+            }
+            Frame frame;
+            while ((frame = m_reader.next()) != null) {
+                if (m_codec == null) {
+                    if (frame.getCorrelationId() != TcpFrames.PREAMBLE_ID) {
+                        throw new IOException("Connection preamble expected");
+                    }
+                    m_codec = HttpCodecs.getCodec(new String(frame.getPayload(), StandardCharsets.UTF_8));
+                    if (m_codec == null) {
+                        throw new IOException("Unsupported codec");
+                    }
+                    continue;
+                }
+                dispatch(frame);
+            }
+        }
+
+        /**
+         * Queues a frame for sending and writes as much of the queued frames as the socket accepts without blocking.
+         * Any remainder is written by the selector thread once the socket accepts more.
+         */
+        synchronized void send(ByteBuffer buffer) throws IOException {
+            if (m_closed) {
+                m_pool.release(buffer);
+                return;
+            }
+            m_pending.add(buffer);
+            flushPending();
+        }
+
+        synchronized void flushPending() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = m_pending.peek()) != null) {
+                m_channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                m_pending.remove();
+                m_pool.release(buffer);
+            }
+            SelectionKey key = m_key;
+            if (key != null && key.isValid()) {
+                int ops = m_pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                if (key.interestOps() != ops) {
+                    key.interestOps(ops);
+                    key.selector().wakeup();
+                }
+            }
+        }
+
+        synchronized void close() {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            SelectionKey key = m_key;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                m_channel.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+            m_reader.close();
+            ByteBuffer buffer;
+            while ((buffer = m_pending.poll()) != null) {
+                m_pool.release(buffer);
+            }
+        }
+
+        private void dispatch(final Frame frame) throws IOException {
+            final HttpCodec codec = m_codec;
+            try {
+                m_executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        invoke(Connection.this, codec, frame);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                if (m_executor.isShutdown()) {
+                    throw new IOException("TCP server stopped", e);
+                }
+                reject(this, codec, frame);
+            }
+        }
+    }
+}
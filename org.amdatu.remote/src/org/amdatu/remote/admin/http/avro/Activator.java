@@ -15,6 +15,11 @@ package org.amdatu.remote.admin.http.avro;
 
 import static org.amdatu.remote.ServiceUtil.getConfigIntValue;
 import static org.amdatu.remote.ServiceUtil.getConfigStringValue;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.BUFFER_SIZE_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CIRCUIT_OPEN_TIME_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CIRCUIT_WINDOW_CONFIG_KEY;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.COMPRESSION_THRESHOLD_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CONNECT_TIMEOUT_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.PATH_CONFIG_KEY;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.READ_TIMEOUT_CONFIG_KEY;
@@ -55,6 +60,11 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
 public final class Activator extends DependencyActivatorBase implements ManagedService, HttpAdminConfiguration {
     private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
     private static final int DEFAULT_READ_TIMEOUT = 60000;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final int DEFAULT_BUFFER_SIZE = AvroCoderPool.DEFAULT_BUFFER_SIZE;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 50;
+    private static final int DEFAULT_CIRCUIT_WINDOW = 10000;
+    private static final int DEFAULT_CIRCUIT_OPEN_TIME = 5000;
 
     private volatile DependencyManager m_dependencyManager;
     private volatile Component m_configurationComponent;
@@ -62,19 +72,37 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     private volatile URL m_baseUrl;
     private volatile int m_connectTimeout;
     private volatile int m_readTimeout;
+    private volatile int m_compressionThreshold;
+    private volatile int m_bufferSize;
+    private volatile int m_circuitFailureThreshold;
+    private volatile int m_circuitWindow;
+    private volatile int m_circuitOpenTime;
     private volatile Dictionary<String, ?> m_properties;
 
     @Override
     public void init(final BundleContext context, final DependencyManager manager) throws Exception {
         m_dependencyManager = manager;
+        context.addBundleListener(AvroProtocolCache.getInstance());
 
         int connectTimeout = getConfigIntValue(context, CONNECT_TIMEOUT_CONFIG_KEY, null, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(context, READ_TIMEOUT_CONFIG_KEY, null, DEFAULT_READ_TIMEOUT);
+        int compressionThreshold =
+            getConfigIntValue(context, COMPRESSION_THRESHOLD_CONFIG_KEY, null, DEFAULT_COMPRESSION_THRESHOLD);
+        int bufferSize = getConfigIntValue(context, BUFFER_SIZE_CONFIG_KEY, null, DEFAULT_BUFFER_SIZE);
+        int circuitFailureThreshold =
+            getConfigIntValue(context, CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY, null, DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+        int circuitWindow = getConfigIntValue(context, CIRCUIT_WINDOW_CONFIG_KEY, null, DEFAULT_CIRCUIT_WINDOW);
+        int circuitOpenTime = getConfigIntValue(context, CIRCUIT_OPEN_TIME_CONFIG_KEY, null, DEFAULT_CIRCUIT_OPEN_TIME);
 
         try {
             m_baseUrl = parseConfiguredBaseUrl(context);
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_compressionThreshold = compressionThreshold;
+            m_bufferSize = bufferSize;
+            m_circuitFailureThreshold = circuitFailureThreshold;
+            m_circuitWindow = circuitWindow;
+            m_circuitOpenTime = circuitOpenTime;
             registerFactoryService();
             registerConfigurationService();
         }
@@ -88,6 +116,7 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
 
         unregisterConfigurationService();
         unregisterFactoryService();
+        context.removeBundleListener(AvroProtocolCache.getInstance());
     }
 
     @Override
@@ -100,15 +129,29 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
         int connectTimeout =
             getConfigIntValue(context, CONNECT_TIMEOUT_CONFIG_KEY, m_properties, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(context, READ_TIMEOUT_CONFIG_KEY, m_properties, DEFAULT_READ_TIMEOUT);
+        int compressionThreshold =
+            getConfigIntValue(context, COMPRESSION_THRESHOLD_CONFIG_KEY, m_properties, DEFAULT_COMPRESSION_THRESHOLD);
+        int bufferSize = getConfigIntValue(context, BUFFER_SIZE_CONFIG_KEY, m_properties, DEFAULT_BUFFER_SIZE);
+        int circuitFailureThreshold =
+            getConfigIntValue(context, CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY, m_properties,
+                DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+        int circuitWindow = getConfigIntValue(context, CIRCUIT_WINDOW_CONFIG_KEY, m_properties, DEFAULT_CIRCUIT_WINDOW);
+        int circuitOpenTime =
+            getConfigIntValue(context, CIRCUIT_OPEN_TIME_CONFIG_KEY, m_properties, DEFAULT_CIRCUIT_OPEN_TIME);
         URL baseUrl = parseConfiguredBaseUrl(context);
 
         try {
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_compressionThreshold = compressionThreshold;
+            m_circuitFailureThreshold = circuitFailureThreshold;
+            m_circuitWindow = circuitWindow;
+            m_circuitOpenTime = circuitOpenTime;
 
-            if (!baseUrl.equals(m_baseUrl)) {
+            if (!baseUrl.equals(m_baseUrl) || bufferSize != m_bufferSize) {
                 unregisterFactoryService();
                 m_baseUrl = baseUrl;
+                m_bufferSize = bufferSize;
                 registerFactoryService();
             }
         }
@@ -217,4 +260,29 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     public int getReadTimeout() {
         return m_readTimeout;
     }
+
+    @Override
+    public int getCompressionThreshold() {
+        return m_compressionThreshold;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    @Override
+    public int getCircuitFailureThreshold() {
+        return m_circuitFailureThreshold;
+    }
+
+    @Override
+    public int getCircuitWindow() {
+        return m_circuitWindow;
+    }
+
+    @Override
+    public int getCircuitOpenTime() {
+        return m_circuitOpenTime;
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.amdatu.remote.AsyncUtil;
+import org.apache.avro.AvroRemoteException;
+import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
+import org.apache.avro.Schema;
+import org.apache.avro.reflect.AvroSchema;
+import org.apache.avro.reflect.Nullable;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.reflect.Union;
+
+import com.thoughtworks.paranamer.CachingParanamer;
+import com.thoughtworks.paranamer.Paranamer;
+
+/**
+ * {@link ReflectData} that maps {@link CompletableFuture} and {@link CompletionStage} types onto
+ * the schema of their type parameter, so that the Avro protocol of an interface with asynchronous
+ * methods describes the values that are actually transferred.
+ * <p>
+ * Messages can also be created per method, see {@link #createMessage(Method, Protocol, Map)}, which unlike
+ * {@link #getProtocol(Class)} supports interfaces with overloaded methods.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class AsyncReflectData extends ReflectData {
+
+    private static final AsyncReflectData INSTANCE = new AsyncReflectData();
+
+    private final Paranamer m_paranamer = new CachingParanamer();
+
+    /**
+     * @return the singleton instance, never <code>null</code>.
+     */
+    public static AsyncReflectData getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected Schema createSchema(final java.lang.reflect.Type type, final Map<String, Schema> names) {
+        if (AsyncUtil.isAsyncType(type)) {
+            if (type instanceof ParameterizedType) {
+                return createSchema(((ParameterizedType) type).getActualTypeArguments()[0], names);
+            }
+            return Schema.create(Schema.Type.NULL);
+        }
+        return super.createSchema(type, names);
+    }
+
+    /**
+     * Creates the message of a single method, in the same way {@link #getProtocol(Class)} does for each method of an
+     * interface. As a protocol holds its messages by name, the latter fails on overloaded methods.
+     *
+     * @param method
+     *        the method to create the message of
+     * @param protocol
+     *        the protocol creating the message
+     * @param names
+     *        the named schemas defined so far, shared by all messages of the protocol
+     * @return the message, never <code>null</code>.
+     */
+    public Message createMessage(final Method method, final Protocol protocol, final Map<String, Schema> names) {
+        List<Schema.Field> fields = new ArrayList<Schema.Field>();
+        String[] paramNames = m_paranamer.lookupParameterNames(method);
+        Type[] paramTypes = method.getGenericParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < paramTypes.length; i++) {
+            Schema paramSchema = createSchema(paramTypes[i], names);
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof AvroSchema) {
+                    paramSchema = new Schema.Parser().parse(((AvroSchema) annotation).value());
+                }
+                else if (annotation instanceof Union) {
+                    paramSchema = createUnion((Union) annotation, names);
+                }
+                else if (annotation instanceof Nullable) {
+                    paramSchema = makeNullable(paramSchema);
+                }
+            }
+            String paramName = (paramNames.length == paramTypes.length) ? paramNames[i] : paramSchema.getName() + i;
+            fields.add(new Schema.Field(paramName, paramSchema, null, null));
+        }
+        Schema request = Schema.createRecord(fields);
+
+        Union union = method.getAnnotation(Union.class);
+        Schema response =
+            (union == null) ? createSchema(method.getGenericReturnType(), names) : createUnion(union, names);
+        if (method.isAnnotationPresent(Nullable.class)) {
+            response = makeNullable(response);
+        }
+        AvroSchema explicit = method.getAnnotation(AvroSchema.class);
+        if (explicit != null) {
+            response = new Schema.Parser().parse(explicit.value());
+        }
+
+        List<Schema> errors = new ArrayList<Schema>();
+        errors.add(Protocol.SYSTEM_ERROR);
+        for (Type exceptionType : method.getGenericExceptionTypes()) {
+            if (exceptionType != AvroRemoteException.class) {
+                errors.add(createSchema(exceptionType, names));
+            }
+        }
+        return protocol.createMessage(method.getName(), null, Collections.<String, Object> emptyMap(), request,
+            response, Schema.createUnion(errors));
+    }
+
+    private Schema createUnion(final Union union, final Map<String, Schema> names) {
+        List<Schema> branches = new ArrayList<Schema>();
+        for (Class<?> branch : union.value()) {
+            branches.add(createSchema(branch, names));
+        }
+        return Schema.createUnion(branches);
+    }
+}
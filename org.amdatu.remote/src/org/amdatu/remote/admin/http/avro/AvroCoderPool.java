@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Thread-confined pool of the Avro encoders, decoders and byte buffers used to write and read messages.
+ * <p>
+ * Each thread has its own set of {@link Coders}, which it acquires for the duration of a single call and releases
+ * afterwards, so encoders, decoders and their buffers are allocated once per thread instead of once per call. As
+ * a set is taken from the thread while acquired, a nested call on the same thread, for example a remote call made
+ * by an invoked service, gets a set of its own.
+ * <p>
+ * Encoders write directly to the stream they are acquired for. Decoders read from a buffer holding the complete
+ * message, which is decoded in place.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class AvroCoderPool {
+
+    /** The default size in bytes of the buffers of the encoders and decoders. */
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** The pool used where no configured pool is available. */
+    static final AvroCoderPool DEFAULT = new AvroCoderPool(DEFAULT_BUFFER_SIZE);
+
+    /** Buffers grown beyond this multiple of the buffer size are not kept, to bound the memory held per thread. */
+    private static final int MAX_RETAINED_FACTOR = 16;
+
+    private static final OutputStream DETACHED = new OutputStream() {
+        @Override
+        public void write(final int b) {
+            // Nop
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            // Nop
+        }
+    };
+
+    private final EncoderFactory m_encoderFactory;
+    private final int m_bufferSize;
+    private final ThreadLocal<Coders> m_coders = new ThreadLocal<Coders>();
+
+    /**
+     * @param bufferSize
+     *        the size in bytes of the buffers of the encoders and decoders
+     */
+    AvroCoderPool(final int bufferSize) {
+        m_encoderFactory = new EncoderFactory().configureBufferSize(bufferSize);
+        m_bufferSize = m_encoderFactory.getBufferSize();
+    }
+
+    /**
+     * @return the size in bytes of the buffers of the encoders and decoders.
+     */
+    int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    /**
+     * Acquires the coders of the calling thread, which must be released by the same thread once done.
+     *
+     * @return the coders, never <code>null</code>.
+     */
+    Coders acquire() {
+        Coders coders = m_coders.get();
+        if (coders == null) {
+            return new Coders();
+        }
+        m_coders.set(null);
+        return coders;
+    }
+
+    /**
+     * Releases coders acquired by the calling thread, making them available for its next call. An encoder still
+     * holding unflushed bytes, as left by a call that failed halfway, is dropped rather than detached, as detaching
+     * would flush those bytes to the stream of the failed call and could throw from the <code>finally</code> block
+     * of the caller, hiding the original exception.
+     *
+     * @param coders
+     *        the coders to release
+     */
+    void release(final Coders coders) {
+        if (coders.m_encoder != null) {
+            if (coders.m_encoder.bytesBuffered() > 0) {
+                coders.m_encoder = null;
+            }
+            else {
+                // Detach the encoder from the stream of the call, so it can be collected...
+                coders.m_encoder = m_encoderFactory.binaryEncoder(DETACHED, coders.m_encoder);
+            }
+        }
+        if (coders.m_buffer != null && coders.m_buffer.capacity() > m_bufferSize * MAX_RETAINED_FACTOR) {
+            coders.m_buffer = null;
+            coders.m_decoder = null;
+        }
+        m_coders.set(coders);
+    }
+
+    /**
+     * The encoder, decoder and buffer of a single thread.
+     */
+    final class Coders {
+
+        private BinaryEncoder m_encoder;
+        private BinaryDecoder m_decoder;
+        private Buffer m_buffer;
+
+        /**
+         * @param out
+         *        the stream to write to
+         * @return the encoder writing directly to the given stream, never <code>null</code>.
+         */
+        BinaryEncoder encoder(final OutputStream out) {
+            m_encoder = m_encoderFactory.binaryEncoder(out, m_encoder);
+            return m_encoder;
+        }
+
+        /**
+         * Reads the given stream until its end, and returns a decoder reading what was read.
+         *
+         * @param in
+         *        the stream to read from
+         * @param sizeHint
+         *        the expected number of bytes to read, or <code>-1</code> if unknown
+         * @return the decoder, never <code>null</code>.
+         * @throws IOException
+         *         if an I/O error occurs
+         */
+        BinaryDecoder decoder(final InputStream in, final int sizeHint) throws IOException {
+            Buffer buffer = buffer(sizeHint);
+            buffer.readFrom(in);
+            m_decoder = DecoderFactory.get().binaryDecoder(buffer.array(), 0, buffer.size(), m_decoder);
+            return m_decoder;
+        }
+
+        /**
+         * @return the empty buffer of these coders, to write a message to, never <code>null</code>.
+         */
+        Buffer buffer() {
+            return buffer(-1);
+        }
+
+        private Buffer buffer(final int sizeHint) {
+            if (m_buffer == null) {
+                m_buffer = new Buffer(Math.max(m_bufferSize, sizeHint));
+            }
+            m_buffer.reset();
+            return m_buffer;
+        }
+    }
+
+    /**
+     * Byte array output stream giving access to its array, so it can be read without copying.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer(final int size) {
+            super(size);
+        }
+
+        /**
+         * @return the array holding the bytes of this buffer, of which the first {@link #size()} are valid.
+         */
+        byte[] array() {
+            return buf;
+        }
+
+        /**
+         * @return the current capacity of this buffer.
+         */
+        int capacity() {
+            return buf.length;
+        }
+
+        /**
+         * Appends all bytes of the given stream to this buffer.
+         *
+         * @param in
+         *        the stream to read until its end
+         * @throws IOException
+         *         if an I/O error occurs
+         */
+        void readFrom(final InputStream in) throws IOException {
+            int read;
+            while (true) {
+                if (count == buf.length) {
+                    // Grows the array...
+                    write(0);
+                    count--;
+                }
+                read = in.read(buf, count, buf.length - count);
+                if (read < 0) {
+                    return;
+                }
+                count += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import static org.apache.avro.SchemaCompatibility.SchemaCompatibilityType.COMPATIBLE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.Encoder;
+
+/**
+ * The handshake in which a client endpoint agrees with a server endpoint on the messages it sends by id.
+ * <p>
+ * The description of an exported endpoint publishes the ids of its messages. A client whose messages have the same
+ * ids sends them by id right away. A client whose interfaces differ from those of the exporter, and therefore have
+ * other ids, first offers the schemas of those messages to the server, once. The server pairs each offered message
+ * with its own message of the same name and number of parameters whose schemas are compatible, resolves the codec
+ * of that message against the offered request schema, and from then on accepts requests carrying the offered id.
+ * It answers with the schemas its responses are written with, against which the client resolves its codecs.
+ * <p>
+ * A handshake request holds {@link #HANDSHAKE_REQUEST} followed by the number of offered messages and, for each
+ * of them, its id, name, the name and JSON schema of each parameter, and the JSON of its response and errors
+ * schemas. As the request schema of a message is an anonymous record, it is sent as its fields. The response holds
+ * for each offered message whether it is agreed on, followed for agreed messages by the JSON of the response and
+ * errors schemas of the server.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class AvroHandshake {
+
+    /** Header of a handshake request, rather than the (non-negative) length of a message name. */
+    static final long HANDSHAKE_REQUEST = -2L;
+
+    /** The maximum number of offered messages a server endpoint agrees on, to bound the memory a client can claim. */
+    static final int MAX_AGREED_MESSAGES = 1024;
+
+    private AvroHandshake() {
+        // Not instantiable
+    }
+
+    /**
+     * Writes a handshake request offering the given messages.
+     *
+     * @param codecs
+     *        the codecs of the offered messages
+     * @param out
+     *        the encoder to write to
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    static void writeRequest(final Collection<AvroMessageCodec> codecs, final Encoder out) throws IOException {
+        out.writeLong(HANDSHAKE_REQUEST);
+        out.writeInt(codecs.size());
+        for (AvroMessageCodec codec : codecs) {
+            Message message = codec.getMessage();
+            out.writeLong(codec.getId());
+            out.writeString(message.getName());
+            List<Schema.Field> fields = message.getRequest().getFields();
+            out.writeInt(fields.size());
+            for (Schema.Field field : fields) {
+                out.writeString(field.name());
+                out.writeString(field.schema().toString());
+            }
+            out.writeString(message.getResponse().toString());
+            out.writeString(message.getErrors().toString());
+        }
+    }
+
+    /**
+     * Reads the messages offered by a handshake request, positioned just after its header.
+     *
+     * @param in
+     *        the decoder to read from
+     * @return the offered messages, never <code>null</code>.
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    static List<Offer> readRequest(final Decoder in) throws IOException {
+        Protocol protocol = new Protocol("Handshake", null);
+        int count = in.readInt();
+        List<Offer> offers = new ArrayList<Offer>();
+        for (int i = 0; i < count; i++) {
+            long id = in.readLong();
+            String name = in.readString();
+            int parameterCount = in.readInt();
+            List<Schema.Field> fields = new ArrayList<Schema.Field>();
+            for (int j = 0; j < parameterCount; j++) {
+                String parameterName = in.readString();
+                fields.add(new Schema.Field(parameterName, parse(in.readString()), null, null));
+            }
+            Schema request = Schema.createRecord(fields);
+            Schema response = parse(in.readString());
+            Schema errors = parse(in.readString());
+            Message message =
+                protocol.createMessage(name, null, Collections.<String, Object> emptyMap(), request, response, errors);
+            offers.add(new Offer(id, message));
+        }
+        return offers;
+    }
+
+    /**
+     * Writes the response to a handshake request.
+     *
+     * @param agreed
+     *        for each offered message, the codec of the message of the server it is agreed on, or
+     *        <code>null</code> if it is not agreed on
+     * @param out
+     *        the encoder to write to
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    static void writeResponse(final List<AvroMessageCodec> agreed, final Encoder out) throws IOException {
+        for (AvroMessageCodec codec : agreed) {
+            out.writeBoolean(codec != null);
+            if (codec != null) {
+                out.writeString(codec.getMessage().getResponse().toString());
+                out.writeString(codec.getMessage().getErrors().toString());
+            }
+        }
+    }
+
+    /**
+     * Reads the response to a handshake request, and records its outcome in the given agreement.
+     *
+     * @param offered
+     *        the codecs of the offered messages, in the order they were offered
+     * @param agreement
+     *        the agreement to record the outcome in
+     * @param in
+     *        the decoder to read from
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    static void readResponse(final List<AvroMessageCodec> offered, final Agreement agreement, final Decoder in)
+        throws IOException {
+        for (AvroMessageCodec codec : offered) {
+            if (in.readBoolean()) {
+                Schema response = parse(in.readString());
+                Schema errors = parse(in.readString());
+                agreement.agreed(codec, codec.resolve(null, response, errors));
+            }
+            else {
+                agreement.rejected(codec);
+            }
+        }
+    }
+
+    /**
+     * Pairs an offered message with a message of the server.
+     *
+     * @param offer
+     *        the offered message
+     * @param codec
+     *        the codec of the message of the server
+     * @return the codec of the server message resolved against the offered request schema, or <code>null</code> if
+     *         the offered message cannot be paired with it, or its id does not match its schemas.
+     */
+    static AvroMessageCodec resolve(final Offer offer, final AvroMessageCodec codec) {
+        Message offered = offer.getMessage();
+        Message message = codec.getMessage();
+        List<Schema.Field> offeredFields = offered.getRequest().getFields();
+        List<Schema.Field> fields = message.getRequest().getFields();
+        if (!offered.getName().equals(message.getName()) || offeredFields.size() != fields.size()) {
+            return null;
+        }
+        if (AvroMessageCodec.fingerprint(offered) != offer.getId()) {
+            return null;
+        }
+        // Parameters are written in order, so are resolved in order rather than by their (inferred) names...
+        List<Schema.Field> alignedFields = new ArrayList<Schema.Field>();
+        for (int i = 0; i < fields.size(); i++) {
+            alignedFields.add(new Schema.Field(fields.get(i).name(), offeredFields.get(i).schema(), null, null));
+        }
+        Schema request = Schema.createRecord(alignedFields);
+        if (!isCompatible(message.getRequest(), request) || !isCompatible(offered.getResponse(), message.getResponse())
+            || !isCompatible(offered.getErrors(), message.getErrors())) {
+            return null;
+        }
+        return codec.resolve(request, null, null);
+    }
+
+    private static boolean isCompatible(final Schema reader, final Schema writer) {
+        return SchemaCompatibility.checkReaderWriterCompatibility(reader, writer).getType() == COMPATIBLE;
+    }
+
+    private static Schema parse(final String json) {
+        return new Schema.Parser().parse(json);
+    }
+
+    /**
+     * A message offered by a client.
+     */
+    static final class Offer {
+
+        private final long m_id;
+        private final Message m_message;
+
+        Offer(final long id, final Message message) {
+            m_id = id;
+            m_message = message;
+        }
+
+        /**
+         * @return the id of the message at the client.
+         */
+        long getId() {
+            return m_id;
+        }
+
+        /**
+         * @return the message with the schemas of the client, never <code>null</code>.
+         */
+        Message getMessage() {
+            return m_message;
+        }
+    }
+
+    /**
+     * The messages a client agreed on with a server endpoint, shared by all client endpoints of an imported
+     * endpoint, so the handshake is done once per imported endpoint rather than once per call.
+     */
+    static final class Agreement {
+
+        private volatile Set<Long> m_publishedIds;
+        private final ConcurrentHashMap<Long, AvroMessageCodec> m_agreed =
+            new ConcurrentHashMap<Long, AvroMessageCodec>();
+        private final Set<Long> m_rejected = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+        /**
+         * @param publishedIds
+         *        the ids published by the exported endpoint, can be <code>null</code> or empty if the exporter does
+         *        not identify messages by id
+         */
+        Agreement(final String[] publishedIds) {
+            if (publishedIds == null || publishedIds.length == 0) {
+                m_publishedIds = null;
+            }
+            else {
+                Set<Long> ids = new HashSet<Long>();
+                for (String publishedId : publishedIds) {
+                    ids.add(AvroProtocolCache.parseHexId(publishedId));
+                }
+                m_publishedIds = ids;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the server endpoint accepts messages by id, <code>false</code> if they have
+         *         to be sent by name.
+         */
+        boolean isSupported() {
+            return m_publishedIds != null;
+        }
+
+        /**
+         * @param codec
+         *        the codec of a message of the client
+         * @return <code>true</code> if the outcome for the given message is known, <code>false</code> if it needs to
+         *         be offered in a handshake first.
+         */
+        boolean isSettled(final AvroMessageCodec codec) {
+            Long id = codec.getId();
+            return m_publishedIds.contains(id) || m_agreed.containsKey(id) || m_rejected.contains(id);
+        }
+
+        /**
+         * @param codec
+         *        the codec of a message of the client
+         * @return the codec to read the responses to the given message with, or <code>null</code> if the server
+         *         has no message compatible with it.
+         */
+        AvroMessageCodec getResponseCodec(final AvroMessageCodec codec) {
+            if (m_publishedIds.contains(codec.getId())) {
+                return codec;
+            }
+            return m_agreed.get(codec.getId());
+        }
+
+        /**
+         * Forgets all messages agreed on, including the published ones, as the server endpoint no longer knows
+         * them, for example as it was exported anew with other interfaces. All messages are agreed on in a
+         * handshake from then on.
+         */
+        void reset() {
+            if (m_publishedIds != null) {
+                m_publishedIds = Collections.emptySet();
+            }
+            m_agreed.clear();
+            m_rejected.clear();
+        }
+
+        /**
+         * Records that the given message is agreed on, with the codec to read its responses with.
+         */
+        void agreed(final AvroMessageCodec codec, final AvroMessageCodec responseCodec) {
+            m_agreed.put(codec.getId(), responseCodec);
+        }
+
+        /**
+         * Records that the server has no message compatible with the given one.
+         */
+        void rejected(final AvroMessageCodec codec) {
+            m_rejected.add(codec.getId());
+        }
+    }
+}
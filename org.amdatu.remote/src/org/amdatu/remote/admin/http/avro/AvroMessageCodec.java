@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Protocol.Message;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.UnresolvedUnionException;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.reflect.ReflectDatumReader;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.osgi.framework.ServiceException;
+
+/**
+ * Encodes and decodes the requests and responses of a single Avro message.
+ * <p>
+ * Constructing reflect datum readers and writers resolves the reflect schema machinery each time, so all of them
+ * are created once per message and reused for every call. They hold no per-call state, which makes a codec safe to
+ * use by concurrent calls.
+ * <p>
+ * A message is identified by its id, the 64-bit Rabin fingerprint of its name and of the parsing canonical forms of
+ * its schemas, so overloaded methods have messages of their own and requests can identify their message without
+ * its name. A codec can be resolved against the schemas of the other side, once, after which it reads what that
+ * side writes without resolving the schemas for every call.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class AvroMessageCodec {
+
+    /** Header of a request identifying its message by id, rather than by the (non-negative) length of its name. */
+    static final long ID_REQUEST = -1L;
+
+    private final Message m_message;
+    private final long m_id;
+    private final List<ReflectDatumWriter<Object>> m_argumentWriters;
+    private final ReflectDatumReader<GenericRecord> m_requestReader;
+    private final ReflectDatumWriter<Object> m_responseWriter;
+    private final ReflectDatumReader<Object> m_responseReader;
+    private final ReflectDatumWriter<Object> m_errorWriter;
+    private final ReflectDatumReader<Object> m_errorReader;
+
+    AvroMessageCodec(final Message message) {
+        this(message, message.getRequest(), message.getResponse(), message.getErrors());
+    }
+
+    private AvroMessageCodec(final Message message, final Schema writerRequest, final Schema writerResponse,
+        final Schema writerErrors) {
+        m_message = message;
+        m_id = fingerprint(message);
+
+        List<Schema.Field> fields = message.getRequest().getFields();
+        m_argumentWriters = new ArrayList<ReflectDatumWriter<Object>>(fields.size());
+        for (Schema.Field field : fields) {
+            m_argumentWriters.add(new ReflectDatumWriter<Object>(field.schema()));
+        }
+        m_requestReader = new ReflectDatumReader<GenericRecord>(writerRequest, message.getRequest());
+        m_responseWriter = new ReflectDatumWriter<Object>(message.getResponse());
+        m_responseReader = new ReflectDatumReader<Object>(writerResponse, message.getResponse());
+        m_errorWriter = new ReflectDatumWriter<Object>(message.getErrors());
+        m_errorReader = new ReflectDatumReader<Object>(writerErrors, message.getErrors());
+    }
+
+    /**
+     * Computes the id of a message.
+     *
+     * @param message
+     *        the message to compute the id of
+     * @return the id of the message.
+     */
+    static long fingerprint(final Message message) {
+        StringBuilder form = new StringBuilder(message.getName());
+        form.append(':').append(SchemaNormalization.toParsingForm(message.getRequest()));
+        form.append(':').append(SchemaNormalization.toParsingForm(message.getResponse()));
+        form.append(':').append(SchemaNormalization.toParsingForm(message.getErrors()));
+        return SchemaNormalization.fingerprint64(form.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns a codec of the same message that reads what is written with the given schemas, which must be
+     * compatible with those of the message.
+     *
+     * @param writerRequest
+     *        the schema requests are written with, or <code>null</code> if it is the one of the message
+     * @param writerResponse
+     *        the schema responses are written with, or <code>null</code> if it is the one of the message
+     * @param writerErrors
+     *        the schema errors are written with, or <code>null</code> if it is the one of the message
+     * @return the resolved codec, never <code>null</code>.
+     */
+    AvroMessageCodec resolve(final Schema writerRequest, final Schema writerResponse, final Schema writerErrors) {
+        return new AvroMessageCodec(m_message,
+            (writerRequest != null) ? writerRequest : m_message.getRequest(),
+            (writerResponse != null) ? writerResponse : m_message.getResponse(),
+            (writerErrors != null) ? writerErrors : m_message.getErrors());
+    }
+
+    /**
+     * @return the id of the message of this codec.
+     */
+    long getId() {
+        return m_id;
+    }
+
+    /**
+     * @return the message of this codec, never <code>null</code>.
+     */
+    Message getMessage() {
+        return m_message;
+    }
+
+    /**
+     * Writes a request: the name of the message followed by the arguments in order.
+     *
+     * @param args
+     *        the arguments, can be <code>null</code> if the message has no parameters
+     * @param out
+     *        the encoder to write to
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    void writeRequest(final Object[] args, final Encoder out) throws IOException {
+        writeRequest(args, false, out);
+    }
+
+    /**
+     * Writes a request: the name or the id of the message followed by the arguments in order.
+     *
+     * @param args
+     *        the arguments, can be <code>null</code> if the message has no parameters
+     * @param byId
+     *        <code>true</code> to identify the message by its id, which the receiver must know, <code>false</code> to
+     *        identify it by its name
+     * @param out
+     *        the encoder to write to
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    void writeRequest(final Object[] args, final boolean byId, final Encoder out) throws IOException {
+        if (byId) {
+            out.writeLong(ID_REQUEST);
+            out.writeLong(m_id);
+        }
+        else {
+            out.writeString(m_message.getName());
+        }
+        for (int i = 0; i < m_argumentWriters.size(); i++) {
+            m_argumentWriters.get(i).write(args[i], out);
+        }
+    }
+
+    /**
+     * Reads the arguments of a request, positioned just after the name or the id of the message.
+     *
+     * @param in
+     *        the decoder to read from
+     * @return the arguments in order, never <code>null</code>.
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    Object[] readRequestArguments(final Decoder in) throws IOException {
+        GenericRecord gr = m_requestReader.read(null, in);
+        List<Schema.Field> fields = m_message.getRequest().getFields();
+        Object[] args = new Object[fields.size()];
+        int i = 0;
+        for (Schema.Field param : fields) {
+            args[i++] = gr.get(param.name());
+        }
+        return args;
+    }
+
+    /**
+     * Writes a response: a flag telling whether the call failed, followed by either the exception or the result.
+     * Exceptions not declared by the message are written as their description.
+     *
+     * @param resultOrException
+     *        the result or the exception to write
+     * @param out
+     *        the encoder to write to
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    void writeResponse(final Object resultOrException, final Encoder out) throws IOException {
+        if (resultOrException instanceof Exception) {
+            out.writeBoolean(true);
+            Object exception = unwrapException((Exception) resultOrException);
+            try {
+                ReflectData.get().resolveUnion(m_message.getErrors(), exception);
+            }
+            catch (UnresolvedUnionException e) {
+                // Undeclared exception, use the string branch of the error union...
+                exception = String.valueOf(exception);
+            }
+            m_errorWriter.write(exception, out);
+        }
+        else {
+            out.writeBoolean(false);
+            m_responseWriter.write(resultOrException, out);
+        }
+    }
+
+    /**
+     * Reads a response.
+     *
+     * @param in
+     *        the decoder to read from
+     * @return the result, or the exception the call failed with.
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    Object readResponse(final Decoder in) throws IOException {
+        if (in.readBoolean()) { // error
+            Object error = m_errorReader.read(null, in);
+            if (error instanceof Exception) {
+                return error;
+            }
+            // Undeclared exception, only its description is available...
+            return new ServiceException(String.valueOf(error), ServiceException.REMOTE);
+        }
+        else { // return value
+            return m_responseReader.read(null, in);
+        }
+    }
+
+    /**
+     * Unwraps a given {@link Exception} into a more concrete exception if it
+     * represents an {@link InvocationTargetException}.
+     *
+     * @param e
+     *        the exception to unwrap, should not be <code>null</code>.
+     * @return the (unwrapped) throwable or exception, never <code>null</code>.
+     */
+    private static Throwable unwrapException(final Exception e) {
+        if (e instanceof InvocationTargetException) {
+            return ((InvocationTargetException) e).getTargetException();
+        }
+        return e;
+    }
+}
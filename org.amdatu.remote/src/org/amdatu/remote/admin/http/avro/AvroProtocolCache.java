@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Protocol;
+import org.apache.avro.Schema;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Cache of the Avro protocols of interfaces, and the codecs of their messages, shared by all client and server
+ * endpoints.
+ * <p>
+ * Building a protocol by reflection is expensive for large interfaces, and would otherwise be done for every
+ * exported service and for every bundle consuming an imported service. Entries are keyed by interface class, so
+ * equally named interfaces of different class loaders get entries of their own. As the entries refer to the
+ * classes of the bundle defining them, they are evicted once that bundle is uninstalled or refreshed.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class AvroProtocolCache implements SynchronousBundleListener {
+
+    private static final AvroProtocolCache INSTANCE = new AvroProtocolCache();
+
+    private final ConcurrentHashMap<Class<?>, CachedProtocol> m_protocols =
+        new ConcurrentHashMap<Class<?>, CachedProtocol>();
+
+    /**
+     * @return the singleton instance, never <code>null</code>.
+     */
+    static AvroProtocolCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the protocol of the given interface, building it on first use.
+     *
+     * @param interfaceClass
+     *        the interface to return the protocol of
+     * @return the cached protocol, never <code>null</code>.
+     */
+    CachedProtocol getProtocol(final Class<?> interfaceClass) {
+        CachedProtocol protocol = m_protocols.get(interfaceClass);
+        if (protocol == null) {
+            protocol = new CachedProtocol(interfaceClass);
+            CachedProtocol existing = m_protocols.putIfAbsent(interfaceClass, protocol);
+            if (existing != null) {
+                protocol = existing;
+            }
+        }
+        return protocol;
+    }
+
+    /**
+     * Returns the ids of all messages of the given interfaces, as published in the description of an endpoint.
+     *
+     * @param interfaceClasses
+     *        the interfaces to return the message ids of
+     * @return the distinct ids in ascending order, as hexadecimal strings, never <code>null</code>.
+     */
+    String[] getMessageIds(final Class<?>... interfaceClasses) {
+        TreeSet<String> ids = new TreeSet<String>();
+        for (Class<?> interfaceClass : interfaceClasses) {
+            for (AvroMessageCodec codec : getProtocol(interfaceClass).getCodecs()) {
+                ids.add(toHexId(codec.getId()));
+            }
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    /**
+     * @param id
+     *        the id of a message
+     * @return the id as the hexadecimal string it is published as, never <code>null</code>.
+     */
+    static String toHexId(final long id) {
+        return String.format("%016x", id);
+    }
+
+    /**
+     * @param hexId
+     *        the id of a message as published
+     * @return the id.
+     * @throws NumberFormatException
+     *         if the given string is not a published id
+     */
+    static long parseHexId(final String hexId) {
+        return Long.parseUnsignedLong(hexId, 16);
+    }
+
+    /**
+     * Evicts all protocols of interfaces defined by the given bundle.
+     *
+     * @param bundle
+     *        the bundle that is uninstalled or refreshed
+     */
+    void evict(final Bundle bundle) {
+        long bundleId = bundle.getBundleId();
+        Iterator<CachedProtocol> protocols = m_protocols.values().iterator();
+        while (protocols.hasNext()) {
+            if (protocols.next().m_bundleId == bundleId) {
+                protocols.remove();
+            }
+        }
+    }
+
+    @Override
+    public void bundleChanged(final BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UNRESOLVED:
+                // A refreshed bundle is unresolved before it gets a new class loader...
+                evict(event.getBundle());
+                break;
+            case BundleEvent.UNINSTALLED:
+                evict(event.getBundle());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The protocol of a single interface: the codecs of the messages of its methods.
+     * <p>
+     * Messages are created per method, so overloaded methods each have a message of their own, told apart by id.
+     */
+    static final class CachedProtocol {
+
+        private final Map<Method, AvroMessageCodec> m_codecs;
+        private final long m_bundleId;
+
+        CachedProtocol(final Class<?> interfaceClass) {
+            Protocol protocol = new Protocol(interfaceClass.getSimpleName(),
+                (interfaceClass.getPackage() != null) ? interfaceClass.getPackage().getName() : "");
+            Map<String, Schema> names = new LinkedHashMap<String, Schema>();
+            Map<Long, Method> ids = new HashMap<Long, Method>();
+            Map<Method, AvroMessageCodec> codecs = new HashMap<Method, AvroMessageCodec>();
+            for (Method method : interfaceClass.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                AvroMessageCodec codec =
+                    new AvroMessageCodec(AsyncReflectData.getInstance().createMessage(method, protocol, names));
+                Method existing = ids.put(codec.getId(), method);
+                if (existing != null) {
+                    throw new AvroTypeException("Methods " + existing + " and " + method
+                        + " cannot be told apart by their Avro schemas");
+                }
+                codecs.put(method, codec);
+            }
+            m_codecs = Collections.unmodifiableMap(codecs);
+            Bundle bundle = FrameworkUtil.getBundle(interfaceClass);
+            m_bundleId = (bundle != null) ? bundle.getBundleId() : -1L;
+        }
+
+        /**
+         * @param method
+         *        the method of the interface
+         * @return the codec of the message of the given method, or <code>null</code> if there is no such message.
+         */
+        AvroMessageCodec getCodec(final Method method) {
+            return m_codecs.get(method);
+        }
+
+        /**
+         * @return the codecs of all messages, never <code>null</code>.
+         */
+        Collection<AvroMessageCodec> getCodecs() {
+            return m_codecs.values();
+        }
+    }
+}
@@ -103,7 +103,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             logDebug("No RSA listeners");
         }
         if (!m_admins.isEmpty()) {
-            emitEventAdminEvent(createEventAdminEvent(event, desc, exception));
+            emitEventAdminEvent(createEventAdminEvent(event, desc, exception, null));
         }
         else {
             logDebug("No EventAdmins");
@@ -112,6 +112,21 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
 
     public void emitEvent(final int type, final Bundle source, final ImportReference importRef,
         final Throwable exception) {
+        emitEvent(type, source, importRef, exception, null);
+    }
+
+    /**
+     * Emits an import event, adding the given properties to the EventAdmin event on top of the ones defined by
+     * OSGi Enterprise R5 122.7.1.
+     *
+     * @param type the type of the event;
+     * @param source the bundle the event originates from;
+     * @param importRef the import the event concerns;
+     * @param exception the cause of the event, can be <code>null</code>;
+     * @param extraProperties the additional EventAdmin properties, can be <code>null</code>.
+     */
+    public void emitEvent(final int type, final Bundle source, final ImportReference importRef,
+        final Throwable exception, final Map<String, ?> extraProperties) {
         RemoteServiceAdminEvent event = new RemoteServiceAdminEvent(type, source, importRef, exception);
 
         // FIXME why are we casting here?
@@ -127,7 +142,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             emitRemoteServiceAdminEvent(event, desc);
         }
         if (!m_admins.isEmpty()) {
-            emitEventAdminEvent(createEventAdminEvent(event, desc, exception));
+            emitEventAdminEvent(createEventAdminEvent(event, desc, exception, extraProperties));
         }
     }
 
@@ -172,7 +187,7 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
      * @return the Event Admin event
      */
     private Event createEventAdminEvent(final RemoteServiceAdminEvent event, final EndpointDescription description,
-        final Throwable exception) {
+        final Throwable exception, final Map<String, ?> extraProperties) {
 
         Map<String, Object> properties = new HashMap<String, Object>();
         properties.put("bundle", getBundleContext().getBundle());
@@ -190,6 +205,9 @@ public final class EventsHandlerImpl extends AbstractComponentDelegate {
             putIfValueNotNull(properties, "endpoint.id", description.getId());
             putIfValueNotNull(properties, "endpoint.imported.configs", description.getConfigurationTypes());
         }
+        if (extraProperties != null) {
+            properties.putAll(extraProperties);
+        }
         return new Event(getEventTopic(event.getType()), properties);
     }
 
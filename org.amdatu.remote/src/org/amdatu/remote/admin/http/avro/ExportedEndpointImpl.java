@@ -105,6 +105,10 @@ public final class ExportedEndpointImpl implements ExportRegistration, ExportRef
             // TODO set exception?
             return null;
         }
+        HttpAvroServerEndpoint serverEndpoint = m_serverEndpoint;
+        if (serverEndpoint != null) {
+            updateDescription = m_admin.addMessageIds(updateDescription, serverEndpoint.getMessageIds());
+        }
 
         String updateHash = computeHash(updateDescription);
         if (!updateDescription.equals(m_endpointHash)) {
@@ -145,6 +149,7 @@ public final class ExportedEndpointImpl implements ExportRegistration, ExportRef
         if (serverEndpoint != null) {
             m_serverEndpoint = null;
             m_admin.getServerEndpointHandler().removeEndpoint(m_endpoint);
+            serverEndpoint.close();
         }
         m_admin.exportedEndpointClosed(this);
     }
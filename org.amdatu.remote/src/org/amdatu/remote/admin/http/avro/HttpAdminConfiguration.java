@@ -43,4 +43,39 @@ public interface HttpAdminConfiguration {
      */
     public int getReadTimeout();
 
+    /**
+     * returns the size in bytes from which responses are compressed
+     * 
+     * @return threshold in bytes
+     */
+    public int getCompressionThreshold();
+
+    /**
+     * returns the size of the buffers the encoders and decoders of messages use
+     * 
+     * @return buffer size in bytes
+     */
+    public int getBufferSize();
+
+    /**
+     * returns the percentage of failed invocations of an imported endpoint that opens its circuit, 0 to disable.
+     * 
+     * @return the failure threshold in percent.
+     */
+    public int getCircuitFailureThreshold();
+
+    /**
+     * returns the length of the rolling window over which the failure rate of an imported endpoint is determined.
+     * 
+     * @return the window in ms.
+     */
+    public int getCircuitWindow();
+
+    /**
+     * returns the time an open circuit fails invocations fast before it lets a probe invocation through.
+     * 
+     * @return the open time in ms.
+     */
+    public int getCircuitOpenTime();
+
 }
@@ -50,6 +50,34 @@ public interface HttpAdminConstants {
      */
     String READ_TIMEOUT_CONFIG_KEY = "org.amdatu.remote.admin.http.readtimeout";
 
+    /**
+     * Configuration property: size in bytes from which responses are gzip-compressed for clients accepting it,
+     * 0 to disable compression
+     */
+    String COMPRESSION_THRESHOLD_CONFIG_KEY = "org.amdatu.remote.admin.http.compressionthreshold";
+
+    /**
+     * Configuration property: size in bytes of the buffers the encoders and decoders of messages use
+     */
+    String BUFFER_SIZE_CONFIG_KEY = "org.amdatu.remote.admin.http.buffersize";
+
+    /**
+     * Configuration property: percentage of failed invocations of an imported endpoint that opens its circuit, 0 to
+     * disable
+     */
+    String CIRCUIT_FAILURE_THRESHOLD_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitfailurethreshold";
+
+    /**
+     * Configuration property: length of the rolling window over which the failure rate of an imported endpoint is
+     * determined
+     */
+    String CIRCUIT_WINDOW_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitwindow";
+
+    /**
+     * Configuration property: time an open circuit fails invocations fast before it lets a probe invocation through
+     */
+    String CIRCUIT_OPEN_TIME_CONFIG_KEY = "org.amdatu.remote.admin.http.circuitopentime";
+
     /**
      * Configuration Type identifier
      */
@@ -60,6 +88,11 @@ public interface HttpAdminConstants {
      */
     String ENDPOINT_URL = CONFIGURATION_TYPE + ".url";
 
+    /**
+     * Configuration Type messages, the ids of the endpoint's messages as hexadecimal strings
+     */
+    String ENDPOINT_MESSAGES = CONFIGURATION_TYPE + ".messages";
+
     /**
      * Configuration types supported by this implementation
      */
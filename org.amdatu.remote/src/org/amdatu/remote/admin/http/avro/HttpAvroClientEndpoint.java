@@ -14,6 +14,11 @@
 package org.amdatu.remote.admin.http.avro;
 
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PRECON_FAILED;
+import static org.amdatu.remote.AsyncUtil.isAsync;
+import static org.amdatu.remote.AsyncUtil.withCallerContext;
+import static org.amdatu.remote.CompressionUtil.acceptCompression;
+import static org.amdatu.remote.CompressionUtil.getDecompressingInputStream;
 import static org.amdatu.remote.IOUtil.closeSilently;
 
 import java.io.IOException;
@@ -26,57 +31,94 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-import org.apache.avro.Protocol;
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.CircuitBreaker;
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.CountingInputStream;
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Buffer;
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Coders;
+import org.amdatu.remote.admin.http.avro.AvroHandshake.Agreement;
+import org.amdatu.remote.admin.http.avro.AvroProtocolCache.CachedProtocol;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.amdatu.remote.metrics.MethodMetrics;
 import org.apache.avro.Protocol.Message;
-import org.apache.avro.Schema.Field;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.io.EncoderFactory;
-import org.apache.avro.reflect.ReflectData;
-import org.apache.avro.reflect.ReflectDatumReader;
-import org.apache.avro.reflect.ReflectDatumWriter;
 import org.osgi.framework.ServiceException;
 
 /**
  * Implementation of an {@link InvocationHandler} that represents a remoted
  * service for one or more service interfaces.
+ * <p>
+ * Methods returning a {@link CompletableFuture} or
+ * {@link java.util.concurrent.CompletionStage CompletionStage} are invoked
+ * asynchronously on the given executor.
+ * <p>
+ * Messages are sent by id if the exported endpoint publishes the ids of its
+ * messages, after agreeing on those of its messages the server does not know
+ * in a handshake, see {@link AvroHandshake}, and by name otherwise.
  *
  * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
  */
 public final class HttpAvroClientEndpoint implements InvocationHandler {
 
-    private static final int FATAL_ERROR_COUNT = 5;
+    private static final int CIRCUIT_MINIMUM_CALLS = 5;
+
+    /** Returned by an exchange the server rejected as its message is not, or no longer, agreed on. */
+    private static final Object NOT_AGREED = new Object();
 
     private final URL m_serviceURL;
     private final Object m_proxy;
     private final HttpAdminConfiguration m_configuration;
-    private final Map<Method, Message> m_avroMessages;
+    private final Map<Method, AvroMessageCodec> m_codecs;
+    private final Executor m_executor;
 
     private ClientEndpointProblemListener m_problemListener;
-    private int m_remoteErrors;
+    private volatile AvroCoderPool m_coderPool = AvroCoderPool.DEFAULT;
+    private volatile CircuitBreaker m_circuitBreaker;
+    private volatile Agreement m_agreement = new Agreement(null);
+    private volatile EndpointMetrics m_metrics;
 
+    /**
+     * Creates an endpoint without an executor of its own, which invokes asynchronous methods on the calling thread.
+     */
     public HttpAvroClientEndpoint(final URL serviceURL, final HttpAdminConfiguration configuration,
         final Class<?>... interfaceClasses) {
+        this(serviceURL, configuration, AsyncUtil.CALLER_RUNS, interfaceClasses);
+    }
+
+    /**
+     * Creates an endpoint that invokes asynchronous methods on the given executor, which is owned by the caller.
+     */
+    public HttpAvroClientEndpoint(final URL serviceURL, final HttpAdminConfiguration configuration,
+        final Executor executor, final Class<?>... interfaceClasses) {
         if (interfaceClasses.length == 0) {
             throw new IllegalArgumentException("Need at least one interface to expose!");
         }
-        // m_interfaceMethods = new HashMap<Method, String>();
-        m_avroMessages = new HashMap<Method, Message>();
+        m_codecs = new HashMap<Method, AvroMessageCodec>();
         m_serviceURL = serviceURL;
         m_proxy = Proxy.newProxyInstance(getClass().getClassLoader(), interfaceClasses, this);
         m_configuration = configuration;
-        m_remoteErrors = 0;
+        m_executor = executor;
+        m_circuitBreaker = createCircuitBreaker(configuration);
 
-        Protocol avpr; // map avro message schemas to java methods
+        CachedProtocol avpr; // map avro message schemas to java methods
         for (Class<?> interfaceClass : interfaceClasses) {
-            avpr = ReflectData.get().getProtocol(interfaceClass);
+            avpr = AvroProtocolCache.getInstance().getProtocol(interfaceClass);
             for (Method method : interfaceClass.getMethods()) {
-                // m_interfaceMethods.put(method, getMethodSignature(method));
-                m_avroMessages.put(method, avpr.getMessages().get(method.getName()));
+                AvroMessageCodec codec = avpr.getCodec(method);
+                if (codec != null) {
+                    m_codecs.put(method, codec);
+                }
             }
         }
     }
@@ -95,7 +137,10 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
             // calls...
             return serviceProxy == args[0];
         }
-        else if (m_avroMessages.containsKey(method)) {
+        else if (m_codecs.containsKey(method)) {
+            if (isAsync(method)) {
+                return invokeRemoteMethodAsync(method, args);
+            }
             return invokeRemoteMethod(method, args);
         }
         // Last resort: use the service URL for locks/monitors and string
@@ -112,24 +157,125 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
     }
 
     /**
-     * Handles I/O exceptions by counting the number of times they occurred, and
-     * if a certain threshold is exceeded closes the import registration for
-     * this endpoint.
+     * @param circuitBreaker
+     *        the circuit breaker to guard the remote invocations with, cannot
+     *        be <code>null</code>.
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        m_circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param coderPool
+     *        the pool to take the encoders and decoders of invocations
+     *        from, cannot be <code>null</code>.
+     */
+    void setCoderPool(final AvroCoderPool coderPool) {
+        m_coderPool = coderPool;
+    }
+
+    /**
+     * @param agreement
+     *        the agreement on the messages sent by id, shared by all client
+     *        endpoints of the imported endpoint, cannot be <code>null</code>.
+     */
+    void setAgreement(final Agreement agreement) {
+        m_agreement = agreement;
+    }
+
+    /**
+     * @param metrics
+     *        the metrics to record the remote invocations in, can be
+     *        <code>null</code> to record none.
+     */
+    public void setMetrics(final EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @return the metrics of the given method, or <code>null</code> if
+     *         invocations are not recorded.
+     */
+    private MethodMetrics getMethodMetrics(final Method method) {
+        EndpointMetrics metrics = m_metrics;
+        return (metrics != null) ? metrics.getMethodMetrics(method.getName()) : null;
+    }
+
+    /**
+     * Creates a circuit breaker for the remote invocations of an endpoint.
+     *
+     * @param configuration
+     *        the configuration to take the settings of the circuit breaker
+     *        from, cannot be <code>null</code>.
+     * @return a new, closed, circuit breaker, never <code>null</code>.
+     */
+    public static CircuitBreaker createCircuitBreaker(final HttpAdminConfiguration configuration) {
+        return new CircuitBreaker(configuration.getCircuitFailureThreshold(), CIRCUIT_MINIMUM_CALLS,
+            configuration.getCircuitWindow(), configuration.getCircuitOpenTime());
+    }
+
+    /**
+     * Handles I/O exceptions by recording them as failures in the circuit
+     * breaker, which opens the circuit if the failure rate gets too high, and
+     * reporting them as warnings.
      *
      * @param e
      *        the exception to handle.
      */
     private void handleRemoteException(final IOException e) {
+        State state = m_circuitBreaker.onFailure();
         if (m_problemListener != null) {
-            if (++m_remoteErrors > FATAL_ERROR_COUNT) {
-                m_problemListener.handleEndpointError(e);
-            }
-            else {
-                m_problemListener.handleEndpointWarning(e);
+            m_problemListener.handleEndpointWarning(e);
+            if (state != null) {
+                m_problemListener.handleEndpointStateChanged(state, e);
             }
         }
     }
 
+    /**
+     * Handles responses of the remote endpoint by recording them as successes
+     * in the circuit breaker, which closes a half-open circuit.
+     */
+    private void handleRemoteSuccess() {
+        State state = m_circuitBreaker.onSuccess();
+        if (state != null && m_problemListener != null) {
+            m_problemListener.handleEndpointStateChanged(state, null);
+        }
+    }
+
+    /**
+     * Does the invocation of the remote method on the executor of this
+     * endpoint, with the access control context of the caller.
+     *
+     * @param method
+     *        the actual method to invoke;
+     * @param arguments
+     *        the arguments of the method to invoke;
+     * @return the future result of the method invocation, never
+     *         <code>null</code>.
+     */
+    private CompletableFuture<Object> invokeRemoteMethodAsync(final Method method, final Object[] arguments) {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            m_executor.execute(withCallerContext(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(invokeRemoteMethod(method, arguments));
+                    }
+                    catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ServiceException("Remote service invocation rejected: " + e.getMessage(),
+                ServiceException.REMOTE, e));
+        }
+        return future;
+    }
+
     /**
      * Does the invocation of the remote method adhering to any security
      * managers that might be installed.
@@ -143,29 +289,42 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
      *         in case the invocation failed in some way.
      */
     private Object invokeRemoteMethod(final Method method, final Object[] arguments) throws Throwable {
-        SecurityManager securityManager = System.getSecurityManager();
-        if (securityManager != null) {
-            try {
-                return AccessController.doPrivileged(new PrivilegedAction<Object>() {
-                    @Override
-                    public Object run() {
-                        try {
-                            return invokeRemoteMethodSecure(method, arguments);
-                        }
-                        catch (Throwable e) {
-                            throw new ServiceException("TRANSPORT WRAPPER", e);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result;
+            SecurityManager securityManager = System.getSecurityManager();
+            if (securityManager != null) {
+                try {
+                    result = AccessController.doPrivileged(new PrivilegedAction<Object>() {
+                        @Override
+                        public Object run() {
+                            try {
+                                return invokeRemoteMethodSecure(method, arguments);
+                            }
+                            catch (Throwable e) {
+                                throw new ServiceException("TRANSPORT WRAPPER", e);
+                            }
                         }
-                    }
-                });
+                    });
+                }
+                catch (ServiceException e) {
+                    // All exceptions are wrapped in this exception, so we need to
+                    // rethrow its cause to get the actual exception back...
+                    throw e.getCause();
+                }
             }
-            catch (ServiceException e) {
-                // All exceptions are wrapped in this exception, so we need to
-                // rethrow its cause to get the actual exception back...
-                throw e.getCause();
+            else {
+                result = invokeRemoteMethodSecure(method, arguments);
             }
+            failed = false;
+            return result;
         }
-        else {
-            return invokeRemoteMethodSecure(method, arguments);
+        finally {
+            MethodMetrics metrics = getMethodMetrics(method);
+            if (metrics != null) {
+                metrics.recordInvocation(System.nanoTime() - start, failed);
+            }
         }
     }
 
@@ -184,47 +343,109 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
      *         in case the invocation failed in some way.
      */
     private Object invokeRemoteMethodSecure(final Method method, final Object[] arguments) throws Throwable {
+        if (!m_circuitBreaker.allowInvocation()) {
+            throw new ServiceException("Remote service invocation rejected: circuit open, endpoint failing",
+                ServiceException.REMOTE);
+        }
+        AvroMessageCodec codec = getCodec(method);
+        AvroCoderPool pool = m_coderPool;
+        Coders coders = pool.acquire();
+        Object resultOrException;
+        boolean recorded = false;
+        try {
+            resultOrException = exchange(coders, method, codec, arguments);
+            if (resultOrException == NOT_AGREED) {
+                // The server no longer knows the messages agreed on, as it was
+                // exported anew, so agree on them again...
+                m_agreement.reset();
+                resultOrException = exchange(coders, method, codec, arguments);
+                if (resultOrException == NOT_AGREED) {
+                    throw new IOException("Unexpected HTTP response: " + HTTP_PRECON_FAILED);
+                }
+            }
+            handleRemoteSuccess();
+            recorded = true;
+        }
+        catch (IOException e) {
+            handleRemoteException(e);
+            recorded = true;
+            throw new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE,
+                e);
+        }
+        finally {
+            if (!recorded) {
+                // Not sent at all, e.g. as the remote endpoint has no compatible method...
+                m_circuitBreaker.onIgnored();
+            }
+            pool.release(coders);
+        }
+
+        if (resultOrException instanceof Exception) {
+            throw (Exception) resultOrException;
+        }
+        return resultOrException;
+    }
+
+    /**
+     * Sends a single request to the remote endpoint and reads its response.
+     *
+     * @return the result of the method invocation, the exception it failed
+     *         with, or {@link #NOT_AGREED} if the server does not know the
+     *         message.
+     * @throws IOException
+     *         in case of I/O errors or unexpected responses.
+     */
+    private Object exchange(final Coders coders, final Method method, final AvroMessageCodec codec,
+        final Object[] arguments) throws IOException {
 
         HttpURLConnection connection = null;
         OutputStream outputStream = null;
         InputStream inputStream = null;
-        Object result = null;
-        Throwable exception = null;
+        Agreement agreement = m_agreement;
+        boolean byId = agreement.isSupported();
+        AvroMessageCodec responseCodec = byId ? agree(coders, agreement, codec) : codec;
+        if (responseCodec == null) {
+            throw new ServiceException("Remote service has no method compatible with " + method,
+                ServiceException.REMOTE);
+        }
         try {
-            connection = (HttpURLConnection) m_serviceURL.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setUseCaches(false);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(m_configuration.getConnectTimeout());
-            connection.setReadTimeout(m_configuration.getReadTimeout());
-            connection.setRequestProperty("Content-Type", "avro/binary");
-            connection.connect();
-            outputStream = connection.getOutputStream();
+            // Encode the request up front, so it is sent with a known length
+            // straight to the socket, instead of being buffered by the
+            // connection...
+            long encodeStart = System.nanoTime();
+            Buffer body = coders.buffer();
+            BinaryEncoder out = coders.encoder(body);
+            codec.writeRequest(arguments, byId, out);
+            out.flush();
+            long encodeTime = System.nanoTime() - encodeStart;
+            int requestLength = body.size();
 
-            request(method, arguments, outputStream);
+            connection = openConnection(requestLength);
+            outputStream = connection.getOutputStream();
+            body.writeTo(outputStream);
+            outputStream.close();
 
             int rc = connection.getResponseCode();
+            if (rc == HTTP_PRECON_FAILED && byId) {
+                return NOT_AGREED;
+            }
             switch (rc) {
                 case HTTP_OK:
-                    inputStream = connection.getInputStream();
-                    Object resultOrException = response(method, inputStream);
-                    if (resultOrException instanceof Exception) {
-                        exception = (Exception) resultOrException;
+                    CountingInputStream countingInputStream =
+                        new CountingInputStream(getDecompressingInputStream(connection, connection.getInputStream()));
+                    inputStream = countingInputStream;
+                    long decodeStart = System.nanoTime();
+                    Object resultOrException =
+                        response(coders, responseCodec, inputStream, connection.getContentLength());
+                    MethodMetrics metrics = getMethodMetrics(method);
+                    if (metrics != null) {
+                        metrics.recordSerialization(encodeTime + System.nanoTime() - decodeStart);
+                        metrics.recordBytes(countingInputStream.getCount(), requestLength);
                     }
-                    else {
-                        result = resultOrException;
-                    }
-                    break;
+                    return resultOrException;
                 default:
                     throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
             }
-            // Reset this error counter upon each successful request...
-            m_remoteErrors = 0;
-        }
-        catch (IOException e) {
-            handleRemoteException(e);
-            throw new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE,
-                e);
         }
         finally {
             closeSilently(inputStream, outputStream);
@@ -232,11 +453,85 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
                 connection.disconnect();
             }
         }
+    }
 
-        if (exception != null) {
-            throw exception;
+    /**
+     * Agrees on the given message with the server, if not done before, in a
+     * handshake offering all messages of this endpoint that are not agreed on
+     * yet.
+     *
+     * @return the codec to read the responses to the given message with, or
+     *         <code>null</code> if the server has no message compatible with
+     *         it.
+     * @throws IOException
+     *         in case of I/O errors or unexpected responses.
+     */
+    private AvroMessageCodec agree(final Coders coders, final Agreement agreement, final AvroMessageCodec codec)
+        throws IOException {
+        if (!agreement.isSettled(codec)) {
+            synchronized (agreement) {
+                if (!agreement.isSettled(codec)) {
+                    Map<Long, AvroMessageCodec> offered = new LinkedHashMap<Long, AvroMessageCodec>();
+                    for (AvroMessageCodec other : m_codecs.values()) {
+                        if (!agreement.isSettled(other)) {
+                            offered.put(other.getId(), other);
+                        }
+                    }
+                    handshake(coders, agreement, new ArrayList<AvroMessageCodec>(offered.values()));
+                }
+            }
         }
-        return result;
+        return agreement.getResponseCodec(codec);
+    }
+
+    private void handshake(final Coders coders, final Agreement agreement, final List<AvroMessageCodec> offered)
+        throws IOException {
+        HttpURLConnection connection = null;
+        OutputStream outputStream = null;
+        InputStream inputStream = null;
+        try {
+            Buffer body = coders.buffer();
+            BinaryEncoder out = coders.encoder(body);
+            AvroHandshake.writeRequest(offered, out);
+            out.flush();
+
+            connection = openConnection(body.size());
+            outputStream = connection.getOutputStream();
+            body.writeTo(outputStream);
+            outputStream.close();
+
+            int rc = connection.getResponseCode();
+            if (rc != HTTP_OK) {
+                throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
+            }
+            inputStream = getDecompressingInputStream(connection, connection.getInputStream());
+            Decoder in = coders.decoder(inputStream, connection.getContentLength());
+            AvroHandshake.readResponse(offered, agreement, in);
+        }
+        finally {
+            closeSilently(inputStream, outputStream);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return a new connection to the remote endpoint, to post a request of
+     *         the given length to, never <code>null</code>.
+     */
+    private HttpURLConnection openConnection(final int requestLength) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) m_serviceURL.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setUseCaches(false);
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(m_configuration.getConnectTimeout());
+        connection.setReadTimeout(m_configuration.getReadTimeout());
+        connection.setRequestProperty("Content-Type", "avro/binary");
+        connection.setFixedLengthStreamingMode(requestLength);
+        acceptCompression(connection);
+        connection.connect();
+        return connection;
     }
 
     /**
@@ -253,26 +548,30 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
      *         if an I/O error occurs
      */
     public Object response(final Method method, final InputStream inputStream) throws IOException {
-        Message m = m_avroMessages.get(method);
-
-        if (m == null) {
-            throw new IllegalArgumentException("No avro message type found for " + method);
-        }
-
-        return response(m, inputStream);
+        return response(m_coderPool, getCodec(method), inputStream);
     }
 
     public static Object response(final Message m, final InputStream inputStream) throws IOException {
-        Decoder in = DecoderFactory.get().binaryDecoder(inputStream, null);
+        return response(AvroCoderPool.DEFAULT, new AvroMessageCodec(m), inputStream);
+    }
 
-        if (in.readBoolean()) { // error
-            return new ReflectDatumReader<Exception>(m.getErrors()).read(null, in);
+    private static Object response(final AvroCoderPool pool, final AvroMessageCodec codec,
+        final InputStream inputStream) throws IOException {
+        Coders coders = pool.acquire();
+        try {
+            return response(coders, codec, inputStream, -1);
         }
-        else { // return value
-            return new ReflectDatumReader<Object>(m.getResponse()).read(null, in);
+        finally {
+            pool.release(coders);
         }
     }
 
+    private static Object response(final Coders coders, final AvroMessageCodec codec, final InputStream inputStream,
+        final int contentLength) throws IOException {
+        Decoder in = coders.decoder(inputStream, contentLength);
+        return codec.readResponse(in);
+    }
+
     /**
      * Writes a RPC request for {@code method} with {@code args} to
      * {@code outputStream}. Note that this operation closes
@@ -288,13 +587,7 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
      *         if an I/O error occurs
      */
     public void request(final Method method, final Object[] args, final OutputStream outputStream) throws IOException {
-        Message m = m_avroMessages.get(method);
-
-        if (m == null) {
-            throw new IllegalArgumentException("No avro message type found for " + method);
-        }
-
-        request(m, args, outputStream);
+        request(m_coderPool, getCodec(method), args, outputStream);
     }
 
     /**
@@ -314,16 +607,40 @@ public final class HttpAvroClientEndpoint implements InvocationHandler {
      */
     public static void request(final Message m, final Object[] args, final OutputStream outputStream)
         throws IOException {
-        BinaryEncoder out = EncoderFactory.get().binaryEncoder(outputStream, null);
-
-        out.writeString(m.getName()); // write method name
+        request(AvroCoderPool.DEFAULT, new AvroMessageCodec(m), args, outputStream);
+    }
 
-        int i = 0;
-        for (Field field : m.getRequest().getFields()) { // write fields
-            new ReflectDatumWriter<Object>(field.schema()).write(args[i++], out);
+    private static void request(final AvroCoderPool pool, final AvroMessageCodec codec, final Object[] args,
+        final OutputStream outputStream) throws IOException {
+        Coders coders = pool.acquire();
+        try {
+            request(coders, codec, args, outputStream);
+        }
+        finally {
+            pool.release(coders);
         }
+    }
 
+    private static void request(final Coders coders, final AvroMessageCodec codec, final Object[] args,
+        final OutputStream outputStream) throws IOException {
+        BinaryEncoder out = coders.encoder(outputStream);
+        codec.writeRequest(args, out);
         out.flush();
         outputStream.close();
     }
+
+    /**
+     * @return the codec of the Avro message of the given method, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if there is no Avro message for the given method.
+     */
+    private AvroMessageCodec getCodec(final Method method) {
+        AvroMessageCodec codec = m_codecs.get(method);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("No avro message type found for " + method);
+        }
+
+        return codec;
+    }
 }
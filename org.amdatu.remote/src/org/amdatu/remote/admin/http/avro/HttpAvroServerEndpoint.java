@@ -16,38 +16,57 @@ package org.amdatu.remote.admin.http.avro;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
 import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static org.amdatu.remote.CompressionUtil.getCompressingOutputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.CountingInputStream;
+import org.amdatu.remote.CountingOutputStream;
 import org.amdatu.remote.IOUtil;
-import org.apache.avro.Protocol;
+import org.amdatu.remote.MethodInvoker;
+import org.amdatu.remote.ServiceObjectHolder;
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Coders;
+import org.amdatu.remote.admin.http.avro.AvroHandshake.Offer;
+import org.amdatu.remote.admin.http.avro.AvroProtocolCache.CachedProtocol;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.amdatu.remote.metrics.MethodMetrics;
 import org.apache.avro.Protocol.Message;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Type;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
-import org.apache.avro.reflect.ReflectData;
-import org.apache.avro.reflect.ReflectDatumReader;
 import org.apache.avro.reflect.ReflectDatumWriter;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 
 /**
  * Servlet that represents a remoted local service.
+ * <p>
+ * A single endpoint serves all concurrent requests for its service. Everything a request decodes is therefore kept
+ * in its own immutable {@link Invocation}, never in fields of the endpoint, so the outcome of each request is
+ * always encoded with the schema of the message it invoked.
+ * <p>
+ * Requests identify their message by id, either one of the ids of the messages of this endpoint or one agreed on in
+ * a handshake, see {@link AvroHandshake}, or by name for clients predating message ids. Overloaded methods can only
+ * be invoked by id.
  *
  * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
  */
@@ -57,44 +76,69 @@ public final class HttpAvroServerEndpoint {
 
     private static final String AVRO_BINARY = "avro/binary";
 
+    /** Method names are limited to this length by the class file format. */
+    private static final int MAX_NAME_LENGTH = 65535;
+
     protected final String CONTENT_TYPE = AVRO_BINARY;
 
-    private final BundleContext m_bundleContext;
-    private final ServiceReference<?> m_serviceReference;
-    private final Map<String, Method> m_interfaceMethods;
-    private final Map<String, Message> m_avroMessages;
+    private final ServiceObjectHolder m_service;
+    private final Map<Long, ExportedMessage> m_messages;
+    private final Map<String, ExportedMessage> m_messagesByName;
+    private final Set<String> m_methodNames;
+    private final String[] m_messageIds;
+    private final ConcurrentHashMap<Long, ExportedMessage> m_agreedMessages;
 
-    private ServerEndpointProblemListener m_problemListener;
-    private String m_methodName;
-    private int m_localErrors;
-    private int m_httpResponseError;
+    private volatile ServerEndpointProblemListener m_problemListener;
+    private volatile AvroCoderPool m_coderPool = AvroCoderPool.DEFAULT;
+    private volatile int m_compressionThreshold;
+    private volatile EndpointMetrics m_metrics;
+    private volatile int m_localErrors;
 
     public HttpAvroServerEndpoint(final BundleContext context, final ServiceReference<?> reference,
         final Class<?>... interfaceClasses) {
 
-        m_bundleContext = context;
-        m_serviceReference = reference;
-        m_interfaceMethods = new HashMap<String, Method>();
-        m_avroMessages = new HashMap<String, Message>();
+        m_service = new ServiceObjectHolder(context, reference);
+        m_messages = new HashMap<Long, ExportedMessage>();
+        m_messagesByName = new HashMap<String, ExportedMessage>();
+        m_methodNames = new LinkedHashSet<String>();
+        m_agreedMessages = new ConcurrentHashMap<Long, ExportedMessage>();
 
-        Protocol p;
-        Message message;
+        CachedProtocol p;
+        AvroMessageCodec codec;
         for (Class<?> interfaceClass : interfaceClasses) {
-            p = ReflectData.get().getProtocol(interfaceClass);
+            p = AvroProtocolCache.getInstance().getProtocol(interfaceClass);
             for (Method method : interfaceClass.getMethods()) {
-                message = p.getMessages().get(method.getName());
-                if (message != null) {
+                codec = p.getCodec(method);
+                if (codec != null) {
                     // Although we're accessing a public (interface) method, the
                     // *service* implementation
                     // itself can be non-public. This check appears to be fixed
                     // in
                     // recent Java versions...
                     method.setAccessible(true);
-                    m_interfaceMethods.put(message.getName(), method);
-                    m_avroMessages.put(message.getName(), message);
+                    ExportedMessage message = new ExportedMessage(codec, new MethodInvoker(method));
+                    m_messages.put(codec.getId(), message);
+
+                    String name = codec.getMessage().getName();
+                    ExportedMessage named = m_messagesByName.get(name);
+                    if (m_methodNames.add(name)) {
+                        m_messagesByName.put(name, message);
+                    }
+                    else if (named != null && named.m_codec.getId() != codec.getId()) {
+                        // Overloaded, so the name no longer identifies a single message...
+                        m_messagesByName.remove(name);
+                    }
                 }
             }
         }
+        m_messageIds = AvroProtocolCache.getInstance().getMessageIds(interfaceClasses);
+    }
+
+    /**
+     * @return the ids of the messages of this endpoint, as published in its description, never <code>null</code>.
+     */
+    public String[] getMessageIds() {
+        return m_messageIds.clone();
     }
 
     /**
@@ -105,12 +149,52 @@ public final class HttpAvroServerEndpoint {
         m_problemListener = problemListener;
     }
 
+    /**
+     * @param metrics the metrics to record the invocations in, can be <code>null</code> to not record them.
+     */
+    public void setMetrics(final EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @return the metrics the invocations are recorded in, or <code>null</code> if invocations are not recorded.
+     */
+    public EndpointMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Releases the exported service. Invocations after closing fail with <tt>503 Service Unavailable</tt>.
+     */
+    public void close() {
+        m_service.close();
+    }
+
+    /**
+     * @param coderPool
+     *        the pool to take the encoders and decoders of requests from, cannot be <code>null</code>.
+     */
+    void setCoderPool(final AvroCoderPool coderPool) {
+        m_coderPool = coderPool;
+    }
+
+    /**
+     * @param compressionThreshold
+     *        the size in bytes from which responses are compressed for clients that accept it, 0 to never
+     *        compress responses.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        m_compressionThreshold = compressionThreshold;
+    }
+
     public void invokeService(final HttpServletRequest req, final HttpServletResponse resp)
         throws ServletException, IOException {
-        InputStream in = req.getInputStream();
-        Object service = null;
+        long start = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(req.getInputStream());
+        MethodMetrics metrics = null;
+        boolean failed = true;
         try {
-            service = m_bundleContext.getService(m_serviceReference);
+            Object service = m_service.getService();
             if (service == null) {
                 handleLocalException(null);
                 resp.sendError(SC_SERVICE_UNAVAILABLE);
@@ -118,50 +202,42 @@ public final class HttpAvroServerEndpoint {
             }
 
             // decodes the request and invokes the right method.
-            m_httpResponseError = 0;
-            Object resultOrException = request(in, resp, service);
-            if (m_httpResponseError != 0) {
-                resp.sendError(m_httpResponseError);
+            Invocation invocation = request(in, req.getContentLength());
+            if (invocation.m_agreed != null) {
+                handshake(invocation.m_agreed, resp);
                 return;
             }
+            metrics = getMethodMetrics(invocation.m_methodName);
+            if (invocation.m_status != 0) {
+                resp.sendError(invocation.m_status);
+                return;
+            }
+            Object resultOrException = invocation.invoke(service);
 
             resp.setStatus(SC_OK);
             resp.setContentType(CONTENT_TYPE);
 
-            OutputStream outputStream = resp.getOutputStream();
-            response(resultOrException, outputStream);
+            CountingOutputStream outputStream =
+                new CountingOutputStream(getCompressingOutputStream(req, resp, m_compressionThreshold));
+            long encodeStart = System.nanoTime();
+            response(m_coderPool, invocation.m_codec, resultOrException, outputStream);
+            if (metrics != null) {
+                metrics.recordSerialization(invocation.m_decodeTime + System.nanoTime() - encodeStart);
+                metrics.recordBytes(in.getCount(), outputStream.getCount());
+            }
+            failed = resultOrException instanceof Exception;
 
             // All is fine.. reset the local error count
             m_localErrors = 0;
         }
         finally {
             IOUtil.closeSilently(in);
-            if (service != null) {
-                service = null;
-                try {
-                    m_bundleContext.ungetService(m_serviceReference);
-                }
-                catch (Exception e) {
-                    // ignore... we at least tried
-                }
+            if (metrics != null) {
+                metrics.recordInvocation(System.nanoTime() - start, failed);
             }
         }
     }
 
-    /**
-     * Write {@code resultOrException} as response to {@code outputStream}.
-     *
-     * @param resultOrException
-     *        the result to send back
-     * @param outputStream
-     *        the stream used to write to
-     * @throws IOException
-     */
-    protected void response(final Object resultOrException, final OutputStream outputStream) throws IOException {
-        Message m = m_avroMessages.get(m_methodName);
-        response(m, resultOrException, outputStream);
-    }
-
     /**
      * Write {@code resultOrException} as Avro binary format to
      * {@code outputStream} using the schema of {@code m}.
@@ -176,54 +252,149 @@ public final class HttpAvroServerEndpoint {
      */
     public static void response(final Message m, final Object resultOrException, final OutputStream outputStream)
         throws IOException {
-        Encoder out = EncoderFactory.get().binaryEncoder(outputStream, null);
+        response(AvroCoderPool.DEFAULT, new AvroMessageCodec(m), resultOrException, outputStream);
+    }
 
-        if (resultOrException instanceof Exception) {
-            out.writeBoolean(true);
-            Throwable exception = unwrapException((Exception) resultOrException);
-            new ReflectDatumWriter<Object>(m.getErrors()).write(exception, out);
+    /**
+     * Writes a response directly to the given stream, without buffering it in between.
+     */
+    private static void response(final AvroCoderPool pool, final AvroMessageCodec codec,
+        final Object resultOrException, final OutputStream outputStream) throws IOException {
+        Coders coders = pool.acquire();
+        try {
+            Encoder out = coders.encoder(outputStream);
+            codec.writeResponse(resultOrException, out);
+            out.flush();
         }
-        else {
-            out.writeBoolean(false);
-            new ReflectDatumWriter<Object>(m.getResponse()).write(resultOrException, out);
+        finally {
+            pool.release(coders);
         }
-        out.flush();
         outputStream.close();
     }
 
-    private Object request(final InputStream inputStream, final HttpServletResponse resp, final Object service)
-        throws IOException {
-        BinaryDecoder in = DecoderFactory.get().binaryDecoder(inputStream, null);
-        // the first element of the request should be the method name
-        m_methodName = in.readString(null).toString();
+    /**
+     * Writes the response to a handshake request.
+     */
+    private void handshake(final List<AvroMessageCodec> agreed, final HttpServletResponse resp) throws IOException {
+        resp.setStatus(SC_OK);
+        resp.setContentType(CONTENT_TYPE);
 
-        if (m_methodName == null) {
-            m_httpResponseError = SC_NOT_FOUND;
-            return null;
+        OutputStream outputStream = resp.getOutputStream();
+        AvroCoderPool pool = m_coderPool;
+        Coders coders = pool.acquire();
+        try {
+            Encoder out = coders.encoder(outputStream);
+            AvroHandshake.writeResponse(agreed, out);
+            out.flush();
         }
-
-        Method method = m_interfaceMethods.get(m_methodName);
-        Message m = m_avroMessages.get(m_methodName);
-
-        if (method == null || m == null) {
-            m_httpResponseError = SC_NOT_FOUND;
-            return null;
+        finally {
+            pool.release(coders);
         }
+        outputStream.close();
+    }
 
-        Object[] args;
-        try {
-            args = decodeArguments(m.getRequest(), m.getRequest(), in);
-        }
-        catch (Exception e) {
-            m_httpResponseError = SC_BAD_REQUEST;
-            return null;
+    /**
+     * Pairs the messages offered in a handshake with the messages of this endpoint.
+     *
+     * @return for each offered message, the codec of the message it is agreed on, or <code>null</code> if it is not
+     *         agreed on, never <code>null</code>.
+     */
+    private List<AvroMessageCodec> agree(final List<Offer> offers) {
+        List<AvroMessageCodec> agreed = new ArrayList<AvroMessageCodec>(offers.size());
+        for (Offer offer : offers) {
+            ExportedMessage message = m_messages.get(offer.getId());
+            if (message == null) {
+                message = m_agreedMessages.get(offer.getId());
+            }
+            if (message == null && m_agreedMessages.size() < AvroHandshake.MAX_AGREED_MESSAGES) {
+                // Agree on the single message compatible with the offered one, if any...
+                ExportedMessage match = null;
+                int matches = 0;
+                for (ExportedMessage candidate : m_messages.values()) {
+                    AvroMessageCodec resolved = AvroHandshake.resolve(offer, candidate.m_codec);
+                    if (resolved != null) {
+                        match = new ExportedMessage(resolved, candidate.m_invoker);
+                        matches++;
+                    }
+                }
+                if (matches == 1) {
+                    ExportedMessage existing = m_agreedMessages.putIfAbsent(offer.getId(), match);
+                    message = (existing != null) ? existing : match;
+                }
+            }
+            agreed.add((message != null) ? message.m_codec : null);
         }
+        return agreed;
+    }
 
+    /**
+     * Decodes a request into the invocation it represents.
+     *
+     * @param inputStream
+     *        the stream to read the request from
+     * @param contentLength
+     *        the length of the request, or <code>-1</code> if unknown
+     * @return the decoded invocation, or an invocation holding the HTTP status to reject the request with, never
+     *         <code>null</code>.
+     * @throws IOException
+     */
+    private Invocation request(final InputStream inputStream, final int contentLength) throws IOException {
+        AvroCoderPool pool = m_coderPool;
+        Coders coders = pool.acquire();
         try {
-            return method.invoke(service, args);
+            BinaryDecoder in = coders.decoder(inputStream, contentLength);
+            // the first element of the request is either a header or the length of the method name
+            long header = in.readLong();
+
+            ExportedMessage message;
+            String methodName;
+            if (header == AvroHandshake.HANDSHAKE_REQUEST) {
+                try {
+                    return new Invocation(agree(AvroHandshake.readRequest(in)));
+                }
+                catch (Exception e) {
+                    return new Invocation(null, SC_BAD_REQUEST);
+                }
+            }
+            else if (header == AvroMessageCodec.ID_REQUEST) {
+                long id = in.readLong();
+                message = m_messages.get(id);
+                if (message == null) {
+                    message = m_agreedMessages.get(id);
+                }
+                if (message == null) {
+                    // Not agreed on, or no longer, as this endpoint was exported anew...
+                    return new Invocation(null, SC_PRECONDITION_FAILED);
+                }
+                methodName = message.m_codec.getMessage().getName();
+            }
+            else if (header >= 0 && header <= MAX_NAME_LENGTH) {
+                byte[] name = new byte[(int) header];
+                in.readFixed(name);
+                methodName = new String(name, StandardCharsets.UTF_8);
+                message = m_messagesByName.get(methodName);
+                if (message == null) {
+                    return new Invocation(methodName, SC_NOT_FOUND);
+                }
+            }
+            else {
+                return new Invocation(null, SC_BAD_REQUEST);
+            }
+
+            Object[] args;
+            long decodeStart = System.nanoTime();
+            try {
+                args = message.m_codec.readRequestArguments(in);
+            }
+            catch (Exception e) {
+                return new Invocation(methodName, SC_BAD_REQUEST);
+            }
+            return new Invocation(methodName, message.m_codec, message.m_invoker, args,
+                System.nanoTime() - decodeStart);
         }
-        catch (Exception e) {
-            return e;
+        finally {
+            // The arguments are decoded, so the buffer can be reused by calls the service makes...
+            pool.release(coders);
         }
     }
 
@@ -242,36 +413,28 @@ public final class HttpAvroServerEndpoint {
         resp.setContentType(CONTENT_TYPE);
 
         OutputStream outputStream = resp.getOutputStream();
-        Encoder out = EncoderFactory.get().binaryEncoder(outputStream, null);
-        Schema schema = Schema.createArray(Schema.create(Type.STRING));
-        new ReflectDatumWriter<>(schema).write(m_interfaceMethods.keySet(), out);
-        out.flush();
+        AvroCoderPool pool = m_coderPool;
+        Coders coders = pool.acquire();
+        try {
+            Encoder out = coders.encoder(outputStream);
+            Schema schema = Schema.createArray(Schema.create(Type.STRING));
+            new ReflectDatumWriter<>(schema).write(m_methodNames, out);
+            out.flush();
+        }
+        finally {
+            pool.release(coders);
+        }
         outputStream.close();
     }
 
     /**
-     * Decode the requested arguments from {@code in} using the resolved schema
-     * of {@code remote} and {@code local}.
-     *
-     * @param remote
-     *        the schema of the client/sender
-     * @param local
-     *        the schema of the server
-     * @param in
-     *        stream to read from
-     * @return the decoded arguments
-     * @throws IOException
+     * @return the metrics of the given method, or <code>null</code> if invocations are not recorded or there is no
+     *         such method.
      */
-    private Object[] decodeArguments(final Schema remote, final Schema local, final BinaryDecoder in)
-        throws IOException {
-        GenericRecord gr = new ReflectDatumReader<GenericRecord>(remote, local).read(null, in);
-        int numberOfParameters = local.getFields().size();
-        Object[] args = new Object[numberOfParameters];
-        int i = 0;
-        for (Schema.Field param : local.getFields()) {
-            args[i++] = gr.get(param.name());
-        }
-        return args;
+    private MethodMetrics getMethodMetrics(final String methodName) {
+        EndpointMetrics metrics = m_metrics;
+        return (metrics != null && methodName != null && m_methodNames.contains(methodName))
+            ? metrics.getMethodMetrics(methodName) : null;
     }
 
     /**
@@ -294,17 +457,72 @@ public final class HttpAvroServerEndpoint {
     }
 
     /**
-     * Unwraps a given {@link Exception} into a more concrete exception if it
-     * represents an {@link InvocationTargetException}.
-     *
-     * @param e
-     *        the exception to unwrap, should not be <code>null</code>.
-     * @return the (unwrapped) throwable or exception, never <code>null</code>.
+     * A message of this endpoint and the method it invokes.
      */
-    private static Throwable unwrapException(final Exception e) {
-        if (e instanceof InvocationTargetException) {
-            return ((InvocationTargetException) e).getTargetException();
+    private static final class ExportedMessage {
+        final AvroMessageCodec m_codec;
+        final MethodInvoker m_invoker;
+
+        ExportedMessage(final AvroMessageCodec codec, final MethodInvoker invoker) {
+            m_codec = codec;
+            m_invoker = invoker;
+        }
+    }
+
+    /**
+     * The immutable state of a single request: the message it invokes and its decoded arguments, the outcome of a
+     * handshake, or the HTTP status to reject it with.
+     */
+    private static final class Invocation {
+        final String m_methodName;
+        final AvroMessageCodec m_codec;
+        final MethodInvoker m_invoker;
+        final Object[] m_arguments;
+        final long m_decodeTime;
+        final int m_status;
+        final List<AvroMessageCodec> m_agreed;
+
+        Invocation(final String methodName, final int status) {
+            m_methodName = methodName;
+            m_codec = null;
+            m_invoker = null;
+            m_arguments = null;
+            m_decodeTime = 0;
+            m_status = status;
+            m_agreed = null;
+        }
+
+        Invocation(final List<AvroMessageCodec> agreed) {
+            m_methodName = null;
+            m_codec = null;
+            m_invoker = null;
+            m_arguments = null;
+            m_decodeTime = 0;
+            m_status = 0;
+            m_agreed = agreed;
+        }
+
+        Invocation(final String methodName, final AvroMessageCodec codec, final MethodInvoker invoker,
+            final Object[] arguments, final long decodeTime) {
+            m_methodName = methodName;
+            m_codec = codec;
+            m_invoker = invoker;
+            m_arguments = arguments;
+            m_decodeTime = decodeTime;
+            m_status = 0;
+            m_agreed = null;
+        }
+
+        /**
+         * @return the result of invoking the method on the given service, or the exception it failed with.
+         */
+        Object invoke(final Object service) {
+            try {
+                return AsyncUtil.awaitResult(m_invoker.invoke(service, m_arguments));
+            }
+            catch (Exception e) {
+                return e;
+            }
         }
-        return e;
     }
 }
@@ -31,11 +31,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.amdatu.remote.AbstractComponentDelegate;
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Coders;
+import org.amdatu.remote.metrics.EndpointMetrics;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Type;
 import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.reflect.ReflectDatumWriter;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 
@@ -52,6 +54,11 @@ public final class HttpAvroServerEndpointHandler extends AbstractComponentDelega
     private final RemoteServiceAdminFactory m_manager;
 
     private static final String CONTENT_TYPE = "avro/binary";
+    private static final String APPLICATION_JSON = "application/json";
+    /** The path, relative to the servlet alias, serving the metrics of the endpoints. */
+    static final String METRICS_PATH = "/metrics";
+
+    private final ObjectMapper m_objectMapper = new ObjectMapper();
 
     public HttpAvroServerEndpointHandler(final RemoteServiceAdminFactory manager) {
         super(manager);
@@ -100,6 +107,9 @@ public final class HttpAvroServerEndpointHandler extends AbstractComponentDelega
         final Class<?>[] interfaces) {
 
         HttpAvroServerEndpoint serverEndpoint = new HttpAvroServerEndpoint(getBundleContext(), reference, interfaces);
+        serverEndpoint.setCoderPool(m_manager.getCoderPool());
+        serverEndpoint.setCompressionThreshold(m_manager.getConfiguration().getCompressionThreshold());
+        serverEndpoint.setMetrics(m_manager.getMetrics().acquire(endpoint.getId(), EndpointMetrics.SERVER));
         m_lock.writeLock().lock();
         try {
             m_handlers.put(endpoint.getId(), serverEndpoint);
@@ -125,6 +135,9 @@ public final class HttpAvroServerEndpointHandler extends AbstractComponentDelega
         finally {
             m_lock.writeLock().unlock();
         }
+        if (serv != null) {
+            m_manager.getMetrics().release(serv.getMetrics());
+        }
         return serv;
     }
 
@@ -162,13 +175,36 @@ public final class HttpAvroServerEndpointHandler extends AbstractComponentDelega
 
         Schema schema = Schema.createArray(Schema.create(Type.STRING));
         OutputStream outputStream = resp.getOutputStream();
-        Encoder out = EncoderFactory.get().binaryEncoder(outputStream, null);
-        // TODO from Damiaan van der Kruk: check if whe should lock here?
-        new ReflectDatumWriter<>(schema).write(m_handlers.keySet(), out);
-        out.flush();
+        AvroCoderPool pool = m_manager.getCoderPool();
+        Coders coders = pool.acquire();
+        try {
+            Encoder out = coders.encoder(outputStream);
+            // TODO from Damiaan van der Kruk: check if whe should lock here?
+            new ReflectDatumWriter<>(schema).write(m_handlers.keySet(), out);
+            out.flush();
+        }
+        finally {
+            pool.release(coders);
+        }
         outputStream.close();
     }
 
+    /**
+     * Writes a snapshot of the metrics of all endpoints of this admin as JSON object to the given
+     * HttpServletResponse.
+     *
+     * @param req the HttpServletRequest
+     * @param resp the HttpServletResponse
+     * @throws IOException
+     */
+    public void writeMetrics(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        resp.setStatus(SC_OK);
+        resp.setContentType(APPLICATION_JSON);
+
+        OutputStream outputStream = resp.getOutputStream();
+        m_objectMapper.writeValue(outputStream, m_manager.getMetrics().getSnapshot());
+    }
+
     /**
      * Internal Servlet that handles all calls.
      */
@@ -226,6 +262,12 @@ public final class HttpAvroServerEndpointHandler extends AbstractComponentDelega
                 return;
             }
 
+            // request on the metrics path will return a snapshot of the metrics of all endpoints
+            if (pathInfo.equals(METRICS_PATH) || pathInfo.equals(METRICS_PATH + "/")) {
+                writeMetrics(req, resp);
+                return;
+            }
+
             // handle requested endpoint
             Matcher matcher = PATH_PATTERN.matcher(pathInfo);
             if (!matcher.matches()) {
@@ -15,7 +15,12 @@ package org.amdatu.remote.admin.http.avro;
 
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+import org.amdatu.remote.CircuitBreaker;
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.admin.http.avro.AvroHandshake.Agreement;
+import org.amdatu.remote.metrics.EndpointMetrics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
@@ -30,17 +35,28 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
 
     private final URL m_serviceURL;
     private final List<String> m_interfaceNames;
+    private final CircuitBreaker m_circuitBreaker;
+    private final Agreement m_agreement;
     private ClientEndpointProblemListener m_problemListener;
     private HttpAdminConfiguration m_configuration;
+    private final Executor m_executor;
+    private volatile AvroCoderPool m_coderPool = AvroCoderPool.DEFAULT;
+    private volatile EndpointMetrics m_metrics;
 
     /**
      * Creates a new {@link HttpClientEndpointFactory} instance.
+     *
+     * @param messageIds the ids of the messages published by the exported endpoint, can be empty if the exporter
+     *        does not identify messages by id
      */
     public HttpClientEndpointFactory(final URL serviceURL, final List<String> interfaceNames,
-        final HttpAdminConfiguration configuration) {
+        final String[] messageIds, final HttpAdminConfiguration configuration, final Executor executor) {
         m_serviceURL = serviceURL;
         m_interfaceNames = interfaceNames;
         m_configuration = configuration;
+        m_circuitBreaker = HttpAvroClientEndpoint.createCircuitBreaker(configuration);
+        m_agreement = new Agreement(messageIds);
+        m_executor = executor;
     }
 
     @Override
@@ -56,8 +72,12 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
             }
         }
         HttpAvroClientEndpoint restEndpoint = new HttpAvroClientEndpoint(m_serviceURL, m_configuration,
-            interfaceClasses);
+            m_executor, interfaceClasses);
         restEndpoint.setProblemListener(this);
+        restEndpoint.setCircuitBreaker(m_circuitBreaker);
+        restEndpoint.setAgreement(m_agreement);
+        restEndpoint.setMetrics(m_metrics);
+        restEndpoint.setCoderPool(m_coderPool);
         return restEndpoint.getServiceProxy();
     }
 
@@ -75,6 +95,13 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
         }
     }
 
+    @Override
+    public synchronized void handleEndpointStateChanged(final State state, final Throwable exception) {
+        if (m_problemListener != null) {
+            m_problemListener.handleEndpointStateChanged(state, exception);
+        }
+    }
+
     /**
      * @param problemListener
      *        the problem listener to set, can be <code>null</code>.
@@ -83,6 +110,32 @@ public class HttpClientEndpointFactory implements ServiceFactory<Object>, Client
         m_problemListener = problemListener;
     }
 
+    /**
+     * @return the metrics shared by all client endpoints created by this factory, or <code>null</code> if
+     *         invocations are not recorded.
+     */
+    public EndpointMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * @param metrics
+     *        the metrics to share between all client endpoints created by this factory, can be
+     *        <code>null</code> if invocations are not to be recorded.
+     */
+    public void setMetrics(final EndpointMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * @param coderPool
+     *        the pool the client endpoints created by this factory take their encoders and decoders from, cannot
+     *        be <code>null</code>.
+     */
+    void setCoderPool(final AvroCoderPool coderPool) {
+        m_coderPool = coderPool;
+    }
+
     @Override
     public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
         final Object service) {
@@ -13,19 +13,26 @@
  */
 package org.amdatu.remote.admin.http.avro;
 
+import static org.amdatu.remote.CircuitBreaker.EVENT_STATE_PROPERTY;
 import static org.amdatu.remote.EndpointUtil.computeHash;
+import static org.amdatu.remote.ServiceUtil.getStringPlusValue;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CONFIGURATION_TYPE;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.ENDPOINT_MESSAGES;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.ENDPOINT_URL;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_ERROR;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_WARNING;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.amdatu.remote.CircuitBreaker.State;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
@@ -71,9 +78,13 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
 
         try {
             URL serviceLocation = new URL((String) description.getProperties().get(ENDPOINT_URL));
+            String[] messageIds = getStringPlusValue(description.getProperties().get(ENDPOINT_MESSAGES));
             m_clientEndpoint =
-                new HttpClientEndpointFactory(serviceLocation, description.getInterfaces(), m_configuration);
+                new HttpClientEndpointFactory(serviceLocation, description.getInterfaces(), messageIds,
+                    m_configuration, m_admin.getClientExecutor());
             m_clientEndpoint.setProblemListener(this);
+            m_clientEndpoint.setCoderPool(m_admin.getCoderPool());
+            m_clientEndpoint.setMetrics(m_admin.getMetrics().acquire(description.getId(), EndpointMetrics.CLIENT));
 
             String[] objectClass = createImportedServiceObjectClass(m_endpoint);
             Dictionary<String, Object> serviceProperties = createImportedServiceProperties(m_endpoint);
@@ -98,6 +109,15 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         m_admin.getEventsHandler().emitEvent(IMPORT_WARNING, m_admin.getBundleContext().getBundle(), this, exception);
     }
 
+    @Override
+    public void handleEndpointStateChanged(final State state, final Throwable exception) {
+        ServiceException cause =
+            new ServiceException("Remote service endpoint circuit changed to " + state, ServiceException.REMOTE,
+                exception);
+        m_admin.getEventsHandler().emitEvent(IMPORT_WARNING, m_admin.getBundleContext().getBundle(), this, cause,
+            Collections.singletonMap(EVENT_STATE_PROPERTY, state.name()));
+    }
+
     @Override
     public ImportReference getImportReference() {
         if (m_closed.get()) {
@@ -166,6 +186,12 @@ public final class ImportedEndpointImpl implements ImportRegistration, ImportRef
         if (!m_closed.compareAndSet(false, true) && !ignoreClosed) {
             return;
         }
+        HttpClientEndpointFactory clientEndpoint = m_clientEndpoint;
+        if (clientEndpoint != null) {
+            EndpointMetrics metrics = clientEndpoint.getMetrics();
+            clientEndpoint.setMetrics(null);
+            m_admin.getMetrics().release(metrics);
+        }
         ServiceRegistration<?> clientRegistration = m_clientRegistration;
         if (clientRegistration != null) {
             m_clientRegistration = null;
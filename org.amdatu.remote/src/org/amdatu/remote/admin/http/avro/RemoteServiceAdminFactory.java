@@ -13,13 +13,24 @@
  */
 package org.amdatu.remote.admin.http.avro;
 
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.SUPPORTED_CONFIGURATION_TYPES;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.REMOTE_CONFIGS_SUPPORTED;
+
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.amdatu.remote.AbstractComponent;
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.metrics.EndpointMetricsRegistry;
+import org.amdatu.remote.metrics.EndpointMetricsService;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
@@ -35,32 +46,61 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
  */
 public final class RemoteServiceAdminFactory extends AbstractComponent implements ServiceFactory<RemoteServiceAdmin> {
 
+    private static final int CLIENT_ASYNC_THREADS = 32;
+
     private final ConcurrentHashMap<Bundle, RemoteServiceAdminImpl> m_instances =
         new ConcurrentHashMap<Bundle, RemoteServiceAdminImpl>();
 
     private final HttpAdminConfiguration m_configuration;
     private final EventsHandlerImpl m_eventsHandler;
     private final HttpAvroServerEndpointHandler m_endpointHandler;
+    private final EndpointMetricsRegistry m_metrics;
+    private final AvroCoderPool m_coderPool;
 
     private volatile HttpService m_httpService;
+    private volatile ExecutorService m_clientExecutor;
+    private volatile ServiceRegistration<EndpointMetricsService> m_metricsRegistration;
 
     public RemoteServiceAdminFactory(final HttpAdminConfiguration configuration) {
         super("admin", "http");
         m_configuration = configuration;
         m_eventsHandler = new EventsHandlerImpl(this);
         m_endpointHandler = new HttpAvroServerEndpointHandler(this);
+        m_metrics = new EndpointMetricsRegistry("http.avro", ManagementFactory.getPlatformMBeanServer());
+        m_coderPool = new AvroCoderPool(configuration.getBufferSize());
     }
 
     @Override
     protected void startComponent() throws Exception {
         m_eventsHandler.start();
         m_endpointHandler.start();
+        m_clientExecutor = AsyncUtil.createExecutor("Amdatu HTTP-AVRO client", CLIENT_ASYNC_THREADS);
+
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(REMOTE_CONFIGS_SUPPORTED, SUPPORTED_CONFIGURATION_TYPES);
+        m_metricsRegistration =
+            getBundleContext().registerService(EndpointMetricsService.class, m_metrics, properties);
     }
 
     @Override
     protected void stopComponent() throws Exception {
+        ServiceRegistration<EndpointMetricsService> metricsRegistration = m_metricsRegistration;
+        m_metricsRegistration = null;
+        if (metricsRegistration != null) {
+            try {
+                metricsRegistration.unregister();
+            }
+            catch (Exception e) {}
+        }
+
         m_eventsHandler.stop();
         m_endpointHandler.stop();
+        ExecutorService clientExecutor = m_clientExecutor;
+        m_clientExecutor = null;
+        if (clientExecutor != null) {
+            clientExecutor.shutdown();
+        }
+        m_metrics.close();
     }
 
     @Override
@@ -111,6 +151,10 @@ public final class RemoteServiceAdminFactory extends AbstractComponent implement
         return exportedEndpoints;
     }
 
+    HttpAdminConfiguration getConfiguration() {
+        return m_configuration;
+    }
+
     HttpService getHttpService() {
         return m_httpService;
     }
@@ -123,6 +167,18 @@ public final class RemoteServiceAdminFactory extends AbstractComponent implement
         return m_endpointHandler;
     }
 
+    EndpointMetricsRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    AvroCoderPool getCoderPool() {
+        return m_coderPool;
+    }
+
+    Executor getClientExecutor() {
+        return m_clientExecutor;
+    }
+
     URL getBaseURL() {
         return m_configuration.getBaseUrl();
     }
@@ -15,6 +15,7 @@ package org.amdatu.remote.admin.http.avro;
 
 import static org.amdatu.remote.ServiceUtil.getStringPlusValue;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.CONFIGURATION_TYPE;
+import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.ENDPOINT_MESSAGES;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.ENDPOINT_URL;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.PASSBYVALYE_INTENT;
 import static org.amdatu.remote.admin.http.avro.HttpAdminConstants.SUPPORTED_INTENTS;
@@ -53,8 +54,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import org.amdatu.remote.AbstractComponentDelegate;
+import org.amdatu.remote.metrics.EndpointMetricsRegistry;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
@@ -119,16 +122,19 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
     public Collection<ExportRegistration> exportService(final ServiceReference<?> reference,
         final Map<String, ?> properties) {
 
-        final EndpointDescription endpoint = createEndpointDescription(reference, properties);
-        if (endpoint == null) {
+        EndpointDescription description = createEndpointDescription(reference, properties);
+        if (description == null) {
             return Collections.emptyList();
         }
 
-        final Class<?>[] interfaces = loadEndpointInterfaces(reference, endpoint);
+        final Class<?>[] interfaces = loadEndpointInterfaces(reference, description);
         if (interfaces == null) {
             return Collections.emptyList();
         }
 
+        final EndpointDescription endpoint =
+            addMessageIds(description, AvroProtocolCache.getInstance().getMessageIds(interfaces));
+
         SecurityManager securityManager = System.getSecurityManager();
         if (securityManager != null) {
             securityManager.checkPermission(new EndpointPermission(endpoint, getFrameworkUUID(), EXPORT));
@@ -371,6 +377,18 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
         return m_manager.getServerEndpointHandler();
     }
 
+    Executor getClientExecutor() {
+        return m_manager.getClientExecutor();
+    }
+
+    EndpointMetricsRegistry getMetrics() {
+        return m_manager.getMetrics();
+    }
+
+    AvroCoderPool getCoderPool() {
+        return m_manager.getCoderPool();
+    }
+
     EndpointDescription createEndpointDescription(final ServiceReference<?> reference,
         final Map<String, ?> extraProperties) {
         return createEndpointDescription(UUID.randomUUID().toString(), reference, extraProperties);
@@ -381,6 +399,20 @@ public final class RemoteServiceAdminImpl extends AbstractComponentDelegate impl
         return createEndpointDescription(endpointId, getMergedProperties(reference, extraProperties));
     }
 
+    /**
+     * Adds the ids of the messages of an exported endpoint to its description, allowing importers to send
+     * messages by id.
+     *
+     * @param endpoint the endpoint description
+     * @param messageIds the ids of the endpoint's messages
+     * @return the new endpoint description
+     */
+    EndpointDescription addMessageIds(final EndpointDescription endpoint, final String[] messageIds) {
+        Map<String, Object> properties = new HashMap<String, Object>(endpoint.getProperties());
+        properties.put(ENDPOINT_MESSAGES, messageIds);
+        return new EndpointDescription(properties);
+    }
+
     private Class<?>[] loadEndpointInterfaces(final ServiceReference<?> reference, final EndpointDescription endpoint) {
 
         BundleContext context = getBundleContext();
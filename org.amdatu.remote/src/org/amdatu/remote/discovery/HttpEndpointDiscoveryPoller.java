@@ -13,8 +13,11 @@
  */
 package org.amdatu.remote.discovery;
 
+import static org.amdatu.remote.CompressionUtil.acceptCompression;
+import static org.amdatu.remote.CompressionUtil.getDecompressingInputStream;
 import static org.amdatu.remote.SecureEndpointUtil.readEndpoints;
 
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.HttpURLConnection;
@@ -228,6 +231,7 @@ public final class HttpEndpointDiscoveryPoller {
                 }
                 connection.setConnectTimeout(m_configuration.getConnectTimeout());
                 connection.setReadTimeout(m_configuration.getReadTimeout());
+                acceptCompression(connection);
                 connection.connect();
 
                 switch (connection.getResponseCode()) {
@@ -239,7 +243,8 @@ public final class HttpEndpointDiscoveryPoller {
                     case HttpServletResponse.SC_OK:
                         // If the other side signals on OK we update local state
                         // and signal modified to the caller.
-                        reader = new InputStreamReader(connection.getInputStream());
+                        InputStream in = getDecompressingInputStream(connection, connection.getInputStream());
+                        reader = new InputStreamReader(in);
                         m_updatedServices.addAll(readEndpoints(reader, m_configuration));
                         m_modifiedSince = connection.getLastModified();
                         modified = true;
@@ -14,6 +14,7 @@
 package org.amdatu.remote.discovery;
 
 import static org.amdatu.remote.EndpointUtil.writeEndpoints;
+import static org.amdatu.remote.CompressionUtil.getCompressingOutputStream;
 import static org.amdatu.remote.IOUtil.closeSilently;
 
 import java.io.IOException;
@@ -36,6 +37,7 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 public final class HttpEndpointDiscoveryServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
+    private static final int COMPRESSION_THRESHOLD = 1024;
 
     private final Map<String, EndpointDescription> m_endpoints = new HashMap<String, EndpointDescription>();
     private final Map<String, Long> m_modifieds = new HashMap<String, Long>();
@@ -107,7 +109,7 @@ public final class HttpEndpointDiscoveryServlet extends HttpServlet {
 
         Writer out = null;
         try {
-            out = new OutputStreamWriter(resp.getOutputStream());
+            out = new OutputStreamWriter(getCompressingOutputStream(req, resp, COMPRESSION_THRESHOLD));
             writeEndpoints(out, m_endpointsArray);
         }
         finally {
@@ -153,7 +155,7 @@ public final class HttpEndpointDiscoveryServlet extends HttpServlet {
 
         Writer out = null;
         try {
-            out = new OutputStreamWriter(resp.getOutputStream());
+            out = new OutputStreamWriter(getCompressingOutputStream(req, resp, COMPRESSION_THRESHOLD));
             writeEndpoints(out, endpoint);
         }
         finally {
@@ -14,6 +14,7 @@
 package org.amdatu.remote.discovery;
 
 import static org.amdatu.remote.SecureEndpointUtil.writeEndpoints;
+import static org.amdatu.remote.CompressionUtil.getCompressingOutputStream;
 import static org.amdatu.remote.IOUtil.closeSilently;
 
 import java.io.IOException;
@@ -36,6 +37,7 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 public final class SecureHttpEndpointDiscoveryServlet<T extends HttpEndpointDiscoveryConfiguration> extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
+    private static final int COMPRESSION_THRESHOLD = 1024;
     private final T m_configuration;
 
     private final Map<String, EndpointDescription> m_endpoints = new HashMap<String, EndpointDescription>();
@@ -109,7 +111,7 @@ public final class SecureHttpEndpointDiscoveryServlet<T extends HttpEndpointDisc
 
         Writer out = null;
         try {
-            out = new OutputStreamWriter(resp.getOutputStream());
+            out = new OutputStreamWriter(getCompressingOutputStream(req, resp, COMPRESSION_THRESHOLD));
             writeEndpoints(out, m_configuration, m_endpointsArray);
         }
         finally {
@@ -155,7 +157,7 @@ public final class SecureHttpEndpointDiscoveryServlet<T extends HttpEndpointDisc
 
         Writer out = null;
         try {
-            out = new OutputStreamWriter(resp.getOutputStream());
+            out = new OutputStreamWriter(getCompressingOutputStream(req, resp, COMPRESSION_THRESHOLD));
             writeEndpoints(out, m_configuration, endpoint);
         }
         finally {
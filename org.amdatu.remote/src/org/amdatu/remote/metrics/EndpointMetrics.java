@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the invocations of a client or server endpoint, kept per method, and of the result cache of a client
+ * endpoint, if any.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class EndpointMetrics implements EndpointMetricsMXBean {
+
+    /** Side of the metrics of an imported endpoint. */
+    public static final String CLIENT = "client";
+    /** Side of the metrics of an exported endpoint. */
+    public static final String SERVER = "server";
+
+    private final String m_endpointId;
+    private final String m_side;
+    private final ConcurrentMap<String, MethodMetrics> m_methods = new ConcurrentHashMap<String, MethodMetrics>();
+    private final LongAdder m_cacheHits = new LongAdder();
+    private final LongAdder m_cacheMisses = new LongAdder();
+    private final LongAdder m_cacheEvictions = new LongAdder();
+
+    /**
+     * @param endpointId the id of the endpoint, cannot be <code>null</code>;
+     * @param side {@link #CLIENT} or {@link #SERVER}.
+     */
+    public EndpointMetrics(String endpointId, String side) {
+        m_endpointId = endpointId;
+        m_side = side;
+    }
+
+    @Override
+    public String getEndpointId() {
+        return m_endpointId;
+    }
+
+    @Override
+    public String getSide() {
+        return m_side;
+    }
+
+    /**
+     * @param method the signature of the method, cannot be <code>null</code>.
+     * @return the metrics of the given method, never <code>null</code>.
+     */
+    public MethodMetrics getMethodMetrics(String method) {
+        MethodMetrics metrics = m_methods.get(method);
+        if (metrics == null) {
+            MethodMetrics created = new MethodMetrics(method);
+            metrics = m_methods.putIfAbsent(method, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Records an invocation that was served from the result cache.
+     */
+    public void recordCacheHit() {
+        m_cacheHits.increment();
+    }
+
+    /**
+     * Records an invocation of a cacheable method that was not served from the result cache.
+     */
+    public void recordCacheMiss() {
+        m_cacheMisses.increment();
+    }
+
+    /**
+     * Records a result that was evicted from the result cache because it was full.
+     */
+    public void recordCacheEviction() {
+        m_cacheEvictions.increment();
+    }
+
+    @Override
+    public List<MethodMetrics> getMethods() {
+        return new ArrayList<MethodMetrics>(m_methods.values());
+    }
+
+    @Override
+    public long getInvocations() {
+        long invocations = 0;
+        for (MethodMetrics metrics : m_methods.values()) {
+            invocations += metrics.getInvocations();
+        }
+        return invocations;
+    }
+
+    @Override
+    public long getFailures() {
+        long failures = 0;
+        for (MethodMetrics metrics : m_methods.values()) {
+            failures += metrics.getFailures();
+        }
+        return failures;
+    }
+
+    @Override
+    public long getBytesIn() {
+        long bytes = 0;
+        for (MethodMetrics metrics : m_methods.values()) {
+            bytes += metrics.getBytesIn();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBytesOut() {
+        long bytes = 0;
+        for (MethodMetrics metrics : m_methods.values()) {
+            bytes += metrics.getBytesOut();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return m_cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return m_cacheMisses.sum();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return m_cacheEvictions.sum();
+    }
+
+    /**
+     * @return a snapshot of these metrics as map of plain values, suitable for serialization, never
+     *         <code>null</code>.
+     */
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> methods = new ArrayList<Map<String, Object>>();
+        for (MethodMetrics metrics : m_methods.values()) {
+            methods.add(metrics.toMap());
+        }
+        Map<String, Object> cache = new LinkedHashMap<String, Object>();
+        cache.put("hits", getCacheHits());
+        cache.put("misses", getCacheMisses());
+        cache.put("evictions", getCacheEvictions());
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("endpointId", m_endpointId);
+        map.put("side", m_side);
+        map.put("methods", methods);
+        map.put("cache", cache);
+        return map;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface of the metrics of an endpoint, as registered with the platform MBean server.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public interface EndpointMetricsMXBean {
+
+    /**
+     * @return the id of the endpoint, never <code>null</code>.
+     */
+    String getEndpointId();
+
+    /**
+     * @return {@link EndpointMetrics#CLIENT} or {@link EndpointMetrics#SERVER}, never <code>null</code>.
+     */
+    String getSide();
+
+    /**
+     * @return the number of invocations of all methods.
+     */
+    long getInvocations();
+
+    /**
+     * @return the number of invocations of all methods that failed to complete.
+     */
+    long getFailures();
+
+    /**
+     * @return the number of bytes received for all methods.
+     */
+    long getBytesIn();
+
+    /**
+     * @return the number of bytes sent for all methods.
+     */
+    long getBytesOut();
+
+    /**
+     * @return the number of invocations served from the result cache.
+     */
+    long getCacheHits();
+
+    /**
+     * @return the number of invocations of cacheable methods not served from the result cache.
+     */
+    long getCacheMisses();
+
+    /**
+     * @return the number of results evicted from the result cache because it was full.
+     */
+    long getCacheEvictions();
+
+    /**
+     * @return the metrics of the invoked methods, never <code>null</code>.
+     */
+    List<MethodMetrics> getMethods();
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the metrics of the endpoints of a Remote Service Admin and registers each of them as MXBean, named
+ * <code>org.amdatu.remote:type=EndpointMetrics,admin=&lt;admin&gt;,side=&lt;side&gt;,id=&lt;endpoint id&gt;</code>.
+ * <p>
+ * The metrics of an endpoint are shared by all that acquire them, and dropped once all released them.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class EndpointMetricsRegistry implements EndpointMetricsService {
+
+    /** The domain of the object names of the MXBeans. */
+    public static final String DOMAIN = "org.amdatu.remote";
+
+    private final String m_admin;
+    private final MBeanServer m_mbeanServer;
+    private final Map<String, Registration> m_registrations = new HashMap<String, Registration>();
+
+    /**
+     * @param admin the name of the admin, as used in the object names of the MXBeans, cannot be <code>null</code>;
+     * @param mbeanServer the server to register the MXBeans with, can be <code>null</code> to not register them.
+     */
+    public EndpointMetricsRegistry(String admin, MBeanServer mbeanServer) {
+        m_admin = admin;
+        m_mbeanServer = mbeanServer;
+    }
+
+    /**
+     * Acquires the metrics of an endpoint, creating and registering them if needed.
+     *
+     * @param endpointId the id of the endpoint, cannot be <code>null</code>;
+     * @param side {@link EndpointMetrics#CLIENT} or {@link EndpointMetrics#SERVER}.
+     * @return the metrics of the endpoint, never <code>null</code>.
+     */
+    public synchronized EndpointMetrics acquire(String endpointId, String side) {
+        String key = side + "/" + endpointId;
+        Registration registration = m_registrations.get(key);
+        if (registration == null) {
+            registration = new Registration(new EndpointMetrics(endpointId, side));
+            registration.m_name = registerMBean(registration.m_metrics);
+            m_registrations.put(key, registration);
+        }
+        registration.m_references++;
+        return registration.m_metrics;
+    }
+
+    /**
+     * Releases metrics obtained through {@link #acquire(String, String)}, dropping them once released by all.
+     *
+     * @param metrics the metrics to release, can be <code>null</code>.
+     */
+    public synchronized void release(EndpointMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        String key = metrics.getSide() + "/" + metrics.getEndpointId();
+        Registration registration = m_registrations.get(key);
+        if (registration != null && registration.m_metrics == metrics && --registration.m_references == 0) {
+            m_registrations.remove(key);
+            unregisterMBean(registration.m_name);
+        }
+    }
+
+    /**
+     * Drops all metrics.
+     */
+    public synchronized void close() {
+        for (Registration registration : m_registrations.values()) {
+            unregisterMBean(registration.m_name);
+        }
+        m_registrations.clear();
+    }
+
+    @Override
+    public synchronized List<EndpointMetrics> getEndpointMetrics() {
+        List<EndpointMetrics> metrics = new ArrayList<EndpointMetrics>();
+        for (Registration registration : m_registrations.values()) {
+            metrics.add(registration.m_metrics);
+        }
+        return metrics;
+    }
+
+    @Override
+    public Map<String, Object> getSnapshot() {
+        List<Map<String, Object>> endpoints = new ArrayList<Map<String, Object>>();
+        for (EndpointMetrics metrics : getEndpointMetrics()) {
+            endpoints.add(metrics.toMap());
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("admin", m_admin);
+        snapshot.put("endpoints", endpoints);
+        return snapshot;
+    }
+
+    private ObjectName registerMBean(EndpointMetrics metrics) {
+        if (m_mbeanServer == null) {
+            return null;
+        }
+        try {
+            ObjectName name =
+                new ObjectName(DOMAIN + ":type=EndpointMetrics,admin=" + ObjectName.quote(m_admin) + ",side="
+                    + metrics.getSide() + ",id=" + ObjectName.quote(metrics.getEndpointId()));
+            m_mbeanServer.registerMBean(metrics, name);
+            return name;
+        }
+        catch (JMException e) {
+            // ignore... the metrics are still available through the service
+            return null;
+        }
+    }
+
+    private void unregisterMBean(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            m_mbeanServer.unregisterMBean(name);
+        }
+        catch (JMException e) {
+            // ignore... the MBean might already be gone
+        }
+    }
+
+    private static final class Registration {
+        private final EndpointMetrics m_metrics;
+        private ObjectName m_name;
+        private int m_references;
+
+        Registration(EndpointMetrics metrics) {
+            m_metrics = metrics;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service providing the metrics of the endpoints of a Remote Service Admin. Each admin registers its own instance,
+ * with service property <code>remote.configs.supported</code> telling them apart.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public interface EndpointMetricsService {
+
+    /**
+     * @return the metrics of all imported and exported endpoints, never <code>null</code>.
+     */
+    List<EndpointMetrics> getEndpointMetrics();
+
+    /**
+     * @return a snapshot of the metrics of all imported and exported endpoints as map of plain values, suitable for
+     *         serialization, never <code>null</code>.
+     */
+    Map<String, Object> getSnapshot();
+}
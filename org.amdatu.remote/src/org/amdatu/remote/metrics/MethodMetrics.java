@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.amdatu.remote.LatencyHistogram;
+
+/**
+ * Metrics of the invocations of a single method of an endpoint, since the endpoint was created.
+ * <p>
+ * On the client side the latency is the time from sending the invocation until its outcome is read, on the server
+ * side it is the time spent handling it, including any wait for an invocation permit. Invocations that did not
+ * return normally, because they failed or threw an exception, count as failures. The serialization time is the
+ * time spent encoding and decoding the invocation and its outcome, the bytes are those of the encoded invocation and
+ * outcome, before any compression. Invocations sent in batches or in-process only count towards the invocations and
+ * latencies. All times are in nanoseconds. Recording takes a few atomic updates and never locks.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class MethodMetrics {
+
+    private final String m_method;
+    private final LongAdder m_invocations = new LongAdder();
+    private final LongAdder m_failures = new LongAdder();
+    private final LongAdder m_bytesIn = new LongAdder();
+    private final LongAdder m_bytesOut = new LongAdder();
+    private final LatencyHistogram m_latency = new LatencyHistogram();
+    private final LatencyHistogram m_serialization = new LatencyHistogram();
+
+    MethodMetrics(String method) {
+        m_method = method;
+    }
+
+    /**
+     * Records a completed invocation.
+     *
+     * @param latency the latency of the invocation in nanoseconds;
+     * @param failed <code>true</code> if the invocation failed to complete.
+     */
+    public void recordInvocation(long latency, boolean failed) {
+        m_invocations.increment();
+        if (failed) {
+            m_failures.increment();
+        }
+        m_latency.record(latency);
+    }
+
+    /**
+     * Records the time spent encoding and decoding an invocation and its outcome.
+     *
+     * @param serialization the serialization time in nanoseconds.
+     */
+    public void recordSerialization(long serialization) {
+        m_serialization.record(serialization);
+    }
+
+    /**
+     * Records the size of an encoded invocation and its outcome.
+     *
+     * @param bytesIn the number of bytes received;
+     * @param bytesOut the number of bytes sent.
+     */
+    public void recordBytes(long bytesIn, long bytesOut) {
+        m_bytesIn.add(bytesIn);
+        m_bytesOut.add(bytesOut);
+    }
+
+    /**
+     * @return the signature of the method, never <code>null</code>.
+     */
+    public String getMethod() {
+        return m_method;
+    }
+
+    /**
+     * @return the number of invocations.
+     */
+    public long getInvocations() {
+        return m_invocations.sum();
+    }
+
+    /**
+     * @return the number of invocations that failed to complete.
+     */
+    public long getFailures() {
+        return m_failures.sum();
+    }
+
+    /**
+     * @return the number of bytes received.
+     */
+    public long getBytesIn() {
+        return m_bytesIn.sum();
+    }
+
+    /**
+     * @return the number of bytes sent.
+     */
+    public long getBytesOut() {
+        return m_bytesOut.sum();
+    }
+
+    /**
+     * @return the mean latency in nanoseconds.
+     */
+    public long getMeanLatency() {
+        return m_latency.getMean();
+    }
+
+    /**
+     * @return the median latency in nanoseconds.
+     */
+    public long getLatencyPercentile50() {
+        return m_latency.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return the 90th percentile of the latencies in nanoseconds.
+     */
+    public long getLatencyPercentile90() {
+        return m_latency.getValueAtPercentile(90);
+    }
+
+    /**
+     * @return the 99th percentile of the latencies in nanoseconds.
+     */
+    public long getLatencyPercentile99() {
+        return m_latency.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return the highest latency in nanoseconds.
+     */
+    public long getMaxLatency() {
+        return m_latency.getMax();
+    }
+
+    /**
+     * @return the mean serialization time in nanoseconds.
+     */
+    public long getMeanSerializationTime() {
+        return m_serialization.getMean();
+    }
+
+    /**
+     * @return the 99th percentile of the serialization times in nanoseconds.
+     */
+    public long getSerializationTimePercentile99() {
+        return m_serialization.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return a snapshot of these metrics as map of plain values, suitable for serialization, never
+     *         <code>null</code>.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> latency = new LinkedHashMap<String, Object>();
+        latency.put("mean", m_latency.getMean());
+        latency.put("p50", m_latency.getValueAtPercentile(50));
+        latency.put("p90", m_latency.getValueAtPercentile(90));
+        latency.put("p99", m_latency.getValueAtPercentile(99));
+        latency.put("max", m_latency.getMax());
+
+        Map<String, Object> serialization = new LinkedHashMap<String, Object>();
+        serialization.put("mean", m_serialization.getMean());
+        serialization.put("p99", m_serialization.getValueAtPercentile(99));
+        serialization.put("max", m_serialization.getMax());
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("method", m_method);
+        map.put("invocations", getInvocations());
+        map.put("failures", getFailures());
+        map.put("bytesIn", getBytesIn());
+        map.put("bytesOut", getBytesOut());
+        map.put("latency", latency);
+        map.put("serialization", serialization);
+        return map;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.topology.promiscuous;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.amdatu.remote.AsyncUtil;
+import org.amdatu.remote.ServiceUtil;
+import org.amdatu.remote.topology.promiscuous.LoadBalancer.Member;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Provides a single service that spreads its invocations over the imported services of all endpoints exporting the
+ * same interfaces.
+ * <p>
+ * Each consuming bundle gets its own proxy, which invokes the imported services as obtained through the context of
+ * that bundle, so the proxy and the imported services share the class space of the consumer. The members, and the
+ * statistics used to select them, are shared by all proxies.
+ * <p>
+ * Invocations of idempotent methods can be hedged: if the selected member did not respond within the configured
+ * percentile of the recent latencies of the method, the invocation is sent to a second member as well. The first to
+ * respond wins, the outcome of the other is ignored. This trims the tail latency caused by a single slow member at the
+ * expense of a few percent of duplicate invocations.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class LoadBalancedServiceFactory implements ServiceFactory<Object> {
+
+    private static final int HEDGING_THREADS = 32;
+
+    private final String[] m_interfaceNames;
+    private final LoadBalancer<ServiceReference<?>> m_loadBalancer;
+    private final Map<Bundle, LoadBalancedInvocationHandler> m_handlers =
+        new ConcurrentHashMap<Bundle, LoadBalancedInvocationHandler>();
+    private final Map<Method, String> m_signatures = new ConcurrentHashMap<Method, String>();
+
+    private volatile int m_hedgingPercentile;
+    private volatile Set<String> m_idempotentMethods = Collections.emptySet();
+    private ExecutorService m_executor;
+
+    /**
+     * @param interfaceNames the names of the interfaces the members provide, cannot be <code>null</code>;
+     * @param strategy the strategy to select a member for each invocation with, cannot be <code>null</code>.
+     */
+    public LoadBalancedServiceFactory(String[] interfaceNames, LoadBalancingStrategy strategy) {
+        m_interfaceNames = interfaceNames;
+        m_loadBalancer = new LoadBalancer<ServiceReference<?>>(strategy);
+    }
+
+    /**
+     * @return the names of the interfaces the members provide, never <code>null</code>.
+     */
+    public String[] getInterfaceNames() {
+        return m_interfaceNames;
+    }
+
+    /**
+     * @return the load balancer selecting the members, never <code>null</code>.
+     */
+    public LoadBalancer<ServiceReference<?>> getLoadBalancer() {
+        return m_loadBalancer;
+    }
+
+    /**
+     * @param reference the imported service to add as member, cannot be <code>null</code>.
+     * @return <code>true</code> if the member was added, <code>false</code> if it already was a member.
+     */
+    public boolean addMember(ServiceReference<?> reference) {
+        return m_loadBalancer.addMember(reference);
+    }
+
+    /**
+     * @param reference the imported service to remove as member, cannot be <code>null</code>.
+     * @return <code>true</code> if the member was removed, <code>false</code> if it was no member.
+     */
+    public boolean removeMember(ServiceReference<?> reference) {
+        if (!m_loadBalancer.removeMember(reference)) {
+            return false;
+        }
+        for (LoadBalancedInvocationHandler handler : m_handlers.values()) {
+            handler.release(reference);
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if there are no members, <code>false</code> otherwise.
+     */
+    public boolean isEmpty() {
+        return m_loadBalancer.getMembers().isEmpty();
+    }
+
+    /**
+     * @param percentile the percentile of the recent latencies after which an invocation of an idempotent method is
+     *        hedged, between <code>1</code> and <code>99</code>, or <code>0</code> to disable hedging.
+     */
+    public void setHedgingPercentile(int percentile) {
+        m_hedgingPercentile = percentile;
+    }
+
+    /**
+     * @param methods the names and/or signatures of the methods that may be invoked more than once, cannot be
+     *        <code>null</code>.
+     */
+    public void setIdempotentMethods(Set<String> methods) {
+        m_idempotentMethods = methods;
+    }
+
+    /**
+     * Stops the threads used for hedged invocations, if any.
+     */
+    public synchronized void close() {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+    }
+
+    /**
+     * @return the signature of the given method, see {@link ServiceUtil#getMethodSignature(Method)}.
+     */
+    private String getSignature(Method method) {
+        String signature = m_signatures.get(method);
+        if (signature == null) {
+            signature = ServiceUtil.getMethodSignature(method);
+            m_signatures.put(method, signature);
+        }
+        return signature;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (m_executor == null) {
+            m_executor = AsyncUtil.createExecutor("Amdatu load balancer", HEDGING_THREADS);
+        }
+        return m_executor;
+    }
+
+    @Override
+    public Object getService(Bundle bundle, ServiceRegistration<Object> registration) {
+        Class<?>[] interfaceClasses = new Class<?>[m_interfaceNames.length];
+        for (int i = 0; i < interfaceClasses.length; i++) {
+            try {
+                interfaceClasses[i] = bundle.loadClass(m_interfaceNames[i]);
+            }
+            catch (ClassNotFoundException e) {
+                return null;
+            }
+        }
+        LoadBalancedInvocationHandler handler = new LoadBalancedInvocationHandler(bundle.getBundleContext());
+        m_handlers.put(bundle, handler);
+        return Proxy.newProxyInstance(getClass().getClassLoader(), interfaceClasses, handler);
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service) {
+        LoadBalancedInvocationHandler handler = m_handlers.remove(bundle);
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the given exception signals that the invocation did not reach the member.
+     */
+    static boolean isRemoteFailure(Throwable exception) {
+        Throwable cause = exception;
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ServiceException && ((ServiceException) cause).getType() == ServiceException.REMOTE;
+    }
+
+    /**
+     * Invokes the member selected by the load balancer for each invocation on the proxy of a consuming bundle.
+     */
+    private final class LoadBalancedInvocationHandler implements InvocationHandler {
+
+        private final BundleContext m_context;
+        private final Map<ServiceReference<?>, Object> m_services =
+            new ConcurrentHashMap<ServiceReference<?>, Object>();
+
+        public LoadBalancedInvocationHandler(BundleContext context) {
+            m_context = context;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                String methodName = method.getName();
+                if ("equals".equals(methodName)) {
+                    return proxy == args[0];
+                }
+                else if ("hashCode".equals(methodName)) {
+                    return System.identityHashCode(proxy);
+                }
+                return "LoadBalanced" + Arrays.toString(m_interfaceNames);
+            }
+
+            String signature = getSignature(method);
+            long delay = getHedgingDelay(method, signature);
+            if (delay >= 0) {
+                return invokeHedged(method, signature, args, delay);
+            }
+            return invokeMember(m_loadBalancer.select(), method, signature, args);
+        }
+
+        /**
+         * @return the time in nanoseconds after which an invocation of the given method is to be hedged, or
+         *         <code>-1</code> if it is not to be hedged.
+         */
+        private long getHedgingDelay(Method method, String signature) {
+            int percentile = m_hedgingPercentile;
+            if (percentile <= 0 || m_loadBalancer.getMembers().size() < 2 || AsyncUtil.isAsync(method)
+                || !isIdempotent(method, signature)) {
+                return -1;
+            }
+            return m_loadBalancer.getLatencyPercentile(signature, percentile);
+        }
+
+        /**
+         * @return <code>true</code> if either the name or the signature of the given method is declared idempotent,
+         *         <code>false</code> otherwise.
+         */
+        private boolean isIdempotent(Method method, String signature) {
+            Set<String> idempotentMethods = m_idempotentMethods;
+            return idempotentMethods.contains(method.getName()) || idempotentMethods.contains(signature);
+        }
+
+        /**
+         * Invokes the selected member and, if it does not respond within the given delay, another member as well,
+         * returning the outcome of the first member to respond. Should that member fail to respond at all, the
+         * outcome of the other one is awaited instead.
+         */
+        private Object invokeHedged(Method method, String signature, Object[] args, long delay) throws Throwable {
+            CompletionService<Object> completion = new ExecutorCompletionService<Object>(getExecutor());
+            List<Future<Object>> attempts = new ArrayList<Future<Object>>(2);
+            Member<ServiceReference<?>> primary = m_loadBalancer.select();
+            try {
+                attempts.add(completion.submit(createAttempt(primary, method, signature, args)));
+                Future<Object> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    Member<ServiceReference<?>> hedge = m_loadBalancer.select(primary);
+                    if (hedge != null) {
+                        attempts.add(completion.submit(createAttempt(hedge, method, signature, args)));
+                    }
+                    done = completion.take();
+                }
+                int pending = attempts.size() - 1;
+                while (true) {
+                    try {
+                        return done.get();
+                    }
+                    catch (ExecutionException e) {
+                        if (pending == 0 || !isRemoteFailure(e.getCause())) {
+                            throw e.getCause();
+                        }
+                        pending--;
+                        done = completion.take();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Remote service invocation interrupted", ServiceException.REMOTE, e);
+            }
+            finally {
+                // Cancel the loser without interrupting it, as an interrupt would fail its connection (and, over TCP,
+                // close the connection shared with other invocations) and count as a failure of its member...
+                for (Future<Object> attempt : attempts) {
+                    attempt.cancel(false);
+                }
+            }
+        }
+
+        private Callable<Object> createAttempt(final Member<ServiceReference<?>> member, final Method method,
+            final String signature, final Object[] args) {
+            return new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return invokeMember(member, method, signature, args);
+                    }
+                    catch (Exception e) {
+                        throw e;
+                    }
+                    catch (Error e) {
+                        throw e;
+                    }
+                    catch (Throwable e) {
+                        throw new UndeclaredThrowableException(e);
+                    }
+                }
+            };
+        }
+
+        private Object invokeMember(final Member<ServiceReference<?>> member, Method method,
+            final String signature, Object[] args) throws Throwable {
+            Object service = (member == null) ? null : getService(member.getKey());
+            if (service == null) {
+                throw new ServiceException("No remote endpoint available for " + Arrays.toString(m_interfaceNames),
+                    ServiceException.UNREGISTERED);
+            }
+
+            final long start = member.started();
+            boolean async = false;
+            boolean failed = false;
+            try {
+                Object result = method.invoke(service, args);
+                if (result instanceof CompletionStage) {
+                    // Asynchronous invocations are only complete once their result is...
+                    ((CompletionStage<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+                        @Override
+                        public void accept(Object value, Throwable exception) {
+                            m_loadBalancer.completed(member, start, exception != null && isRemoteFailure(exception),
+                                signature);
+                        }
+                    });
+                    async = true;
+                }
+                return result;
+            }
+            catch (InvocationTargetException e) {
+                failed = isRemoteFailure(e.getCause());
+                throw e.getCause();
+            }
+            finally {
+                if (!async) {
+                    m_loadBalancer.completed(member, start, failed, signature);
+                }
+            }
+        }
+
+        /**
+         * Releases the service of the given member, if obtained.
+         */
+        public synchronized void release(ServiceReference<?> reference) {
+            if (m_services.remove(reference) != null) {
+                ungetService(reference);
+            }
+        }
+
+        /**
+         * Releases the services of all members.
+         */
+        public void close() {
+            for (ServiceReference<?> reference : m_services.keySet()) {
+                release(reference);
+            }
+        }
+
+        private Object getService(ServiceReference<?> reference) {
+            Object service = m_services.get(reference);
+            if (service != null) {
+                return service;
+            }
+            synchronized (this) {
+                service = m_services.get(reference);
+                if (service == null) {
+                    service = m_context.getService(reference);
+                    if (service != null) {
+                        m_services.put(reference, service);
+                    }
+                }
+                return service;
+            }
+        }
+
+        private void ungetService(ServiceReference<?> reference) {
+            try {
+                m_context.ungetService(reference);
+            }
+            catch (Exception e) {
+                // ignore... the context might no longer be valid
+            }
+        }
+    }
+}
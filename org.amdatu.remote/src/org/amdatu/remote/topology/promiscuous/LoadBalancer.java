@@ -0,0 +1,298 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.topology.promiscuous;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.amdatu.remote.LatencyHistogram;
+
+/**
+ * Spreads invocations over a changing set of members according to a {@link LoadBalancingStrategy}.
+ * <p>
+ * Members can be added and removed at any time, selection works on an immutable snapshot of the members and does not
+ * lock. The statistics the strategies base their selection on are kept per member in atomic variables.
+ *
+ * @param <T> the type of the keys identifying the members.
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+final class LoadBalancer<T> {
+
+    /**
+     * A member of a load balancer along with its statistics.
+     */
+    static final class Member<T> {
+
+        private final T m_key;
+        private final AtomicInteger m_outstanding = new AtomicInteger();
+        private final AtomicLong m_latency = new AtomicLong();
+
+        Member(T key) {
+            m_key = key;
+        }
+
+        /**
+         * @return the key identifying this member, never <code>null</code>.
+         */
+        public T getKey() {
+            return m_key;
+        }
+
+        /**
+         * @return the number of invocations in progress.
+         */
+        public int getOutstanding() {
+            return m_outstanding.get();
+        }
+
+        /**
+         * @return the moving average latency of the invocations in nanoseconds, or <code>0</code> if none completed.
+         */
+        public long getLatency() {
+            return m_latency.get();
+        }
+
+        /**
+         * Records the start of an invocation.
+         *
+         * @return the start time to pass to {@link #completed(long, boolean)}.
+         */
+        public long started() {
+            m_outstanding.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Records the completion of an invocation.
+         *
+         * @param start the start time as returned by {@link #started()};
+         * @param failed <code>true</code> if the invocation failed to reach the member, in which case it counts as a
+         *        slow one.
+         * @return the latency of the invocation in nanoseconds.
+         */
+        public long completed(long start, boolean failed) {
+            m_outstanding.decrementAndGet();
+            long elapsed = System.nanoTime() - start;
+            long sample = failed ? Math.max(elapsed, FAILURE_PENALTY) : elapsed;
+            long latency;
+            long update;
+            do {
+                latency = m_latency.get();
+                update = (latency == 0) ? Math.max(1, sample) : latency + (sample - latency) / EWMA_WEIGHT;
+            }
+            while (!m_latency.compareAndSet(latency, update));
+            return elapsed;
+        }
+    }
+
+    /** The weight of the moving average, each sample counts for one fifth. */
+    private static final int EWMA_WEIGHT = 5;
+    /** The latency recorded for a failed invocation, so failing members are avoided. */
+    private static final long FAILURE_PENALTY = TimeUnit.SECONDS.toNanos(1);
+    /** The number of latencies after which the latency percentiles are determined anew. */
+    private static final int LATENCY_WINDOW = 1000;
+    /** The minimum number of latencies to determine latency percentiles from. */
+    private static final int LATENCY_MINIMUM = 20;
+
+    private final LoadBalancingStrategy m_strategy;
+    private final AtomicInteger m_sequence = new AtomicInteger();
+    private final ConcurrentHashMap<String, Latencies> m_latencies = new ConcurrentHashMap<String, Latencies>();
+
+    private volatile List<Member<T>> m_members = Collections.emptyList();
+
+    /**
+     * @param strategy the strategy to select members with, cannot be <code>null</code>.
+     */
+    public LoadBalancer(LoadBalancingStrategy strategy) {
+        m_strategy = strategy;
+    }
+
+    /**
+     * @return the strategy used to select members, never <code>null</code>.
+     */
+    public LoadBalancingStrategy getStrategy() {
+        return m_strategy;
+    }
+
+    /**
+     * @param key the key of the member to add, cannot be <code>null</code>.
+     * @return <code>true</code> if the member was added, <code>false</code> if it already was a member.
+     */
+    public synchronized boolean addMember(T key) {
+        if (getMember(key) != null) {
+            return false;
+        }
+        List<Member<T>> members = new ArrayList<Member<T>>(m_members);
+        members.add(new Member<T>(key));
+        m_members = Collections.unmodifiableList(members);
+        return true;
+    }
+
+    /**
+     * @param key the key of the member to remove, cannot be <code>null</code>.
+     * @return <code>true</code> if the member was removed, <code>false</code> if it was no member.
+     */
+    public synchronized boolean removeMember(T key) {
+        Member<T> member = getMember(key);
+        if (member == null) {
+            return false;
+        }
+        List<Member<T>> members = new ArrayList<Member<T>>(m_members);
+        members.remove(member);
+        m_members = Collections.unmodifiableList(members);
+        return true;
+    }
+
+    /**
+     * @param key the key of the member to return, cannot be <code>null</code>.
+     * @return the member with the given key, or <code>null</code> if there is no such member.
+     */
+    public Member<T> getMember(T key) {
+        for (Member<T> member : m_members) {
+            if (member.m_key.equals(key)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the current members, never <code>null</code>.
+     */
+    public List<Member<T>> getMembers() {
+        return m_members;
+    }
+
+    /**
+     * Selects the member to invoke next.
+     *
+     * @return the selected member, or <code>null</code> if there are no members.
+     */
+    public Member<T> select() {
+        return select(null);
+    }
+
+    /**
+     * Selects the member to invoke next, other than the given one.
+     *
+     * @param exclude the member not to select, can be <code>null</code>.
+     * @return the selected member, or <code>null</code> if there are no other members.
+     */
+    public Member<T> select(Member<T> exclude) {
+        List<Member<T>> members = m_members;
+        int size = members.size();
+        if (size == 0) {
+            return null;
+        }
+        // Start each scan at the next member in turn, so ties are not always won by the same member...
+        int start = (m_sequence.getAndIncrement() & Integer.MAX_VALUE) % size;
+        Member<T> selected = null;
+        long selectedScore = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Member<T> member = members.get((start + i) % size);
+            if (member == exclude) {
+                continue;
+            }
+            if (m_strategy == LoadBalancingStrategy.ROUND_ROBIN) {
+                return member;
+            }
+            long score = score(member);
+            if (selected == null || score < selectedScore) {
+                selected = member;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Records the completion of an invocation of the given member.
+     *
+     * @param member the invoked member, cannot be <code>null</code>;
+     * @param start the start time as returned by {@link Member#started()};
+     * @param failed <code>true</code> if the invocation failed to reach the member;
+     * @param method the signature of the invoked method, cannot be <code>null</code>.
+     * @see Member#completed(long, boolean)
+     */
+    public void completed(Member<T> member, long start, boolean failed, String method) {
+        long latency = member.completed(start, failed);
+        if (failed) {
+            return;
+        }
+        Latencies latencies = m_latencies.get(method);
+        if (latencies == null) {
+            latencies = new Latencies();
+            Latencies previous = m_latencies.putIfAbsent(method, latencies);
+            if (previous != null) {
+                latencies = previous;
+            }
+        }
+        latencies.record(latency);
+    }
+
+    /**
+     * Returns the latency at the given percentile of the recently completed invocations of the given method by all
+     * members. Methods are tracked separately, as their latencies can differ by orders of magnitude.
+     *
+     * @param method the signature of the method, cannot be <code>null</code>;
+     * @param percentile the percentile, between <code>0</code> and <code>100</code>.
+     * @return the latency in nanoseconds, or <code>-1</code> if too few invocations completed to tell.
+     */
+    public long getLatencyPercentile(String method, double percentile) {
+        Latencies latencies = m_latencies.get(method);
+        return (latencies != null) ? latencies.getValueAtPercentile(percentile) : -1;
+    }
+
+    private long score(Member<T> member) {
+        if (m_strategy == LoadBalancingStrategy.LEAST_OUTSTANDING) {
+            return member.getOutstanding();
+        }
+        // Members without completed invocations score best, so they get measured...
+        return member.getLatency() * (member.getOutstanding() + 1);
+    }
+
+    /**
+     * The latencies of the recently completed invocations of a single method.
+     */
+    private static final class Latencies {
+        private final AtomicReference<LatencyHistogram> m_current =
+            new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+        private volatile LatencyHistogram m_previous;
+
+        void record(long latency) {
+            LatencyHistogram current = m_current.get();
+            current.record(latency);
+            if (current.getCount() >= LATENCY_WINDOW && m_current.compareAndSet(current, new LatencyHistogram())) {
+                m_previous = current;
+            }
+        }
+
+        long getValueAtPercentile(double percentile) {
+            LatencyHistogram latencies = m_current.get();
+            if (latencies.getCount() < LATENCY_MINIMUM) {
+                latencies = m_previous;
+                if (latencies == null) {
+                    return -1;
+                }
+            }
+            return latencies.getValueAtPercentile(percentile);
+        }
+    }
+}
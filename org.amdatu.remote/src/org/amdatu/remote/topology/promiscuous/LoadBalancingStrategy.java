@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.topology.promiscuous;
+
+/**
+ * The strategies a {@link LoadBalancer} can use to spread invocations over its members.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public enum LoadBalancingStrategy {
+    /**
+     * Selects the members in turn.
+     */
+    ROUND_ROBIN("roundrobin"),
+    /**
+     * Selects the member with the least invocations in progress.
+     */
+    LEAST_OUTSTANDING("leastoutstanding"),
+    /**
+     * Selects the member with the lowest exponentially weighted moving average latency, weighed by the number of
+     * invocations in progress.
+     */
+    LATENCY_WEIGHTED("ewma");
+
+    private final String m_name;
+
+    private LoadBalancingStrategy(String name) {
+        m_name = name;
+    }
+
+    /**
+     * @return the name of this strategy as used in configuration, never <code>null</code>.
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * @param name the name of the strategy as used in configuration, can be <code>null</code>.
+     * @return the strategy with the given name, or <code>null</code> if there is no such strategy.
+     */
+    public static LoadBalancingStrategy fromName(String name) {
+        for (LoadBalancingStrategy strategy : values()) {
+            if (strategy.m_name.equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        return null;
+    }
+}
@@ -13,26 +13,35 @@
  */
 package org.amdatu.remote.topology.promiscuous;
 
+import static org.amdatu.remote.ServiceUtil.getStringPlusValue;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.ENDPOINT_FRAMEWORK_UUID;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_EXPORTED_INTERFACES;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.EXPORT_ERROR;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.EXPORT_UNREGISTRATION;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_ERROR;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.IMPORT_UNREGISTRATION;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.amdatu.remote.AbstractEndpointPublishingComponent;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
@@ -52,6 +61,13 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
  * any discovered remote endpoint and export any locally available exportable service that matches the whitelist
  * filters. These can be extended through configuration under {@link #SERVICE_PID} using properties {@link #IMPORTS_FILTER} and {@link #EXPORTS_FILTER}.<p>
  * 
+ * If a {@link LoadBalancingStrategy} is configured using property {@link #LOAD_BALANCING}, the imported services of
+ * all endpoints exporting the same interfaces are aggregated in a single, highest ranked, service that spreads the
+ * invocations over them. Its members follow the imports as endpoints are discovered or removed. If a percentile is
+ * configured using property {@link #HEDGING}, invocations of the methods listed by the exporter in service property
+ * {@link #IDEMPOTENT_METHODS} are hedged by invoking a second endpoint once the first takes longer than that
+ * percentile of the recent latencies.<p>
+ * 
  * imports filter: {@code (&(!(endpoint.framework.uuid=<local framework uuid>))(<configured imports filter>))} <br>
  * exports filter: {@code (&(service.exported.interfaces=*)(<configured exports filter>))}<p>
  * 
@@ -64,6 +80,14 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
     public final static String SERVICE_PID = "org.amdatu.remote.topology.promiscuous";
     public final static String IMPORTS_FILTER = SERVICE_PID + ".imports";
     public final static String EXPORTS_FILTER = SERVICE_PID + ".exports";
+    public final static String LOAD_BALANCING = SERVICE_PID + ".loadbalancing";
+    public final static String HEDGING = SERVICE_PID + ".hedging";
+
+    /** Service property marking an aggregated service, its value is the name of the load balancing strategy. */
+    public final static String LOAD_BALANCED = "org.amdatu.remote.loadbalanced";
+
+    /** Service property listing the names or signatures of exported methods that may be invoked more than once. */
+    public final static String IDEMPOTENT_METHODS = "org.amdatu.remote.idempotent";
 
     private static class ExportRecord {
 
@@ -95,6 +119,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
                 this.reference = this.registration.getImportReference();
                 if (this.reference != null) {
                     this.endpoint = this.reference.getImportedEndpoint();
+                    this.service = this.reference.getImportedService();
                 }
             }
         }
@@ -102,9 +127,22 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
         ImportRegistration registration;
         ImportReference reference;
         EndpointDescription endpoint;
+        ServiceReference<?> service;
         Throwable exception;
     }
 
+    private static class LoadBalancedRecord {
+
+        public LoadBalancedRecord(LoadBalancedServiceFactory factory) {
+
+            this.factory = factory;
+        }
+
+        LoadBalancedServiceFactory factory;
+        ServiceRegistration<?> registration;
+        final Map<ServiceReference<?>, Set<String>> idempotentMethods = new HashMap<ServiceReference<?>, Set<String>>();
+    }
+
     private final Set<ServiceReference<?>> m_exportableServices = new HashSet<ServiceReference<?>>();
     private final Map<ServiceReference<?>, Map<RemoteServiceAdmin, Set<ExportRecord>>> m_exportedServices =
         new HashMap<ServiceReference<?>, Map<RemoteServiceAdmin, Set<ExportRecord>>>();
@@ -113,10 +151,14 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
     private final Map<EndpointDescription, Map<RemoteServiceAdmin, Set<ImportRecord>>> m_importedServices =
         new HashMap<EndpointDescription, Map<RemoteServiceAdmin, Set<ImportRecord>>>();
 
+    private final Map<String, LoadBalancedRecord> m_loadBalancedServices = new HashMap<String, LoadBalancedRecord>();
+
     private final List<RemoteServiceAdmin> m_remoteServiceAdmins = new ArrayList<RemoteServiceAdmin>();
 
     private volatile Filter m_exportsFilter = null;
     private volatile Filter m_importsFilter = null;
+    private volatile LoadBalancingStrategy m_loadBalancing = null;
+    private volatile int m_hedging = 0;
 
     public PromiscuousTopologyManager() {
         super("topology", "promiscuous");
@@ -127,6 +169,8 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
 
         String imports = String.format("(!(%s=%s))", ENDPOINT_FRAMEWORK_UUID, getFrameworkUUID());
         String exports = String.format("(%s=%s)", SERVICE_EXPORTED_INTERFACES, "*");
+        LoadBalancingStrategy strategy = null;
+        int percentile = 0;
 
         if (configuration != null) {
             Object importsFilter = configuration.get(IMPORTS_FILTER);
@@ -138,7 +182,30 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
             if (exportsFilter != null && !"".equals(exportsFilter.toString().trim())) {
                 exports = String.format("(&%s%s)", exports, exportsFilter);
             }
+
+            Object loadBalancing = configuration.get(LOAD_BALANCING);
+            if (loadBalancing != null && !"".equals(loadBalancing.toString().trim())) {
+                strategy = LoadBalancingStrategy.fromName(loadBalancing.toString().trim());
+                if (strategy == null) {
+                    throw new ConfigurationException(LOAD_BALANCING, "Unknown load balancing strategy!");
+                }
+            }
+
+            Object hedging = configuration.get(HEDGING);
+            if (hedging != null && !"".equals(hedging.toString().trim())) {
+                try {
+                    percentile = Integer.parseInt(hedging.toString().trim());
+                }
+                catch (NumberFormatException e) {
+                    percentile = -1;
+                }
+                if (percentile < 0 || percentile >= 100) {
+                    throw new ConfigurationException(HEDGING, "Invalid percentile!");
+                }
+            }
         }
+        final LoadBalancingStrategy loadBalancing = strategy;
+        final int hedging = percentile;
 
         final Filter exportsFilter;
         try {
@@ -190,6 +257,39 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
                         }
                     }
                 }
+
+                if (m_hedging != hedging) {
+                    m_hedging = hedging;
+                    logInfo("Configured hedging updated: %s", hedging);
+
+                    for (LoadBalancedRecord loadBalanced : m_loadBalancedServices.values()) {
+                        loadBalanced.factory.setHedgingPercentile(hedging);
+                    }
+                }
+
+                if (m_loadBalancing != loadBalancing) {
+                    m_loadBalancing = loadBalancing;
+                    logInfo("Configured load balancing updated: %s", loadBalancing);
+
+                    removeLoadBalancedServices();
+                    for (Map<RemoteServiceAdmin, Set<ImportRecord>> adminRecords : m_importedServices.values()) {
+                        for (Set<ImportRecord> records : adminRecords.values()) {
+                            for (ImportRecord record : records) {
+                                addLoadBalancedMember(record);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void stopComponent() throws Exception {
+        executeTask(new Runnable() {
+            @Override
+            public void run() {
+                removeLoadBalancedServices();
             }
         });
     }
@@ -375,6 +475,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
             ImportRecord record = importService(admin, endpoint);
             if (record != null) {
                 records.add(record);
+                addLoadBalancedMember(record);
             }
         }
     }
@@ -388,6 +489,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
             ImportRecord record = importService(admin, endpoint);
             if (record != null) {
                 records.add(record);
+                addLoadBalancedMember(record);
             }
         }
     }
@@ -405,6 +507,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
                 ImportRecord record = importService(admin, endpoint);
                 if (record != null) {
                     records.add(record);
+                    addLoadBalancedMember(record);
                 }
             }
             else {
@@ -448,6 +551,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
         Map<RemoteServiceAdmin, Set<ImportRecord>> adminRecords = m_importedServices.remove(endpoint);
         for (Set<ImportRecord> records : adminRecords.values()) {
             for (ImportRecord record : records) {
+                removeLoadBalancedMember(record);
                 record.registration.close();
             }
         }
@@ -458,6 +562,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
             assert adminRecords.containsKey(admin);
             Set<ImportRecord> records = adminRecords.remove(admin);
             for (ImportRecord record : records) {
+                removeLoadBalancedMember(record);
                 record.registration.close();
             }
         }
@@ -475,6 +580,7 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
                 }
                 if (removal != null) {
                     records.remove(removal);
+                    removeLoadBalancedMember(removal);
                     removal.registration.close();
                     if (removal.registration.getException() == null && removal.endpoint != null) {
                         endpointRemoved(removal.endpoint);
@@ -485,6 +591,102 @@ public final class PromiscuousTopologyManager extends AbstractEndpointPublishing
         }
     }
 
+    /*
+     * Load balancing
+     */
+
+    private void addLoadBalancedMember(final ImportRecord record) {
+        LoadBalancingStrategy strategy = m_loadBalancing;
+        if (strategy == null || record.service == null || record.endpoint == null) {
+            return;
+        }
+        String[] interfaceNames = record.endpoint.getInterfaces().toArray(new String[0]);
+        Arrays.sort(interfaceNames);
+        String key = Arrays.toString(interfaceNames);
+
+        LoadBalancedRecord loadBalanced = m_loadBalancedServices.get(key);
+        if (loadBalanced == null) {
+            loadBalanced = new LoadBalancedRecord(new LoadBalancedServiceFactory(interfaceNames, strategy));
+            loadBalanced.factory.setHedgingPercentile(m_hedging);
+            m_loadBalancedServices.put(key, loadBalanced);
+        }
+        loadBalanced.idempotentMethods.put(record.service, new HashSet<String>(
+            Arrays.asList(getStringPlusValue(record.endpoint.getProperties().get(IDEMPOTENT_METHODS)))));
+        updateIdempotentMethods(loadBalanced);
+        loadBalanced.factory.addMember(record.service);
+        if (loadBalanced.registration == null) {
+            Dictionary<String, Object> properties = new Hashtable<String, Object>();
+            properties.put(Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+            properties.put(SERVICE_IMPORTED, Boolean.TRUE.toString());
+            properties.put(LOAD_BALANCED, strategy.getName());
+            try {
+                loadBalanced.registration =
+                    getBundleContext().registerService(interfaceNames, loadBalanced.factory, properties);
+                logInfo("Load balanced service registered for: %s", key);
+            }
+            catch (Exception e) {
+                logWarning("Failed to register load balanced service for: %s", e, key);
+            }
+        }
+    }
+
+    private void removeLoadBalancedMember(final ImportRecord record) {
+        if (record.service == null) {
+            return;
+        }
+        Iterator<Entry<String, LoadBalancedRecord>> iter = m_loadBalancedServices.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, LoadBalancedRecord> entry = iter.next();
+            LoadBalancedRecord loadBalanced = entry.getValue();
+            if (loadBalanced.factory.removeMember(record.service)) {
+                loadBalanced.idempotentMethods.remove(record.service);
+                if (loadBalanced.factory.isEmpty()) {
+                    iter.remove();
+                    unregisterLoadBalancedService(entry.getKey(), loadBalanced);
+                }
+                else {
+                    updateIdempotentMethods(loadBalanced);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only the methods that all members declare idempotent may be hedged, as a hedged invocation can reach any member.
+     */
+    private static void updateIdempotentMethods(final LoadBalancedRecord loadBalanced) {
+        Set<String> methods = null;
+        for (Set<String> memberMethods : loadBalanced.idempotentMethods.values()) {
+            if (methods == null) {
+                methods = new HashSet<String>(memberMethods);
+            }
+            else {
+                methods.retainAll(memberMethods);
+            }
+        }
+        loadBalanced.factory.setIdempotentMethods(methods != null ? methods : Collections.<String> emptySet());
+    }
+
+    private void removeLoadBalancedServices() {
+        for (Entry<String, LoadBalancedRecord> entry : m_loadBalancedServices.entrySet()) {
+            unregisterLoadBalancedService(entry.getKey(), entry.getValue());
+        }
+        m_loadBalancedServices.clear();
+    }
+
+    private void unregisterLoadBalancedService(final String key, final LoadBalancedRecord loadBalanced) {
+        loadBalanced.factory.close();
+        if (loadBalanced.registration != null) {
+            try {
+                loadBalanced.registration.unregister();
+                logInfo("Load balanced service unregistered for: %s", key);
+            }
+            catch (Exception e) {
+                // ignore... the registration might already be gone
+            }
+        }
+    }
+
     /*
      * Exports
      */
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.amdatu.remote.CircuitBreaker.State;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link CircuitBreaker}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class CircuitBreakerTest extends TestCase {
+
+    public void testStaysClosedBelowThresholdOk() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(50, 5, 10000, 1000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.allowInvocation());
+            assertNull((i % 3 == 0) ? breaker.onFailure() : breaker.onSuccess());
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(40, breaker.getFailureRate());
+    }
+
+    public void testStaysClosedBelowMinimumCallsOk() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(50, 5, 10000, 1000);
+        for (int i = 0; i < 4; i++) {
+            assertNull(breaker.onFailure());
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowInvocation());
+    }
+
+    public void testNeverOpensWithoutThresholdOk() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0, 1, 10000, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertNull(breaker.onFailure());
+        }
+        assertTrue(breaker.allowInvocation());
+    }
+
+    public void testOpensAndFailsFastOk() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(50, 5, 10000, 60000);
+        for (int i = 0; i < 4; i++) {
+            assertNull(breaker.onFailure());
+        }
+        assertEquals(State.OPEN, breaker.onFailure());
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowInvocation());
+        assertFalse(breaker.allowInvocation());
+    }
+
+    public void testHalfOpenProbeClosesOk() throws Exception {
+        CircuitBreaker breaker = openedBreaker(50);
+        Thread.sleep(100);
+
+        assertTrue(breaker.allowInvocation());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // Only a single probe is let through...
+        assertFalse(breaker.allowInvocation());
+
+        assertEquals(State.CLOSED, breaker.onSuccess());
+        assertEquals(0, breaker.getFailureRate());
+        assertTrue(breaker.allowInvocation());
+    }
+
+    public void testHalfOpenProbeReopensOk() throws Exception {
+        CircuitBreaker breaker = openedBreaker(50);
+        Thread.sleep(100);
+
+        assertTrue(breaker.allowInvocation());
+        assertEquals(State.OPEN, breaker.onFailure());
+        assertFalse(breaker.allowInvocation());
+    }
+
+    public void testIgnoredProbeLetsNextProbeThroughOk() throws Exception {
+        CircuitBreaker breaker = openedBreaker(60000);
+        breaker.onIgnored();
+        assertFalse(breaker.allowInvocation());
+
+        breaker = openedBreaker(50);
+        Thread.sleep(100);
+        assertTrue(breaker.allowInvocation());
+        assertFalse(breaker.allowInvocation());
+
+        // The probe tells nothing, so neither closes nor reopens the circuit...
+        breaker.onIgnored();
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowInvocation());
+        assertFalse(breaker.allowInvocation());
+        assertEquals(State.CLOSED, breaker.onSuccess());
+    }
+
+    public void testSingleConcurrentProbeOk() throws Exception {
+        final CircuitBreaker breaker = openedBreaker(50);
+        Thread.sleep(100);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger allowed = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (breaker.allowInvocation()) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, allowed.get());
+    }
+
+    private static CircuitBreaker openedBreaker(long openTime) {
+        CircuitBreaker breaker = new CircuitBreaker(50, 1, 10000, openTime);
+        assertEquals(State.OPEN, breaker.onFailure());
+        return breaker;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link LatencyHistogram}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testEmptyOk() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(95));
+    }
+
+    public void testSmallValuesExactOk() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(10, histogram.getMax());
+        assertEquals(5, histogram.getMean());
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+    }
+
+    public void testPercentilesWithinPrecisionOk() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertWithinPrecision(500000000L, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(950000000L, histogram.getValueAtPercentile(95));
+        assertWithinPrecision(990000000L, histogram.getValueAtPercentile(99));
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+        assertEquals(1000000000L, histogram.getMax());
+    }
+
+    public void testExtremeValuesOk() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but got " + actual,
+            actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link MethodInvoker}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class MethodInvokerTest extends TestCase {
+
+    public void testInvokeResultOk() throws Exception {
+        MethodInvoker invoker = createInvoker("add", int.class, int.class);
+        assertEquals(Integer.valueOf(5), invoker.invoke(new CalculatorImpl(), new Object[] { 2, 3 }));
+    }
+
+    public void testInvokeVoidOk() throws Exception {
+        CalculatorImpl calculator = new CalculatorImpl();
+        MethodInvoker invoker = createInvoker("reset");
+        assertNull(invoker.invoke(calculator, null));
+        assertTrue(calculator.m_reset);
+    }
+
+    public void testInvokeExceptionWrappedOk() throws Exception {
+        MethodInvoker invoker = createInvoker("divide", int.class, int.class);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] { 1, 0 });
+            fail("InvocationTargetException expected");
+        }
+        catch (InvocationTargetException e) {
+            assertTrue(e.getTargetException() instanceof ArithmeticException);
+        }
+    }
+
+    public void testInvokeWrongArgumentCountFail() throws Exception {
+        MethodInvoker invoker = createInvoker("add", int.class, int.class);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] { 1 });
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvokeNullPrimitiveArgumentFail() throws Exception {
+        MethodInvoker invoker = createInvoker("add", int.class, int.class);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] { 1, null });
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvokeArgumentTypeMismatchFail() throws Exception {
+        MethodInvoker invoker = createInvoker("add", int.class, int.class);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] { 1, "2" });
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvokeWideningArgumentOk() throws Exception {
+        MethodInvoker invoker = createInvoker("add", int.class, int.class);
+        assertEquals(Integer.valueOf(5), invoker.invoke(new CalculatorImpl(), new Object[] { (short) 2, (byte) 3 }));
+    }
+
+    public void testInvokeTargetTypeMismatchFail() throws Exception {
+        MethodInvoker invoker = createInvoker("reset");
+        try {
+            invoker.invoke(new Object(), null);
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvokeClassCastExceptionWrappedOk() throws Exception {
+        MethodInvoker invoker = createInvoker("cast", Object.class);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] { "1" });
+            fail("InvocationTargetException expected");
+        }
+        catch (InvocationTargetException e) {
+            assertTrue(e.getTargetException() instanceof ClassCastException);
+        }
+    }
+
+    private static MethodInvoker createInvoker(String name, Class<?>... parameterTypes) throws Exception {
+        Method method = Calculator.class.getMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return new MethodInvoker(method);
+    }
+
+    public interface Calculator {
+        int add(int a, int b);
+
+        int divide(int a, int b);
+
+        void reset();
+
+        int cast(Object value);
+    }
+
+    /**
+     * Deliberately non-public, like many service implementations are.
+     */
+    static class CalculatorImpl implements Calculator {
+        boolean m_reset;
+
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public int divide(int a, int b) {
+            return a / b;
+        }
+
+        @Override
+        public void reset() {
+            m_reset = true;
+        }
+
+        @Override
+        public int cast(Object value) {
+            return (Integer) value;
+        }
+    }
+}
@@ -13,16 +13,41 @@
  */
 package org.amdatu.remote.admin.http;
 
+import static java.net.HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.amdatu.remote.CircuitBreaker;
+import org.amdatu.remote.admin.http.TestUtil.AsyncService;
 import org.amdatu.remote.admin.http.TestUtil.BoundType;
 import org.amdatu.remote.admin.http.TestUtil.GenericType;
 import org.amdatu.remote.admin.http.TestUtil.ServiceA;
+import org.amdatu.remote.metrics.EndpointMetrics;
+import org.amdatu.remote.metrics.MethodMetrics;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Test cases for {@link HttpClientEndpoint}.
@@ -31,6 +56,458 @@ import org.osgi.framework.ServiceException;
  */
 public class HttpClientEndpointTest extends HttpJsonEndpointTestBase {
 
+    /**
+     * Tests that methods returning a future are invoked asynchronously and their result is unmarshalled using the
+     * type parameter of the future.
+     */
+    public void testAsyncInvocationOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, AsyncService.class);
+
+        AsyncService proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 4}"));
+
+        CompletableFuture<Integer> result1 = proxy.doubleIt(2);
+        assertEquals(Integer.valueOf(4), result1.get(1, TimeUnit.SECONDS));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : \"foo\"}"));
+
+        assertEquals("foo", proxy.echo("foo").toCompletableFuture().get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that if a remote service throws an exception for an asynchronous method, the future completes
+     * exceptionally.
+     */
+    public void testAsyncInvocationExceptionOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, AsyncService.class);
+
+        AsyncService proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK,
+            "{ \"e\" : {\"type\":\"java.lang.IllegalArgumentException\",\"msg\":\"Invalid value!\",\"stacktrace\":[]}}"));
+
+        try {
+            proxy.doubleIt(0).get(1, TimeUnit.SECONDS);
+            fail("ExecutionException expected!");
+        }
+        catch (ExecutionException e) {
+            // Ok; expected...
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals("Invalid value!", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Tests that with a batching window configured, invocations are sent as batch and their outcome is correctly
+     * unmarshalled by the client.
+     */
+    public void testBatchedInvocationOk() throws Exception {
+        m_batchWindow = 1;
+
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "[{ \"r\" : 4}]"));
+
+        assertEquals(4, proxy.doubleIt(2));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "[{ \"s\" : 404}]"));
+
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+    }
+
+    /**
+     * Tests that an invocation waiting for a batch sent by another invocation gives up once its deadline passed,
+     * even if the batch is still in flight.
+     */
+    public void testBatchedInvocationTimesOut() throws Exception {
+        m_batchWindow = 100;
+
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        endpoint.setDeadlines(Collections.singletonMap("tripeIt", 200L));
+        final ServiceA proxy = endpoint.getServiceProxy();
+
+        final CountDownLatch responded = new CountDownLatch(1);
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "[{ \"r\" : 4}, { \"r\" : 3}]") {
+            @Override
+            public int getResponseCode() throws IOException {
+                try {
+                    responded.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getResponseCode();
+            }
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Opens the batch and sends it, stalling on the response...
+            Future<Integer> first = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return proxy.doubleIt(2);
+                }
+            });
+            Thread.sleep(20);
+
+            long start = System.nanoTime();
+            try {
+                proxy.tripeIt(1);
+                fail("ServiceException expected!");
+            }
+            catch (ServiceException e) {
+                // Ok; expected...
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+            responded.countDown();
+            assertEquals(Integer.valueOf(4), first.get(1, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that concurrent identical invocations of a coalesced method share a single remote invocation.
+     */
+    public void testCoalescedInvocationOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        HttpClientInvocationCoalescer coalescer = new HttpClientInvocationCoalescer(new String[] { "doubleIt" });
+        endpoint.setCoalescer(coalescer);
+
+        final ServiceA proxy = endpoint.getServiceProxy();
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 2}") {
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                requests.incrementAndGet();
+                try {
+                    release.await(1, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.getOutputStream();
+            }
+        });
+
+        Callable<Integer> invocation = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return proxy.doubleIt(1);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(invocation);
+            while (requests.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Integer> second = executor.submit(invocation);
+            while (coalescer.getCoalescedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(Integer.valueOf(2), first.get(1, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), second.get(1, TimeUnit.SECONDS));
+            assertEquals(1, requests.get());
+            assertEquals(0, coalescer.getInFlightCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that results of cacheable methods are served from the result cache until it is invalidated, and that
+     * invocations with other arguments still go to the remote service.
+     */
+    public void testCachedInvocationOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        EndpointMetrics metrics = new EndpointMetrics("e1", EndpointMetrics.CLIENT);
+        HttpClientResultCache resultCache = new HttpClientResultCache(new String[] { "doubleIt" }, 60000, 10, metrics);
+        endpoint.setResultCache(resultCache);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 2}"));
+        assertEquals(2, proxy.doubleIt(1));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_INTERNAL_ERROR, ""));
+        assertEquals(2, proxy.doubleIt(1));
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(2, metrics.getCacheMisses());
+
+        resultCache.invalidate();
+        try {
+            proxy.doubleIt(1);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+    }
+
+    /**
+     * Tests that methods are identified by their id in the method table published by the remote endpoint.
+     */
+    public void testMethodIdInvocationOk() throws Exception {
+        String[] methodSignatures = HttpAdminUtil.getMethodSignatures(ServiceA.class);
+        int methodId = Arrays.asList(methodSignatures).indexOf("doubleIt(I)I");
+
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration,
+            new HttpClientConnectionManager(m_configuration), HttpCodecs.JSON, methodSignatures, ServiceA.class);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        TestURLConnection connection = new TestURLConnection(HTTP_OK, "{ \"r\" : 4}");
+        setUpURLStreamHandler(connection);
+
+        assertEquals(4, proxy.doubleIt(2));
+        assertEquals("{\"m\":" + methodId + ",\"a\":[2]}", connection.getRequestBody());
+    }
+
+    /**
+     * Tests that an invocation rejected by an overloaded endpoint fails, and that subsequent invocations fail fast
+     * until the back-off time requested by the endpoint has passed. The rejected probe of a half-open circuit does not
+     * close the circuit.
+     */
+    public void testRejectedInvocationBacksOff() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(50, 1, 10000, 0);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.onFailure());
+        endpoint.setCircuitBreaker(circuitBreaker);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_UNAVAILABLE, "").setHeaderField("Retry-After", "60"));
+
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        TestURLConnection connection = new TestURLConnection(HTTP_OK, "{ \"r\" : 4}");
+        setUpURLStreamHandler(connection);
+
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+        assertEquals("", connection.getRequestBody());
+    }
+
+    /**
+     * Tests that invocations of a failing endpoint fail fast once its circuit opens, and that a successful probe
+     * closes the circuit again.
+     */
+    public void testOpenCircuitFailsFast() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        endpoint.setCircuitBreaker(new CircuitBreaker(50, 2, 10000, 100));
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_INTERNAL_ERROR, ""));
+        for (int i = 0; i < 2; i++) {
+            try {
+                proxy.doubleIt(2);
+                fail("ServiceException expected!");
+            }
+            catch (ServiceException e) {
+                // Ok; expected...
+            }
+        }
+
+        TestURLConnection connection = new TestURLConnection(HTTP_OK, "{ \"r\" : 4}");
+        setUpURLStreamHandler(connection);
+
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+        assertEquals("", connection.getRequestBody());
+
+        Thread.sleep(150);
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 4}"));
+        assertEquals(4, proxy.doubleIt(2));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 6}"));
+        assertEquals(6, proxy.doubleIt(3));
+    }
+
+    /**
+     * Tests that the deadline of a method bounds the read timeout and is sent along with its invocations, and that
+     * an invocation the server did not start because its deadline passed fails, and counts as failure.
+     */
+    public void testDeadlineInvocationOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        endpoint.setDeadlines(Collections.singletonMap("doubleIt", 500L));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0, 1, 10000, 0);
+        endpoint.setCircuitBreaker(circuitBreaker);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        TestURLConnection connection = new TestURLConnection(HTTP_OK, "{ \"r\" : 4}");
+        setUpURLStreamHandler(connection);
+        assertEquals(4, proxy.doubleIt(2));
+
+        long remaining = Long.parseLong(connection.getRequestProperty(HttpAdminConstants.DEADLINE_HEADER));
+        assertTrue(remaining > 0 && remaining <= 500);
+        assertTrue(connection.getReadTimeout() <= 500);
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_GATEWAY_TIMEOUT, ""));
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("deadline exceeded"));
+        }
+        assertEquals(50, circuitBreaker.getFailureRate());
+    }
+
+    /**
+     * Tests that the deadline of a method is sent along with batched invocations, and that a batched invocation the
+     * server did not start because its deadline passed fails, and counts as failure.
+     */
+    public void testBatchedDeadlineInvocationOk() throws Exception {
+        m_batchWindow = 1;
+
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        endpoint.setDeadlines(Collections.singletonMap("doubleIt", 500L));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0, 1, 10000, 0);
+        endpoint.setCircuitBreaker(circuitBreaker);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        TestURLConnection connection = new TestURLConnection(HTTP_OK, "[{ \"s\" : 504}]");
+        setUpURLStreamHandler(connection);
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("deadline exceeded"));
+        }
+        assertEquals(100, circuitBreaker.getFailureRate());
+
+        JsonNode invocation = new ObjectMapper().readTree(connection.getRequestBody()).get(0);
+        long remaining = invocation.get("d").asLong();
+        assertTrue(remaining > 0 && remaining <= 500);
+    }
+
+    public void testMetricsRecordedOk() throws Exception {
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(m_endpointURL, m_configuration, ServiceA.class);
+        EndpointMetrics metrics = new EndpointMetrics("e1", EndpointMetrics.CLIENT);
+        endpoint.setMetrics(metrics);
+
+        ServiceA proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK, "{ \"r\" : 4}"));
+        assertEquals(4, proxy.doubleIt(2));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_INTERNAL_ERROR, ""));
+        try {
+            proxy.doubleIt(2);
+            fail("ServiceException expected!");
+        }
+        catch (ServiceException e) {
+            // Ok; expected...
+        }
+
+        assertEquals(1, metrics.getMethods().size());
+        MethodMetrics method = metrics.getMethods().get(0);
+        assertTrue(method.getMethod().startsWith("doubleIt"));
+        assertEquals(2, method.getInvocations());
+        assertEquals(1, method.getFailures());
+        assertTrue(method.getBytesOut() > 0);
+        assertEquals(10, method.getBytesIn());
+    }
+
+    /**
+     * Tests that co-located services exported with the pass-by-reference intent receive the very arguments of the
+     * caller, while other co-located services receive copies, both without going through HTTP.
+     */
+    @SuppressWarnings("unchecked")
+    public void testInProcessInvocationByReferenceOk() throws Exception {
+        BoundType service = new BoundType() {
+            @Override
+            public void m(Long x) {
+            }
+
+            @Override
+            public Long m(Long x, String y) {
+                return x;
+            }
+
+            @Override
+            public int m(String y) {
+                return 0;
+            }
+
+            @Override
+            public String m(String y, Long x) {
+                return y;
+            }
+        };
+        BundleContext context = mock(BundleContext.class);
+        ServiceReference<BoundType> reference = mock(ServiceReference.class);
+        when(context.getService(reference)).thenReturn(service);
+
+        HttpServerEndpointHandler endpoints =
+            new HttpServerEndpointHandler(new RemoteServiceAdminFactory(m_configuration));
+        endpoints.addEndpoint("endpoint", new HttpServerEndpoint(context, reference, BoundType.class));
+
+        // Any invocation that goes over HTTP fails...
+        setUpURLStreamHandler(new TestURLConnection(HTTP_INTERNAL_ERROR, ""));
+
+        URL serviceURL = new URL(m_endpointURL, "/endpoint");
+        String argument = new String("argument");
+
+        HttpClientEndpoint endpoint = new HttpClientEndpoint(serviceURL, m_configuration, BoundType.class);
+        endpoint.setInProcessEndpoints(endpoints, true);
+        BoundType proxy = endpoint.getServiceProxy();
+        assertSame(argument, proxy.m(argument, 1L));
+
+        endpoint = new HttpClientEndpoint(serviceURL, m_configuration, BoundType.class);
+        endpoint.setInProcessEndpoints(endpoints, false);
+        proxy = endpoint.getServiceProxy();
+        String result = proxy.m(argument, 1L);
+        assertEquals(argument, result);
+        assertNotSame(argument, result);
+    }
+
     public void testCreateWithoutInterfacesFail() {
         try {
             new HttpClientEndpoint(m_endpointURL, m_configuration);
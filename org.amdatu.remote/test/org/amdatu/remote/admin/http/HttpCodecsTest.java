@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Test cases for {@link HttpCodecs}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class HttpCodecsTest extends TestCase {
+
+    public void testGetCodecOk() throws Exception {
+        assertSame(HttpCodecs.JSON, HttpCodecs.getCodec(null));
+        assertSame(HttpCodecs.JSON, HttpCodecs.getCodec("application/json"));
+        assertSame(HttpCodecs.JSON, HttpCodecs.getCodec("Application/JSON; charset=UTF-8"));
+        assertSame(HttpCodecs.SMILE, HttpCodecs.getCodec("application/x-jackson-smile"));
+        assertNull(HttpCodecs.getCodec("application/x-unknown"));
+    }
+
+    public void testSelectCodecOk() throws Exception {
+        assertSame(HttpCodecs.JSON, HttpCodecs.selectCodec(null, new String[0]));
+        assertSame(HttpCodecs.JSON, HttpCodecs.selectCodec("application/json", new String[] { "application/json" }));
+        assertSame(HttpCodecs.JSON,
+            HttpCodecs.selectCodec("application/x-unknown", new String[] { "application/x-unknown" }));
+        assertSame(HttpCodecs.SMILE, HttpCodecs.selectCodec("application/x-jackson-smile",
+            new String[] { "application/json", "application/x-jackson-smile" }));
+        assertSame(HttpCodecs.JSON,
+            HttpCodecs.selectCodec("application/x-jackson-smile", new String[] { "application/json" }));
+    }
+
+    /**
+     * Tests that a value survives a round trip through the Smile codec, which writes binary rather than JSON.
+     */
+    public void testSmileRoundTripOk() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator gen = HttpCodecs.SMILE.createGenerator(out);
+        gen.writeStartObject();
+        gen.writeNumberField("r", 42);
+        gen.writeEndObject();
+        gen.close();
+        assertFalse(out.toByteArray()[0] == '{');
+
+        JsonParser parser = HttpCodecs.SMILE.createParser(new ByteArrayInputStream(out.toByteArray()));
+        JsonNode tree = parser.readValueAsTree();
+        parser.close();
+        assertEquals(42, tree.get("r").asInt());
+    }
+}
@@ -23,6 +23,8 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -71,6 +73,7 @@ public abstract class HttpEndpointTestBase extends TestCase implements URLStream
 	protected static class TestURLConnection extends HttpURLConnection {
 		private final ByteArrayOutputStream m_baos;
 		private final ByteArrayInputStream m_bais;
+		private final Map<String, String> m_headers = new HashMap<String, String>();
 
 		public TestURLConnection(int rc, byte[] result) {
 			super(null);
@@ -121,6 +124,20 @@ public abstract class HttpEndpointTestBase extends TestCase implements URLStream
 			return responseCode;
 		}
 
+		@Override
+		public String getHeaderField(String name) {
+			return m_headers.get(name);
+		}
+
+		public TestURLConnection setHeaderField(String name, String value) {
+			m_headers.put(name, value);
+			return this;
+		}
+
+		public String getRequestBody() {
+			return new String(m_baos.toByteArray());
+		}
+
 		@Override
 		public boolean usingProxy() {
 			return false;
@@ -18,6 +18,7 @@ import java.net.URL;
 public abstract class HttpJsonEndpointTestBase extends HttpEndpointTestBase {	
 	
 	protected HttpAdminConfiguration m_configuration;
+	protected volatile int m_batchWindow;
 	
 	@Override
 	protected void setUp() throws Exception {
@@ -33,6 +34,76 @@ public abstract class HttpJsonEndpointTestBase extends HttpEndpointTestBase {
 				return 1000;
 			}
 
+			@Override
+			public int getMaxConnectionsPerEndpoint() {
+				return 5;
+			}
+
+			@Override
+			public int getConnectionIdleTimeout() {
+				return 60000;
+			}
+
+			@Override
+			public int getBatchWindow() {
+				return m_batchWindow;
+			}
+
+			@Override
+			public int getMaxConcurrentInvocations() {
+				return 0;
+			}
+
+			@Override
+			public int getInvocationQueueDepth() {
+				return 16;
+			}
+
+			@Override
+			public int getRetryAfter() {
+				return 1;
+			}
+
+			@Override
+			public String getCodec() {
+				return JsonCodec.CONTENT_TYPE;
+			}
+
+			@Override
+			public int getCompressionThreshold() {
+				return 1024;
+			}
+
+			@Override
+			public int getResultCacheSize() {
+				return 1000;
+			}
+
+			@Override
+			public int getCoalescing() {
+				return 0;
+			}
+
+			@Override
+			public int getCircuitFailureThreshold() {
+				return 50;
+			}
+
+			@Override
+			public int getCircuitWindow() {
+				return 10000;
+			}
+
+			@Override
+			public int getCircuitOpenTime() {
+				return 5000;
+			}
+
+			@Override
+			public int getTcpPort() {
+				return -1;
+			}
+
 			@Override
 			public URL getBaseUrl() {
 				return m_endpointURL;
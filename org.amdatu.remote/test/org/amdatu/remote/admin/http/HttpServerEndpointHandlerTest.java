@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static org.amdatu.remote.admin.http.HttpServerEndpointHandler.parseEndpointPath;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.admin.http.HttpServerEndpointTest.MockServletInputStream;
+import org.amdatu.remote.admin.http.HttpServerEndpointTest.MockServletOutputStream;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Test cases for {@link HttpServerEndpointHandler}.
+ * 
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class HttpServerEndpointHandlerTest extends TestCase {
+
+    public static interface LatchService {
+        int await(int value) throws InterruptedException;
+
+        int countDown(int value);
+    }
+
+    /**
+     * Tests that the invocations of a batch run concurrently, while their outcomes are written in order.
+     */
+    @SuppressWarnings("unchecked")
+    public void testInvokeBatchConcurrentlyOk() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        LatchService service = new LatchService() {
+            @Override
+            public int await(int value) throws InterruptedException {
+                return latch.await(5, TimeUnit.SECONDS) ? value : -1;
+            }
+
+            @Override
+            public int countDown(int value) {
+                latch.countDown();
+                return value;
+            }
+        };
+        BundleContext context = mock(BundleContext.class);
+        ServiceReference<LatchService> reference = mock(ServiceReference.class);
+        when(context.getService(reference)).thenReturn(service);
+
+        HttpAdminConfiguration configuration = mock(HttpAdminConfiguration.class);
+        when(configuration.getTcpPort()).thenReturn(-1);
+        HttpServerEndpointHandler handler = new HttpServerEndpointHandler(new RemoteServiceAdminFactory(configuration));
+        handler.addEndpoint("first", new HttpServerEndpoint(context, reference, LatchService.class));
+        handler.addEndpoint("second", new HttpServerEndpoint(context, reference, LatchService.class));
+
+        // The first invocation only completes once the second one has run...
+        String batch = "[{\"i\":\"first\",\"m\":\"await(I)I\",\"a\":[1]}," //
+            + "{\"i\":\"unknown\",\"m\":\"countDown(I)I\",\"a\":[2]}," //
+            + "{\"i\":\"second\",\"m\":\"countDown(I)I\",\"a\":[3]}]";
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentType()).thenReturn("application/json");
+        when(request.getInputStream()).thenReturn(new MockServletInputStream(batch));
+        MockServletOutputStream out = new MockServletOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(out);
+
+        handler.invokeBatch(request, response);
+
+        JsonNode outcomes = new ObjectMapper().readTree(out.getBodyContent());
+        assertEquals(3, outcomes.size());
+        assertEquals(1, outcomes.get(0).get("r").asInt());
+        assertEquals(404, outcomes.get(1).get("s").asInt());
+        assertEquals(3, outcomes.get(2).get("r").asInt());
+    }
+
+    /**
+     * Tests that canonical endpoint paths are returned as is.
+     */
+    public void testParseCanonicalEndpointPathOk() throws Exception {
+        String pathInfo = "/a0-B_9";
+        assertSame(pathInfo, parseEndpointPath(pathInfo));
+    }
+
+    /**
+     * Tests that endpoint paths with or without surrounding slashes are canonicalized.
+     */
+    public void testParseEndpointPathOk() throws Exception {
+        assertEquals("/endpoint", parseEndpointPath("endpoint"));
+        assertEquals("/endpoint", parseEndpointPath("endpoint/"));
+        assertEquals("/endpoint", parseEndpointPath("/endpoint/"));
+    }
+
+    /**
+     * Tests that paths not holding a single valid endpoint id are rejected.
+     */
+    public void testParseInvalidEndpointPathFails() throws Exception {
+        assertNull(parseEndpointPath(""));
+        assertNull(parseEndpointPath("/"));
+        assertNull(parseEndpointPath("//"));
+        assertNull(parseEndpointPath("//endpoint"));
+        assertNull(parseEndpointPath("/endpoint//"));
+        assertNull(parseEndpointPath("/end/point"));
+        assertNull(parseEndpointPath("/end.point"));
+        assertNull(parseEndpointPath("/endpoint?"));
+    }
+}
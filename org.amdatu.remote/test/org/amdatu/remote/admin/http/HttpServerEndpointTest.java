@@ -14,11 +14,16 @@
 package org.amdatu.remote.admin.http;
 
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_GATEWAY_TIMEOUT;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -27,6 +32,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
@@ -40,8 +47,10 @@ import org.amdatu.remote.admin.http.TestUtil.ServiceAImpl;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * Test cases for {@link HttpServerEndpoint}.
@@ -113,6 +122,76 @@ public class HttpServerEndpointTest extends TestCase {
         m_outputStream.assertContent("{\"r\":null}");
     }
 
+    /**
+     * Tests that the service is obtained once for all invocations and released when the endpoint is closed.
+     */
+    public void testServiceObjectCachedOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonGenerator gen = mapper.getFactory().createGenerator(new ByteArrayOutputStream());
+        endpoint.invokeBatched(mapper.readTree("{\"m\":\"doubleIt(I)I\",\"a\":[3]}"), gen);
+        endpoint.invokeBatched(mapper.readTree("{\"m\":\"doubleIt(I)I\",\"a\":[4]}"), gen);
+        endpoint.close();
+        gen.close();
+
+        verify(service).doubleIt(eq(3));
+        verify(service).doubleIt(eq(4));
+        verify(m_context, times(1)).getService(eq(m_serviceRef));
+        verify(m_context, times(1)).ungetService(eq(m_serviceRef));
+    }
+
+    /**
+     * Tests that a response exceeding the compression threshold is gzip-compressed for clients accepting it.
+     */
+    public void testCompressedResponseOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "{\"m\":\"returnNull()Ljava/lang/Object;\",\"a\":[]}");
+        when(m_servletRequest.getHeader("Accept-Encoding")).thenReturn("deflate, gzip");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        endpoint.setCompressionThreshold(1);
+        endpoint.invokeService(m_servletRequest, m_servletResponse);
+
+        verify(m_servletResponse).setStatus(SC_OK);
+        verify(m_servletResponse).setHeader("Content-Encoding", "gzip");
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(m_outputStream.getBodyBytes()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            out.write(b);
+        }
+        assertEquals("{\"r\":null}", new String(out.toByteArray()));
+    }
+
+    /**
+     * Tests that a response below the compression threshold is sent uncompressed.
+     */
+    public void testSmallResponseNotCompressedOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "{\"m\":\"returnNull()Ljava/lang/Object;\",\"a\":[]}");
+        when(m_servletRequest.getHeader("Accept-Encoding")).thenReturn("gzip");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        endpoint.setCompressionThreshold(1024);
+        endpoint.invokeService(m_servletRequest, m_servletResponse);
+
+        verify(m_servletResponse).setStatus(SC_OK);
+        verify(m_servletResponse, never()).setHeader(eq("Content-Encoding"), anyString());
+
+        m_outputStream.assertContent("{\"r\":null}");
+    }
+
     /**
      * Tests that we can call a void-method.
      */
@@ -149,6 +228,44 @@ public class HttpServerEndpointTest extends TestCase {
         m_outputStream.assertContent("{\"r\":6}");
     }
 
+    /**
+     * Tests that a method is invoked if its deadline has not passed yet.
+     */
+    public void testCallMethodWithDeadlineOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "{\"m\":\"doubleIt(I)I\",\"a\":[3]}");
+        when(m_servletRequest.getHeader(HttpAdminConstants.DEADLINE_HEADER)).thenReturn("5000");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        endpoint.invokeService(m_servletRequest, m_servletResponse);
+
+        verify(service).doubleIt(eq(3));
+        verify(m_servletResponse).setStatus(SC_OK);
+
+        m_outputStream.assertContent("{\"r\":6}");
+    }
+
+    /**
+     * Tests that a method is not invoked once its deadline has passed.
+     */
+    public void testCallMethodWithExpiredDeadlineOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "{\"m\":\"doubleIt(I)I\",\"a\":[3]}");
+        when(m_servletRequest.getHeader(HttpAdminConstants.DEADLINE_HEADER)).thenReturn("0");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        endpoint.invokeService(m_servletRequest, m_servletResponse);
+
+        verify(m_servletResponse).sendError(SC_GATEWAY_TIMEOUT);
+        verifyNoMoreInteractions(service);
+
+        m_outputStream.assertContent("");
+    }
+
     /**
      * Tests that we can call a method that fails with a runtime exception.
      */
@@ -224,6 +341,193 @@ public class HttpServerEndpointTest extends TestCase {
         m_outputStream.assertContent("");
     }
 
+    /**
+     * Tests that invocations encoded with an unsupported codec are refused.
+     */
+    public void testCallWithUnsupportedContentTypeOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "{\"m\":\"doubleIt(I)I\",\"a\":[3]}");
+        when(m_servletRequest.getContentType()).thenReturn("application/x-unknown");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        endpoint.invokeService(m_servletRequest, m_servletResponse);
+
+        verify(m_servletResponse).sendError(SC_UNSUPPORTED_MEDIA_TYPE);
+        verifyNoMoreInteractions(service);
+
+        m_outputStream.assertContent("");
+    }
+
+    /**
+     * Tests that invocations that are part of a batch write their outcome, or their status if they cannot be
+     * executed.
+     */
+    public void testInvokeBatchedOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+
+        ObjectMapper mapper = new ObjectMapper();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonGenerator gen = mapper.getFactory().createGenerator(baos);
+        gen.writeStartArray();
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":\"doubleIt(I)I\",\"a\":[3]}"), gen);
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":\"qqq()V\",\"a\":[]}"), gen);
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":\"doNothing()V\",\"a\":[3]}"), gen);
+        gen.writeEndArray();
+        gen.close();
+
+        verify(service).doubleIt(eq(3));
+        verifyNoMoreInteractions(service);
+
+        assertEquals("[{\"r\":6},{\"s\":404},{\"s\":400}]", new String(baos.toByteArray()));
+    }
+
+    /**
+     * Tests that methods can be invoked by their id in the method table of the endpoint.
+     */
+    public void testInvokeByMethodIdOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        int methodId = Arrays.asList(endpoint.getMethodSignatures()).indexOf("doubleIt(I)I");
+        assertTrue(methodId >= 0);
+
+        ObjectMapper mapper = new ObjectMapper();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonGenerator gen = mapper.getFactory().createGenerator(baos);
+        gen.writeStartArray();
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":" + methodId + ",\"a\":[3]}"), gen);
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":1000,\"a\":[3]}"), gen);
+        gen.writeEndArray();
+        gen.close();
+
+        verify(service).doubleIt(eq(3));
+        verifyNoMoreInteractions(service);
+
+        assertEquals("[{\"r\":6},{\"s\":404}]", new String(baos.toByteArray()));
+    }
+
+    /**
+     * Tests that in-process clients can invoke methods by reference, provided they share the interface classes.
+     */
+    public void testInvokeByReferenceOk() throws Throwable {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+        ObjectMapper mapper = new ObjectMapper();
+        MethodInvocationPlan doubleIt = new MethodInvocationPlan(mapper, type.getMethod("doubleIt", int.class), -1);
+        MethodInvocationPlan doException = new MethodInvocationPlan(mapper, type.getMethod("doException"), -1);
+        MethodInvocationPlan toString = new MethodInvocationPlan(mapper, Object.class.getMethod("toString"), -1);
+
+        assertTrue(endpoint.isInvocableByReference(doubleIt));
+        assertFalse(endpoint.isInvocableByReference(toString));
+        assertEquals(6, endpoint.invokeByReference(doubleIt, new Object[] { 3 }));
+        try {
+            endpoint.invokeByReference(doException, null);
+            fail("IOException expected");
+        }
+        catch (IOException e) {
+            assertEquals("Exception!", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that in-process clients can invoke methods through in-memory token buffers.
+     */
+    public void testInvokeInProcessOk() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+
+        ObjectMapper mapper = new ObjectMapper();
+        TokenBuffer request = new TokenBuffer(mapper, false);
+        request.writeStartObject();
+        request.writeStringField("m", "doubleIt(I)I");
+        request.writeArrayFieldStart("a");
+        request.writeNumber(3);
+        request.writeEndArray();
+        request.writeEndObject();
+
+        TokenBuffer response = new TokenBuffer(mapper, false);
+        endpoint.invokeInProcess(request.asParser(mapper), response);
+
+        verify(service).doubleIt(eq(3));
+        assertEquals("{\"r\":6}", mapper.writeValueAsString(response.asParser(mapper).readValueAsTree()));
+    }
+
+    /**
+     * Tests that in-process invocations whose deadline, sent in their d-field, passed are not started.
+     */
+    public void testInvokeInProcessDeadlinePassed() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerEndpoint endpoint = createEndpoint(type);
+
+        ObjectMapper mapper = new ObjectMapper();
+        TokenBuffer request = new TokenBuffer(mapper, false);
+        request.writeStartObject();
+        request.writeStringField("m", "doubleIt(I)I");
+        request.writeArrayFieldStart("a");
+        request.writeNumber(3);
+        request.writeEndArray();
+        request.writeNumberField("d", 0);
+        request.writeEndObject();
+
+        TokenBuffer response = new TokenBuffer(mapper, false);
+        endpoint.invokeInProcess(request.asParser(mapper), response);
+
+        verify(service, never()).doubleIt(3);
+        assertEquals("{\"s\":" + SC_GATEWAY_TIMEOUT + "}",
+            mapper.writeValueAsString(response.asParser(mapper).readValueAsTree()));
+    }
+
+    /**
+     * Tests that invocations of a saturated endpoint are rejected with a back-off hint.
+     */
+    public void testInvokeSaturatedEndpointRejected() throws Exception {
+        Class<ServiceA> type = ServiceA.class;
+        ServiceAImpl service = spy(new ServiceAImpl());
+
+        mockServiceLookup(service, "");
+
+        HttpServerInvocationLimiter limiter = new HttpServerInvocationLimiter(1, 0, 0, 5);
+        HttpServerEndpoint endpoint = new HttpServerEndpoint(m_context, m_serviceRef, limiter, type);
+
+        ObjectMapper mapper = new ObjectMapper();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonGenerator gen = mapper.getFactory().createGenerator(baos);
+        gen.writeStartArray();
+        assertTrue(limiter.acquire());
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":\"doubleIt(I)I\",\"a\":[3]}"), gen);
+        limiter.release();
+        endpoint.invokeBatched(mapper.readTree("{\"i\":\"1\",\"m\":\"doubleIt(I)I\",\"a\":[3]}"), gen);
+        gen.writeEndArray();
+        gen.close();
+
+        verify(service).doubleIt(eq(3));
+        verifyNoMoreInteractions(service);
+
+        assertEquals("[{\"s\":503,\"w\":5},{\"r\":6}]", new String(baos.toByteArray()));
+    }
+
     /**
      * Test that listing method signatures is correct
      */
@@ -289,6 +593,10 @@ public class HttpServerEndpointTest extends TestCase {
             assertEquals(content, getBodyContent());
         }
 
+        byte[] getBodyBytes() {
+            return m_baos.toByteArray();
+        }
+
         String getBodyContent() {
             return new String(m_baos.toByteArray());
         }
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static org.amdatu.remote.admin.http.HttpAdminConstants.PASSBYREFERENCE_INTENT;
+import static org.amdatu.remote.admin.http.HttpAdminConstants.PASSBYVALYE_INTENT;
+import static org.amdatu.remote.admin.http.RemoteServiceAdminImpl.getExportedIntents;
+import static org.amdatu.remote.admin.http.RemoteServiceAdminImpl.isExportedIntentsSupported;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_EXPORTED_INTENTS;
+import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_EXPORTED_INTENTS_EXTRA;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link RemoteServiceAdminImpl}.
+ * 
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class RemoteServiceAdminImplTest extends TestCase {
+
+    /**
+     * Tests that services are exported pass-by-value unless the exporter asks otherwise.
+     */
+    public void testExportedIntentsPassByValueOk() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        assertTrue(Arrays.equals(new String[] { PASSBYVALYE_INTENT }, getExportedIntents(properties)));
+
+        properties.put(SERVICE_EXPORTED_INTENTS, PASSBYVALYE_INTENT);
+        assertTrue(Arrays.equals(new String[] { PASSBYVALYE_INTENT }, getExportedIntents(properties)));
+    }
+
+    /**
+     * Tests that the pass-by-reference intent replaces the default pass-by-value intent.
+     */
+    public void testExportedIntentsPassByReferenceOk() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(SERVICE_EXPORTED_INTENTS_EXTRA, new String[] { PASSBYREFERENCE_INTENT });
+
+        String[] intents = getExportedIntents(properties);
+        assertTrue(Arrays.equals(new String[] { PASSBYREFERENCE_INTENT }, intents));
+        assertTrue(isExportedIntentsSupported(intents));
+    }
+
+    /**
+     * Tests that conflicting or unknown intents are not supported.
+     */
+    public void testExportedIntentsUnsupportedFail() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(SERVICE_EXPORTED_INTENTS, new String[] { PASSBYVALYE_INTENT, PASSBYREFERENCE_INTENT });
+
+        assertFalse(isExportedIntentsSupported(getExportedIntents(properties)));
+        assertFalse(isExportedIntentsSupported(new String[] { "confidentiality" }));
+    }
+}
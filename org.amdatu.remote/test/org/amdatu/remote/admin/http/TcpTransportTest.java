@@ -0,0 +1,306 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.ByteBufferPool;
+import org.amdatu.remote.admin.http.TcpFrames.Frame;
+import org.amdatu.remote.admin.http.TcpFrames.FrameOutputStream;
+import org.amdatu.remote.admin.http.TcpFrames.FrameReader;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Test cases for the TCP transport of the HTTP admin, see {@link TcpFrames} and {@link TcpClientConnections}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class TcpTransportTest extends TestCase {
+
+    private final ByteBufferPool m_pool = new ByteBufferPool(64, 4);
+    private final ObjectMapper m_mapper = new ObjectMapper();
+
+    /**
+     * Tests that frames written in one go are read back when they arrive in small fragments, including frames that
+     * do not fit in a pooled buffer.
+     */
+    public void testFramesReadInFragmentsOk() throws Exception {
+        byte[] large = new byte[1000];
+        Arrays.fill(large, (byte) 'x');
+
+        ByteBuffer stream = ByteBuffer.allocate(2048);
+        stream.put(createFrame(1, "first".getBytes(StandardCharsets.UTF_8)));
+        stream.put(createFrame(2, large));
+        stream.put(createFrame(3, new byte[0]));
+        stream.flip();
+
+        FrameReader reader = new FrameReader(m_pool);
+        ReadableByteChannel channel = new FragmentingChannel(stream, 7);
+        Frame[] frames = new Frame[3];
+        int count = 0;
+        while (count < frames.length) {
+            assertTrue(reader.read(channel) >= 0);
+            Frame frame;
+            while ((frame = reader.next()) != null) {
+                frames[count++] = frame;
+            }
+        }
+        assertEquals(-1, reader.read(channel));
+        reader.close();
+
+        assertEquals(1, frames[0].getCorrelationId());
+        assertEquals("first", new String(frames[0].getPayload(), StandardCharsets.UTF_8));
+        assertEquals(2, frames[1].getCorrelationId());
+        assertTrue(Arrays.equals(large, frames[1].getPayload()));
+        assertEquals(3, frames[2].getCorrelationId());
+        assertEquals(0, frames[2].getPayload().length);
+    }
+
+    /**
+     * Tests that a corrupt length prefix is rejected instead of allocating a huge buffer.
+     */
+    public void testInvalidFrameLengthFails() throws Exception {
+        ByteBuffer stream = ByteBuffer.allocate(8);
+        stream.putInt(-1).putInt(1).flip();
+
+        FrameReader reader = new FrameReader(m_pool);
+        reader.read(new FragmentingChannel(stream, 8));
+        try {
+            reader.next();
+            fail("IOException expected");
+        }
+        catch (IOException e) {
+            // Ok; expected...
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Tests that direct buffers are reused, while oversized requests are served with heap buffers.
+     */
+    public void testBufferPoolOk() throws Exception {
+        ByteBuffer buffer = m_pool.acquire(10);
+        assertTrue(buffer.isDirect());
+        assertEquals(64, buffer.capacity());
+        buffer.put((byte) 1);
+        m_pool.release(buffer);
+
+        ByteBuffer reused = m_pool.acquire(64);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+
+        ByteBuffer large = m_pool.acquire(65);
+        assertFalse(large.isDirect());
+        m_pool.release(large);
+        assertNotSame(large, m_pool.acquire(65));
+    }
+
+    /**
+     * Tests that concurrent invocations share a single connection and each receive their own outcome, even if the
+     * server answers them out of order.
+     */
+    public void testConcurrentInvocationsMultiplexedOk() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final TcpClientConnections connections = new TcpClientConnections(createConfiguration());
+        try {
+            Future<Integer> server = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        DataInputStream in = new DataInputStream(socket.getInputStream());
+                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                        assertEquals("application/json", new String(readFrame(in, TcpFrames.PREAMBLE_ID), "UTF-8"));
+
+                        // Collect both invocations and answer them in reverse order...
+                        int[] ids = new int[2];
+                        JsonNode[] invocations = new JsonNode[2];
+                        for (int i = 0; i < 2; i++) {
+                            byte[] payload = new byte[in.readInt() - 4];
+                            ids[i] = in.readInt();
+                            in.readFully(payload);
+                            invocations[i] = m_mapper.readTree(payload);
+                        }
+                        for (int i = 1; i >= 0; i--) {
+                            assertEquals("endpoint", invocations[i].get("i").asText());
+                            ObjectNode outcome = m_mapper.createObjectNode();
+                            outcome.set("r", invocations[i].get("a").get(0));
+                            byte[] payload = m_mapper.writeValueAsBytes(outcome);
+                            out.writeInt(payload.length + 4);
+                            out.writeInt(ids[i]);
+                            out.write(payload);
+                        }
+                        out.flush();
+                        return 2;
+                    }
+                    finally {
+                        closeSilently(socket);
+                    }
+                }
+            });
+
+            final MethodInvocationPlan plan =
+                new MethodInvocationPlan(m_mapper, Integer.class.getMethod("compareTo", Integer.class), -1);
+            final String address = "localhost:" + serverSocket.getLocalPort();
+            Future<?>[] clients = new Future<?>[2];
+            for (int i = 0; i < clients.length; i++) {
+                final int argument = 42 + i;
+                clients[i] = executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        JsonNode outcome = connections.invoke(address, "endpoint", new JsonCodec(), plan,
+                            new Object[] { argument }, 0);
+                        return outcome.get("r").asInt();
+                    }
+                });
+            }
+
+            assertEquals(42, clients[0].get());
+            assertEquals(43, clients[1].get());
+            assertEquals(Integer.valueOf(2), server.get());
+        }
+        finally {
+            connections.close();
+            executor.shutdownNow();
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Tests that invocations in flight fail once their connection is lost.
+     */
+    public void testConnectionLostFailsInvocation() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TcpClientConnections connections = new TcpClientConnections(createConfiguration());
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Socket socket = serverSocket.accept();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    readFrame(in, TcpFrames.PREAMBLE_ID);
+                    in.readInt();
+                    closeSilently(socket);
+                    return null;
+                }
+            });
+
+            MethodInvocationPlan plan = new MethodInvocationPlan(m_mapper, Object.class.getMethod("hashCode"), -1);
+            try {
+                connections.invoke("localhost:" + serverSocket.getLocalPort(), "endpoint", new JsonCodec(), plan,
+                    null, 0);
+                fail("IOException expected");
+            }
+            catch (IOException e) {
+                // Ok; expected...
+            }
+        }
+        finally {
+            connections.close();
+            executor.shutdownNow();
+            serverSocket.close();
+        }
+    }
+
+    private static byte[] createFrame(int correlationId, byte[] payload) throws IOException {
+        FrameOutputStream out = new FrameOutputStream();
+        out.write(payload);
+        ByteBuffer buffer = out.toBuffer(new ByteBufferPool(16, 0), correlationId);
+        byte[] frame = new byte[buffer.remaining()];
+        buffer.get(frame);
+        return frame;
+    }
+
+    private static byte[] readFrame(DataInputStream in, int expectedCorrelationId) throws IOException {
+        byte[] payload = new byte[in.readInt() - 4];
+        assertEquals(expectedCorrelationId, in.readInt());
+        in.readFully(payload);
+        return payload;
+    }
+
+    private static void closeSilently(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Ignore...
+        }
+    }
+
+    private static HttpAdminConfiguration createConfiguration() {
+        HttpAdminConfiguration configuration = mock(HttpAdminConfiguration.class);
+        when(configuration.getConnectTimeout()).thenReturn(1000);
+        when(configuration.getReadTimeout()).thenReturn(5000);
+        return configuration;
+    }
+
+    /**
+     * Channel returning the bytes of a buffer in fragments of at most a given size.
+     */
+    private static class FragmentingChannel implements ReadableByteChannel {
+        private final ByteBuffer m_source;
+        private final int m_fragmentSize;
+
+        FragmentingChannel(ByteBuffer source, int fragmentSize) {
+            m_source = source;
+            m_fragmentSize = fragmentSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!m_source.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(Math.min(m_fragmentSize, m_source.remaining()), dst.remaining());
+            for (int i = 0; i < length; i++) {
+                dst.put(m_source.get());
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nop
+        }
+    }
+}
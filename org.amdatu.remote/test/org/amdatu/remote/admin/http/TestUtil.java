@@ -14,6 +14,8 @@
 package org.amdatu.remote.admin.http;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.avro.reflect.Nullable;
 import org.apache.avro.reflect.Union;
@@ -94,6 +96,12 @@ public abstract class TestUtil {
         Number m(@Union({ Integer.class, Double.class, Void.class }) Number x, @Nullable String y);
     }
 
+    public static interface AsyncService {
+        CompletableFuture<Integer> doubleIt(int value);
+
+        CompletionStage<String> echo(String value);
+    }
+
     public static interface ServiceA {
         void doException() throws IOException;
 
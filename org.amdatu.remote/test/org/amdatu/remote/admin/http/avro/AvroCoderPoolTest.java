@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Buffer;
+import org.amdatu.remote.admin.http.avro.AvroCoderPool.Coders;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+
+/**
+ * Test cases for {@link AvroCoderPool}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class AvroCoderPoolTest extends TestCase {
+
+    private final AvroCoderPool m_pool = new AvroCoderPool(64);
+
+    /**
+     * Tests that the coders of a thread are reused once released, while nested calls get coders of their own.
+     */
+    public void testCodersReusedPerThreadOk() throws Exception {
+        Coders coders = m_pool.acquire();
+        BinaryEncoder encoder = coders.encoder(new ByteArrayOutputStream());
+        Buffer buffer = coders.buffer();
+
+        Coders nested = m_pool.acquire();
+        assertNotSame(coders, nested);
+        m_pool.release(nested);
+        m_pool.release(coders);
+
+        Coders reused = m_pool.acquire();
+        try {
+            assertSame(coders, reused);
+            assertSame(encoder, reused.encoder(new ByteArrayOutputStream()));
+            assertSame(buffer, reused.buffer());
+        }
+        finally {
+            m_pool.release(reused);
+        }
+    }
+
+    /**
+     * Tests that releasing the coders of a call that failed halfway neither writes its unflushed bytes to the stream
+     * of the call nor throws, and that the encoder holding them is not reused.
+     */
+    public void testReleaseAfterFailedCallOk() throws Exception {
+        final IOException failure = new IOException("broken");
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw failure;
+            }
+        };
+
+        Coders coders = m_pool.acquire();
+        BinaryEncoder encoder = coders.encoder(broken);
+        encoder.writeString("unflushed");
+        m_pool.release(coders);
+
+        Coders reused = m_pool.acquire();
+        try {
+            assertSame(coders, reused);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder fresh = reused.encoder(out);
+            assertNotSame(encoder, fresh);
+            fresh.writeString("x");
+            fresh.flush();
+            assertEquals(2, out.size());
+        }
+        finally {
+            m_pool.release(reused);
+        }
+    }
+
+    /**
+     * Tests that messages larger than the buffer size are written and read completely, and that the grown buffer
+     * is not kept once it exceeds the retained maximum.
+     */
+    public void testMessagesLargerThanBufferOk() throws Exception {
+        byte[] bytes = new byte[64 * 100];
+        Arrays.fill(bytes, (byte) 'x');
+
+        Coders coders = m_pool.acquire();
+        Buffer buffer;
+        try {
+            buffer = coders.buffer();
+            BinaryEncoder out = coders.encoder(buffer);
+            out.writeBytes(bytes);
+            out.writeString("end");
+            out.flush();
+
+            BinaryDecoder in = coders.decoder(new ByteArrayInputStream(buffer.toByteArray()), -1);
+            assertEquals(bytes.length, in.readBytes(null).remaining());
+            assertEquals("end", in.readString());
+            assertTrue(in.isEnd());
+        }
+        finally {
+            m_pool.release(coders);
+        }
+
+        Coders reused = m_pool.acquire();
+        try {
+            assertNotSame(buffer, reused.buffer());
+        }
+        finally {
+            m_pool.release(reused);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.admin.http.avro.AvroHandshake.Agreement;
+import org.amdatu.remote.admin.http.avro.AvroHandshake.Offer;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Test cases for {@link AvroHandshake}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class AvroHandshakeTest extends TestCase {
+
+    /**
+     * Tests that a client agrees on an evolved message with the compatible overload of the server, after which
+     * requests carrying the id of the client are read by the server and its responses by the client.
+     */
+    public void testAgreeOnEvolvedMessageOk() throws Exception {
+        AvroMessageCodec clientCodec = getCodec(ClientService.class, int.class);
+        AvroMessageCodec serverIntCodec = getCodec(ServerService.class, int.class);
+        AvroMessageCodec serverStringCodec = getCodec(ServerService.class, String.class);
+        assertTrue(clientCodec.getId() != serverIntCodec.getId());
+
+        Agreement agreement = new Agreement(AvroProtocolCache.getInstance().getMessageIds(ServerService.class));
+        assertTrue(agreement.isSupported());
+        assertFalse(agreement.isSettled(clientCodec));
+
+        // Client offers its message...
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryEncoder out = EncoderFactory.get().binaryEncoder(bytes, null);
+        AvroHandshake.writeRequest(Collections.singletonList(clientCodec), out);
+        out.flush();
+
+        // Server pairs it with the only compatible overload...
+        BinaryDecoder in = DecoderFactory.get().binaryDecoder(bytes.toByteArray(), null);
+        assertEquals(AvroHandshake.HANDSHAKE_REQUEST, in.readLong());
+        List<Offer> offers = AvroHandshake.readRequest(in);
+        assertEquals(1, offers.size());
+        assertEquals(clientCodec.getId(), offers.get(0).getId());
+        assertNull(AvroHandshake.resolve(offers.get(0), serverStringCodec));
+        AvroMessageCodec serverCodec = AvroHandshake.resolve(offers.get(0), serverIntCodec);
+        assertNotNull(serverCodec);
+
+        bytes.reset();
+        AvroHandshake.writeResponse(Collections.singletonList(serverCodec), out);
+        out.flush();
+
+        // Client records the outcome...
+        in = DecoderFactory.get().binaryDecoder(bytes.toByteArray(), in);
+        AvroHandshake.readResponse(Collections.singletonList(clientCodec), agreement, in);
+        assertTrue(agreement.isSettled(clientCodec));
+        AvroMessageCodec responseCodec = agreement.getResponseCodec(clientCodec);
+        assertNotNull(responseCodec);
+
+        // Requests only carry the id of the client message...
+        bytes.reset();
+        clientCodec.writeRequest(new Object[] { 21 }, true, out);
+        out.flush();
+        in = DecoderFactory.get().binaryDecoder(bytes.toByteArray(), in);
+        assertEquals(AvroMessageCodec.ID_REQUEST, in.readLong());
+        assertEquals(clientCodec.getId(), in.readLong());
+        assertEquals(21, serverCodec.readRequestArguments(in)[0]);
+
+        // The int written by the server is read as the long the client expects...
+        bytes.reset();
+        serverCodec.writeResponse(42, out);
+        out.flush();
+        in = DecoderFactory.get().binaryDecoder(bytes.toByteArray(), in);
+        assertEquals(42L, responseCodec.readResponse(in));
+
+        agreement.reset();
+        assertFalse(agreement.isSettled(clientCodec));
+    }
+
+    /**
+     * Tests that an offered message whose id does not match its schemas is not agreed on.
+     */
+    public void testRejectForgedIdOk() throws Exception {
+        AvroMessageCodec clientCodec = getCodec(ClientService.class, int.class);
+        Offer forged = new Offer(clientCodec.getId() + 1, clientCodec.getMessage());
+
+        assertNull(AvroHandshake.resolve(forged, getCodec(ServerService.class, int.class)));
+    }
+
+    private static AvroMessageCodec getCodec(final Class<?> type, final Class<?> parameterType) throws Exception {
+        return AvroProtocolCache.getInstance().getProtocol(type).getCodec(type.getMethod("compute", parameterType));
+    }
+
+    public interface ServerService {
+        int compute(int value);
+
+        String compute(String value);
+    }
+
+    public interface ClientService {
+        long compute(int value);
+    }
+}
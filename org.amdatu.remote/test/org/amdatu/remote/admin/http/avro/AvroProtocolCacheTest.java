@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.avro;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.admin.http.TestUtil.ServiceA;
+import org.amdatu.remote.admin.http.avro.AvroProtocolCache.CachedProtocol;
+
+/**
+ * Test cases for {@link AvroProtocolCache}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class AvroProtocolCacheTest extends TestCase {
+
+    /**
+     * Tests that the protocol of an interface is built once and shared by all endpoints of that interface.
+     */
+    public void testProtocolSharedBetweenEndpointsOk() throws Exception {
+        AvroProtocolCache cache = AvroProtocolCache.getInstance();
+
+        CachedProtocol protocol = cache.getProtocol(ServiceA.class);
+        assertSame(protocol, cache.getProtocol(ServiceA.class));
+
+        AvroMessageCodec codec = protocol.getCodec(ServiceA.class.getMethod("doubleIt", int.class));
+        assertNotNull(codec);
+        assertEquals("doubleIt", codec.getMessage().getName());
+        assertNull(protocol.getCodec(Object.class.getMethod("hashCode")));
+    }
+
+    /**
+     * Tests that overloaded methods each get a message of their own, with an id of its own.
+     */
+    public void testOverloadedMethodsOk() throws Exception {
+        CachedProtocol protocol = AvroProtocolCache.getInstance().getProtocol(OverloadedService.class);
+
+        AvroMessageCodec intCodec = protocol.getCodec(OverloadedService.class.getMethod("echo", int.class));
+        AvroMessageCodec stringCodec = protocol.getCodec(OverloadedService.class.getMethod("echo", String.class));
+        assertEquals("echo", intCodec.getMessage().getName());
+        assertEquals("echo", stringCodec.getMessage().getName());
+        assertTrue(intCodec.getId() != stringCodec.getId());
+
+        String[] ids = AvroProtocolCache.getInstance().getMessageIds(OverloadedService.class);
+        assertEquals(2, ids.length);
+        assertTrue(Arrays.asList(ids).contains(AvroProtocolCache.toHexId(intCodec.getId())));
+        assertTrue(Arrays.asList(ids).contains(AvroProtocolCache.toHexId(stringCodec.getId())));
+    }
+
+    public interface OverloadedService {
+        int echo(int value);
+
+        String echo(String value);
+    }
+}
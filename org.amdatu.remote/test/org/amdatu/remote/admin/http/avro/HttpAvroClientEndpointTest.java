@@ -20,8 +20,11 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.amdatu.remote.admin.http.TestUtil.AsyncService;
 import org.amdatu.remote.admin.http.TestUtil.AvroUnionType;
 import org.amdatu.remote.admin.http.TestUtil.ServiceA;
 import org.apache.avro.Protocol;
@@ -36,6 +39,40 @@ import org.osgi.framework.ServiceException;
  */
 public class HttpAvroClientEndpointTest extends HttpAvroEndpointTestBase {
 
+    /**
+     * Tests that methods returning a future are invoked asynchronously and
+     * their result is decoded using the type parameter of the future.
+     */
+    public void testAsyncInvocationOk() throws Exception {
+        Protocol p = AsyncReflectData.getInstance().getProtocol(AsyncService.class);
+
+        HttpAvroClientEndpoint endpoint = new HttpAvroClientEndpoint(m_endpointURL, m_configuration,
+            AsyncService.class);
+
+        AsyncService proxy = endpoint.getServiceProxy();
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK,
+            AvroTestUtils.createResponse(p.getMessages().get("doubleIt"), 4)));
+        assertEquals(Integer.valueOf(4), proxy.doubleIt(2).get(1, TimeUnit.SECONDS));
+
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK,
+            AvroTestUtils.createResponse(p.getMessages().get("echo"), "foo")));
+        assertEquals("foo", proxy.echo("foo").toCompletableFuture().get(1, TimeUnit.SECONDS));
+
+        Exception ex = new IllegalArgumentException("Invalid value!");
+        setUpURLStreamHandler(new TestURLConnection(HTTP_OK,
+            AvroTestUtils.createResponse(p.getMessages().get("doubleIt"), ex)));
+        try {
+            proxy.doubleIt(0).get(1, TimeUnit.SECONDS);
+            fail("ExecutionException expected!");
+        }
+        catch (ExecutionException e) {
+            // Ok; expected, undeclared exceptions only retain their description...
+            assertTrue(e.getCause() instanceof ServiceException);
+            assertTrue(e.getCause().getMessage().contains("Invalid value!"));
+        }
+    }
+
     public void testCreateWithoutInterfacesFail() {
         try {
             new HttpAvroClientEndpoint(m_endpointURL, m_configuration);
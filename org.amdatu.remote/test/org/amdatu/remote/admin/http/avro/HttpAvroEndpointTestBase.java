@@ -33,6 +33,31 @@ public abstract class HttpAvroEndpointTestBase extends org.amdatu.remote.admin.h
                 return 1000;
             }
 
+            @Override
+            public int getCompressionThreshold() {
+                return 1024;
+            }
+
+            @Override
+            public int getBufferSize() {
+                return 8192;
+            }
+
+            @Override
+            public int getCircuitFailureThreshold() {
+                return 50;
+            }
+
+            @Override
+            public int getCircuitWindow() {
+                return 10000;
+            }
+
+            @Override
+            public int getCircuitOpenTime() {
+                return 5000;
+            }
+
             @Override
             public URL getBaseUrl() {
                 return m_endpointURL;
@@ -27,6 +27,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
@@ -215,6 +221,84 @@ public class HttpServerEndpointTest extends TestCase {
         m_outputStream.assertContent("");
     }
 
+    /**
+     * Tests that concurrent requests for different methods of a single endpoint each get the outcome of their own
+     * method, encoded with the schema of their own message.
+     */
+    public void testConcurrentCallsKeepTheirMessagesOk() throws Exception {
+        final Message doubleIt = AvroTestUtils.getMessage(ServiceA.class, "doubleIt");
+        final Message tripeIt = AvroTestUtils.getMessage(ServiceA.class, "tripeIt");
+        final Message doException = AvroTestUtils.getMessage(ServiceA.class, "doException");
+        final Message returnNull = AvroTestUtils.getMessage(ServiceA.class, "returnNull");
+
+        when(m_context.getService(eq(m_serviceRef))).thenReturn(new ServiceAImpl());
+        final HttpAvroServerEndpoint endpoint = createEndpoint(ServiceA.class);
+
+        final int threads = 8;
+        final int iterations = 250;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        barrier.await();
+                        for (int i = 1; i <= iterations; i++) {
+                            HttpServletRequest req = mock(HttpServletRequest.class);
+                            HttpServletResponse resp = mock(HttpServletResponse.class);
+                            MockServletOutputStream out = new MockServletOutputStream();
+                            when(resp.getOutputStream()).thenReturn(out);
+
+                            switch ((thread + i) % 5) {
+                                case 0:
+                                    when(req.getInputStream()).thenReturn(
+                                        new MockServletInputStream(createRequest(doubleIt, new Object[] { i })));
+                                    endpoint.invokeService(req, resp);
+                                    assertEquals(2 * i, getResponse(doubleIt, out));
+                                    break;
+                                case 1:
+                                    when(req.getInputStream()).thenReturn(
+                                        new MockServletInputStream(createRequest(tripeIt, new Object[] { i })));
+                                    endpoint.invokeService(req, resp);
+                                    assertEquals(3 * i, getResponse(tripeIt, out));
+                                    break;
+                                case 2:
+                                    when(req.getInputStream()).thenReturn(
+                                        new MockServletInputStream(createRequest(doException, new Object[] {})));
+                                    endpoint.invokeService(req, resp);
+                                    assertEquals(IOException.class, getResponse(doException, out).getClass());
+                                    break;
+                                case 3:
+                                    when(req.getInputStream()).thenReturn(
+                                        new MockServletInputStream(createRequest(returnNull, null)));
+                                    endpoint.invokeService(req, resp);
+                                    assertNull(getResponse(returnNull, out));
+                                    break;
+                                default:
+                                    when(req.getInputStream()).thenReturn(
+                                        new MockServletInputStream(createRequest("qqq")));
+                                    endpoint.invokeService(req, resp);
+                                    verify(resp).sendError(SC_NOT_FOUND);
+                                    out.assertContent("");
+                                    break;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Test that listing method signatures is correct
      */
@@ -246,7 +330,11 @@ public class HttpServerEndpointTest extends TestCase {
     }
 
     private Object getResponse(final Message m) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(m_outputStream.getRawContent());
+        return getResponse(m, m_outputStream);
+    }
+
+    private Object getResponse(final Message m, final MockServletOutputStream outputStream) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(outputStream.getRawContent());
         Object o = HttpAvroClientEndpoint.response(m, in);
         return o;
     }
@@ -20,6 +20,7 @@ import java.util.List;
 
 import org.amdatu.remote.admin.http.HttpAdminConfiguration;
 import org.amdatu.remote.admin.http.HttpClientEndpoint;
+import org.amdatu.remote.admin.http.JsonCodec;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -43,6 +44,76 @@ public class HttpJsonPerformanceTest extends HttpPerformanceTestBase {
                 return 1000;
             }
 
+            @Override
+            public int getMaxConnectionsPerEndpoint() {
+                return 5;
+            }
+
+            @Override
+            public int getConnectionIdleTimeout() {
+                return 60000;
+            }
+
+            @Override
+            public int getBatchWindow() {
+                return 0;
+            }
+
+            @Override
+            public int getMaxConcurrentInvocations() {
+                return 0;
+            }
+
+            @Override
+            public int getInvocationQueueDepth() {
+                return 16;
+            }
+
+            @Override
+            public int getRetryAfter() {
+                return 1;
+            }
+
+            @Override
+            public String getCodec() {
+                return JsonCodec.CONTENT_TYPE;
+            }
+
+            @Override
+            public int getCompressionThreshold() {
+                return 1024;
+            }
+
+            @Override
+            public int getResultCacheSize() {
+                return 1000;
+            }
+
+            @Override
+            public int getCoalescing() {
+                return 0;
+            }
+
+            @Override
+            public int getCircuitFailureThreshold() {
+                return 50;
+            }
+
+            @Override
+            public int getCircuitWindow() {
+                return 10000;
+            }
+
+            @Override
+            public int getCircuitOpenTime() {
+                return 5000;
+            }
+
+            @Override
+            public int getTcpPort() {
+                return -1;
+            }
+
             @Override
             public URL getBaseUrl() {
                 return m_endpointURL;
@@ -0,0 +1,70 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.admin.http.performance;
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.amdatu.remote.MethodInvoker;
+
+public class MethodInvokerPerformanceTest extends TestCase {
+
+    /**
+     * Amount of loops per test
+     */
+    public static final int LOOP = 1000000;
+
+    /**
+     * Compares the time taken by reflective invocations with that of invocations through a method handle.
+     */
+    public void testPerformance() throws Exception {
+        Method method = Calculator.class.getMethod("add", int.class, int.class);
+        method.setAccessible(true);
+        MethodInvoker invoker = new MethodInvoker(method);
+        Calculator calculator = new CalculatorImpl();
+        Object[] args = new Object[] { 2, 3 };
+
+        for (int i = 0; i < LOOP; i++) {
+            method.invoke(calculator, args);
+            invoker.invoke(calculator, args);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOP; i++) {
+            method.invoke(calculator, args);
+        }
+        long reflection = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOP; i++) {
+            invoker.invoke(calculator, args);
+        }
+        long handle = System.nanoTime() - start;
+
+        System.out.println("Method-Reflection: " + (reflection / LOOP) + " ns/call");
+        System.out.println("Method-Handle: " + (handle / LOOP) + " ns/call");
+    }
+
+    public interface Calculator {
+        int add(int a, int b);
+    }
+
+    static class CalculatorImpl implements Calculator {
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link EndpointMetricsRegistry}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class EndpointMetricsRegistryTest extends TestCase {
+
+    private MBeanServer m_mbeanServer;
+    private EndpointMetricsRegistry m_registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        m_mbeanServer = MBeanServerFactory.newMBeanServer();
+        m_registry = new EndpointMetricsRegistry("test", m_mbeanServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        m_registry.close();
+    }
+
+    public void testAcquireAndReleaseOk() throws Exception {
+        EndpointMetrics client = m_registry.acquire("e1", EndpointMetrics.CLIENT);
+        assertSame(client, m_registry.acquire("e1", EndpointMetrics.CLIENT));
+        EndpointMetrics server = m_registry.acquire("e1", EndpointMetrics.SERVER);
+        assertNotSame(client, server);
+        assertEquals(2, m_registry.getEndpointMetrics().size());
+
+        // Still acquired once...
+        m_registry.release(client);
+        assertEquals(2, m_registry.getEndpointMetrics().size());
+
+        m_registry.release(client);
+        m_registry.release(server);
+        assertTrue(m_registry.getEndpointMetrics().isEmpty());
+        assertNotSame(client, m_registry.acquire("e1", EndpointMetrics.CLIENT));
+    }
+
+    public void testRecordAndSnapshotOk() throws Exception {
+        EndpointMetrics metrics = m_registry.acquire("e1", EndpointMetrics.SERVER);
+        MethodMetrics method = metrics.getMethodMetrics("m()");
+        assertSame(method, metrics.getMethodMetrics("m()"));
+
+        method.recordInvocation(1000, false);
+        method.recordInvocation(3000, true);
+        method.recordSerialization(100);
+        method.recordBytes(10, 20);
+        metrics.recordCacheHit();
+        metrics.recordCacheMiss();
+        metrics.recordCacheMiss();
+
+        assertEquals(2, metrics.getInvocations());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(10, metrics.getBytesIn());
+        assertEquals(20, metrics.getBytesOut());
+        assertEquals(2000, method.getMeanLatency());
+        assertEquals(3000, method.getMaxLatency());
+
+        Map<String, Object> snapshot = m_registry.getSnapshot();
+        assertEquals("test", snapshot.get("admin"));
+        List<?> endpoints = (List<?>) snapshot.get("endpoints");
+        assertEquals(1, endpoints.size());
+        Map<?, ?> endpoint = (Map<?, ?>) endpoints.get(0);
+        assertEquals("e1", endpoint.get("endpointId"));
+        assertEquals(EndpointMetrics.SERVER, endpoint.get("side"));
+        Map<?, ?> methodSnapshot = (Map<?, ?>) ((List<?>) endpoint.get("methods")).get(0);
+        assertEquals("m()", methodSnapshot.get("method"));
+        assertEquals(2L, methodSnapshot.get("invocations"));
+        Map<?, ?> cacheSnapshot = (Map<?, ?>) endpoint.get("cache");
+        assertEquals(1L, cacheSnapshot.get("hits"));
+        assertEquals(2L, cacheSnapshot.get("misses"));
+        assertEquals(0L, cacheSnapshot.get("evictions"));
+    }
+
+    public void testRegisterMXBeanOk() throws Exception {
+        EndpointMetrics metrics = m_registry.acquire("e1", EndpointMetrics.CLIENT);
+        metrics.getMethodMetrics("m()").recordInvocation(1000, false);
+        metrics.recordCacheEviction();
+
+        ObjectName name = new ObjectName(EndpointMetricsRegistry.DOMAIN + ":type=EndpointMetrics,admin=\"test\","
+            + "side=client,id=\"e1\"");
+        assertTrue(m_mbeanServer.isRegistered(name));
+        assertEquals(1L, m_mbeanServer.getAttribute(name, "Invocations"));
+        assertEquals(1L, m_mbeanServer.getAttribute(name, "CacheEvictions"));
+        CompositeData[] methods = (CompositeData[]) m_mbeanServer.getAttribute(name, "Methods");
+        assertEquals(1, methods.length);
+        assertEquals("m()", methods[0].get("method"));
+
+        m_registry.release(metrics);
+        assertFalse(m_mbeanServer.isRegistered(name));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.amdatu.remote.topology.promiscuous;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.amdatu.remote.topology.promiscuous.LoadBalancer.Member;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for {@link LoadBalancer}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public class LoadBalancerTest extends TestCase {
+
+    public void testStrategyFromNameOk() throws Exception {
+        assertEquals(LoadBalancingStrategy.ROUND_ROBIN, LoadBalancingStrategy.fromName("roundrobin"));
+        assertEquals(LoadBalancingStrategy.LEAST_OUTSTANDING, LoadBalancingStrategy.fromName("LeastOutstanding"));
+        assertEquals(LoadBalancingStrategy.LATENCY_WEIGHTED, LoadBalancingStrategy.fromName("ewma"));
+        assertNull(LoadBalancingStrategy.fromName("random"));
+        assertNull(LoadBalancingStrategy.fromName(null));
+    }
+
+    public void testMembershipOk() throws Exception {
+        LoadBalancer<String> loadBalancer = new LoadBalancer<String>(LoadBalancingStrategy.ROUND_ROBIN);
+        assertNull(loadBalancer.select());
+
+        assertTrue(loadBalancer.addMember("a"));
+        assertFalse(loadBalancer.addMember("a"));
+        assertTrue(loadBalancer.addMember("b"));
+        assertEquals(2, loadBalancer.getMembers().size());
+
+        assertTrue(loadBalancer.removeMember("a"));
+        assertFalse(loadBalancer.removeMember("a"));
+        assertEquals("b", loadBalancer.select().getKey());
+
+        assertTrue(loadBalancer.removeMember("b"));
+        assertNull(loadBalancer.select());
+    }
+
+    public void testRoundRobinOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.ROUND_ROBIN, "a", "b", "c");
+
+        Set<String> selected = new HashSet<String>();
+        String previous = null;
+        for (int i = 0; i < 3; i++) {
+            String key = loadBalancer.select().getKey();
+            assertFalse(key.equals(previous));
+            selected.add(key);
+            previous = key;
+        }
+        assertEquals(3, selected.size());
+    }
+
+    public void testLeastOutstandingOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.LEAST_OUTSTANDING, "a", "b", "c");
+        loadBalancer.getMember("a").started();
+        loadBalancer.getMember("a").started();
+        long start = loadBalancer.getMember("c").started();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("b", loadBalancer.select().getKey());
+        }
+
+        loadBalancer.getMember("c").completed(start, false);
+        loadBalancer.getMember("b").started();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("c", loadBalancer.select().getKey());
+        }
+    }
+
+    public void testLatencyWeightedOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.LATENCY_WEIGHTED, "a", "b");
+        Member<String> a = loadBalancer.getMember("a");
+        Member<String> b = loadBalancer.getMember("b");
+
+        a.completed(a.started(), false);
+        b.completed(b.started() - TimeUnit.MILLISECONDS.toNanos(100), false);
+        assertTrue(a.getLatency() < b.getLatency());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("a", loadBalancer.select().getKey());
+        }
+    }
+
+    public void testLatencyWeightedAvoidsFailuresOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.LATENCY_WEIGHTED, "a", "b");
+        Member<String> a = loadBalancer.getMember("a");
+        Member<String> b = loadBalancer.getMember("b");
+
+        a.completed(a.started(), true);
+        b.completed(b.started() - TimeUnit.MILLISECONDS.toNanos(100), false);
+        assertEquals(0, a.getOutstanding());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("b", loadBalancer.select().getKey());
+        }
+    }
+
+    public void testSelectExcludingOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.ROUND_ROBIN, "a", "b");
+        Member<String> a = loadBalancer.getMember("a");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("b", loadBalancer.select(a).getKey());
+        }
+
+        loadBalancer.removeMember("b");
+        assertNull(loadBalancer.select(a));
+    }
+
+    public void testLatencyPercentileOk() throws Exception {
+        LoadBalancer<String> loadBalancer = createLoadBalancer(LoadBalancingStrategy.LATENCY_WEIGHTED, "a");
+        Member<String> a = loadBalancer.getMember("a");
+        assertEquals(-1, loadBalancer.getLatencyPercentile("m", 95));
+
+        for (int i = 0; i < 19; i++) {
+            loadBalancer.completed(a, a.started(), false, "m");
+        }
+        assertEquals(-1, loadBalancer.getLatencyPercentile("m", 95));
+
+        // Failures do not count as latencies...
+        loadBalancer.completed(a, a.started() - TimeUnit.SECONDS.toNanos(10), true, "m");
+        assertEquals(-1, loadBalancer.getLatencyPercentile("m", 95));
+
+        // Latencies of other methods do not count either...
+        loadBalancer.completed(a, a.started() - TimeUnit.SECONDS.toNanos(10), false, "n");
+        assertEquals(-1, loadBalancer.getLatencyPercentile("m", 95));
+        assertEquals(-1, loadBalancer.getLatencyPercentile("n", 95));
+
+        loadBalancer.completed(a, a.started() - TimeUnit.SECONDS.toNanos(10), false, "m");
+        assertTrue(loadBalancer.getLatencyPercentile("m", 95) < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(loadBalancer.getLatencyPercentile("m", 100) >= TimeUnit.SECONDS.toNanos(10));
+    }
+
+    private static LoadBalancer<String> createLoadBalancer(LoadBalancingStrategy strategy, String... keys) {
+        LoadBalancer<String> loadBalancer = new LoadBalancer<String>(strategy);
+        for (String key : keys) {
+            loadBalancer.addMember(key);
+        }
+        return loadBalancer;
+    }
+}